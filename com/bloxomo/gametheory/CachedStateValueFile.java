@@ -1,19 +1,123 @@
 package com.bloxomo.gametheory;
 
 import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
 import java.util.*;
 
-public abstract class CachedStateValueFile extends StateValueFile
+/**
+ * A map of states to values kept in a file with a cache of lines
+ * of consecutive values held in memory.  Line l holds the values of
+ * states <CODE>l * L</CODE> through <CODE>(l + 1) * L - 1</CODE>,
+ * where L is the line length.  Loaded lines are found through an
+ * open-addressing table keyed by line number, so finding a line does
+ * not allocate.  Lines are read and written with a single channel
+ * operation each.  Subclasses choose which line to evict.
+ *
+ * In write-behind mode dirty lines that are evicted are handed to a
+ * background thread that writes them out, so the thread that caused the
+ * eviction does not wait for the disk.  Pending lines are written in
+ * order of line number with runs of adjacent lines combined into one
+ * write.  The number of pending lines is bounded; a thread that needs
+ * to evict a dirty line when the bound is reached waits for the writer
+ * to catch up, but clean lines are evicted without waiting.  Values
+ * in pending lines are read from memory, not from the file.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public abstract class CachedStateValueFile extends StateValueFile implements IndexedStateValueMap
 {
+    /**
+     * The number of values in each line if no length is given.
+     */
+
+    public static final int DEFAULT_LINE_LENGTH = 8192;
+
     protected double[][] cache;
     protected boolean[] dirty;
-    protected int[] lineID;
 
     /**
-     * Maps line indices to indices in the cache array.
+     * The number of the line of the file held in each cache line, or -1
+     * if the cache line is empty.
+     */
+
+    protected long[] lineID;
+
+    /**
+     * The number of cache lines that have ever been filled.  Lines
+     * are filled in order, so lines at and above this index are empty.
+     */
+
+    private int filled;
+
+    /**
+     * log2 of the line length.
+     */
+
+    private final int lineShift;
+
+    /**
+     * Open-addressing table from line numbers to cache lines.  Empty
+     * slots have key -1.  The capacity is a power of two at least twice
+     * the number of cache lines.
+     */
+
+    private long[] tableKeys;
+
+    private int[] tableLines;
+
+    private int tableMask;
+
+    /**
+     * A buffer used to transfer one line to or from the file.
      */
 
-    protected Map lineMap;
+    private ByteBuffer transfer;
+
+    /**
+     * Counters for cache activity.
+     */
+
+    private long hits;
+    private long misses;
+    private long prefetches;
+    private long evictions;
+    private long writebacks;
+    private long writes;
+    private long stalls;
+
+    /**
+     * The most lines the write-behind thread writes at once.
+     */
+
+    public static final int MAX_WRITE_RUN = 64;
+
+    /**
+     * Evicted dirty lines waiting to be written, keyed by line number,
+     * or null if write-behind is off.  Lines stay here until they have
+     * been written so they can be read back in the meantime.
+     */
+
+    private TreeMap< Long, double[] > pending;
+
+    /**
+     * Arrays available to replace the arrays of evicted lines.  When
+     * write-behind is on, there is one array for each pending line that
+     * may be waiting.
+     */
+
+    private ArrayDeque< double[] > spares;
+
+    /**
+     * The range of line numbers the write-behind thread is writing.
+     */
+
+    private long writingFirst;
+
+    private int writingCount;
+
+    private Flusher flusher;
 
     public CachedStateValueFile(String fname, long numStates, int numLines) throws IOException
     {
@@ -22,30 +126,70 @@ public abstract class CachedStateValueFile extends StateValueFile
 
     public CachedStateValueFile(String fname, long numStates, int numLines, boolean init)
 	throws IOException
+    {
+	this(fname, numStates, numLines, DEFAULT_LINE_LENGTH, init);
+    }
+
+    /**
+     * Constructs a new map that holds the given number of states in the
+     * given file with a cache of the given size.
+     *
+     * @param fname the name of the file used to store data for this new map
+     * @param numStates the number of states in this new map
+     * @param numLines the number of lines in the cache
+     * @param lineLength the number of values in each line; must be
+     * a power of two
+     * @param init true to indicate the new map should be zeroed
+     */
+
+    public CachedStateValueFile(String fname, long numStates, int numLines, int lineLength, boolean init)
+	throws IOException
     {
 	super(fname, numStates, init);
-	
-	cache = new double[numLines][getLineLength()];
+
+	if (Integer.bitCount(lineLength) != 1)
+	    throw new IllegalArgumentException("line length must be a power of two: " + lineLength);
+
+	lineShift = Integer.numberOfTrailingZeros(lineLength);
+
+	cache = new double[numLines][lineLength];
 	dirty = new boolean[numLines];
-	lineID = new int[numLines];
-	lineMap = new HashMap();
+	lineID = new long[numLines];
 
-	for (int i = 0; i < lineID.length; i++)
-	    lineID[i] = -1;
+	int capacity = Integer.highestOneBit(Math.max(numLines, 1)) << 2;
+	tableKeys = new long[capacity];
+	tableLines = new int[capacity];
+	tableMask = capacity - 1;
+
+	transfer = ByteBuffer.allocate(lineLength * BYTES_PER_DOUBLE);
+
+	invalidate();
     }
-    
+
     /**
      * Returns the value of the given state.
      *
      * @param s a state in this map
      * @return the value of the given state.
      */
-    
-    public synchronized double getValue(GameState s)
+
+    public double getValue(GameState s)
     {
-	return cache[find(s)][getIndex(s)];
+	return getValue(s.getIndex());
     }
-    
+
+    /**
+     * Returns the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @return the value of that state
+     */
+
+    public synchronized double getValue(long index)
+    {
+	return cache[find(getLine(index), true)][getOffset(index)];
+    }
+
     /**
      * Sets the value of the given state.  If the state already had a value
      * it is replaced with the new one.
@@ -53,101 +197,444 @@ public abstract class CachedStateValueFile extends StateValueFile
      * @param s a game state
      * @param val the value of that state
      */
-    
-    public synchronized void setValue(GameState s, double val)
+
+    public void setValue(GameState s, double val)
+    {
+	setValue(s.getIndex(), val);
+    }
+
+    /**
+     * Sets the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @param val the value of that state
+     */
+
+    public synchronized void setValue(long index, double val)
     {
-	int line = find(s);
-	
-	cache[line][getIndex(s)] = val;
+	int line = find(getLine(index), true);
+
+	cache[line][getOffset(index)] = val;
 	dirty[line] = true;
     }
-    
+
+    public long size()
+    {
+	return numStates;
+    }
+
+    public void getValues(GameState[] states, double[] out)
+    {
+	getValues(IndexOrder.indices(states), out);
+    }
+
+    public void setValues(GameState[] states, double[] vals)
+    {
+	setValues(IndexOrder.indices(states), vals);
+    }
+
     /**
-     * Returns the index of the cache line where the value for the
-     * given state can be found.  If the cache line is not present,
-     * it will be loaded.
+     * Looks up the values stored at the given indices in order of index,
+     * finding each line once.
      *
-     * @param s a state
-     * @return the cache line where that state's value is stored
+     * @param indices some indices in this map
+     * @param out an array to hold the value stored at each of those
+     * indices
      */
-    
-    protected int find(GameState s)
+
+    public synchronized void getValues(long[] indices, double[] out)
     {
-	Integer l = (Integer)(lineMap.get(new Integer(getLine(s))));
+	long current = -1;
+	double[] values = null;
 
-	if (l == null)
+	for (int i : IndexOrder.sort(indices))
 	    {
-		int line = replaceLine(s);
+		long fileLine = getLine(indices[i]);
+		if (fileLine != current)
+		    {
+			values = cache[find(fileLine, true)];
+			current = fileLine;
+		    }
+		out[i] = values[getOffset(indices[i])];
+	    }
+    }
 
-		// read cache line
-		
-		try
+    /**
+     * Sets the values stored at the given indices in order of index,
+     * finding each line once.
+     *
+     * @param indices some indices in this map
+     * @param vals the value to store at each of those indices
+     */
+
+    public synchronized void setValues(long[] indices, double[] vals)
+    {
+	long current = -1;
+	int line = -1;
+
+	for (int i : IndexOrder.sort(indices))
+	    {
+		long fileLine = getLine(indices[i]);
+		if (fileLine != current)
 		    {
-			file.seek((long)cache[line].length * getLine(s) * BYTES_PER_DOUBLE);
-			for (int i = 0; i < cache[line].length; i++)
-			    cache[line][i] = file.readDouble();
+			line = find(fileLine, true);
+			dirty[line] = true;
+			current = fileLine;
 		    }
-		catch (IOException e)
+		cache[line][getOffset(indices[i])] = vals[i];
+	    }
+    }
+
+    /**
+     * Loads the line containing the given state if it is not already
+     * loaded.  Prefetches are counted separately from misses.
+     *
+     * @param s a state
+     */
+
+    public void prefetch(GameState s)
+    {
+	prefetch(s.getIndex(), s.getIndex() + 1);
+    }
+
+    /**
+     * Loads the lines containing the states with indices in the given
+     * range that are not already loaded.  No more lines than there are
+     * in the cache are loaded.
+     *
+     * @param from the lowest index in the range
+     * @param to one more than the highest index in the range
+     */
+
+    public synchronized void prefetch(long from, long to)
+    {
+	long first = getLine(from);
+	long last = Math.min(getLine(to - 1), first + cache.length - 1);
+
+	for (long l = first; l <= last; l++)
+	    find(l, false);
+    }
+
+    /**
+     * Returns the number of the line holding the given state's value.
+     *
+     * @param index the index of a state
+     * @return the line that state's value is in
+     */
+
+    protected long getLine(long index)
+    {
+	return index >>> lineShift;
+    }
+
+    /**
+     * Returns the position within its line of the given state's value.
+     *
+     * @param index the index of a state
+     * @return the position of that state's value in its line
+     */
+
+    protected int getOffset(long index)
+    {
+	return (int)(index & (cache[0].length - 1));
+    }
+
+    /**
+     * Returns the length of a line in this cache.
+     *
+     * @return the length of a line in this cache.
+     */
+
+    protected int getLineLength()
+    {
+	return cache[0].length;
+    }
+
+    /**
+     * Returns the index of the cache line holding the given line of
+     * the file.  If the line is not present, it will be loaded.
+     *
+     * @param fileLine the number of a line in the file
+     * @param demand true if a value in the line is needed now, false
+     * if the line is being prefetched
+     * @return the cache line where that line is held
+     */
+
+    protected int find(long fileLine, boolean demand)
+    {
+	int slot;
+
+	while (true)
+	    {
+		slot = slotFor(fileLine);
+
+		if (tableKeys[slot] == fileLine)
 		    {
-			System.err.println(getClass().getName() + ": error reading into cache");
-			e.printStackTrace(System.err);
-			System.exit(1);
+			if (demand)
+			    {
+				hits++;
+				lineUsed(tableLines[slot]);
+			    }
+			return tableLines[slot];
 		    }
 
-		lineMap.remove(new Integer(lineID[line]));
-		lineID[line] = getLine(s);
-		lineMap.put(new Integer(getLine(s)), new Integer(line));
+		// a dirty victim needs a spare array to hand off, so wait for
+		// one before changing anything, then look again since another
+		// thread may have loaded the line; a clean victim is reused
+		// in place
 
-		return line;
+		if (pending == null || filled < lineID.length
+		    || !dirty[pickLineToReplace()] || !spares.isEmpty())
+		    break;
+
+		stalls++;
+		waitForWriter();
 	    }
+
+	if (demand)
+	    misses++;
 	else
-	    return l.intValue();
+	    prefetches++;
+
+	int line = replaceLine();
+
+	double[] waiting = (pending != null ? pending.get(fileLine) : null);
+	if (waiting != null)
+	    System.arraycopy(waiting, 0, cache[line], 0, waiting.length);
+	else
+	    readLine(line, fileLine);
+
+	if (lineID[line] != -1)
+	    removeKey(lineID[line]);
+	lineID[line] = fileLine;
+
+	// the removal may have moved the empty slot for the new key
+
+	slot = slotFor(fileLine);
+	tableKeys[slot] = fileLine;
+	tableLines[slot] = line;
+
+	lineLoaded(line);
+
+	return line;
     }
-    
+
     /**
-     * Replaces a currently loaded cache line to make room for
-     * the line that would contain the given state's value.  That
-     * new line is not actually loaded.
+     * Finds a cache line to hold a new line of the file, writing back
+     * the line it held if necessary.  The new line is not loaded.
      *
-     * @param s the state to load a line for
-     * @return the line that was replaced
+     * @return the cache line to load into
      */
-    
-    protected int replaceLine(GameState s)
+
+    protected int replaceLine()
     {
-	int line = 0;
-	while (line < lineID.length && lineID[line] != -1)
-	    line++;
-	
-	// check if we found an empty line
-	
-	if (line < lineID.length)
+	if (filled < lineID.length)
+	    return filled++;
+
+	int line = pickLineToReplace();
+
+	evictions++;
+	if (dirty[line])
 	    {
-		System.err.println(getClass().getName() + ": filling empty line index " + line + " with " + getLine(s));
-		return line;
+		if (pending != null)
+		    handOff(line);
+		else
+		    flush(line);
 	    }
-	
-	// didn't find an empty line -- pick one to replace
-	
-	line = pickLineToReplace(s);
-	
-	// write replaced line if it is dirty
-	
-	if (dirty[line])
-	    flush(line);
-	
+
 	return line;
     }
 
+    /**
+     * Gives the given dirty line to the write-behind thread and gives
+     * the cache line a spare array.  The caller must make sure there
+     * is a spare.
+     *
+     * @param line a dirty cache line
+     */
+
+    private void handOff(int line)
+    {
+	double[] old = pending.put(lineID[line], cache[line]);
+
+	// an older version not being written can be reused right away;
+	// one being written is recycled by the writer when it is done
+
+	if (old != null && !isBeingWritten(lineID[line]))
+	    spares.add(old);
+
+	cache[line] = spares.remove();
+	dirty[line] = false;
+
+	notifyAll();
+    }
+
+    private boolean isBeingWritten(long fileLine)
+    {
+	return (fileLine >= writingFirst && fileLine < writingFirst + writingCount);
+    }
+
+    /**
+     * Waits for the write-behind thread to finish a write.  Must be
+     * called while holding this map's lock.
+     */
+
+    private void waitForWriter()
+    {
+	try
+	    {
+		wait();
+	    }
+	catch (InterruptedException e)
+	    {
+		Thread.currentThread().interrupt();
+		throw new IllegalStateException("interrupted waiting for write-behind", e);
+	    }
+    }
+
+    /**
+     * Turns on write-behind mode.  Dirty lines that are evicted from now
+     * on are written by a background thread.
+     *
+     * @param maxPending the maximum number of lines waiting to be written
+     */
+
+    public synchronized void setWriteBehind(int maxPending)
+    {
+	if (pending != null)
+	    throw new IllegalStateException("write-behind is already on");
+	if (maxPending < 1)
+	    throw new IllegalArgumentException("must allow at least one pending line: " + maxPending);
+
+	pending = new TreeMap< Long, double[] >();
+	spares = new ArrayDeque< double[] >();
+	for (int i = 0; i < maxPending; i++)
+	    spares.add(new double[getLineLength()]);
+
+	flusher = new Flusher();
+	flusher.start();
+    }
+
+    /**
+     * Waits until all lines handed to the write-behind thread have been
+     * written.  Must be called while holding this map's lock.
+     */
+
+    private void drain()
+    {
+	if (pending != null)
+	    while (!pending.isEmpty())
+		waitForWriter();
+    }
+
+    /**
+     * Returns the slot in the line table that holds the given line
+     * number, or the empty slot where it would be put.
+     *
+     * @param fileLine a line number
+     * @return a slot in the table
+     */
+
+    private int slotFor(long fileLine)
+    {
+	int slot = hash(fileLine);
+
+	while (tableKeys[slot] != -1 && tableKeys[slot] != fileLine)
+	    slot = (slot + 1) & tableMask;
+
+	return slot;
+    }
+
+    private int hash(long fileLine)
+    {
+	long h = fileLine * 0x9E3779B97F4A7C15L;
+
+	return (int)(h >>> 32) & tableMask;
+    }
+
+    /**
+     * Removes the given line number from the line table, shifting later
+     * entries of the same probe sequence back so no tombstones are needed.
+     *
+     * @param fileLine a line number in the table
+     */
+
+    private void removeKey(long fileLine)
+    {
+	int hole = slotFor(fileLine);
+	int next = (hole + 1) & tableMask;
+
+	while (tableKeys[next] != -1)
+	    {
+		int home = hash(tableKeys[next]);
+
+		// move the entry back if its home is not cyclically in (hole, next]
+
+		if (((next - home) & tableMask) >= ((next - hole) & tableMask))
+		    {
+			tableKeys[hole] = tableKeys[next];
+			tableLines[hole] = tableLines[next];
+			hole = next;
+		    }
+		next = (next + 1) & tableMask;
+	    }
+
+	tableKeys[hole] = -1;
+    }
+
+    /**
+     * Reads the given line of the file into the given cache line.  Parts
+     * of the line beyond the end of the map are set to zero.
+     *
+     * @param line a cache line
+     * @param fileLine the number of a line in the file
+     */
+
+    private void readLine(int line, long fileLine)
+    {
+	try
+	    {
+		FileChannel channel = file.getChannel();
+		long position = (fileLine << lineShift) * BYTES_PER_DOUBLE;
+
+		transfer.clear();
+		while (transfer.hasRemaining())
+		    {
+			if (channel.read(transfer, position + transfer.position()) < 0)
+			    break;
+		    }
+
+		int count = transfer.position() / BYTES_PER_DOUBLE;
+		transfer.flip();
+		transfer.asDoubleBuffer().get(cache[line], 0, count);
+		Arrays.fill(cache[line], count, cache[line].length, 0.0);
+	    }
+	catch (IOException e)
+	    {
+		System.err.println(getClass().getName() + ": error reading into cache");
+		e.printStackTrace(System.err);
+		System.exit(1);
+	    }
+    }
+
     protected void flush(int line)
     {
 	try
 	    {
-		file.seek((long)cache[line].length * lineID[line] * BYTES_PER_DOUBLE);
-		for (int i = 0; i < cache[line].length; i++)
-		    file.writeDouble(cache[line][i]);
-		
+		FileChannel channel = file.getChannel();
+		long first = lineID[line] << lineShift;
+		int count = (int)Math.min(cache[line].length, numStates - first);
+
+		transfer.clear();
+		transfer.asDoubleBuffer().put(cache[line], 0, count);
+		transfer.limit(count * BYTES_PER_DOUBLE);
+
+		long position = first * BYTES_PER_DOUBLE;
+		while (transfer.hasRemaining())
+		    channel.write(transfer, position + transfer.position());
+
 		dirty[line] = false;
+		writebacks++;
 	    }
 	catch (IOException e)
 	    {
@@ -157,51 +644,287 @@ public abstract class CachedStateValueFile extends StateValueFile
 	    }
     }
 
-    public void flush()
+    /**
+     * Writes all dirty lines to the file.  In write-behind mode this first
+     * waits for all pending writes, so that when it returns the file
+     * holds every value set before it was called.
+     */
+
+    public synchronized void flush()
     {
-	for (int l = 0; l < dirty.length; l++)
-	    if (lineID[l] != -1 && dirty[l])
+	drain();
+
+	for (int l = 0; l < filled; l++)
+	    if (dirty[l])
 		flush(l);
     }
-    
+
+    /**
+     * Flushes this map, stops the write-behind thread if there is one,
+     * and closes the file.  The map must not be used afterwards.
+     */
+
+    public void close() throws IOException
+    {
+	Flusher f;
+
+	synchronized (this)
+	    {
+		flush();
+		f = flusher;
+		flusher = null;
+		notifyAll();
+	    }
+
+	if (f != null)
+	    {
+		try
+		    {
+			f.join();
+		    }
+		catch (InterruptedException e)
+		    {
+			Thread.currentThread().interrupt();
+		    }
+	    }
+
+	file.close();
+    }
+
     /**
-     * Chooses the line to replace in order
-     * to load the line containing the given state's value.
-     * The line to replace is not removed by this method and
-     * the line to load is not loaded.
+     * Empties the cache without writing anything back.
+     */
+
+    protected void invalidate()
+    {
+	for (int i = 0; i < lineID.length; i++)
+	    {
+		lineID[i] = -1;
+		dirty[i] = false;
+	    }
+	Arrays.fill(tableKeys, -1);
+	filled = 0;
+    }
+
+    /**
+     * Writes this map to the given stream.  Dirty lines are written back
+     * to the file first.
      *
-     * @param s the state to load the line for
-     * @return the line selected for replacement
+     * @param os the stream to write to
      */
-    
-    protected abstract int pickLineToReplace(GameState s);
-    
+
+    public synchronized void write(DataOutputStream os) throws IOException
+    {
+	flush();
+	super.write(os);
+    }
+
     /**
-     * Returns the index into a cache line where the given state's
-     * value would be stored.
+     * Reads this map from the given stream.  Any data in this map,
+     * including any cached, is lost.
      *
-     * @param s a state
-     * @return the index in a cache line  where that state's value would
-     * be stored
+     * @param is the stream to read from
      */
-    
-    protected abstract int getIndex(GameState s);
+
+    public synchronized void read(DataInputStream is) throws IOException
+    {
+	drain();
+	super.read(is);
+	invalidate();
+    }
+
+    public synchronized long getHits()
+    {
+	return hits;
+    }
+
+    public synchronized long getMisses()
+    {
+	return misses;
+    }
+
+    public synchronized long getPrefetches()
+    {
+	return prefetches;
+    }
+
+    public synchronized long getEvictions()
+    {
+	return evictions;
+    }
+
+    public synchronized long getWritebacks()
+    {
+	return writebacks;
+    }
+
+    public synchronized void resetCounters()
+    {
+	hits = 0;
+	misses = 0;
+	prefetches = 0;
+	evictions = 0;
+	writebacks = 0;
+	writes = 0;
+	stalls = 0;
+    }
 
     /**
-     * Returns the index of the cache line where the value of the given
-     * state would be found.
+     * Returns the number of write operations the write-behind thread has
+     * made.  Each writes one or more adjacent lines.
      *
-     * @param s a state
-     * @return the index of the cache line where that state's value would be found
+     * @return the number of write-behind writes
+     */
+
+    public synchronized long getWrites()
+    {
+	return writes;
+    }
+
+    /**
+     * Returns the number of times a thread had to wait for the
+     * write-behind thread because too many lines were pending.
+     *
+     * @return the number of stalls
      */
 
-    protected abstract int getLine(GameState s);
+    public synchronized long getStalls()
+    {
+	return stalls;
+    }
+
+    public synchronized String toString()
+    {
+	return (getClass().getSimpleName() + "[hits=" + hits + ", misses=" + misses
+		+ ", prefetches=" + prefetches + ", evictions=" + evictions
+		+ ", writebacks=" + writebacks + ", writes=" + writes
+		+ ", stalls=" + stalls + "]");
+    }
 
     /**
-     * Returns the length of a line in this cache.
+     * Writes pending lines in the background.  Each pass takes the
+     * lowest-numbered pending line and the run of adjacent pending lines
+     * after it and writes them with one operation, without holding the
+     * map's lock.
+     */
+
+    private class Flusher extends Thread
+    {
+	private ByteBuffer buffer;
+
+	private double[][] run;
+
+	private Flusher()
+	{
+	    super("write-behind");
+	    setDaemon(true);
+
+	    buffer = ByteBuffer.allocateDirect(MAX_WRITE_RUN * getLineLength() * BYTES_PER_DOUBLE);
+	    run = new double[MAX_WRITE_RUN][];
+	}
+
+	public void run()
+	{
+	    CachedStateValueFile map = CachedStateValueFile.this;
+
+	    while (true)
+		{
+		    long first;
+		    int count;
+
+		    synchronized (map)
+			{
+			    while (pending.isEmpty() && flusher == this)
+				waitForWriter();
+
+			    if (pending.isEmpty())
+				return;
+
+			    first = pending.firstKey();
+			    count = 0;
+			    double[] lineData;
+			    while (count < MAX_WRITE_RUN
+				   && (lineData = pending.get(first + count)) != null)
+				{
+				    run[count] = lineData;
+				    count++;
+				}
+
+			    writingFirst = first;
+			    writingCount = count;
+			}
+
+		    write(first, count);
+
+		    synchronized (map)
+			{
+			    for (int i = 0; i < count; i++)
+				{
+				    if (pending.get(first + i) == run[i])
+					pending.remove(first + i);
+				    spares.add(run[i]);
+				    run[i] = null;
+				}
+
+			    writingCount = 0;
+			    writes++;
+			    writebacks += count;
+			    map.notifyAll();
+			}
+		}
+	}
+
+	private void write(long first, int count)
+	{
+	    long firstState = first << lineShift;
+	    long limit = Math.min((long)count << lineShift, numStates - firstState);
+
+	    buffer.clear();
+	    DoubleBuffer values = buffer.asDoubleBuffer();
+	    for (int i = 0; i < count && values.position() < limit; i++)
+		values.put(run[i], 0, (int)Math.min(getLineLength(), limit - values.position()));
+	    buffer.limit(values.position() * BYTES_PER_DOUBLE);
+
+	    try
+		{
+		    FileChannel channel = file.getChannel();
+		    long position = firstState * BYTES_PER_DOUBLE;
+
+		    while (buffer.hasRemaining())
+			channel.write(buffer, position + buffer.position());
+		}
+	    catch (IOException e)
+		{
+		    System.err.println(getClass().getName() + ": error writing back cache");
+		    e.printStackTrace(System.err);
+		    System.exit(1);
+		}
+	}
+    }
+
+    /**
+     * Records that the given cache line was used.  Called on every hit.
      *
-     * @return the length of a line in this cache.
+     * @param line a cache line
+     */
+
+    protected abstract void lineUsed(int line);
+
+    /**
+     * Records that the given cache line was just loaded.
+     *
+     * @param line a cache line
+     */
+
+    protected abstract void lineLoaded(int line);
+
+    /**
+     * Chooses the line to replace in order to load a new line.
+     * Only called when every cache line is full.  The line to replace is
+     * not removed by this method and the line to load is not loaded.
+     *
+     * @return the line selected for replacement
      */
 
-    protected abstract int getLineLength();
+    protected abstract int pickLineToReplace();
 }
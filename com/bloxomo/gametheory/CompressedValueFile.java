@@ -0,0 +1,632 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.zip.CRC32;
+
+/**
+ * A read-only map of states to values kept in a block-compressed file.
+ * The values are split into blocks of consecutive indices and each
+ * block is compressed on its own by XOR-delta coding: each value is
+ * XORed with the one before it and only the bits that differ are
+ * stored, using the leading and trailing zero counts of the previous
+ * value when the new difference fits inside them.  Neighboring position
+ * values are close, so most differences are short.
+ *
+ * The file starts with its own magic number, then a
+ * <CODE>ValueFileHeader</CODE> describing the uncompressed values as
+ * <CODE>double</CODE>s, with one block per compressed block and the
+ * checksum of each block's uncompressed values.  Next is an index
+ * giving the offset of each compressed block relative to the end of
+ * the index, plus the offset of the end of the last block, and then
+ * the blocks.  A block is found through the index and decompressed
+ * the first time a value in it is needed; the most recently used
+ * decompressed blocks are kept in memory.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CompressedValueFile implements IndexedStateValueMap
+{
+    /**
+     * The first four bytes of a compressed value file ("CSVZ").
+     */
+
+    public static final int MAGIC = 0x4353565A;
+
+    /**
+     * The number of values in each compressed block if no length is
+     * given.
+     */
+
+    public static final int DEFAULT_BLOCK_LENGTH = 4096;
+
+    /**
+     * The number of decompressed blocks kept in memory if no number is
+     * given.
+     */
+
+    public static final int DEFAULT_CACHED_BLOCKS = 256;
+
+    private ValueFileHeader header;
+
+    private RandomAccessFile file;
+
+    private FileChannel channel;
+
+    /**
+     * The offset in the file of the first compressed block.
+     */
+
+    private long dataStart;
+
+    /**
+     * The offset of each block relative to <CODE>dataStart</CODE>;
+     * <CODE>blockOffset[b + 1] - blockOffset[b]</CODE> is the length of
+     * block b.
+     */
+
+    private long[] blockOffset;
+
+    /**
+     * Decompressed blocks in order of use, least recent first.
+     */
+
+    private LinkedHashMap< Integer, double[] > cache;
+
+    private long hits;
+    private long misses;
+
+    /**
+     * Opens the given compressed file with the default number of
+     * cached blocks.
+     *
+     * @param fname the name of a file written by <CODE>write</CODE>
+     */
+
+    public CompressedValueFile(String fname) throws IOException
+    {
+	this(fname, DEFAULT_CACHED_BLOCKS);
+    }
+
+    /**
+     * Opens the given compressed file.
+     *
+     * @param fname the name of a file written by <CODE>write</CODE>
+     * @param cachedBlocks the number of decompressed blocks to keep
+     */
+
+    public CompressedValueFile(String fname, final int cachedBlocks) throws IOException
+    {
+	file = new RandomAccessFile(fname, "r");
+	channel = file.getChannel();
+
+	try
+	    {
+		if (file.readInt() != MAGIC || file.readInt() != ValueFileHeader.MAGIC)
+		    throw new IOException(fname + " is not a compressed value file");
+		header = ValueFileHeader.readAfterMagic(file);
+
+		file.seek(4 + header.getDataOffset());
+		blockOffset = new long[header.countBlocks() + 1];
+		for (int b = 0; b < blockOffset.length; b++)
+		    blockOffset[b] = file.readLong();
+		dataStart = file.getFilePointer();
+
+		if (channel.size() < dataStart + blockOffset[blockOffset.length - 1])
+		    throw new EOFException(fname + " is shorter than its index says");
+	    }
+	catch (IOException e)
+	    {
+		file.close();
+		throw e;
+	    }
+
+	cache = new LinkedHashMap< Integer, double[] >(2 * cachedBlocks, 0.75f, true)
+	    {
+		protected boolean removeEldestEntry(Map.Entry< Integer, double[] > eldest)
+		{
+		    return size() > cachedBlocks;
+		}
+	    };
+    }
+
+    /**
+     * Determines if the given file is a compressed value file.
+     *
+     * @param fname the name of a file
+     * @return true iff that file starts with the compressed file magic
+     * number
+     */
+
+    public static boolean isCompressed(String fname) throws IOException
+    {
+	DataInputStream in = new DataInputStream(new FileInputStream(fname));
+	try
+	    {
+		return (in.readInt() == MAGIC);
+	    }
+	catch (EOFException e)
+	    {
+		return false;
+	    }
+	finally
+	    {
+		in.close();
+	    }
+    }
+
+    /**
+     * Returns the header describing the uncompressed values in this file.
+     *
+     * @return the header of this file
+     */
+
+    public ValueFileHeader getHeader()
+    {
+	return header;
+    }
+
+    public long size()
+    {
+	return header.getCount();
+    }
+
+    public double getValue(long index)
+    {
+	int blockLength = header.getBlockLength();
+
+	return getBlock((int)(index / blockLength))[(int)(index % blockLength)];
+    }
+
+    /**
+     * Looks up the values stored at the given indices, decompressing
+     * each block needed once.
+     *
+     * @param indices some indices in this map
+     * @param out an array to hold the value stored at each of those
+     * indices
+     */
+
+    public void getValues(long[] indices, double[] out)
+    {
+	int blockLength = header.getBlockLength();
+	int current = -1;
+	double[] values = null;
+
+	for (int i : IndexOrder.sort(indices))
+	    {
+		int block = (int)(indices[i] / blockLength);
+		if (block != current)
+		    {
+			values = getBlock(block);
+			current = block;
+		    }
+		out[i] = values[(int)(indices[i] % blockLength)];
+	    }
+    }
+
+    public double getValue(GameState s)
+    {
+	return getValue(s.getIndex());
+    }
+
+    public boolean contains(GameState s)
+    {
+	return (s.getIndex() >= 0 && s.getIndex() < size());
+    }
+
+    /**
+     * Compressed files are read-only.
+     *
+     * @throws UnsupportedOperationException always
+     */
+
+    public void setValue(long index, double val)
+    {
+	throw new UnsupportedOperationException("compressed value files are read-only");
+    }
+
+    public void setValue(GameState s, double val)
+    {
+	throw new UnsupportedOperationException("compressed value files are read-only");
+    }
+
+    /**
+     * Writes the uncompressed values in this file to the given stream
+     * as <CODE>double</CODE>s.
+     *
+     * @param os the stream to write to
+     */
+
+    public void write(DataOutputStream os) throws IOException
+    {
+	for (long i = 0; i < size(); i++)
+	    os.writeDouble(getValue(i));
+    }
+
+    public void read(DataInputStream is) throws IOException
+    {
+	throw new UnsupportedOperationException("compressed value files are read-only");
+    }
+
+    public void flush()
+    {
+    }
+
+    /**
+     * Closes the file.
+     */
+
+    public void close() throws IOException
+    {
+	file.close();
+    }
+
+    /**
+     * Returns the decompressed values in the given block, reading and
+     * decompressing it if it is not in the cache.
+     *
+     * @param block the index of a block
+     * @return the values in that block
+     */
+
+    private synchronized double[] getBlock(int block)
+    {
+	double[] values = cache.get(block);
+
+	if (values != null)
+	    {
+		hits++;
+		return values;
+	    }
+
+	misses++;
+
+	try
+	    {
+		values = readBlock(block);
+	    }
+	catch (IOException e)
+	    {
+		throw new IllegalStateException("could not read block " + block, e);
+	    }
+
+	cache.put(block, values);
+
+	return values;
+    }
+
+    /**
+     * Reads, decompresses, and verifies the given block.
+     *
+     * @param block the index of a block
+     * @return the values in that block
+     */
+
+    private double[] readBlock(int block) throws IOException
+    {
+	ByteBuffer buf = ByteBuffer.allocate((int)(blockOffset[block + 1] - blockOffset[block]));
+	long pos = dataStart + blockOffset[block];
+	while (buf.hasRemaining())
+	    {
+		int n = channel.read(buf, pos);
+		if (n < 0)
+		    throw new EOFException("file ended in block " + block);
+		pos += n;
+	    }
+
+	double[] values;
+	try
+	    {
+		values = decode(buf.array(), header.getBlockSize(block));
+	    }
+	catch (ArrayIndexOutOfBoundsException e)
+	    {
+		// a corrupt block may claim more bits than it has
+
+		throw new IOException("block " + block + " is truncated");
+	    }
+
+	if (checksum(values) != header.getChecksum(block))
+	    throw new IOException("checksum mismatch in block " + block);
+
+	return values;
+    }
+
+    /**
+     * Writes the given values to a compressed file.  The values are
+     * described by the given header, whose format and block length are
+     * ignored.
+     *
+     * @param fname the name of the file to write
+     * @param desc a header describing the values
+     * @param values a map holding the values
+     * @return the header written to the file
+     */
+
+    public static ValueFileHeader write(String fname, ValueFileHeader desc, IndexedStateValueMap values) throws IOException
+    {
+	return write(fname, desc, values, DEFAULT_BLOCK_LENGTH);
+    }
+
+    public static ValueFileHeader write(String fname, ValueFileHeader desc, IndexedStateValueMap values, int blockLength) throws IOException
+    {
+	ValueFileHeader h = desc.withFormat(ValueFormat.DOUBLE_FORMAT).withBlockLength(blockLength);
+	int blocks = h.countBlocks();
+	long[] offsets = new long[blocks + 1];
+	long dataStart = 4 + h.getDataOffset() + 8L * offsets.length;
+
+	RandomAccessFile out = new RandomAccessFile(fname, "rw");
+	try
+	    {
+		FileChannel ch = out.getChannel();
+		ch.truncate(0);
+
+		double[] block = new double[blockLength];
+		BitWriter bits = new BitWriter(blockLength * 9);
+		for (int b = 0; b < blocks; b++)
+		    {
+			int size = h.getBlockSize(b);
+			long start = h.getBlockStart(b);
+			for (int i = 0; i < size; i++)
+			    block[i] = values.getValue(start + i);
+
+			h.setChecksum(b, checksum(block, size));
+
+			bits.reset();
+			encode(block, size, bits);
+
+			ByteBuffer buf = ByteBuffer.wrap(bits.getBytes(), 0, bits.getLength());
+			long pos = dataStart + offsets[b];
+			while (buf.hasRemaining())
+			    pos += ch.write(buf, pos);
+			offsets[b + 1] = offsets[b] + bits.getLength();
+		    }
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream hdr = new DataOutputStream(bytes);
+		hdr.writeInt(MAGIC);
+		h.write(hdr);
+		for (long off : offsets)
+		    hdr.writeLong(off);
+		hdr.flush();
+
+		ByteBuffer buf = ByteBuffer.wrap(bytes.toByteArray());
+		long pos = 0;
+		while (buf.hasRemaining())
+		    pos += ch.write(buf, pos);
+	    }
+	finally
+	    {
+		out.close();
+	    }
+
+	return h;
+    }
+
+    /**
+     * Compresses the given values.
+     *
+     * @param values an array of values
+     * @param n the number of values to compress
+     * @param out the stream of bits to write to
+     */
+
+    private static void encode(double[] values, int n, BitWriter out)
+    {
+	long prev = 0;
+	int lead = -1;
+	int len = 0;
+
+	for (int i = 0; i < n; i++)
+	    {
+		long bits = Double.doubleToRawLongBits(values[i]);
+		long xor = bits ^ prev;
+		prev = bits;
+
+		if (xor == 0)
+		    out.write(0, 1);
+		else
+		    {
+			int lz = Long.numberOfLeadingZeros(xor);
+			int tz = Long.numberOfTrailingZeros(xor);
+
+			if (lead >= 0 && lz >= lead && tz >= 64 - lead - len)
+			    {
+				// the difference fits in the previous window
+
+				out.write(2, 2);
+				out.write(xor >>> (64 - lead - len), len);
+			    }
+			else
+			    {
+				lead = lz;
+				len = 64 - lz - tz;
+				out.write(3, 2);
+				out.write(lead, 6);
+				out.write(len - 1, 6);
+				out.write(xor >>> tz, len);
+			    }
+		    }
+	    }
+    }
+
+    /**
+     * Decompresses a block.
+     *
+     * @param data the compressed block
+     * @param n the number of values in the block
+     * @return the values in the block
+     */
+
+    private static double[] decode(byte[] data, int n)
+    {
+	double[] values = new double[n];
+	BitReader in = new BitReader(data);
+	long prev = 0;
+	int lead = 0;
+	int len = 0;
+
+	for (int i = 0; i < n; i++)
+	    {
+		if (in.read(1) != 0)
+		    {
+			if (in.read(1) != 0)
+			    {
+				lead = (int)in.read(6);
+				len = (int)in.read(6) + 1;
+			    }
+			prev ^= in.read(len) << (64 - lead - len);
+		    }
+		values[i] = Double.longBitsToDouble(prev);
+	    }
+
+	return values;
+    }
+
+    private static int checksum(double[] values)
+    {
+	return checksum(values, values.length);
+    }
+
+    /**
+     * Returns the CRC-32 of the given values encoded as big-endian
+     * <CODE>double</CODE>s, the same as the checksum of the block in
+     * an uncompressed value file.
+     *
+     * @param values an array of values
+     * @param n the number of values to include
+     * @return the checksum of those values
+     */
+
+    private static int checksum(double[] values, int n)
+    {
+	ByteBuffer buf = ByteBuffer.allocate(n * 8);
+	for (int i = 0; i < n; i++)
+	    buf.putDouble(values[i]);
+
+	CRC32 crc = new CRC32();
+	crc.update(buf.array(), 0, n * 8);
+
+	return (int)crc.getValue();
+    }
+
+    public String toString()
+    {
+	return "[" + header + " " + blockOffset[blockOffset.length - 1] + " compressed bytes; hits " + hits + " misses " + misses + "]";
+    }
+
+    /**
+     * Writes bits most significant first into a growable array.
+     */
+
+    private static class BitWriter
+    {
+	private byte[] bytes;
+	private int length;
+	private int bitsUsed;
+
+	BitWriter(int capacity)
+	{
+	    bytes = new byte[capacity];
+	}
+
+	void reset()
+	{
+	    Arrays.fill(bytes, 0, Math.min(bytes.length, length + 1), (byte)0);
+	    length = 0;
+	    bitsUsed = 0;
+	}
+
+	/**
+	 * Writes the low bits of the given value.
+	 *
+	 * @param value a value
+	 * @param n the number of low bits of that value to write
+	 */
+
+	void write(long value, int n)
+	{
+	    while (n > 0)
+		{
+		    if (length >= bytes.length)
+			bytes = Arrays.copyOf(bytes, bytes.length * 2);
+
+		    int take = Math.min(n, 8 - bitsUsed);
+		    int chunk = (int)(value >>> (n - take)) & ((1 << take) - 1);
+		    bytes[length] |= (byte)(chunk << (8 - bitsUsed - take));
+
+		    n -= take;
+		    bitsUsed += take;
+		    if (bitsUsed == 8)
+			{
+			    bitsUsed = 0;
+			    length++;
+			}
+		}
+	}
+
+	byte[] getBytes()
+	{
+	    return bytes;
+	}
+
+	/**
+	 * Returns the number of bytes written, counting a partial byte.
+	 */
+
+	int getLength()
+	{
+	    return length + (bitsUsed > 0 ? 1 : 0);
+	}
+    }
+
+    /**
+     * Reads bits most significant first from an array.
+     */
+
+    private static class BitReader
+    {
+	private byte[] bytes;
+	private int pos;
+	private int bitsUsed;
+
+	BitReader(byte[] b)
+	{
+	    bytes = b;
+	}
+
+	/**
+	 * Reads the given number of bits.
+	 *
+	 * @param n a number of bits, at most 64
+	 * @return those bits as the low bits of a value
+	 */
+
+	long read(int n)
+	{
+	    long result = 0;
+
+	    while (n > 0)
+		{
+		    int avail = 8 - bitsUsed;
+		    int take = Math.min(n, avail);
+		    int chunk = ((bytes[pos] & 0xFF) >>> (avail - take)) & ((1 << take) - 1);
+		    result = (result << take) | chunk;
+
+		    n -= take;
+		    bitsUsed += take;
+		    if (bitsUsed == 8)
+			{
+			    bitsUsed = 0;
+			    pos++;
+			}
+		}
+
+	    return result;
+	}
+    }
+}
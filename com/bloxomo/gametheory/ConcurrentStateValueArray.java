@@ -0,0 +1,192 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.lang.invoke.*;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A map of states to values that many threads may read and write at
+ * once without locking.  Values are kept in on-heap arrays of
+ * <CODE>double</CODE>s and accessed with release stores and acquire
+ * loads, so a thread that sees a value written by another thread also
+ * sees everything that thread wrote before it.  Entries are split over
+ * several arrays so that the map is not limited to 2^31 entries.
+ *
+ * Reads and writes can be counted, so the counts can be used to
+ * measure throughput as threads are added.  Counting is off unless
+ * asked for, since even striped counters add a shared write to every
+ * access.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class ConcurrentStateValueArray implements IndexedStateValueMap
+{
+    /**
+     * log2 of the number of values in each array.
+     */
+
+    private static final int SEGMENT_SHIFT = 27;
+
+    private static final long SEGMENT_MASK = (1L << SEGMENT_SHIFT) - 1;
+
+    private static final VarHandle VALUES = MethodHandles.arrayElementVarHandle(double[].class);
+
+    private final double[][] segments;
+
+    private final long numStates;
+
+    private final LongAdder reads = new LongAdder();
+
+    private final LongAdder writes = new LongAdder();
+
+    private boolean counting;
+
+    /**
+     * Creates a map with the given number of entries, all initially 0.
+     *
+     * @param size the number of entries in the new map
+     */
+
+    public ConcurrentStateValueArray(long size)
+    {
+	numStates = size;
+
+	int count = (int)((size + SEGMENT_MASK) >>> SEGMENT_SHIFT);
+	segments = new double[count][];
+	for (int seg = 0; seg < count; seg++)
+	    segments[seg] = new double[(int)Math.min(1L << SEGMENT_SHIFT, size - ((long)seg << SEGMENT_SHIFT))];
+    }
+
+    public double getValue(GameState s)
+    {
+	return getValue(s.getIndex());
+    }
+
+    public double getValue(long index)
+    {
+	if (counting)
+	    reads.increment();
+
+	return (double)VALUES.getAcquire(segments[(int)(index >>> SEGMENT_SHIFT)], (int)(index & SEGMENT_MASK));
+    }
+
+    public void setValue(GameState s, double val)
+    {
+	setValue(s.getIndex(), val);
+    }
+
+    public void setValue(long index, double val)
+    {
+	if (counting)
+	    writes.increment();
+
+	VALUES.setRelease(segments[(int)(index >>> SEGMENT_SHIFT)], (int)(index & SEGMENT_MASK), val);
+    }
+
+    public void getValues(long[] indices, double[] out)
+    {
+	if (counting)
+	    reads.add(indices.length);
+
+	for (int i = 0; i < indices.length; i++)
+	    out[i] = (double)VALUES.getAcquire(segments[(int)(indices[i] >>> SEGMENT_SHIFT)], (int)(indices[i] & SEGMENT_MASK));
+    }
+
+    public void setValues(long[] indices, double[] vals)
+    {
+	if (counting)
+	    writes.add(indices.length);
+
+	for (int i = 0; i < indices.length; i++)
+	    VALUES.setRelease(segments[(int)(indices[i] >>> SEGMENT_SHIFT)], (int)(indices[i] & SEGMENT_MASK), vals[i]);
+    }
+
+    public long size()
+    {
+	return numStates;
+    }
+
+    public boolean contains(GameState s)
+    {
+	return (s.getIndex() >= 0 && s.getIndex() < numStates);
+    }
+
+    /**
+     * Turns counting of reads and writes on or off.  This must be done
+     * before the map is shared with other threads.
+     *
+     * @param count true to count reads and writes
+     */
+
+    public void setCounting(boolean count)
+    {
+	counting = count;
+    }
+
+    /**
+     * Determines if reads and writes are counted.
+     *
+     * @return true iff reads and writes are counted
+     */
+
+    public boolean isCounting()
+    {
+	return counting;
+    }
+
+    /**
+     * Returns the number of values read from this map while counting
+     * was on.
+     *
+     * @return the number of values read
+     */
+
+    public long getReads()
+    {
+	return reads.sum();
+    }
+
+    /**
+     * Returns the number of values written to this map while counting
+     * was on.
+     *
+     * @return the number of values written
+     */
+
+    public long getWrites()
+    {
+	return writes.sum();
+    }
+
+    /**
+     * Writes this map to the given stream.  Writes by other threads
+     * that are still in progress may or may not be included.
+     *
+     * @param os the stream to write to
+     */
+
+    public void write(DataOutputStream os) throws IOException
+    {
+	for (long i = 0; i < numStates; i++)
+	    os.writeDouble((double)VALUES.getAcquire(segments[(int)(i >>> SEGMENT_SHIFT)], (int)(i & SEGMENT_MASK)));
+    }
+
+    public void read(DataInputStream is) throws IOException
+    {
+	for (long i = 0; i < numStates; i++)
+	    VALUES.setRelease(segments[(int)(i >>> SEGMENT_SHIFT)], (int)(i & SEGMENT_MASK), is.readDouble());
+    }
+
+    public void flush()
+    {
+    }
+
+    public String toString()
+    {
+	if (counting)
+	    return "[" + numStates + " values; reads " + getReads() + " writes " + getWrites() + "]";
+	else
+	    return "[" + numStates + " values]";
+    }
+}
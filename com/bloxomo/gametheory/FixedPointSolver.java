@@ -0,0 +1,231 @@
+package com.bloxomo.gametheory;
+
+/**
+ * Finds fixed points of nondecreasing functions whose slope is less
+ * than 1, such as the value of the start of a turn as a function of the
+ * value assumed for going back to it.  Such a function has exactly one
+ * fixed point, and it lies between any estimate and the function's
+ * value there, so each evaluation narrows a bracket around the fixed
+ * point.  The next estimate is the Newton step if the function can
+ * give its slope, or else the secant step through the last two
+ * evaluations, when that falls inside the bracket, and otherwise the
+ * midpoint of the bracket, or the last value if the bracket is still
+ * open on one side.  For piecewise linear functions the Newton step is
+ * exact once an evaluation falls on the same piece as the fixed point,
+ * and the secant step once two do.
+ *
+ * A solve stops when an evaluation returns its estimate to within the
+ * tolerances, when the bracket closes, when an estimate repeats, or at
+ * the iteration limit, and returns the value of the last evaluation so
+ * that whatever the function computed along the way matches the result.
+ * The outcome of each solve goes to the solver's
+ * <CODE>SolverMetrics</CODE>, if it has one.  A solver holds no state
+ * between solves, so one may be shared by any number of threads as long
+ * as its metrics can.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class FixedPointSolver
+{
+    /**
+     * A function to find the fixed point of.
+     */
+
+    public interface Function
+    {
+	/**
+	 * Evaluates this function.
+	 *
+	 * @param x an estimate of the fixed point
+	 * @return the value of this function at that estimate
+	 */
+
+	public double evaluate(double x);
+    }
+
+    /**
+     * A function that can also give its slope.
+     */
+
+    public interface DifferentiableFunction extends Function
+    {
+	/**
+	 * Returns the slope of this function at the estimate last given
+	 * to <CODE>evaluate</CODE>.
+	 *
+	 * @return the slope there, or any one-sided slope if this function
+	 * has a corner there
+	 */
+
+	public double getSlope();
+    }
+
+    /**
+     * The default maximum number of evaluations in one solve.
+     */
+
+    public static final int DEFAULT_MAX_ITERATIONS = 30;
+
+    /**
+     * A solver that runs to an exact fixed point and reports nowhere.
+     */
+
+    public static final FixedPointSolver DEFAULT = new FixedPointSolver();
+
+    private final double absoluteTolerance;
+
+    private final double relativeTolerance;
+
+    private final int maxIterations;
+
+    private final SolverMetrics metrics;
+
+    /**
+     * Creates a solver with no tolerance, the default iteration limit,
+     * and no metrics.
+     */
+
+    public FixedPointSolver()
+    {
+	this(0.0, 0.0, DEFAULT_MAX_ITERATIONS, null);
+    }
+
+    /**
+     * Creates a solver.  A solve has converged when an evaluation
+     * returns within <CODE>max(abs, rel * |value|)</CODE> of the
+     * estimate it was given.
+     *
+     * @param abs a nonnegative absolute tolerance
+     * @param rel a nonnegative relative tolerance
+     * @param max the maximum number of evaluations in one solve
+     * @param m where to report each solve, or null
+     */
+
+    public FixedPointSolver(double abs, double rel, int max, SolverMetrics m)
+    {
+	if (!(abs >= 0.0) || !(rel >= 0.0))
+	    throw new IllegalArgumentException("tolerances " + abs + " and " + rel + " must be nonnegative");
+	if (max < 1)
+	    throw new IllegalArgumentException("iteration limit " + max + " is not positive");
+
+	absoluteTolerance = abs;
+	relativeTolerance = rel;
+	maxIterations = max;
+	metrics = m;
+    }
+
+    /**
+     * Returns a solver like this one that reports to the given metrics.
+     *
+     * @param m where to report each solve, or null
+     * @return a solver with this one's tolerances and limit
+     */
+
+    public FixedPointSolver withMetrics(SolverMetrics m)
+    {
+	return new FixedPointSolver(absoluteTolerance, relativeTolerance, maxIterations, m);
+    }
+
+    public double getAbsoluteTolerance()
+    {
+	return absoluteTolerance;
+    }
+
+    public double getRelativeTolerance()
+    {
+	return relativeTolerance;
+    }
+
+    public int getMaxIterations()
+    {
+	return maxIterations;
+    }
+
+    public SolverMetrics getMetrics()
+    {
+	return metrics;
+    }
+
+    /**
+     * Finds the fixed point of the given function.
+     *
+     * @param f a nondecreasing function with slope less than 1
+     * @param anchor the index of the state being solved, for the metrics
+     * @param initial the first estimate
+     * @param lower a lower bound on the fixed point
+     * @param upper an upper bound on the fixed point
+     * @return the value of the last evaluation of <CODE>f</CODE>
+     */
+
+    public double solve(Function f, long anchor, double initial, double lower, double upper)
+    {
+	double x = initial;
+	double y;
+	double prevX = 0.0;
+	double prevResidual = 0.0;
+	int evaluations = 0;
+	boolean converged;
+
+	while (true)
+	    {
+		y = f.evaluate(x);
+		evaluations++;
+
+		// the fixed point lies between the estimate and the
+		// value there
+
+		double residual = y - x;
+		if (residual > 0)
+		    lower = Math.max(lower, y);
+		else if (residual < 0)
+		    upper = Math.min(upper, y);
+
+		if (Math.abs(residual) <= Math.max(absoluteTolerance, relativeTolerance * Math.abs(y))
+		    || lower >= upper)
+		    {
+			converged = true;
+			break;
+		    }
+		if (evaluations >= maxIterations)
+		    {
+			converged = false;
+			break;
+		    }
+
+		double next = Double.NaN;
+		if (f instanceof DifferentiableFunction)
+		    {
+			double slope = ((DifferentiableFunction)f).getSlope();
+			if (slope < 1.0)
+			    next = x + residual / (1.0 - slope);
+		    }
+		else if (evaluations > 1 && residual != prevResidual)
+		    next = x - residual * (x - prevX) / (residual - prevResidual);
+		if (!(next >= lower && next <= upper))
+		    next = (Double.isInfinite(lower) || Double.isInfinite(upper) ? y : lower + (upper - lower) / 2);
+
+		// the estimate repeating means it is as good as it gets
+
+		if (next == x)
+		    {
+			converged = true;
+			break;
+		    }
+
+		prevX = x;
+		prevResidual = residual;
+		x = next;
+	    }
+
+	if (metrics != null)
+	    metrics.recordSolve(anchor, evaluations, y, y - x, converged);
+
+	return y;
+    }
+
+    public String toString()
+    {
+	return "FixedPointSolver[abs=" + absoluteTolerance + ", rel=" + relativeTolerance + ", max=" + maxIterations + "]";
+    }
+}
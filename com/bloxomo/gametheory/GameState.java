@@ -1,6 +1,7 @@
 package com.bloxomo.gametheory;
 
 import java.util.*;
+import java.util.function.*;
 
 /**
  * A state of a finite, acyclic game.
@@ -48,6 +49,23 @@ public abstract class GameState implements Comparable
 
     public abstract Collection getNextStates();
 
+    /**
+     * Passes the index of each state reachable in one step from this
+     * state to the given visitor, in the order <CODE>getNextStates</CODE>
+     * returns them.  This version of the method visits the states
+     * returned by <CODE>getNextStates</CODE>; games that can find their
+     * successors without making them should override it.
+     *
+     * @param visitor what to do with the index of each successor
+     */
+
+    public void visitNextStates(LongConsumer visitor)
+    {
+	Iterator i = getNextStates().iterator();
+	while (i.hasNext())
+	    visitor.accept(((GameState)(i.next())).getIndex());
+    }
+
     /**
      * Determines if this state is final.
      *
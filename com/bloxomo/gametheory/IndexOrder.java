@@ -0,0 +1,91 @@
+package com.bloxomo.gametheory;
+
+import java.util.*;
+
+/**
+ * Sorts batches of indices so that maps backed by files can visit them
+ * in file order.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+class IndexOrder
+{
+    private IndexOrder()
+    {
+    }
+
+    /**
+     * Returns the positions of the given nonnegative keys in increasing
+     * order of key.  Equal keys are in increasing order of position.
+     *
+     * @param keys an array of nonnegative keys
+     * @return an array <CODE>order</CODE> such that
+     * <CODE>keys[order[0]] <= keys[order[1]] <= ...</CODE>
+     */
+
+    static int[] sort(long[] keys)
+    {
+	int n = keys.length;
+	int[] order = new int[n];
+
+	long max = 0;
+	for (int i = 0; i < n; i++)
+	    max = Math.max(max, keys[i]);
+
+	int positionBits = 32 - Integer.numberOfLeadingZeros(Math.max(1, n - 1));
+	int keyBits = 64 - Long.numberOfLeadingZeros(max);
+
+	if (keyBits + positionBits <= 63)
+	    {
+		// pack key and position into one long and sort those
+
+		long[] packed = new long[n];
+		for (int i = 0; i < n; i++)
+		    packed[i] = (keys[i] << positionBits) | i;
+		Arrays.sort(packed);
+
+		long mask = (1L << positionBits) - 1;
+		for (int i = 0; i < n; i++)
+		    order[i] = (int)(packed[i] & mask);
+	    }
+	else
+	    {
+		Integer[] boxed = new Integer[n];
+		for (int i = 0; i < n; i++)
+		    boxed[i] = i;
+
+		final long[] k = keys;
+		Arrays.sort(boxed, new Comparator< Integer >()
+		    {
+			public int compare(Integer a, Integer b)
+			{
+			    int c = Long.compare(k[a], k[b]);
+			    return (c != 0 ? c : Integer.compare(a, b));
+			}
+		    });
+
+		for (int i = 0; i < n; i++)
+		    order[i] = boxed[i];
+	    }
+
+	return order;
+    }
+
+    /**
+     * Returns the indices of the given states.
+     *
+     * @param states an array of states
+     * @return an array containing the index of each of those states
+     */
+
+    static long[] indices(GameState[] states)
+    {
+	long[] result = new long[states.length];
+
+	for (int i = 0; i < states.length; i++)
+	    result[i] = states[i].getIndex();
+
+	return result;
+    }
+}
@@ -0,0 +1,65 @@
+package com.bloxomo.gametheory;
+
+/**
+ * A map of states to values that can also be accessed directly by
+ * index.  Entry i of the map is the value of the state whose index
+ * is i, or of whatever state a <CODE>StateRanking</CODE> ranks as i.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public interface IndexedStateValueMap extends StateValueMap
+{
+    /**
+     * Returns the value stored at the given index.
+     *
+     * @param index an index in this map
+     * @return the value stored at that index
+     */
+
+    public double getValue(long index);
+
+    /**
+     * Sets the value stored at the given index.
+     *
+     * @param index an index in this map
+     * @param val the value to store at that index
+     */
+
+    public void setValue(long index, double val);
+
+    /**
+     * Looks up the values stored at the given indices.
+     *
+     * @param indices some indices in this map
+     * @param out an array to hold the value stored at each of those
+     * indices
+     */
+
+    public default void getValues(long[] indices, double[] out)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    out[i] = getValue(indices[i]);
+    }
+
+    /**
+     * Sets the values stored at the given indices.
+     *
+     * @param indices some indices in this map
+     * @param vals the value to store at each of those indices
+     */
+
+    public default void setValues(long[] indices, double[] vals)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    setValue(indices[i], vals[i]);
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     *
+     * @return the number of entries in this map
+     */
+
+    public long size();
+}
@@ -0,0 +1,346 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Maps nonnegative <CODE>long</CODE> keys to <CODE>double</CODE>
+ * values with open addressing, so that neither keys nor values are
+ * boxed.  As a <CODE>StateValueMap</CODE> it is keyed by state index,
+ * so it suits small maps (such as the values of the states reachable
+ * in one turn) that are rebuilt often.  Clearing the map keeps its
+ * arrays so it can be refilled without allocating.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class LongDoubleHashMap implements StateValueMap
+{
+    /**
+     * The key that marks an empty slot.
+     */
+
+    private static final long EMPTY = -1;
+
+    /**
+     * The default number of entries the map holds before growing.
+     */
+
+    public static final int DEFAULT_CAPACITY = 64;
+
+    private long[] keys;
+
+    private double[] vals;
+
+    /**
+     * The number of slots minus 1; the number of slots is a power of 2.
+     */
+
+    private int mask;
+
+    private int count;
+
+    /**
+     * Creates an empty map with the default capacity.
+     */
+
+    public LongDoubleHashMap()
+    {
+	this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates an empty map that can hold the given number of entries
+     * before it has to grow.
+     *
+     * @param capacity a nonnegative integer
+     */
+
+    public LongDoubleHashMap(int capacity)
+    {
+	allocate(slotsFor(capacity));
+    }
+
+    /**
+     * Returns the value for the given key.
+     *
+     * @param key a nonnegative integer
+     * @param missing the value to return if the key is not in this map
+     * @return the value for that key, or <CODE>missing</CODE>
+     */
+
+    public double get(long key, double missing)
+    {
+	int slot = find(key);
+
+	return (slot >= 0 ? vals[slot] : missing);
+    }
+
+    /**
+     * Sets the value for the given key, replacing any old value.
+     *
+     * @param key a nonnegative integer
+     * @param val the value for that key
+     */
+
+    public void put(long key, double val)
+    {
+	if (key < 0)
+	    throw new IllegalArgumentException("negative key " + key);
+
+	int slot = slotOf(key);
+	while (keys[slot] != EMPTY)
+	    {
+		if (keys[slot] == key)
+		    {
+			vals[slot] = val;
+			return;
+		    }
+		slot = (slot + 1) & mask;
+	    }
+
+	keys[slot] = key;
+	vals[slot] = val;
+	count++;
+
+	if (count * 2 > keys.length)
+	    rehash(keys.length * 2);
+    }
+
+    /**
+     * Determines if this map contains the given key.
+     *
+     * @param key an integer
+     * @return true iff this map has a value for that key
+     */
+
+    public boolean containsKey(long key)
+    {
+	return (find(key) >= 0);
+    }
+
+    /**
+     * Removes the given key from this map.
+     *
+     * @param key an integer
+     * @return true iff this map had a value for that key
+     */
+
+    public boolean remove(long key)
+    {
+	int slot = find(key);
+	if (slot < 0)
+	    return false;
+
+	// shift later entries of the same run back so that lookups
+	// never stop early at the hole
+
+	int hole = slot;
+	int next = (hole + 1) & mask;
+	while (keys[next] != EMPTY)
+	    {
+		int home = slotOf(keys[next]);
+		if (((next - home) & mask) >= ((next - hole) & mask))
+		    {
+			keys[hole] = keys[next];
+			vals[hole] = vals[next];
+			hole = next;
+		    }
+		next = (next + 1) & mask;
+	    }
+
+	keys[hole] = EMPTY;
+	count--;
+
+	return true;
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     *
+     * @return the number of entries in this map
+     */
+
+    public int size()
+    {
+	return count;
+    }
+
+    /**
+     * Removes all entries from this map without releasing its storage.
+     */
+
+    public void clear()
+    {
+	if (count > 0)
+	    {
+		Arrays.fill(keys, EMPTY);
+		count = 0;
+	    }
+    }
+
+    /**
+     * Returns the value of the given state, or 0 if it is not in this map.
+     *
+     * @param s a game state
+     * @return the value of that state
+     */
+
+    public double getValue(GameState s)
+    {
+	return get(s.getIndex(), 0.0);
+    }
+
+    public void setValue(GameState s, double val)
+    {
+	put(s.getIndex(), val);
+    }
+
+    public void getValues(GameState[] states, double[] out)
+    {
+	for (int i = 0; i < states.length; i++)
+	    out[i] = get(states[i].getIndex(), 0.0);
+    }
+
+    public void setValues(GameState[] states, double[] v)
+    {
+	for (int i = 0; i < states.length; i++)
+	    put(states[i].getIndex(), v[i]);
+    }
+
+    public boolean contains(GameState s)
+    {
+	return containsKey(s.getIndex());
+    }
+
+    /**
+     * Writes this map to the given stream as the number of entries
+     * followed by each key and its value.
+     *
+     * @param os the stream to write to
+     */
+
+    public void write(DataOutputStream os) throws IOException
+    {
+	os.writeInt(count);
+	for (int slot = 0; slot < keys.length; slot++)
+	    {
+		if (keys[slot] != EMPTY)
+		    {
+			os.writeLong(keys[slot]);
+			os.writeDouble(vals[slot]);
+		    }
+	    }
+    }
+
+    /**
+     * Reads this map from the given stream.  Any data in this map is
+     * lost.  The stream must be in the form written by
+     * <CODE>write</CODE>.
+     *
+     * @param is the stream to read from
+     */
+
+    public void read(DataInputStream is) throws IOException
+    {
+	int n = is.readInt();
+	if (n < 0)
+	    throw new IOException("negative entry count " + n);
+
+	clear();
+	if (slotsFor(n) > keys.length)
+	    allocate(slotsFor(n));
+
+	for (int i = 0; i < n; i++)
+	    {
+		long key = is.readLong();
+		if (key < 0)
+		    throw new IOException("negative key " + key);
+		put(key, is.readDouble());
+	    }
+    }
+
+    public void flush()
+    {
+    }
+
+    public String toString()
+    {
+	return "[" + count + " entries in " + keys.length + " slots]";
+    }
+
+    /**
+     * Returns the slot holding the given key.
+     *
+     * @param key an integer
+     * @return the slot holding that key, or -1 if it is not in this map
+     */
+
+    private int find(long key)
+    {
+	if (key < 0)
+	    return -1;
+
+	int slot = slotOf(key);
+	while (keys[slot] != EMPTY)
+	    {
+		if (keys[slot] == key)
+		    return slot;
+		slot = (slot + 1) & mask;
+	    }
+
+	return -1;
+    }
+
+    /**
+     * Returns the slot the given key hashes to.  State indices are
+     * sums of place values, so their low bits alone are not well
+     * spread; multiplying by a large odd constant and keeping the high
+     * bits spreads them.
+     *
+     * @param key a nonnegative integer
+     * @return the first slot to look for that key in
+     */
+
+    private int slotOf(long key)
+    {
+	return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Returns the number of slots needed to hold the given number of
+     * entries at most half full.
+     *
+     * @param capacity a nonnegative integer
+     * @return a power of 2 at least twice <CODE>capacity</CODE>
+     */
+
+    private static int slotsFor(int capacity)
+    {
+	if (capacity > (1 << 29))
+	    throw new IllegalArgumentException("capacity " + capacity + " is too large");
+
+	return Math.max(4, Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1);
+    }
+
+    private void allocate(int slots)
+    {
+	keys = new long[slots];
+	vals = new double[slots];
+	Arrays.fill(keys, EMPTY);
+	mask = slots - 1;
+	count = 0;
+    }
+
+    private void rehash(int slots)
+    {
+	long[] oldKeys = keys;
+	double[] oldVals = vals;
+
+	allocate(slots);
+
+	for (int slot = 0; slot < oldKeys.length; slot++)
+	    if (oldKeys[slot] != EMPTY)
+		put(oldKeys[slot], oldVals[slot]);
+    }
+}
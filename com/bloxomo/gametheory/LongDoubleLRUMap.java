@@ -0,0 +1,361 @@
+package com.bloxomo.gametheory;
+
+import java.util.*;
+
+/**
+ * Maps nonnegative <CODE>long</CODE> keys to <CODE>double</CODE>
+ * values, holding at most a given number of entries.  Adding an entry
+ * to a full map drops the least recently used one; looking a key up or
+ * setting its value counts as using it.  Entries are kept in arrays
+ * linked into a list from most to least recently used, and found
+ * through an open-addressing table from keys to entries, so neither
+ * keys nor values are boxed and a full map does not allocate.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class LongDoubleLRUMap
+{
+    /**
+     * The key that marks an empty slot in the table.
+     */
+
+    private static final long EMPTY = -1;
+
+    private final int maxEntries;
+
+    /**
+     * The key and value of each entry and the entries used just before
+     * and after it, or -1 at the ends of the list.
+     */
+
+    private long[] entryKeys;
+
+    private double[] entryVals;
+
+    private int[] prev;
+
+    private int[] next;
+
+    /**
+     * The most and least recently used entries, or -1 if there are
+     * none.
+     */
+
+    private int head;
+
+    private int tail;
+
+    private int count;
+
+    /**
+     * Open-addressing table from keys to entries; the number of slots
+     * is a power of 2 at least twice the number of entries.
+     */
+
+    private long[] tableKeys;
+
+    private int[] tableEntries;
+
+    private int mask;
+
+    private long evictions;
+
+    /**
+     * Creates an empty map that holds at most the given number of
+     * entries.  Storage grows with the map up to that size.
+     *
+     * @param max a positive integer
+     */
+
+    public LongDoubleLRUMap(int max)
+    {
+	if (max < 1)
+	    throw new IllegalArgumentException("maximum size " + max + " is not positive");
+	if (max > (1 << 29))
+	    throw new IllegalArgumentException("maximum size " + max + " is too large");
+
+	maxEntries = max;
+
+	int capacity = Math.min(max, 64);
+	entryKeys = new long[capacity];
+	entryVals = new double[capacity];
+	prev = new int[capacity];
+	next = new int[capacity];
+	allocateTable(slotsFor(capacity));
+
+	head = -1;
+	tail = -1;
+    }
+
+    /**
+     * Returns the value for the given key and marks it as the most
+     * recently used.
+     *
+     * @param key a nonnegative integer
+     * @param missing the value to return if the key is not in this map
+     * @return the value for that key, or <CODE>missing</CODE>
+     */
+
+    public double get(long key, double missing)
+    {
+	int slot = find(key);
+	if (slot < 0)
+	    return missing;
+
+	int e = tableEntries[slot];
+	moveToFront(e);
+
+	return entryVals[e];
+    }
+
+    /**
+     * Sets the value for the given key, replacing any old value, and
+     * marks it as the most recently used.  If the key is new and the
+     * map is full, the least recently used entry is dropped.
+     *
+     * @param key a nonnegative integer
+     * @param val the value for that key
+     */
+
+    public void put(long key, double val)
+    {
+	if (key < 0)
+	    throw new IllegalArgumentException("negative key " + key);
+
+	int slot = find(key);
+	if (slot >= 0)
+	    {
+		int e = tableEntries[slot];
+		entryVals[e] = val;
+		moveToFront(e);
+		return;
+	    }
+
+	int e;
+	if (count == maxEntries)
+	    {
+		e = tail;
+		unlink(e);
+		removeKey(entryKeys[e]);
+		count--;
+		evictions++;
+	    }
+	else
+	    {
+		e = count;
+		if (e == entryKeys.length)
+		    grow(Math.min(maxEntries, entryKeys.length * 2));
+	    }
+
+	entryKeys[e] = key;
+	entryVals[e] = val;
+	pushFront(e);
+
+	slot = slotOf(key);
+	while (tableKeys[slot] != EMPTY)
+	    slot = (slot + 1) & mask;
+	tableKeys[slot] = key;
+	tableEntries[slot] = e;
+	count++;
+    }
+
+    /**
+     * Determines if this map contains the given key, without marking it
+     * as used.
+     *
+     * @param key an integer
+     * @return true iff this map has a value for that key
+     */
+
+    public boolean containsKey(long key)
+    {
+	return (find(key) >= 0);
+    }
+
+    /**
+     * Returns the number of entries in this map.
+     *
+     * @return the number of entries in this map
+     */
+
+    public int size()
+    {
+	return count;
+    }
+
+    /**
+     * Returns the most entries this map holds.
+     *
+     * @return the most entries this map holds
+     */
+
+    public int getMaxSize()
+    {
+	return maxEntries;
+    }
+
+    /**
+     * Returns the number of entries dropped to make room for new ones.
+     *
+     * @return the number of entries dropped
+     */
+
+    public long getEvictions()
+    {
+	return evictions;
+    }
+
+    /**
+     * Removes all entries from this map without releasing its storage.
+     */
+
+    public void clear()
+    {
+	if (count > 0)
+	    {
+		Arrays.fill(tableKeys, EMPTY);
+		count = 0;
+		head = -1;
+		tail = -1;
+	    }
+    }
+
+    public String toString()
+    {
+	return "[" + count + " of " + maxEntries + " entries, " + evictions + " evictions]";
+    }
+
+    private void unlink(int e)
+    {
+	if (prev[e] != -1)
+	    next[prev[e]] = next[e];
+	else
+	    head = next[e];
+
+	if (next[e] != -1)
+	    prev[next[e]] = prev[e];
+	else
+	    tail = prev[e];
+    }
+
+    private void pushFront(int e)
+    {
+	prev[e] = -1;
+	next[e] = head;
+	if (head != -1)
+	    prev[head] = e;
+	head = e;
+	if (tail == -1)
+	    tail = e;
+    }
+
+    private void moveToFront(int e)
+    {
+	if (head != e)
+	    {
+		unlink(e);
+		pushFront(e);
+	    }
+    }
+
+    /**
+     * Returns the slot in the table holding the given key.
+     *
+     * @param key an integer
+     * @return the slot holding that key, or -1 if it is not in this map
+     */
+
+    private int find(long key)
+    {
+	if (key < 0)
+	    return -1;
+
+	int slot = slotOf(key);
+	while (tableKeys[slot] != EMPTY)
+	    {
+		if (tableKeys[slot] == key)
+		    return slot;
+		slot = (slot + 1) & mask;
+	    }
+
+	return -1;
+    }
+
+    /**
+     * Removes the given key from the table, shifting later keys of the
+     * same run back so that lookups never stop early at the hole.
+     *
+     * @param key a key in the table
+     */
+
+    private void removeKey(long key)
+    {
+	int hole = find(key);
+	int slot = (hole + 1) & mask;
+	while (tableKeys[slot] != EMPTY)
+	    {
+		int home = slotOf(tableKeys[slot]);
+		if (((slot - home) & mask) >= ((slot - hole) & mask))
+		    {
+			tableKeys[hole] = tableKeys[slot];
+			tableEntries[hole] = tableEntries[slot];
+			hole = slot;
+		    }
+		slot = (slot + 1) & mask;
+	    }
+
+	tableKeys[hole] = EMPTY;
+    }
+
+    /**
+     * Returns the slot the given key hashes to, spreading the bits of
+     * state indices as <CODE>LongDoubleHashMap</CODE> does.
+     *
+     * @param key a nonnegative integer
+     * @return the first slot to look for that key in
+     */
+
+    private int slotOf(long key)
+    {
+	return (int)((key * 0x9E3779B97F4A7C15L) >>> 32) & mask;
+    }
+
+    /**
+     * Makes room for the given number of entries and rebuilds the table
+     * to fit them.
+     *
+     * @param capacity the new number of entries
+     */
+
+    private void grow(int capacity)
+    {
+	entryKeys = Arrays.copyOf(entryKeys, capacity);
+	entryVals = Arrays.copyOf(entryVals, capacity);
+	prev = Arrays.copyOf(prev, capacity);
+	next = Arrays.copyOf(next, capacity);
+
+	allocateTable(slotsFor(capacity));
+	for (int e = 0; e < count; e++)
+	    {
+		int slot = slotOf(entryKeys[e]);
+		while (tableKeys[slot] != EMPTY)
+		    slot = (slot + 1) & mask;
+		tableKeys[slot] = entryKeys[e];
+		tableEntries[slot] = e;
+	    }
+    }
+
+    private static int slotsFor(int capacity)
+    {
+	return Math.max(4, Integer.highestOneBit(Math.max(1, capacity * 2 - 1)) << 1);
+    }
+
+    private void allocateTable(int slots)
+    {
+	tableKeys = new long[slots];
+	tableEntries = new int[slots];
+	Arrays.fill(tableKeys, EMPTY);
+	mask = slots - 1;
+    }
+}
@@ -35,6 +35,38 @@ public interface MPPositionValueMap
 
     public void setValue(long index, int player, double value);
 
+    /**
+     * Looks up the position values of the states with the given indices
+     * from the given player's point of view.  The default implementation
+     * looks them up one at a time.
+     *
+     * @param indices some state indices
+     * @param player a nonnegative integer
+     * @param out an array to hold the position value of each of those
+     * states
+     */
+
+    public default void getValues(long[] indices, int player, double[] out)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    out[i] = getValue(indices[i], player);
+    }
+
+    /**
+     * Sets the position values of the states with the given indices from
+     * the given player's point of view.
+     *
+     * @param indices some state indices
+     * @param player a nonnegative integer
+     * @param vals the position value of each of those states
+     */
+
+    public default void setValues(long[] indices, int player, double[] vals)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    setValue(indices[i], player, vals[i]);
+    }
+
     /**
      * Determines if a value has been recorded for the given state and player.
      *
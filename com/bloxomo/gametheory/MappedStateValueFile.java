@@ -0,0 +1,203 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * A map of states to values implemented using a memory-mapped file.
+ * With the default format the file has the same layout as a
+ * <CODE>StateValueFile</CODE>: the value of state i is the big-endian
+ * <CODE>double</CODE> at offset 8i.  The file is mapped in segments
+ * so that files larger than 2GB can be used.
+ *
+ * Reads do not lock and may be made concurrently by any number of
+ * threads.  Writes also do not lock; concurrent writes are safe as long
+ * as different threads write to different states.  Writes become
+ * visible to other threads through whatever synchronization the
+ * caller uses between writing and reading (for example, the end of
+ * a stage in a <CODE>StagedQueue</CODE>), and reach the disk when
+ * <CODE>flush</CODE> is called or when the operating system gets around
+ * to it.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class MappedStateValueFile extends SegmentedStateValueMap
+{
+    /**
+     * log2 of the number of bytes in each mapped segment.
+     */
+
+    private static final int SEGMENT_SHIFT = 30;
+
+    /**
+     * log2 of the number of bytes in each region tracked for
+     * <CODE>flush</CODE>.
+     */
+
+    private static final int REGION_SHIFT = 22;
+
+    private static final int REGIONS_PER_SEGMENT = 1 << (SEGMENT_SHIFT - REGION_SHIFT);
+
+    /**
+     * The file backing this map.  It is kept open so the mappings can
+     * be forced to disk.
+     */
+
+    private RandomAccessFile file;
+
+    /**
+     * One flag for each region of each segment that has been written
+     * since the last <CODE>flush</CODE>.  Flags are only ever set by
+     * writers and only ever cleared by <CODE>flush</CODE>.
+     */
+
+    private boolean[] dirty;
+
+    public MappedStateValueFile(String fname, long size) throws IOException
+    {
+	this(fname, size, true);
+    }
+
+    /**
+     * Constructs a new map that holds the given number of states.
+     * The states are assumed to be numbered consecutively starting from
+     * zero.  A new or extended file is zero-filled by the file system,
+     * so no data is written here.
+     *
+     * @param fname the name of the file used to store data for this new map
+     * @param size the number of states in this new map
+     * @param init true to indicate the new map should be zeroed
+     */
+
+    public MappedStateValueFile(String fname, long size, boolean init) throws IOException
+    {
+	this(fname, size, init, ValueFormat.DOUBLE_FORMAT);
+    }
+
+    /**
+     * Constructs a new map that holds the given number of states
+     * stored in the given format.  The file contains only the encoded
+     * values, without a format header.
+     *
+     * @param fname the name of the file used to store data for this new map
+     * @param size the number of states in this new map
+     * @param init true to indicate the new map should be zeroed
+     * @param fmt the encoding used to store the values
+     */
+
+    public MappedStateValueFile(String fname, long size, boolean init, ValueFormat fmt) throws IOException
+    {
+	super(size, SEGMENT_SHIFT, fmt);
+
+	file = new RandomAccessFile(fname, "rw");
+
+	if (init)
+	    file.setLength(0);
+	if (file.length() < countBytes())
+	    file.setLength(countBytes());
+
+	// map the file one segment at a time
+
+	FileChannel channel = file.getChannel();
+
+	for (int seg = 0; seg < segments.length; seg++)
+	    {
+		segments[seg] = channel.map(FileChannel.MapMode.READ_WRITE,
+					    (long)seg << SEGMENT_SHIFT,
+					    getSegmentLength(seg));
+	    }
+
+	dirty = new boolean[segments.length * REGIONS_PER_SEGMENT];
+    }
+
+    /**
+     * Sets the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @param val the value of that state
+     */
+
+    public void setValue(long index, double val)
+    {
+	super.setValue(index, val);
+	dirty[(int)((index * bytesPerValue) >>> REGION_SHIFT)] = true;
+    }
+
+    /**
+     * Looks up the values stored at the given indices in order of index
+     * so that pages of the file are touched in order.
+     *
+     * @param indices some indices in this map
+     * @param out an array to hold the value stored at each of those
+     * indices
+     */
+
+    public void getValues(long[] indices, double[] out)
+    {
+	for (int i : IndexOrder.sort(indices))
+	    out[i] = getValue(indices[i]);
+    }
+
+    /**
+     * Sets the values stored at the given indices in order of index.
+     *
+     * @param indices some indices in this map
+     * @param vals the value to store at each of those indices
+     */
+
+    public void setValues(long[] indices, double[] vals)
+    {
+	for (int i : IndexOrder.sort(indices))
+	    setValue(indices[i], vals[i]);
+    }
+
+    /**
+     * Reads this map from the given stream.  Any data in this map is lost.
+     *
+     * @param is the stream to read from
+     */
+
+    public void read(DataInputStream is) throws IOException
+    {
+	super.read(is);
+
+	for (int r = 0; r < dirty.length; r++)
+	    dirty[r] = true;
+    }
+
+    /**
+     * Forces the regions of the file written since the last flush
+     * out to disk.  Writes made concurrently with a flush may or may
+     * not be included; they will be included in the next flush.
+     */
+
+    public void flush()
+    {
+	for (int r = 0; r < dirty.length; r++)
+	    {
+		if (dirty[r])
+		    {
+			dirty[r] = false;
+
+			MappedByteBuffer segment = (MappedByteBuffer)(segments[r / REGIONS_PER_SEGMENT]);
+			int start = (r % REGIONS_PER_SEGMENT) << REGION_SHIFT;
+
+			if (start < segment.capacity())
+			    segment.force(start, Math.min(1 << REGION_SHIFT, segment.capacity() - start));
+		    }
+	    }
+    }
+
+    /**
+     * Flushes this map and closes the underlying file.  The map must not
+     * be used afterwards.
+     */
+
+    public void close() throws IOException
+    {
+	flush();
+	file.close();
+    }
+}
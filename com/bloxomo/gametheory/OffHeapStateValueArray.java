@@ -0,0 +1,55 @@
+package com.bloxomo.gametheory;
+
+import java.nio.*;
+
+/**
+ * A map of states to values held in direct (off-heap) memory.  Like a
+ * <CODE>StateValueArray</CODE> it has one entry for each possible state,
+ * but the entries are spread over fixed-size pages indexed by a
+ * <CODE>long</CODE>, so it can hold more than 2^31 states and does not
+ * put a multi-gigabyte array on the garbage-collected heap.  The memory
+ * available is limited by <CODE>-XX:MaxDirectMemorySize</CODE> rather
+ * than by the heap size.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class OffHeapStateValueArray extends SegmentedStateValueMap
+{
+    /**
+     * log2 of the number of bytes in each page.
+     */
+
+    private static final int PAGE_SHIFT = 27;
+
+    /**
+     * Constructs a new map that holds the given number of states, all
+     * with value zero.  The states are assumed to be numbered
+     * consecutively starting from zero.
+     *
+     * @param size the number of states in this new map
+     */
+
+    public OffHeapStateValueArray(long size)
+    {
+	this(size, ValueFormat.DOUBLE_FORMAT);
+    }
+
+    /**
+     * Constructs a new map that holds the given number of states, all
+     * with the value represented by zero bytes in the given format.
+     *
+     * @param size the number of states in this new map
+     * @param fmt the encoding used to store the values
+     */
+
+    public OffHeapStateValueArray(long size, ValueFormat fmt)
+    {
+	super(size, PAGE_SHIFT, fmt);
+
+	// direct buffers are zeroed when allocated
+
+	for (int seg = 0; seg < segments.length; seg++)
+	    segments[seg] = ByteBuffer.allocateDirect(getSegmentLength(seg));
+    }
+}
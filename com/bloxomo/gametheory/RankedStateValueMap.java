@@ -0,0 +1,202 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+
+/**
+ * A map of states to values that stores one value per rank of some
+ * <CODE>StateRanking</CODE>.  States with the same rank share a value,
+ * so setting the value of one sets the value of all of them.  A
+ * ranking may leave out final states by ranking them -1; nothing is
+ * stored for those and their value is their final value.  The
+ * file written by this map contains the values in order of rank.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class RankedStateValueMap implements StateValueMap
+{
+    /**
+     * The ranking used to convert states to indices in the storage.
+     */
+
+    private StateRanking ranking;
+
+    /**
+     * The values, indexed by rank.
+     */
+
+    private IndexedStateValueMap storage;
+
+    /**
+     * Creates a map that uses the given ranking and stores its values
+     * in the given map.
+     *
+     * @param r a ranking of states
+     * @param m a map with at least <CODE>r.countRanks()</CODE> entries
+     */
+
+    public RankedStateValueMap(StateRanking r, IndexedStateValueMap m)
+    {
+	if (m.size() < r.countRanks())
+	    throw new IllegalArgumentException("map has " + m.size() + " entries; ranking needs " + r.countRanks());
+
+	ranking = r;
+	storage = m;
+    }
+
+    public StateRanking getRanking()
+    {
+	return ranking;
+    }
+
+    public IndexedStateValueMap getStorage()
+    {
+	return storage;
+    }
+
+    /**
+     * Returns the value of the given state.
+     *
+     * @param s a state in this map
+     * @return the value of the given state.
+     */
+
+    public double getValue(GameState s)
+    {
+	long r = ranking.rank(s);
+
+	if (r < 0)
+	    return s.getFinalValue();
+	else
+	    return storage.getValue(r);
+    }
+
+    /**
+     * Sets the value of the given state and all states with the same rank.
+     * Values of unranked final states are ignored.
+     *
+     * @param s a game state
+     * @param val the value of that state
+     */
+
+    public void setValue(GameState s, double val)
+    {
+	long r = ranking.rank(s);
+
+	if (r >= 0)
+	    storage.setValue(r, val);
+    }
+
+    /**
+     * Looks up the values of the given states with one bulk lookup in
+     * the storage.
+     *
+     * @param states some states in this map
+     * @param out an array to hold the value of each of those states
+     */
+
+    public void getValues(GameState[] states, double[] out)
+    {
+	long[] ranks = new long[states.length];
+	int ranked = 0;
+	for (int i = 0; i < states.length; i++)
+	    {
+		ranks[i] = ranking.rank(states[i]);
+		if (ranks[i] >= 0)
+		    ranked++;
+	    }
+
+	long[] indices = new long[ranked];
+	int k = 0;
+	for (int i = 0; i < states.length; i++)
+	    if (ranks[i] >= 0)
+		indices[k++] = ranks[i];
+
+	double[] found = new double[ranked];
+	storage.getValues(indices, found);
+
+	k = 0;
+	for (int i = 0; i < states.length; i++)
+	    {
+		if (ranks[i] >= 0)
+		    out[i] = found[k++];
+		else
+		    out[i] = states[i].getFinalValue();
+	    }
+    }
+
+    /**
+     * Sets the values of the given states with one bulk update of the
+     * storage.  Values of unranked final states are ignored.
+     *
+     * @param states some states
+     * @param vals the value of each of those states
+     */
+
+    public void setValues(GameState[] states, double[] vals)
+    {
+	long[] ranks = new long[states.length];
+	int ranked = 0;
+	for (int i = 0; i < states.length; i++)
+	    {
+		ranks[i] = ranking.rank(states[i]);
+		if (ranks[i] >= 0)
+		    ranked++;
+	    }
+
+	long[] indices = new long[ranked];
+	double[] stored = new double[ranked];
+	int k = 0;
+	for (int i = 0; i < states.length; i++)
+	    {
+		if (ranks[i] >= 0)
+		    {
+			indices[k] = ranks[i];
+			stored[k] = vals[i];
+			k++;
+		    }
+	    }
+
+	storage.setValues(indices, stored);
+    }
+
+    /**
+     * Determines if this map contains the given state.
+     *
+     * @return true iff this map contains the given state
+     */
+
+    public boolean contains(GameState s)
+    {
+	long r = ranking.rank(s);
+
+	return (r < ranking.countRanks() && (r >= 0 || s.isFinal()));
+    }
+
+    /**
+     * Writes this map to the given stream in order of rank.
+     *
+     * @param os the stream to write to
+     */
+
+    public void write(DataOutputStream os) throws IOException
+    {
+	storage.write(os);
+    }
+
+    /**
+     * Reads this map from the given stream.  Any data in this map is lost.
+     *
+     * @param is the stream to read from
+     */
+
+    public void read(DataInputStream is) throws IOException
+    {
+	storage.read(is);
+    }
+
+    public void flush()
+    {
+	storage.flush();
+    }
+}
@@ -0,0 +1,182 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+
+/**
+ * A cached file map that evicts lines using segmented LRU.  Newly
+ * loaded lines go into a probationary segment; a line that is used again
+ * while on probation moves to a protected segment.  Lines are evicted
+ * from the least recently used end of the probationary segment, so a
+ * sweep through many lines that are each used once (such as the writes
+ * to a layer being solved) cannot push out the lines that are read
+ * repeatedly (such as the values of the layers above it).  When the
+ * protected segment is full its least recently used line is demoted
+ * back to probation.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class SegmentedLRUStateValueFile extends CachedStateValueFile
+{
+    /**
+     * The fraction of the lines that may be protected.
+     */
+
+    public static final double PROTECTED_FRACTION = 0.8;
+
+    /**
+     * Codes for the segment each line is in.
+     */
+
+    private static final int EMPTY = 0;
+    private static final int PROBATION = 1;
+    private static final int PROTECTED = 2;
+
+    /**
+     * The segment each line is in.
+     */
+
+    private int[] segment;
+
+    /**
+     * Links for the doubly-linked lists of lines in each segment; -1
+     * marks the ends of the lists.  Heads are the most recently used.
+     */
+
+    private int[] prev;
+
+    private int[] next;
+
+    private int[] head;
+
+    private int[] tail;
+
+    private int[] count;
+
+    /**
+     * The maximum number of lines in the protected segment.
+     */
+
+    private int protectedCapacity;
+
+    public SegmentedLRUStateValueFile(String fname, long numStates, int numLines) throws IOException
+    {
+	this(fname, numStates, numLines, DEFAULT_LINE_LENGTH, true);
+    }
+
+    /**
+     * Constructs a new map that holds the given number of states in the
+     * given file with a cache of the given size.
+     *
+     * @param fname the name of the file used to store data for this new map
+     * @param numStates the number of states in this new map
+     * @param numLines the number of lines in the cache
+     * @param lineLength the number of values in each line; must be
+     * a power of two
+     * @param init true to indicate the new map should be zeroed
+     */
+
+    public SegmentedLRUStateValueFile(String fname, long numStates, int numLines, int lineLength, boolean init)
+	throws IOException
+    {
+	super(fname, numStates, numLines, lineLength, init);
+
+	segment = new int[numLines];
+	prev = new int[numLines];
+	next = new int[numLines];
+	head = new int[] {-1, -1, -1};
+	tail = new int[] {-1, -1, -1};
+	count = new int[3];
+
+	protectedCapacity = Math.max(1, Math.min(numLines - 1, (int)(numLines * PROTECTED_FRACTION)));
+    }
+
+    protected void lineUsed(int line)
+    {
+	if (segment[line] == PROBATION)
+	    {
+		unlink(line);
+
+		if (count[PROTECTED] >= protectedCapacity)
+		    {
+			int demoted = tail[PROTECTED];
+			unlink(demoted);
+			pushFront(PROBATION, demoted);
+		    }
+
+		pushFront(PROTECTED, line);
+	    }
+	else if (head[segment[line]] != line)
+	    {
+		int seg = segment[line];
+		unlink(line);
+		pushFront(seg, line);
+	    }
+    }
+
+    protected void lineLoaded(int line)
+    {
+	if (segment[line] != EMPTY)
+	    unlink(line);
+
+	pushFront(PROBATION, line);
+    }
+
+    protected int pickLineToReplace()
+    {
+	if (tail[PROBATION] != -1)
+	    return tail[PROBATION];
+	else
+	    return tail[PROTECTED];
+    }
+
+    protected void invalidate()
+    {
+	super.invalidate();
+
+	if (segment != null)
+	    {
+		for (int l = 0; l < segment.length; l++)
+		    segment[l] = EMPTY;
+		for (int seg = 0; seg < head.length; seg++)
+		    {
+			head[seg] = -1;
+			tail[seg] = -1;
+			count[seg] = 0;
+		    }
+	    }
+    }
+
+    private void unlink(int line)
+    {
+	int seg = segment[line];
+
+	if (prev[line] != -1)
+	    next[prev[line]] = next[line];
+	else
+	    head[seg] = next[line];
+
+	if (next[line] != -1)
+	    prev[next[line]] = prev[line];
+	else
+	    tail[seg] = prev[line];
+
+	count[seg]--;
+	segment[line] = EMPTY;
+    }
+
+    private void pushFront(int seg, int line)
+    {
+	segment[line] = seg;
+	prev[line] = -1;
+	next[line] = head[seg];
+
+	if (head[seg] != -1)
+	    prev[head[seg]] = line;
+	else
+	    tail[seg] = line;
+
+	head[seg] = line;
+	count[seg]++;
+    }
+}
@@ -0,0 +1,333 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+
+/**
+ * A map of states to values stored in a sequence of byte buffers.  The
+ * value of state i is stored at byte offset bi, where b is the number
+ * of bytes per value in the map's <CODE>ValueFormat</CODE> and the
+ * offsets run consecutively through the buffers.  With the default
+ * format each value is a big-endian <CODE>double</CODE>.  Indices
+ * are <CODE>long</CODE>s, so there is no 2^31 limit on the number of
+ * states.  Subclasses decide where the buffers come from.
+ *
+ * Neither reads nor writes lock.  Concurrent reads are always safe;
+ * concurrent writes are safe as long as they are to different states.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public abstract class SegmentedStateValueMap implements IndexedStateValueMap
+{
+    /**
+     * The buffers holding the values.  Every buffer but the last holds
+     * exactly 2^segmentShift bytes.
+     */
+
+    protected ByteBuffer[] segments;
+
+    /**
+     * log2 of the number of bytes in each full segment.  Must be at least
+     * 3 so no value spans two segments.
+     */
+
+    protected final int segmentShift;
+
+    protected final long segmentMask;
+
+    /**
+     * The number of states in this map.
+     */
+
+    protected final long numStates;
+
+    /**
+     * The encoding of the values in the segments.
+     */
+
+    protected final ValueFormat format;
+
+    protected final int bytesPerValue;
+
+    /**
+     * Prepares a map of <CODE>double</CODE>s with the given number of
+     * states and segment size.  The subclass constructor must fill in
+     * <CODE>segments</CODE>.
+     *
+     * @param size the number of states in this new map
+     * @param shift log2 of the size of a segment in bytes
+     */
+
+    protected SegmentedStateValueMap(long size, int shift)
+    {
+	this(size, shift, ValueFormat.DOUBLE_FORMAT);
+    }
+
+    /**
+     * Prepares a map with the given number of states, segment size, and
+     * value format.  The subclass constructor must fill in
+     * <CODE>segments</CODE>.
+     *
+     * @param size the number of states in this new map
+     * @param shift log2 of the size of a segment in bytes
+     * @param fmt the encoding of the values
+     */
+
+    protected SegmentedStateValueMap(long size, int shift, ValueFormat fmt)
+    {
+	numStates = size;
+	segmentShift = shift;
+	segmentMask = (1L << shift) - 1;
+	format = fmt;
+	bytesPerValue = fmt.getBytesPerValue();
+
+	segments = new ByteBuffer[countSegments()];
+    }
+
+    /**
+     * Returns the number of segments needed to hold all the states in
+     * this map.
+     *
+     * @return the number of segments
+     */
+
+    protected int countSegments()
+    {
+	return (int)((countBytes() + segmentMask) >>> segmentShift);
+    }
+
+    /**
+     * Returns the number of bytes in the given segment.
+     *
+     * @param seg the index of a segment
+     * @return the size of that segment
+     */
+
+    protected int getSegmentLength(int seg)
+    {
+	return (int)Math.min(segmentMask + 1, countBytes() - ((long)seg << segmentShift));
+    }
+
+    /**
+     * Returns the total number of bytes needed for the values in this map.
+     *
+     * @return the number of bytes used by this map
+     */
+
+    public long countBytes()
+    {
+	return numStates * bytesPerValue;
+    }
+
+    /**
+     * Returns the number of states in this map.
+     *
+     * @return the number of states in this map
+     */
+
+    public long size()
+    {
+	return numStates;
+    }
+
+    /**
+     * Returns the encoding of the values in this map.
+     *
+     * @return the format of this map
+     */
+
+    public ValueFormat getFormat()
+    {
+	return format;
+    }
+
+    /**
+     * Returns the value of the given state.
+     *
+     * @param s a state in this map
+     * @return the value of the given state.
+     */
+
+    public double getValue(GameState s)
+    {
+	return getValue(s.getIndex());
+    }
+
+    /**
+     * Returns the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @return the value of that state
+     */
+
+    public double getValue(long index)
+    {
+	long offset = index * bytesPerValue;
+
+	return format.get(segments[(int)(offset >>> segmentShift)], (int)(offset & segmentMask));
+    }
+
+    /**
+     * Sets the value of the given state.  If the state already had a value
+     * it is replaced with the new one.
+     *
+     * @param s a game state
+     * @param val the value of that state
+     */
+
+    public void setValue(GameState s, double val)
+    {
+	setValue(s.getIndex(), val);
+    }
+
+    /**
+     * Sets the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @param val the value of that state
+     */
+
+    public void setValue(long index, double val)
+    {
+	long offset = index * bytesPerValue;
+
+	format.put(segments[(int)(offset >>> segmentShift)], (int)(offset & segmentMask), val);
+    }
+
+    /**
+     * Copies the encoded values starting at the given byte offset into
+     * the given buffer, filling its remaining space.  Concurrent
+     * copies are safe.
+     *
+     * @param byteOffset an offset into the values of this map
+     * @param dest the buffer to copy into
+     */
+
+    public void getBytes(long byteOffset, ByteBuffer dest)
+    {
+	while (dest.hasRemaining())
+	    {
+		ByteBuffer src = segments[(int)(byteOffset >>> segmentShift)].duplicate();
+		src.clear();
+		src.position((int)(byteOffset & segmentMask));
+		if (src.remaining() > dest.remaining())
+		    src.limit(src.position() + dest.remaining());
+
+		byteOffset += src.remaining();
+		dest.put(src);
+	    }
+    }
+
+    /**
+     * Copies the encoded values in the given buffer into this map
+     * starting at the given byte offset.  Concurrent copies to
+     * different parts of the map are safe.
+     *
+     * @param byteOffset an offset into the values of this map
+     * @param src the buffer to copy from
+     */
+
+    public void putBytes(long byteOffset, ByteBuffer src)
+    {
+	while (src.hasRemaining())
+	    {
+		ByteBuffer dest = segments[(int)(byteOffset >>> segmentShift)].duplicate();
+		dest.clear();
+		dest.position((int)(byteOffset & segmentMask));
+
+		ByteBuffer part = src.duplicate();
+		if (part.remaining() > dest.remaining())
+		    part.limit(part.position() + dest.remaining());
+
+		byteOffset += part.remaining();
+		src.position(src.position() + part.remaining());
+		dest.put(part);
+	    }
+    }
+
+    /**
+     * Determines if this map contains the given state.
+     *
+     * @return true iff this map contains the given state
+     */
+
+    public boolean contains(GameState s)
+    {
+	return (s.getIndex() >= 0 && s.getIndex() < numStates);
+    }
+
+    /**
+     * Writes this map to the given stream.  Whole segments are handed
+     * to the stream at once.  The values are written in this map's
+     * format with no header; use <CODE>ValueFormat.writeHeader</CODE>
+     * first if the reader needs to know the format.
+     *
+     * @param os the stream to write to
+     */
+
+    public void write(DataOutputStream os) throws IOException
+    {
+	WritableByteChannel out = Channels.newChannel(os);
+
+	for (int seg = 0; seg < segments.length; seg++)
+	    {
+		ByteBuffer src = segments[seg].duplicate();
+		src.clear();
+
+		while (src.hasRemaining())
+		    out.write(src);
+	    }
+
+	os.flush();
+    }
+
+    /**
+     * Reads this map from the given stream.  Any data in this map is lost.
+     * Whole segments are filled from the stream at once.
+     *
+     * @param is the stream to read from
+     */
+
+    public void read(DataInputStream is) throws IOException
+    {
+	ReadableByteChannel in = Channels.newChannel(is);
+
+	for (int seg = 0; seg < segments.length; seg++)
+	    {
+		ByteBuffer dest = segments[seg].duplicate();
+		dest.clear();
+
+		while (dest.hasRemaining())
+		    {
+			if (in.read(dest) < 0)
+			    throw new EOFException("stream ended after " + (((long)seg << segmentShift) + dest.position()) + " bytes");
+		    }
+	    }
+    }
+
+    /**
+     * Reads this map from a stream of values in the given format,
+     * converting them to this map's format if necessary.  Any data in
+     * this map is lost.
+     *
+     * @param is the stream to read from
+     * @param stored the format of the values in the stream
+     */
+
+    public void read(DataInputStream is, ValueFormat stored) throws IOException
+    {
+	if (stored.equals(format))
+	    read(is);
+	else
+	    {
+		for (long i = 0; i < numStates; i++)
+		    setValue(i, stored.readValue(is));
+	    }
+    }
+
+    public void flush()
+    {
+    }
+}
@@ -0,0 +1,74 @@
+package com.bloxomo.gametheory;
+
+/**
+ * Receives a report of each solve done by a <CODE>FixedPointSolver</CODE>.
+ * Solves run on whatever threads call the solver, so implementations
+ * must be safe to call from several threads at once, and should be
+ * cheap enough not to slow down the solves they report on.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public interface SolverMetrics
+{
+    /**
+     * Records the outcome of one solve.
+     *
+     * @param anchor the index of the state whose value was solved for
+     * @param evaluations the number of times the function was evaluated
+     * @param value the value found
+     * @param residual the difference between that value and the
+     * estimate that produced it
+     * @param converged false if the solve stopped at the iteration limit
+     */
+
+    public void recordSolve(long anchor, int evaluations, double value, double residual, boolean converged);
+
+    /**
+     * Records the size and cost of the solve last recorded on the
+     * calling thread.  Callers that know more about a solve than the
+     * solver does report it here, right after the solver reports the
+     * outcome; by default this is ignored.
+     *
+     * @param anchor the index of the state whose value was solved for
+     * @param layer the layer the state is in, or -1 if there are no layers
+     * @param size the number of states solved together
+     * @param nanos the time taken by the solve, including setting it up
+     */
+
+    public default void recordCost(long anchor, int layer, int size, long nanos)
+    {
+    }
+
+    /**
+     * Returns metrics that pass each report on to both of the given
+     * metrics.
+     *
+     * @param first some metrics, or null
+     * @param second some metrics, or null
+     * @return metrics that report to both, or the one that is not null
+     */
+
+    public static SolverMetrics combine(final SolverMetrics first, final SolverMetrics second)
+    {
+	if (first == null)
+	    return second;
+	if (second == null)
+	    return first;
+
+	return new SolverMetrics()
+	    {
+		public void recordSolve(long anchor, int evaluations, double value, double residual, boolean converged)
+		{
+		    first.recordSolve(anchor, evaluations, value, residual, converged);
+		    second.recordSolve(anchor, evaluations, value, residual, converged);
+		}
+
+		public void recordCost(long anchor, int layer, int size, long nanos)
+		{
+		    first.recordCost(anchor, layer, size, nanos);
+		    second.recordCost(anchor, layer, size, nanos);
+		}
+	    };
+    }
+}
@@ -0,0 +1,180 @@
+package com.bloxomo.gametheory;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * Totals up the solves reported to it: how many there were, how many
+ * evaluations they took in all and how many took each number of
+ * evaluations, how many stopped at the iteration limit, the largest
+ * residual left, and, for solves whose cost is reported, the number of
+ * states solved and the time taken.  The counters are updated without locking, so any
+ * number of threads may report at once.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class SolverStatistics implements SolverMetrics
+{
+    private final LongAdder solves = new LongAdder();
+
+    private final LongAdder evaluations = new LongAdder();
+
+    private final LongAdder unconverged = new LongAdder();
+
+    private final DoubleAccumulator maxResidual = new DoubleAccumulator(Math::max, 0.0);
+
+    private final LongAdder states = new LongAdder();
+
+    private final LongAdder nanos = new LongAdder();
+
+    /**
+     * The number of solves that took each number of evaluations; the
+     * last entry counts all solves that took at least that many.
+     */
+
+    private final AtomicLongArray histogram;
+
+    /**
+     * Creates statistics that count solves taking up to the default
+     * iteration limit separately.
+     */
+
+    public SolverStatistics()
+    {
+	this(FixedPointSolver.DEFAULT_MAX_ITERATIONS);
+    }
+
+    /**
+     * Creates statistics that count solves taking up to the given
+     * number of evaluations separately.
+     *
+     * @param maxEvaluations a positive integer
+     */
+
+    public SolverStatistics(int maxEvaluations)
+    {
+	if (maxEvaluations < 1)
+	    throw new IllegalArgumentException("maximum evaluations " + maxEvaluations + " is not positive");
+
+	histogram = new AtomicLongArray(maxEvaluations + 1);
+    }
+
+    public void recordSolve(long anchor, int evals, double value, double residual, boolean converged)
+    {
+	solves.increment();
+	evaluations.add(evals);
+	if (!converged)
+	    unconverged.increment();
+	maxResidual.accumulate(Math.abs(residual));
+	histogram.incrementAndGet(Math.min(evals, histogram.length() - 1));
+    }
+
+    public void recordCost(long anchor, int layer, int size, long time)
+    {
+	states.add(size);
+	nanos.add(time);
+    }
+
+    /**
+     * Returns the number of solves reported.
+     *
+     * @return the number of solves reported
+     */
+
+    public long getSolves()
+    {
+	return solves.sum();
+    }
+
+    /**
+     * Returns the total number of evaluations over all solves.
+     *
+     * @return the total number of evaluations
+     */
+
+    public long getEvaluations()
+    {
+	return evaluations.sum();
+    }
+
+    /**
+     * Returns the number of solves that stopped at the iteration limit.
+     *
+     * @return the number of solves that did not converge
+     */
+
+    public long getUnconverged()
+    {
+	return unconverged.sum();
+    }
+
+    /**
+     * Returns the largest residual of any solve.
+     *
+     * @return the largest absolute residual
+     */
+
+    public double getMaxResidual()
+    {
+	return maxResidual.get();
+    }
+
+    /**
+     * Returns the total number of states in all solves whose cost was
+     * reported.
+     *
+     * @return the total number of states solved
+     */
+
+    public long getStates()
+    {
+	return states.sum();
+    }
+
+    /**
+     * Returns the total time taken by all solves whose cost was
+     * reported.
+     *
+     * @return the total time in nanoseconds
+     */
+
+    public long getNanos()
+    {
+	return nanos.sum();
+    }
+
+    /**
+     * Returns the number of solves that took the given number of
+     * evaluations.
+     *
+     * @param evals a nonnegative integer
+     * @return the number of solves that took that many evaluations;
+     * the count for the largest number counted separately includes all
+     * solves that took more
+     */
+
+    public long countSolves(int evals)
+    {
+	return (evals < histogram.length() ? histogram.get(evals) : 0);
+    }
+
+    public String toString()
+    {
+	long n = getSolves();
+	StringBuffer result = new StringBuffer();
+
+	result.append(n + " solves, " + getEvaluations() + " evaluations");
+	if (n > 0)
+	    result.append(" (" + (double)getEvaluations() / n + " per solve)");
+	result.append(", " + getUnconverged() + " unconverged, max residual " + getMaxResidual());
+	if (getStates() > 0)
+	    result.append(", " + getStates() + " states in " + getNanos() / 1e9 + "s");
+
+	result.append("; by evaluations:");
+	for (int i = 0; i < histogram.length(); i++)
+	    if (histogram.get(i) > 0)
+		result.append(" " + i + (i == histogram.length() - 1 ? "+" : "") + "=" + histogram.get(i));
+
+	return result.toString();
+    }
+}
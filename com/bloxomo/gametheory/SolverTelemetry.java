@@ -0,0 +1,488 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Writes a record of each solve reported to it to a binary event log.
+ * Each thread that reports fills its own preallocated buffer, so
+ * recording a solve takes no lock and does no I/O; full buffers are
+ * handed to a writer thread that appends them to the log and hands them
+ * back for reuse.  Each thread has two buffers, so a thread only waits
+ * if the writer has fallen a whole buffer behind it.  The log must be
+ * closed once every thread reporting to it is done, to write out the
+ * partly full buffers.
+ *
+ * The log is a header of three ints (<CODE>MAGIC</CODE>,
+ * <CODE>VERSION</CODE>, and <CODE>RECORD_BYTES</CODE>) followed by one
+ * record per solve, all big-endian: the int number of the reporting
+ * thread, the long anchor, the int layer, the int size, and the long
+ * time in nanoseconds from <CODE>recordCost</CODE> (all -1 if it was not
+ * called), then the int number of evaluations, the double value, the
+ * double residual, and a byte that is 1 if the solve converged.  Records
+ * from one thread are in the order that thread reported them, but
+ * records from different threads are interleaved by buffer.
+ * <CODE>Reader</CODE> reads them back.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class SolverTelemetry implements SolverMetrics, Closeable
+{
+    /**
+     * The first int of every log.
+     */
+
+    public static final int MAGIC = 0x534c5652;
+
+    /**
+     * The version of the log format.
+     */
+
+    public static final int VERSION = 1;
+
+    /**
+     * The size of one record.
+     */
+
+    public static final int RECORD_BYTES = 49;
+
+    /**
+     * The number of records each buffer holds if no size is given.
+     */
+
+    public static final int DEFAULT_BUFFER_RECORDS = 4096;
+
+    /**
+     * Passed to the writer to tell it to stop.
+     */
+
+    private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+    private final DataOutputStream out;
+
+    private final int bufferBytes;
+
+    /**
+     * Full buffers waiting for the writer.
+     */
+
+    private final BlockingQueue< ByteBuffer > full = new LinkedBlockingQueue< ByteBuffer >();
+
+    /**
+     * Empty buffers waiting for a thread to fill them.
+     */
+
+    private final BlockingQueue< ByteBuffer > free = new LinkedBlockingQueue< ByteBuffer >();
+
+    /**
+     * Every thread's buffer, so they can be written out on close.
+     */
+
+    private final List< ThreadBuffer > threads = new ArrayList< ThreadBuffer >();
+
+    private final ThreadLocal< ThreadBuffer > local = ThreadLocal.withInitial(this::register);
+
+    private final Thread writer;
+
+    private volatile IOException failure;
+
+    private boolean closed;
+
+    /**
+     * Creates a log in the given file with buffers of the default size.
+     *
+     * @param fname the name of the file to write
+     * @throws IOException if the file cannot be created
+     */
+
+    public SolverTelemetry(String fname) throws IOException
+    {
+	this(new FileOutputStream(fname), DEFAULT_BUFFER_RECORDS);
+    }
+
+    /**
+     * Creates a log that writes to the given stream.
+     *
+     * @param os the stream to write to, which is closed with the log
+     * @param records the number of records each buffer holds
+     * @throws IOException if the header cannot be written
+     */
+
+    public SolverTelemetry(OutputStream os, int records) throws IOException
+    {
+	if (records < 1)
+	    throw new IllegalArgumentException("buffer size " + records + " is not positive");
+
+	bufferBytes = records * RECORD_BYTES;
+
+	out = new DataOutputStream(new BufferedOutputStream(os, bufferBytes));
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeInt(RECORD_BYTES);
+
+	writer = new Thread(this::write, "SolverTelemetry");
+	writer.setDaemon(true);
+	writer.start();
+    }
+
+    public void recordSolve(long anchor, int evaluations, double value, double residual, boolean converged)
+    {
+	ThreadBuffer t = local.get();
+	ByteBuffer data = t.data;
+
+	if (data.remaining() < RECORD_BYTES)
+	    data = t.swap();
+
+	t.last = data.position();
+	data.putInt(t.number);
+	data.putLong(anchor);
+	data.putInt(-1);
+	data.putInt(-1);
+	data.putLong(-1);
+	data.putInt(evaluations);
+	data.putDouble(value);
+	data.putDouble(residual);
+	data.put((byte)(converged ? 1 : 0));
+    }
+
+    /**
+     * Fills in the cost of the last solve this thread recorded, if it
+     * was for the same anchor; otherwise this is ignored.
+     */
+
+    public void recordCost(long anchor, int layer, int size, long nanos)
+    {
+	ThreadBuffer t = local.get();
+
+	if (t.last >= 0 && t.data.getLong(t.last + 4) == anchor)
+	    {
+		t.data.putInt(t.last + 12, layer);
+		t.data.putInt(t.last + 16, size);
+		t.data.putLong(t.last + 20, nanos);
+	    }
+    }
+
+    /**
+     * Writes out every thread's buffer and closes the log.  No thread
+     * may report to this log while it closes or after.
+     *
+     * @throws IOException if the log could not be written
+     */
+
+    public void close() throws IOException
+    {
+	synchronized (threads)
+	    {
+		if (closed)
+		    return;
+		closed = true;
+
+		for (ThreadBuffer t : threads)
+		    if (t.data.position() > 0)
+			full.add(t.data);
+	    }
+	full.add(END);
+
+	boolean interrupted = false;
+	while (writer.isAlive())
+	    {
+		try
+		    {
+			writer.join();
+		    }
+		catch (InterruptedException e)
+		    {
+			interrupted = true;
+		    }
+	    }
+	if (interrupted)
+	    Thread.currentThread().interrupt();
+
+	try
+	    {
+		out.close();
+	    }
+	catch (IOException e)
+	    {
+		if (failure == null)
+		    failure = e;
+	    }
+
+	if (failure != null)
+	    throw failure;
+    }
+
+    private ThreadBuffer register()
+    {
+	synchronized (threads)
+	    {
+		if (closed)
+		    throw new IllegalStateException("telemetry log is closed");
+
+		ThreadBuffer t = new ThreadBuffer(threads.size());
+		threads.add(t);
+		return t;
+	    }
+    }
+
+    /**
+     * Appends full buffers to the log until told to stop.  After a
+     * failure buffers are still recycled, so that reporting threads
+     * never wait forever, but nothing more is written.
+     */
+
+    private void write()
+    {
+	while (true)
+	    {
+		ByteBuffer data;
+		try
+		    {
+			data = full.take();
+		    }
+		catch (InterruptedException e)
+		    {
+			continue;
+		    }
+
+		if (data == END)
+		    break;
+
+		if (failure == null)
+		    {
+			try
+			    {
+				out.write(data.array(), 0, data.position());
+			    }
+			catch (IOException e)
+			    {
+				failure = e;
+			    }
+		    }
+
+		data.clear();
+		free.add(data);
+	    }
+
+	try
+	    {
+		out.flush();
+	    }
+	catch (IOException e)
+	    {
+		if (failure == null)
+		    failure = e;
+	    }
+    }
+
+    /**
+     * One thread's buffers.
+     */
+
+    private class ThreadBuffer
+    {
+	private final int number;
+
+	/**
+	 * The buffer being filled.
+	 */
+
+	private ByteBuffer data;
+
+	/**
+	 * The position of the last record in <CODE>data</CODE>, or -1 if
+	 * there is none.
+	 */
+
+	private int last = -1;
+
+	private ThreadBuffer(int n)
+	{
+	    number = n;
+	    data = ByteBuffer.allocate(bufferBytes);
+	    free.add(ByteBuffer.allocate(bufferBytes));
+	}
+
+	/**
+	 * Hands the full buffer to the writer and takes an empty one.
+	 *
+	 * @return the empty buffer
+	 */
+
+	private ByteBuffer swap()
+	{
+	    full.add(data);
+	    last = -1;
+
+	    boolean interrupted = false;
+	    ByteBuffer next = null;
+	    while (next == null)
+		{
+		    try
+			{
+			    next = free.take();
+			}
+		    catch (InterruptedException e)
+			{
+			    interrupted = true;
+			}
+		}
+	    if (interrupted)
+		Thread.currentThread().interrupt();
+
+	    return (data = next);
+	}
+    }
+
+    /**
+     * Reads the records in a log one at a time.
+     */
+
+    public static class Reader implements Closeable
+    {
+	private final DataInputStream in;
+
+	private int thread;
+	private long anchor;
+	private int layer;
+	private int size;
+	private long nanos;
+	private int evaluations;
+	private double value;
+	private double residual;
+	private boolean converged;
+
+	/**
+	 * Opens the given log.
+	 *
+	 * @param fname the name of the log file
+	 * @throws IOException if the file cannot be read or is not a log
+	 */
+
+	public Reader(String fname) throws IOException
+	{
+	    this(new FileInputStream(fname));
+	}
+
+	/**
+	 * Reads a log from the given stream.
+	 *
+	 * @param is the stream to read, which is closed with this reader
+	 * @throws IOException if the stream cannot be read or is not a log
+	 */
+
+	public Reader(InputStream is) throws IOException
+	{
+	    in = new DataInputStream(new BufferedInputStream(is, DEFAULT_BUFFER_RECORDS * RECORD_BYTES));
+
+	    if (in.readInt() != MAGIC)
+		throw new IOException("not a solver telemetry log");
+	    int version = in.readInt();
+	    int recordBytes = in.readInt();
+	    if (version != VERSION || recordBytes != RECORD_BYTES)
+		throw new IOException("unsupported log version " + version + " with " + recordBytes + "-byte records");
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return false if there are no more records
+	 * @throws IOException if the log cannot be read or ends in the
+	 * middle of a record
+	 */
+
+	public boolean next() throws IOException
+	{
+	    try
+		{
+		    thread = in.readInt();
+		}
+	    catch (EOFException e)
+		{
+		    return false;
+		}
+
+	    anchor = in.readLong();
+	    layer = in.readInt();
+	    size = in.readInt();
+	    nanos = in.readLong();
+	    evaluations = in.readInt();
+	    value = in.readDouble();
+	    residual = in.readDouble();
+	    converged = (in.readByte() != 0);
+
+	    return true;
+	}
+
+	public int getThread()
+	{
+	    return thread;
+	}
+
+	public long getAnchor()
+	{
+	    return anchor;
+	}
+
+	/**
+	 * Returns the layer of the current record.
+	 *
+	 * @return the layer, or -1 if it was not reported
+	 */
+
+	public int getLayer()
+	{
+	    return layer;
+	}
+
+	/**
+	 * Returns the number of states solved together.
+	 *
+	 * @return the size, or -1 if it was not reported
+	 */
+
+	public int getSize()
+	{
+	    return size;
+	}
+
+	/**
+	 * Returns the time taken by the solve.
+	 *
+	 * @return the time in nanoseconds, or -1 if it was not reported
+	 */
+
+	public long getNanos()
+	{
+	    return nanos;
+	}
+
+	public int getEvaluations()
+	{
+	    return evaluations;
+	}
+
+	public double getValue()
+	{
+	    return value;
+	}
+
+	public double getResidual()
+	{
+	    return residual;
+	}
+
+	public boolean isConverged()
+	{
+	    return converged;
+	}
+
+	public void close() throws IOException
+	{
+	    in.close();
+	}
+    }
+}
@@ -0,0 +1,32 @@
+package com.bloxomo.gametheory;
+
+/**
+ * A numbering of a subset of the states in a game.  A ranking may give
+ * several states the same rank when they are equivalent (for example,
+ * when they are symmetric), so that a map indexed by rank holds one
+ * value for each class of equivalent states.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public interface StateRanking
+{
+    /**
+     * Returns the rank of the given state.
+     *
+     * @param s a state in the game this ranking is for
+     * @return the rank of that state, between 0 and
+     * <CODE>countRanks() - 1</CODE>, or -1 if the state is a final
+     * state that this ranking leaves out
+     */
+
+    public long rank(GameState s);
+
+    /**
+     * Returns the number of different ranks.
+     *
+     * @return the number of different ranks
+     */
+
+    public long countRanks();
+}
@@ -10,7 +10,7 @@ import java.io.*;
  * @version 0.1 9/4/2003
  */
 
-public class StateValueArray implements StateValueMap
+public class StateValueArray implements IndexedStateValueMap
 {
     /**
      * Holds values for each state.  The value of the state with
@@ -19,6 +19,14 @@ public class StateValueArray implements StateValueMap
 
     private double[] values;
 
+    /**
+     * The largest number of states an array map can hold.  Some JVMs
+     * reserve a few header words, so arrays cannot quite reach 2^31
+     * elements.
+     */
+
+    public static final int MAX_SIZE = Integer.MAX_VALUE - 8;
+
     /**
      * Constructs a new map that holds the given number of states.
      * The states are assumed to be numbered consecutively starting from zero.
@@ -31,6 +39,23 @@ public class StateValueArray implements StateValueMap
 	values = new double[size];
     }
 
+    /**
+     * Determines if an array map with the given number of states
+     * can be put on the heap.  The array must be small enough to index
+     * with an <CODE>int</CODE> and must leave at least half of the
+     * maximum heap for everything else.
+     *
+     * @param size a number of states
+     * @return true iff a <CODE>StateValueArray</CODE> of that size is
+     * reasonable
+     */
+
+    public static boolean fitsOnHeap(long size)
+    {
+	return (size <= MAX_SIZE
+		&& size * 8 <= Runtime.getRuntime().maxMemory() / 2);
+    }
+
     /**
      * Returns the value of the given state.
      *
@@ -43,6 +68,18 @@ public class StateValueArray implements StateValueMap
 	return values[(int)(s.getIndex())];
     }
 
+    /**
+     * Returns the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @return the value of that state
+     */
+
+    public double getValue(long index)
+    {
+	return values[(int)index];
+    }
+
     /**
      * Sets the value of the given state.  If the state already had a value
      * it is replaced with the new one.
@@ -56,6 +93,53 @@ public class StateValueArray implements StateValueMap
 	values[(int)(s.getIndex())] = val;
     }
 
+    /**
+     * Sets the value of the state with the given index.
+     *
+     * @param index the index of a state in this map
+     * @param val the value of that state
+     */
+
+    public void setValue(long index, double val)
+    {
+	values[(int)index] = val;
+    }
+
+    public void getValues(GameState[] states, double[] out)
+    {
+	for (int i = 0; i < states.length; i++)
+	    out[i] = values[(int)(states[i].getIndex())];
+    }
+
+    public void setValues(GameState[] states, double[] vals)
+    {
+	for (int i = 0; i < states.length; i++)
+	    values[(int)(states[i].getIndex())] = vals[i];
+    }
+
+    public void getValues(long[] indices, double[] out)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    out[i] = values[(int)indices[i]];
+    }
+
+    public void setValues(long[] indices, double[] vals)
+    {
+	for (int i = 0; i < indices.length; i++)
+	    values[(int)indices[i]] = vals[i];
+    }
+
+    /**
+     * Returns the number of states in this map.
+     *
+     * @return the number of states in this map
+     */
+
+    public long size()
+    {
+	return values.length;
+    }
+
     /**
      * Determines if this map contains the given state.
      *
@@ -143,6 +143,71 @@ public class StateValueFile implements StateValueMap
 	    }
     }
 
+    /**
+     * Looks up the values of the given states in order of index,
+     * reading each run of consecutive indices from the file at once.
+     *
+     * @param states some states in this map
+     * @param out an array to hold the value of each of those states
+     */
+
+    public synchronized void getValues(GameState[] states, double[] out)
+    {
+	long[] indices = IndexOrder.indices(states);
+	int[] order = IndexOrder.sort(indices);
+
+	try
+	    {
+		int i = 0;
+		while (i < order.length)
+		    {
+			// find the run of consecutive indices starting at i
+
+			int end = i + 1;
+			while (end < order.length && indices[order[end]] - indices[order[end - 1]] <= 1)
+			    end++;
+
+			long first = indices[order[i]];
+			int count = (int)(indices[order[end - 1]] - first + 1);
+			byte[] run = new byte[count * BYTES_PER_DOUBLE];
+			file.seek(first * BYTES_PER_DOUBLE);
+			file.readFully(run);
+
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(run));
+			double[] read = new double[count];
+			for (int k = 0; k < count; k++)
+			    read[k] = in.readDouble();
+
+			for (int k = i; k < end; k++)
+			    out[order[k]] = read[(int)(indices[order[k]] - first)];
+
+			i = end;
+		    }
+	    }
+	catch (IOException e)
+	    {
+		System.err.println("StateValueFile.getValues: could not read from file");
+		System.err.println(e);
+		e.printStackTrace(System.err);
+		System.exit(1);
+	    }
+    }
+
+    /**
+     * Sets the values of the given states in order of index.
+     *
+     * @param states some states
+     * @param vals the value of each of those states
+     */
+
+    public synchronized void setValues(GameState[] states, double[] vals)
+    {
+	long[] indices = IndexOrder.indices(states);
+
+	for (int i : IndexOrder.sort(indices))
+	    setValue(states[i], vals[i]);
+    }
+
     /**
      * Determines if this map contains the given state.
      *
@@ -0,0 +1,37 @@
+package com.bloxomo.gametheory;
+
+/**
+ * Gives the values of game states without necessarily storing them,
+ * for callers that only read values.  Every <CODE>StateValueMap</CODE>
+ * is one; a lookup may also find values as they are asked for.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public interface StateValueLookup
+{
+    /**
+     * Returns the value of the given state.
+     *
+     * @param s a state in this lookup
+     * @return the value of the given state.
+     */
+
+    public double getValue(GameState s);
+
+    /**
+     * Looks up the values of the given states.  The default
+     * implementation looks them up one at a time; maps that can do
+     * better (for example, by taking a lock once or reading from a file
+     * in order) override it.
+     *
+     * @param states some states in this lookup
+     * @param out an array to hold the value of each of those states
+     */
+
+    public default void getValues(GameState[] states, double[] out)
+    {
+	for (int i = 0; i < states.length; i++)
+	    out[i] = getValue(states[i]);
+    }
+}
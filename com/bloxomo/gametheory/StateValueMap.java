@@ -9,17 +9,8 @@ import java.io.*;
  * @version 0.1 9/4/2003
  */
 
-public interface StateValueMap
+public interface StateValueMap extends StateValueLookup
 {
-    /**
-     * Returns the value of the given state.
-     *
-     * @param s a state in this map
-     * @return the value of the given state.
-     */
-
-    public double getValue(GameState s);
-
     /**
      * Sets the value of the given state.  If the state already had a value
      * it is replaced with the new one.
@@ -30,6 +21,19 @@ public interface StateValueMap
 
     public void setValue(GameState s, double val);
 
+    /**
+     * Sets the values of the given states.
+     *
+     * @param states some states
+     * @param vals the value of each of those states
+     */
+
+    public default void setValues(GameState[] states, double[] vals)
+    {
+	for (int i = 0; i < states.length; i++)
+	    setValue(states[i], vals[i]);
+    }
+
     /**
      * Determines if this map contains the given state.
      *
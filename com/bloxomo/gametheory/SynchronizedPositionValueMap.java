@@ -45,6 +45,16 @@ public class SynchronizedPositionValueMap implements MPPositionValueMap
 	map.setValue(index, player, value);
     }
 
+    public synchronized void getValues(long[] indices, int player, double[] out)
+    {
+	map.getValues(indices, player, out);
+    }
+
+    public synchronized void setValues(long[] indices, int player, double[] vals)
+    {
+	map.setValues(indices, player, vals);
+    }
+
     /**
      * Determines if a value has been recorded for the given state and player.
      *
@@ -53,6 +53,31 @@ public class SynchronizedStateValueMap implements StateValueMap
 	map.setValue(s, val);
     }
 
+    /**
+     * Looks up the values of the given states while holding the lock
+     * once.
+     *
+     * @param states some states in this map
+     * @param out an array to hold the value of each of those states
+     */
+
+    public synchronized void getValues(GameState[] states, double[] out)
+    {
+	map.getValues(states, out);
+    }
+
+    /**
+     * Sets the values of the given states while holding the lock once.
+     *
+     * @param states some states
+     * @param vals the value of each of those states
+     */
+
+    public synchronized void setValues(GameState[] states, double[] vals)
+    {
+	map.setValues(states, vals);
+    }
+
     /**
      * Determines if this map contains the given state.
      *
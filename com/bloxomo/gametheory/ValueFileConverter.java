@@ -0,0 +1,245 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+
+/**
+ * Converts a file of position values to a different precision.  A
+ * value file with a <CODE>ValueFileHeader</CODE> is converted to
+ * another with the same header except for the format, so the result
+ * can be loaded for the same game.  Older files (headerless files of
+ * <CODE>double</CODE>s or files starting with a
+ * <CODE>ValueFormat</CODE> header) are converted to files of the same
+ * kind: the output starts with a <CODE>ValueFormat</CODE> header
+ * unless it is written as <CODE>double</CODE>s.  The order of the
+ * values is unchanged, so the converter works for both solitaire and
+ * multiplayer files.
+ *
+ * A file with a header can also be converted to or from a
+ * block-compressed <CODE>CompressedValueFile</CODE>, which stores the
+ * values exactly.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class ValueFileConverter
+{
+    public static void main(String[] args)
+    {
+	if (args.length < 3)
+	    {
+		System.err.println("USAGE: java ValueFileConverter input-file output-file double|float|fixed16[:min:max]|compressed");
+		System.exit(1);
+	    }
+
+	try
+	    {
+		ValueFormat to;
+
+		if (args[2].equals("compressed"))
+		    {
+			long count = compress(args[0], args[1]);
+			System.out.println("Compressed " + count + " values");
+			return;
+		    }
+		else if (args[2].equals("fixed16"))
+		    {
+			double[] range = findRange(args[0]);
+			to = ValueFormat.fixed16(range[0], range[1]);
+		    }
+		else
+		    to = ValueFormat.parse(args[2]);
+
+		long count = convert(args[0], args[1], to);
+
+		System.out.println("Converted " + count + " values to " + to);
+	    }
+	catch (IOException e)
+	    {
+		e.printStackTrace(System.err);
+		System.exit(1);
+	    }
+    }
+
+    /**
+     * Returns the smallest and largest values in the given file.
+     *
+     * @param fname the name of a file of position values
+     * @return an array containing the minimum and maximum values
+     */
+
+    public static double[] findRange(String fname) throws IOException
+    {
+	ValueFileHeader header = readHeader(fname);
+	if (!header.isLegacy())
+	    {
+		IndexedStateValueMap values = load(fname, header);
+
+		double min = Double.POSITIVE_INFINITY;
+		double max = Double.NEGATIVE_INFINITY;
+		for (long i = 0; i < values.size(); i++)
+		    {
+			double val = values.getValue(i);
+			min = Math.min(min, val);
+			max = Math.max(max, val);
+		    }
+
+		if (min > max)
+		    return new double[] {0.0, 0.0};
+		else
+		    return new double[] {min, max};
+	    }
+
+	DataInputStream in = open(fname);
+	ValueFormat from = ValueFormat.readHeader(in);
+
+	double min = Double.POSITIVE_INFINITY;
+	double max = Double.NEGATIVE_INFINITY;
+
+	try
+	    {
+		while (true)
+		    {
+			double val = from.readValue(in);
+			min = Math.min(min, val);
+			max = Math.max(max, val);
+		    }
+	    }
+	catch (EOFException e)
+	    {
+		// normal end of the file
+	    }
+	finally
+	    {
+		in.close();
+	    }
+
+	if (min > max)
+	    return new double[] {0.0, 0.0};
+	else
+	    return new double[] {min, max};
+    }
+
+    /**
+     * Copies the values in one file to another file in the given format.
+     *
+     * @param inName the name of the file to read
+     * @param outName the name of the file to write
+     * @param to the format to write
+     * @return the number of values copied
+     */
+
+    public static long convert(String inName, String outName, ValueFormat to) throws IOException
+    {
+	ValueFileHeader header = readHeader(inName);
+	if (!header.isLegacy())
+	    {
+		ValueFiles.save(outName, header.withFormat(to), load(inName, header));
+		return header.getCount();
+	    }
+
+	DataInputStream in = open(inName);
+	ValueFormat from = ValueFormat.readHeader(in);
+
+	DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(outName), 1 << 16));
+
+	if (!to.equals(ValueFormat.DOUBLE_FORMAT))
+	    to.writeHeader(out);
+
+	long count = 0;
+
+	try
+	    {
+		while (true)
+		    {
+			double val = from.readValue(in);
+			to.writeValue(out, val);
+			count++;
+		    }
+	    }
+	catch (EOFException e)
+	    {
+		// normal end of the file
+	    }
+	finally
+	    {
+		in.close();
+		out.close();
+	    }
+
+	return count;
+    }
+
+    /**
+     * Copies the values in a file with a header to a compressed file.
+     *
+     * @param inName the name of the file to read
+     * @param outName the name of the file to write
+     * @return the number of values copied
+     */
+
+    public static long compress(String inName, String outName) throws IOException
+    {
+	ValueFileHeader header = readHeader(inName);
+	if (header.isLegacy())
+	    throw new IOException(inName + " has no header to record in a compressed file");
+
+	CompressedValueFile.write(outName, header, load(inName, header));
+
+	return header.getCount();
+    }
+
+    /**
+     * Reads the header of the given file, which may be compressed.
+     * The header of a compressed file is changed to describe an
+     * uncompressed file of the same values.
+     *
+     * @param fname the name of a value file
+     * @return the header of that file
+     */
+
+    private static ValueFileHeader readHeader(String fname) throws IOException
+    {
+	if (CompressedValueFile.isCompressed(fname))
+	    {
+		CompressedValueFile in = new CompressedValueFile(fname);
+		in.close();
+		return in.getHeader().withBlockLength(ValueFileHeader.DEFAULT_BLOCK_LENGTH);
+	    }
+	else
+	    return ValueFiles.readHeader(fname);
+    }
+
+    /**
+     * Loads all of the values in the given file in the format they
+     * are stored in.  The values in a compressed file are read from
+     * it as they are needed.
+     *
+     * @param fname the name of a value file
+     * @param header the header of that file
+     * @return a map containing the values in that file
+     */
+
+    private static IndexedStateValueMap load(String fname, ValueFileHeader header) throws IOException
+    {
+	if (CompressedValueFile.isCompressed(fname))
+	    return new CompressedValueFile(fname);
+
+	SegmentedStateValueMap values = new OffHeapStateValueArray(header.getCount(), header.getFormat());
+	ValueFiles.load(fname, header, values);
+	return values;
+    }
+
+    /**
+     * Opens the given file for reading values.  The stream supports
+     * <CODE>mark</CODE> so its header can be read with
+     * <CODE>ValueFormat.readHeader</CODE>.
+     *
+     * @param fname the name of a file
+     * @return a stream reading from that file
+     */
+
+    public static DataInputStream open(String fname) throws IOException
+    {
+	return new DataInputStream(new BufferedInputStream(new FileInputStream(fname), 1 << 16));
+    }
+}
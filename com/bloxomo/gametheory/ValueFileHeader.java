@@ -0,0 +1,373 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The header of a self-describing value file.  The header records
+ * which game the values are for (a game code and a list of integer rule
+ * parameters whose meaning depends on the game), how states are mapped
+ * to positions in the file (a game-specific index scheme code), how
+ * the values are encoded, how many there are, and a CRC-32 checksum
+ * for each block of values.  The values follow the header, starting
+ * at an offset that is a multiple of 8.
+ *
+ * The layout is, in big-endian order: magic number, version, game code,
+ * number of rule parameters, the rule parameters, index scheme,
+ * precision, scale, offset, number of values, values per block, number
+ * of blocks, the checksums, and padding.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class ValueFileHeader
+{
+    /**
+     * The first four bytes of a value file ("CSVF").
+     */
+
+    public static final int MAGIC = 0x43535646;
+
+    public static final int VERSION = 1;
+
+    /**
+     * Codes for games.
+     */
+
+    public static final int GAME_UNKNOWN = 0;
+    public static final int GAME_SOLITAIRE = 1;
+    public static final int GAME_MULTIPLAYER = 2;
+
+    /**
+     * The number of values in each checksummed block.
+     */
+
+    public static final int DEFAULT_BLOCK_LENGTH = 1 << 20;
+
+    private int game;
+
+    private int[] rules;
+
+    private int scheme;
+
+    private ValueFormat format;
+
+    private long count;
+
+    private int blockLength;
+
+    private int[] checksums;
+
+    /**
+     * True for a header describing a file that doesn't have one.
+     */
+
+    private boolean legacy;
+
+    /**
+     * The offset of the values in a file without a header of this kind.
+     */
+
+    private long legacyOffset;
+
+    /**
+     * Creates a header for a file of the given values.  The checksums
+     * are all zero until they are set.
+     *
+     * @param g the code for the game
+     * @param r the rule parameters of the game
+     * @param sch the code for the index scheme
+     * @param fmt the encoding of the values
+     * @param n the number of values
+     */
+
+    public ValueFileHeader(int g, int[] r, int sch, ValueFormat fmt, long n)
+    {
+	this(g, r, sch, fmt, n, DEFAULT_BLOCK_LENGTH);
+    }
+
+    public ValueFileHeader(int g, int[] r, int sch, ValueFormat fmt, long n, int blockLen)
+    {
+	game = g;
+	rules = (int[])(r.clone());
+	scheme = sch;
+	format = fmt;
+	count = n;
+	blockLength = blockLen;
+
+	long blocks = (n + blockLen - 1) / blockLen;
+	if (blocks > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("too many blocks: " + blocks);
+	checksums = new int[(int)blocks];
+    }
+
+    /**
+     * Returns a header describing a file written before value files had
+     * headers: either a headerless file of <CODE>double</CODE>s or a file
+     * starting with a <CODE>ValueFormat</CODE> header.  Nothing is known
+     * about such a file except the encoding and number of its values.
+     *
+     * @param fmt the encoding of the values
+     * @param n the number of values
+     * @param offset the offset of the first value in the file
+     * @return a header for the file
+     */
+
+    public static ValueFileHeader makeLegacy(ValueFormat fmt, long n, long offset)
+    {
+	ValueFileHeader result = new ValueFileHeader(GAME_UNKNOWN, new int[0], -1, fmt, n);
+	result.legacy = true;
+	result.legacyOffset = offset;
+	return result;
+    }
+
+    public boolean isLegacy()
+    {
+	return legacy;
+    }
+
+    public int getGame()
+    {
+	return game;
+    }
+
+    public int[] getRules()
+    {
+	return (int[])(rules.clone());
+    }
+
+    public int getIndexScheme()
+    {
+	return scheme;
+    }
+
+    public ValueFormat getFormat()
+    {
+	return format;
+    }
+
+    public long getCount()
+    {
+	return count;
+    }
+
+    public int getBlockLength()
+    {
+	return blockLength;
+    }
+
+    /**
+     * Returns a copy of this header that describes the same values in
+     * a different format.
+     *
+     * @param fmt the new encoding
+     * @return a header for the values in that encoding
+     */
+
+    public ValueFileHeader withFormat(ValueFormat fmt)
+    {
+	return new ValueFileHeader(game, rules, scheme, fmt, count, blockLength);
+    }
+
+    /**
+     * Returns a copy of this header that describes the same values in
+     * blocks of a different length.
+     *
+     * @param blockLen the new number of values per block
+     * @return a header for the values in blocks of that length
+     */
+
+    public ValueFileHeader withBlockLength(int blockLen)
+    {
+	return new ValueFileHeader(game, rules, scheme, format, count, blockLen);
+    }
+
+    public int countBlocks()
+    {
+	return checksums.length;
+    }
+
+    public int getChecksum(int block)
+    {
+	return checksums[block];
+    }
+
+    public void setChecksum(int block, int crc)
+    {
+	checksums[block] = crc;
+    }
+
+    /**
+     * Returns the index of the first value in the given block.
+     *
+     * @param block the index of a block
+     * @return the index of the first value in that block
+     */
+
+    public long getBlockStart(int block)
+    {
+	return (long)block * blockLength;
+    }
+
+    /**
+     * Returns the number of values in the given block.
+     *
+     * @param block the index of a block
+     * @return the number of values in that block
+     */
+
+    public int getBlockSize(int block)
+    {
+	return (int)Math.min(blockLength, count - getBlockStart(block));
+    }
+
+    /**
+     * Returns the offset in the file of the first value.
+     *
+     * @return the length of the header, including padding
+     */
+
+    public long getDataOffset()
+    {
+	if (legacy)
+	    return legacyOffset;
+	else
+	    return (getHeaderLength() + 7) & ~7L;
+    }
+
+    /**
+     * Returns the number of bytes in this header, not counting padding.
+     *
+     * @return the length of this header
+     */
+
+    private long getHeaderLength()
+    {
+	return (4 * 4 + 4 * rules.length + 4 + 4 + 8 + 8 + 8 + 4 + 4
+		+ 4 * (long)checksums.length);
+    }
+
+    /**
+     * Returns the offset in the file of the given value.
+     *
+     * @param index the index of a value
+     * @return the offset of that value in the file
+     */
+
+    public long getValueOffset(long index)
+    {
+	return getDataOffset() + index * format.getBytesPerValue();
+    }
+
+    /**
+     * Returns the length of a file with this header.
+     *
+     * @return the number of bytes in the header and values
+     */
+
+    public long getFileLength()
+    {
+	return getValueOffset(count);
+    }
+
+    /**
+     * Writes this header to the given stream.
+     *
+     * @param out the stream to write to
+     */
+
+    public void write(DataOutput out) throws IOException
+    {
+	out.writeInt(MAGIC);
+	out.writeInt(VERSION);
+	out.writeInt(game);
+	out.writeInt(rules.length);
+	for (int r : rules)
+	    out.writeInt(r);
+	out.writeInt(scheme);
+	out.writeInt(format.getPrecision());
+	out.writeDouble(format.getScale());
+	out.writeDouble(format.getOffset());
+	out.writeLong(count);
+	out.writeInt(blockLength);
+	out.writeInt(checksums.length);
+	for (int crc : checksums)
+	    out.writeInt(crc);
+
+	for (long pad = getHeaderLength(); pad < getDataOffset(); pad++)
+	    out.writeByte(0);
+    }
+
+    /**
+     * Reads a header from the given stream, which must be positioned
+     * just after the magic number.
+     *
+     * @param in the stream to read from
+     * @return the header read
+     */
+
+    public static ValueFileHeader readAfterMagic(DataInput in) throws IOException
+    {
+	int version = in.readInt();
+	if (version != VERSION)
+	    throw new IOException("unsupported value file version " + version);
+
+	int g = in.readInt();
+	int[] r = new int[in.readInt()];
+	for (int i = 0; i < r.length; i++)
+	    r[i] = in.readInt();
+	int sch = in.readInt();
+	int precision = in.readInt();
+	double scale = in.readDouble();
+	double offset = in.readDouble();
+	long n = in.readLong();
+	int blockLen = in.readInt();
+
+	ValueFileHeader result = new ValueFileHeader(g, r, sch, new ValueFormat(precision, scale, offset), n, blockLen);
+
+	int blocks = in.readInt();
+	if (blocks != result.countBlocks())
+	    throw new IOException("header has " + blocks + " checksums for " + result.countBlocks() + " blocks");
+	for (int b = 0; b < blocks; b++)
+	    result.checksums[b] = in.readInt();
+
+	return result;
+    }
+
+    /**
+     * Checks that a file with this header holds the values described by
+     * the given header, apart from their encoding and checksums.
+     *
+     * @param expected a header describing the values wanted
+     * @throws IOException if the game, rules, index scheme or number of
+     * values differ
+     */
+
+    public void checkMatches(ValueFileHeader expected) throws IOException
+    {
+	if (legacy)
+	    {
+		if (count != expected.count)
+		    throw new IOException("file holds " + count + " values; expected " + expected.count);
+		return;
+	    }
+
+	if (game != expected.game)
+	    throw new IOException("file is for game " + game + "; expected " + expected.game);
+	if (!Arrays.equals(rules, expected.rules))
+	    throw new IOException("file is for rules " + Arrays.toString(rules) + "; expected " + Arrays.toString(expected.rules));
+	if (scheme != expected.scheme)
+	    throw new IOException("file uses index scheme " + scheme + "; expected " + expected.scheme);
+	if (count != expected.count)
+	    throw new IOException("file holds " + count + " values; expected " + expected.count);
+    }
+
+    public String toString()
+    {
+	if (legacy)
+	    return "[legacy " + format + " x " + count + "]";
+	else
+	    return ("[game " + game + " rules " + Arrays.toString(rules) + " scheme " + scheme
+		    + " " + format + " x " + count + "]");
+    }
+}
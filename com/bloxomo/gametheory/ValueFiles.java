@@ -0,0 +1,275 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.CRC32;
+
+/**
+ * Reads and writes self-describing value files.  A value file starts
+ * with a <CODE>ValueFileHeader</CODE> and is followed by the values in
+ * index order in the format given in the header.  Files are written
+ * and read a block at a time through a <CODE>FileChannel</CODE>; when
+ * loading, the blocks are mapped and checked in parallel and copied
+ * straight into the destination map.  Files written before value
+ * files had headers can still be loaded, but nothing except their
+ * length can be checked.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class ValueFiles
+{
+    private ValueFiles()
+    {
+    }
+
+    /**
+     * Writes the given values to the given file.  The checksums in the
+     * given header are set to match the values written.
+     *
+     * @param fname the name of the file to write
+     * @param header a header describing the values
+     * @param values a map holding at least as many values as the header
+     * describes
+     */
+
+    public static void save(String fname, ValueFileHeader header, IndexedStateValueMap values) throws IOException
+    {
+	if (values.size() < header.getCount())
+	    throw new IllegalArgumentException("map holds " + values.size() + " values; header describes " + header.getCount());
+
+	ValueFormat format = header.getFormat();
+	int bytesPerValue = format.getBytesPerValue();
+	boolean raw = (values instanceof SegmentedStateValueMap
+		       && ((SegmentedStateValueMap)values).getFormat().equals(format));
+
+	RandomAccessFile file = new RandomAccessFile(fname, "rw");
+	try
+	    {
+		FileChannel ch = file.getChannel();
+		ch.truncate(0);
+
+		ByteBuffer buf = ByteBuffer.allocateDirect(header.getBlockLength() * bytesPerValue);
+		CRC32 crc = new CRC32();
+
+		for (int b = 0; b < header.countBlocks(); b++)
+		    {
+			long start = header.getBlockStart(b);
+			int size = header.getBlockSize(b);
+
+			buf.clear();
+			buf.limit(size * bytesPerValue);
+			if (raw)
+			    ((SegmentedStateValueMap)values).getBytes(start * bytesPerValue, buf);
+			else
+			    {
+				for (int i = 0; i < size; i++)
+				    format.put(buf, i * bytesPerValue, values.getValue(start + i));
+			    }
+			buf.position(0);
+
+			crc.reset();
+			crc.update(buf.duplicate());
+			header.setChecksum(b, (int)crc.getValue());
+
+			writeFully(ch, buf, header.getValueOffset(start));
+		    }
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		header.write(out);
+		out.flush();
+
+		writeFully(ch, ByteBuffer.wrap(bytes.toByteArray()), 0);
+	    }
+	finally
+	    {
+		file.close();
+	    }
+    }
+
+    /**
+     * Reads the header of the given file.  For a file written before
+     * value files had headers, the header returned has the format given
+     * by the file's <CODE>ValueFormat</CODE> header, if any, and the
+     * number of values that fit in the rest of the file.
+     *
+     * @param fname the name of a value file
+     * @return the header of that file
+     */
+
+    public static ValueFileHeader readHeader(String fname) throws IOException
+    {
+	File f = new File(fname);
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f), 1 << 12));
+
+	try
+	    {
+		in.mark(4);
+
+		int magic;
+		try
+		    {
+			magic = in.readInt();
+		    }
+		catch (EOFException e)
+		    {
+			magic = 0;
+		    }
+
+		if (magic == ValueFileHeader.MAGIC)
+		    return ValueFileHeader.readAfterMagic(in);
+		else if (magic == CompressedValueFile.MAGIC)
+		    throw new IOException(fname + " is compressed; open it as a CompressedValueFile");
+
+		in.reset();
+		ValueFormat fmt = ValueFormat.readHeader(in);
+		long offset = (magic == ValueFormat.MAGIC ? 4 + 4 + 8 + 8 : 0);
+		long n = (f.length() - offset) / fmt.getBytesPerValue();
+
+		return ValueFileHeader.makeLegacy(fmt, n, offset);
+	    }
+	finally
+	    {
+		in.close();
+	    }
+    }
+
+    /**
+     * Loads the given file into the given map.  The header of the file
+     * is checked against the expected header before anything is read,
+     * and the checksum of each block is verified before it is copied
+     * into the map.  Values stored in a different format from the map's
+     * are converted.
+     *
+     * @param fname the name of the file to read
+     * @param expected a header describing the values wanted; its format
+     * and checksums are ignored
+     * @param values the map to load into
+     * @return the header of the file
+     * @throws IOException if the file is for a different game, rules,
+     * index scheme or number of values, or is short, or a block fails
+     * its checksum
+     */
+
+    public static ValueFileHeader load(String fname, final ValueFileHeader expected, final IndexedStateValueMap values) throws IOException
+    {
+	final ValueFileHeader header = readHeader(fname);
+	header.checkMatches(expected);
+
+	if (values.size() < header.getCount())
+	    throw new IllegalArgumentException("map holds " + values.size() + " values; file holds " + header.getCount());
+
+	RandomAccessFile file = new RandomAccessFile(fname, "r");
+	final FileChannel ch = file.getChannel();
+
+	int threads = Math.max(1, Math.min(header.countBlocks(), Runtime.getRuntime().availableProcessors()));
+	ExecutorService pool = Executors.newFixedThreadPool(threads);
+
+	try
+	    {
+		if (ch.size() < header.getFileLength())
+		    throw new EOFException(fname + " has " + ch.size() + " bytes; expected " + header.getFileLength());
+
+		List<Future<Void>> results = new ArrayList<Future<Void>>();
+		for (int b = 0; b < header.countBlocks(); b++)
+		    {
+			final int block = b;
+			results.add(pool.submit(new Callable<Void>()
+			    {
+				public Void call() throws IOException
+				{
+				    loadBlock(ch, header, block, values);
+				    return null;
+				}
+			    }));
+		    }
+
+		for (Future<Void> result : results)
+		    {
+			try
+			    {
+				result.get();
+			    }
+			catch (InterruptedException e)
+			    {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("interrupted loading " + fname);
+			    }
+			catch (ExecutionException e)
+			    {
+				Throwable cause = e.getCause();
+				if (cause instanceof IOException)
+				    throw new IOException(fname + ": " + cause.getMessage(), cause);
+				else if (cause instanceof RuntimeException)
+				    throw (RuntimeException)cause;
+				else
+				    throw new IOException(cause);
+			    }
+		    }
+	    }
+	finally
+	    {
+		pool.shutdownNow();
+		file.close();
+	    }
+
+	return header;
+    }
+
+    /**
+     * Maps one block of a value file, verifies its checksum, and copies
+     * it into the given map.  Blocks of files without checksums are
+     * copied without checking.
+     *
+     * @param ch a channel reading the file
+     * @param header the header of the file
+     * @param block the index of the block to load
+     * @param values the map to load into
+     */
+
+    private static void loadBlock(FileChannel ch, ValueFileHeader header, int block, IndexedStateValueMap values) throws IOException
+    {
+	ValueFormat format = header.getFormat();
+	int bytesPerValue = format.getBytesPerValue();
+	long start = header.getBlockStart(block);
+	int size = header.getBlockSize(block);
+
+	ByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, header.getValueOffset(start), (long)size * bytesPerValue);
+
+	if (!header.isLegacy())
+	    {
+		CRC32 crc = new CRC32();
+		crc.update(buf.duplicate());
+		if ((int)crc.getValue() != header.getChecksum(block))
+		    throw new IOException("checksum mismatch in block " + block);
+	    }
+
+	if (values instanceof SegmentedStateValueMap
+	    && ((SegmentedStateValueMap)values).getFormat().equals(format))
+	    ((SegmentedStateValueMap)values).putBytes(start * bytesPerValue, buf);
+	else
+	    {
+		for (int i = 0; i < size; i++)
+		    values.setValue(start + i, format.get(buf, i * bytesPerValue));
+	    }
+    }
+
+    /**
+     * Writes all of the given buffer to the given channel at the given
+     * position.
+     *
+     * @param ch a channel
+     * @param buf the bytes to write
+     * @param pos the position in the channel to write them at
+     */
+
+    private static void writeFully(FileChannel ch, ByteBuffer buf, long pos) throws IOException
+    {
+	while (buf.hasRemaining())
+	    pos += ch.write(buf, pos);
+    }
+}
@@ -0,0 +1,338 @@
+package com.bloxomo.gametheory;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * The encoding used to store position values.  Values can be stored
+ * as 8-byte <CODE>double</CODE>s, as 4-byte <CODE>float</CODE>s, or as
+ * 16-bit unsigned fixed-point numbers with a scale and offset, so that
+ * code <CODE>k</CODE> represents <CODE>offset + k * scale</CODE>.
+ * All encodings are big-endian.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class ValueFormat
+{
+    /**
+     * Codes for precision.
+     */
+
+    public static final int DOUBLE = 0;
+    public static final int FLOAT = 1;
+    public static final int FIXED_16 = 2;
+
+    /**
+     * The format of the headerless value files written by the optimizers.
+     */
+
+    public static final ValueFormat DOUBLE_FORMAT = new ValueFormat(DOUBLE, 1.0, 0.0);
+
+    public static final ValueFormat FLOAT_FORMAT = new ValueFormat(FLOAT, 1.0, 0.0);
+
+    /**
+     * The largest code in the fixed-point encoding.
+     */
+
+    private static final int MAX_FIXED = 0xFFFF;
+
+    /**
+     * The first four bytes of a file that starts with a format header.
+     * As the high bytes of a <CODE>double</CODE> they would be a number
+     * around 10^107, which is not a position value.
+     */
+
+    public static final int MAGIC = 0x56464D54;
+
+    private final int precision;
+
+    private final double scale;
+
+    private final double offset;
+
+    /**
+     * Creates a format with the given precision, scale, and offset.
+     * The scale and offset are ignored except for fixed-point formats.
+     *
+     * @param p one of <CODE>DOUBLE</CODE>, <CODE>FLOAT</CODE>, or
+     * <CODE>FIXED_16</CODE>
+     * @param sc the difference between the values represented by
+     * consecutive fixed-point codes
+     * @param off the value represented by fixed-point code 0
+     */
+
+    public ValueFormat(int p, double sc, double off)
+    {
+	if (p != DOUBLE && p != FLOAT && p != FIXED_16)
+	    throw new IllegalArgumentException("unknown precision " + p);
+
+	precision = p;
+	scale = sc;
+	offset = off;
+    }
+
+    /**
+     * Returns a 16-bit fixed-point format that covers the given range
+     * of values.  Both endpoints are represented exactly.
+     *
+     * @param min the smallest value to represent
+     * @param max the largest value to represent
+     * @return a fixed-point format for that range
+     */
+
+    public static ValueFormat fixed16(double min, double max)
+    {
+	if (max <= min)
+	    return new ValueFormat(FIXED_16, 1.0, min);
+	else
+	    return new ValueFormat(FIXED_16, (max - min) / MAX_FIXED, min);
+    }
+
+    /**
+     * Returns the format with the given name.  The name is one of
+     * "double", "float", or "fixed16:min:max".
+     *
+     * @param name the name of a format
+     * @return the corresponding format
+     */
+
+    public static ValueFormat parse(String name)
+    {
+	if (name.equals("double"))
+	    return DOUBLE_FORMAT;
+	else if (name.equals("float"))
+	    return FLOAT_FORMAT;
+	else if (name.startsWith("fixed16:"))
+	    {
+		String[] range = name.split(":");
+		return fixed16(Double.parseDouble(range[1]), Double.parseDouble(range[2]));
+	    }
+	else
+	    throw new IllegalArgumentException("unknown format " + name);
+    }
+
+    public int getPrecision()
+    {
+	return precision;
+    }
+
+    public double getScale()
+    {
+	return scale;
+    }
+
+    public double getOffset()
+    {
+	return offset;
+    }
+
+    /**
+     * Returns the number of bytes used to store one value in this format.
+     *
+     * @return the number of bytes per value
+     */
+
+    public int getBytesPerValue()
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		return 8;
+	    case FLOAT:
+		return 4;
+	    default:
+		return 2;
+	    }
+    }
+
+    /**
+     * Decodes the value stored at the given position in the given buffer.
+     *
+     * @param buf a buffer
+     * @param pos a byte offset in that buffer
+     * @return the value stored there
+     */
+
+    public double get(ByteBuffer buf, int pos)
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		return buf.getDouble(pos);
+	    case FLOAT:
+		return buf.getFloat(pos);
+	    default:
+		return offset + (buf.getShort(pos) & MAX_FIXED) * scale;
+	    }
+    }
+
+    /**
+     * Encodes the given value at the given position in the given buffer.
+     * Fixed-point values outside the representable range are clamped.
+     *
+     * @param buf a buffer
+     * @param pos a byte offset in that buffer
+     * @param val the value to store
+     */
+
+    public void put(ByteBuffer buf, int pos, double val)
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		buf.putDouble(pos, val);
+		break;
+	    case FLOAT:
+		buf.putFloat(pos, (float)val);
+		break;
+	    default:
+		buf.putShort(pos, (short)encodeFixed(val));
+	    }
+    }
+
+    /**
+     * Returns the fixed-point code closest to the given value.
+     *
+     * @param val a value
+     * @return the code for that value
+     */
+
+    private int encodeFixed(double val)
+    {
+	long code = Math.round((val - offset) / scale);
+
+	return (int)Math.max(0, Math.min(MAX_FIXED, code));
+    }
+
+    /**
+     * Reads one value in this format from the given stream.
+     *
+     * @param in the stream to read from
+     * @return the value read
+     */
+
+    public double readValue(DataInput in) throws IOException
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		return in.readDouble();
+	    case FLOAT:
+		return in.readFloat();
+	    default:
+		return offset + in.readUnsignedShort() * scale;
+	    }
+    }
+
+    /**
+     * Writes one value in this format to the given stream.
+     *
+     * @param out the stream to write to
+     * @param val the value to write
+     */
+
+    public void writeValue(DataOutput out, double val) throws IOException
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		out.writeDouble(val);
+		break;
+	    case FLOAT:
+		out.writeFloat((float)val);
+		break;
+	    default:
+		out.writeShort(encodeFixed(val));
+	    }
+    }
+
+    /**
+     * Writes a header describing this format to the given stream.
+     *
+     * @param out the stream to write to
+     */
+
+    public void writeHeader(DataOutputStream out) throws IOException
+    {
+	out.writeInt(MAGIC);
+	out.writeInt(precision);
+	out.writeDouble(scale);
+	out.writeDouble(offset);
+    }
+
+    /**
+     * Reads the format of the data in the given stream.  If the stream
+     * starts with a header written by <CODE>writeHeader</CODE> then
+     * that header is consumed and the format it describes is returned.
+     * Otherwise nothing is consumed and the stream is assumed to be a
+     * headerless stream of <CODE>double</CODE>s.
+     *
+     * @param in a stream that supports <CODE>mark</CODE>
+     * @return the format of the values in that stream
+     */
+
+    public static ValueFormat readHeader(DataInputStream in) throws IOException
+    {
+	in.mark(4);
+
+	int magic;
+	try
+	    {
+		magic = in.readInt();
+	    }
+	catch (EOFException e)
+	    {
+		in.reset();
+		return DOUBLE_FORMAT;
+	    }
+
+	if (magic != MAGIC)
+	    {
+		in.reset();
+		return DOUBLE_FORMAT;
+	    }
+
+	int p = in.readInt();
+	double sc = in.readDouble();
+	double off = in.readDouble();
+
+	return new ValueFormat(p, sc, off);
+    }
+
+    public boolean equals(Object o)
+    {
+	if (!(o instanceof ValueFormat))
+	    return false;
+
+	ValueFormat other = (ValueFormat)o;
+
+	if (precision != other.precision)
+	    return false;
+	else if (precision != FIXED_16)
+	    return true;
+	else
+	    return (scale == other.scale && offset == other.offset);
+    }
+
+    public int hashCode()
+    {
+	if (precision != FIXED_16)
+	    return precision;
+	else
+	    return precision ^ Double.hashCode(scale) ^ Double.hashCode(offset);
+    }
+
+    public String toString()
+    {
+	switch (precision)
+	    {
+	    case DOUBLE:
+		return "double";
+	    case FLOAT:
+		return "float";
+	    default:
+		return "fixed16:" + offset + ":" + (offset + MAX_FIXED * scale);
+	    }
+    }
+}
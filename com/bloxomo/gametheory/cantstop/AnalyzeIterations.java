@@ -5,8 +5,9 @@ import java.util.*;
 import java.io.*;
 
 /**
- * Reads a CantStopOptimizer log file and computes statistics
- * based on the number of iterations required.  Splits
+ * Reads a solver telemetry log written by CantStopOptimizer or
+ * MTCantStopOptimizer with <CODE>--telemetry=file</CODE> and computes
+ * statistics based on the number of iterations required.  Splits
  * are given based on the position value and distance from
  * the start state.
  */
@@ -21,9 +22,13 @@ public class AnalyzeIterations
 
     public static void main(String[] args) throws IOException
     {
-	BufferedReader in = new BufferedReader(new InputStreamReader(System.in));
+	if (args.length < 1)
+	    {
+		System.err.println("USAGE: java AnalyzeIterations telemetry-file");
+		System.exit(1);
+	    }
 
-	String line;
+	SolverTelemetry.Reader in = new SolverTelemetry.Reader(args[0]);
 
 	int[][] countByDistance = new int[MAX_DISTANCE + 1][MAX_ITERATIONS + 1];
 	int[][] countByValue = new int[NUM_BUCKETS][MAX_ITERATIONS + 1];
@@ -33,104 +38,61 @@ public class AnalyzeIterations
 	int highestDistance = 0;
 	int highestBucket = 0;
 
-	while ((line = in.readLine()) != null)
+	long solves = 0;
+	long totalNanos = 0;
+	long slowestNanos = -1;
+	long slowestAnchor = -1;
+	int largestSize = 0;
+
+	while (in.next())
 	    {
-		// skip any lines reporting values like
-		// [0 0 0 0 1] = 1.3806429211652174
+		// solves that hit the limit are all counted in the last
+		// column
 
-		while (line != null && line.indexOf('=') != -1)
-		    line = in.readLine();
+		int iterations = Math.min(in.getEvaluations(), MAX_ITERATIONS);
 
-		if (line != null)
+		int distance = in.getLayer();
+		if (distance >= 0)
 		    {
-			/*
-			// now we're reading the estimates
-			// for a state
+			if (distance >= countByDistance.length)
+			    countByDistance = Arrays.copyOf(countByDistance, distance + 1);
+			if (countByDistance[distance] == null)
+			    countByDistance[distance] = new int[MAX_ITERATIONS + 1];
 
-			Set seen = new HashSet();
-			seen.add("1.0");
-
-			String last = "1.0";
-
-			// estimates stop when we see a repeated value
+			countByDistance[distance][iterations]++;
+			highestDistance = Math.max(highestDistance, distance);
+		    }
 
-			while (!seen.contains(line))
-			    {
-				seen.add(line);
-				last = line;
-				line = in.readLine();
-			    }
+		int bucket = (int)((in.getValue() - MIN_VALUE) / BUCKET_WIDTH);
+		bucket = Math.max(0, Math.min(NUM_BUCKETS - 1, bucket));
+		countByValue[bucket][iterations]++;
 
+		if (iterations < MAX_ITERATIONS)
+		    highestIterations = Math.max(iterations, highestIterations);
+		lowestIterations = Math.min(lowestIterations, iterations);
+		highestBucket = Math.max(highestBucket, bucket);
 
-			if (!last.equals(line))
+		solves++;
+		if (in.getNanos() >= 0)
+		    {
+			totalNanos += in.getNanos();
+			if (in.getNanos() > slowestNanos)
 			    {
-				System.out.println("Cycle detected between " +
-						   last + " and " + line +
-						   "; difference is " +
-						   Math.abs(Double.parseDouble(line) - Double.parseDouble(last)));
-				
-				// iterations = MAX_ITERATIONS;
-				iterations = seen.size() + 1;
+				slowestNanos = in.getNanos();
+				slowestAnchor = in.getAnchor();
 			    }
-			else
-			    iterations = seen.size() + 1;
-
-			// skip ahead to end of iterations
-
-			double positionValue = Double.parseDouble(line);
-			*/
-			
-			while (line.indexOf(':') == -1)
-			    line = in.readLine();
-			
-			// now we've got a line that looks like
-			// [1 0 0 0 0]: 4 iterations
-			// we want the [1 0 0 0 0] part so we
-			// can get the distance from starting position
-			// we also want the 4 for # of iterations
-
-			StringTokenizer tok = new StringTokenizer(line, ":i");
-			tok.nextToken();
-			int iterations = Integer.parseInt(tok.nextToken().trim());
-
-			tok = new StringTokenizer(line, "]");
-			tok = new StringTokenizer(tok.nextToken().substring(1));
-			
-			int distance = 0;
-			while (tok.hasMoreTokens())
-			    distance += Integer.parseInt(tok.nextToken());
-			
-			countByDistance[distance][iterations]++;
-
-			// skip lines reporting indices
-
-			in.readLine();
-			in.readLine();
-
-			// get line with value of position
-			// (form [1 2 1] = 1.1428571428571428)
-			// and get position
-
-			line = in.readLine();
-			tok = new StringTokenizer(line, "=");
-			tok.nextToken();
-			double positionValue = Double.parseDouble(tok.nextToken());
-
-			int bucket = (int)((positionValue - MIN_VALUE) / BUCKET_WIDTH);
-			countByValue[bucket][iterations]++;
-			
-			if (iterations < MAX_ITERATIONS)
-			    highestIterations = Math.max(iterations, highestIterations);
-			lowestIterations = Math.min(lowestIterations, iterations);
-			highestDistance = Math.max(highestDistance, distance);
-			highestBucket = Math.max(highestBucket, bucket);
+		    }
+		largestSize = Math.max(largestSize, in.getSize());
 	    }
-    }
+	in.close();
 
 	System.out.println("BY DISTANCE");
 
 	for (int i = 0; i <= highestDistance; i++)
 	    {
+		if (countByDistance[i] == null)
+		    countByDistance[i] = new int[MAX_ITERATIONS + 1];
+
 		System.out.print(i + " ");
 
 		// compute total for this row
@@ -141,7 +103,7 @@ public class AnalyzeIterations
 
 		System.out.print(rowTotal + " ");
 
-		int totalIterations = 0;
+		int totalIterations = countByDistance[i][MAX_ITERATIONS] * MAX_ITERATIONS;
 
 		for (int j = lowestIterations; j <= highestIterations; j++)
 		    {
@@ -167,7 +129,7 @@ public class AnalyzeIterations
 
 		System.out.print(rowTotal + " ");
 
-		int totalIterations = 0;
+		int totalIterations = countByValue[i][MAX_ITERATIONS] * MAX_ITERATIONS;
 
 		for (int j = lowestIterations; j <= highestIterations; j++)
 		    {
@@ -177,5 +139,8 @@ public class AnalyzeIterations
 		System.out.println(countByValue[i][MAX_ITERATIONS]
 				   + " " + totalIterations / (double)rowTotal);
 	    }
+
+	System.out.println(solves + " solves in " + totalNanos / 1e9 + "s; largest SCC " + largestSize
+			   + " states; slowest anchor " + slowestAnchor + " (" + slowestNanos / 1e6 + "ms)");
     }
 }
@@ -12,9 +12,18 @@ public class CantStopAnalyzer
 	int sides = Integer.parseInt(args[0]);
 	int shortestColumn = Integer.parseInt(args[1]);
 
+	int scheme = CantStopState.INDEX_FULL;
+	for (int a = 2; a < args.length; a++)
+	    {
+		if (args[a].equals("--fold"))
+		    scheme = CantStopState.INDEX_MIRROR;
+		else if (args[a].equals("--dense"))
+		    scheme = CantStopState.INDEX_DENSE;
+	    }
+
 	CantStopState dummy = new CantStopState(sides, shortestColumn);
 
-	StateValueMap values = dummy.getMap();
+	StateValueMap values = dummy.getMap(scheme, ValueFormat.DOUBLE_FORMAT);
 
 	// reachable is the set of states that the optimal strategy might be in
 	// at the start of a turn; intermediate is the set of states it
@@ -27,10 +36,9 @@ public class CantStopAnalyzer
 
 	try
 	    {
-		DataInputStream in = new DataInputStream(new FileInputStream("cantstop_" + sides + "_" + shortestColumn + ".dat"));
-
-		values.read(in);
-		in.close();
+		ValueFiles.load("cantstop_" + sides + "_" + shortestColumn + CantStopState.getIndexSuffix(scheme) + ".dat",
+				dummy.makeHeader(scheme, ValueFormat.DOUBLE_FORMAT),
+				CantStopState.getStorage(values));
 	    }
 	catch (IOException e)
 	    {
@@ -71,84 +79,93 @@ public class CantStopAnalyzer
     /**
      * Returns a map from sucessors of the given state to a pair that records
      * whether to stop at that successor and the probability of reaching
-     * that successor from a state that starts at s.
+     * that successor from a state that starts at s.  Only the successors
+     * that can be reached are in the map, and states are made only for
+     * them.
      */
 
-    public static Map< CantStopState, Pair< Boolean, Double > > findNeighbors(CantStopState s, StateValueMap values)
+    public static Map< CantStopState, Pair< Boolean, Double > > findNeighbors(final CantStopState s, final StateValueMap values)
     {
-	Map< CantStopState, Pair< Boolean, Double > > result 
+	final Map< CantStopState, Pair< Boolean, Double > > result 
 	    = new HashMap< CantStopState, Pair< Boolean, Double > >();
 
-	// pReach(q) is the probability we reach state q at some time during
-	// a turn starting at s
+	// pReach(q) is the probability we reach the state with index q at
+	// some time during a turn starting at s
 
-	Map< CantStopState, Double > pReach = new HashMap< CantStopState, Double >();
-	pReach.put(s, 1.0);
+	final LongDoubleHashMap pReach = new LongDoubleHashMap();
+	pReach.put(s.getIndex(), 1.0);
 	
-	Map intermediateValues = s.computeOptimalStrategy(values);
-	Collection successors = new LinkedList();
-	successors.add(s);
-	successors.addAll(s.getNextStates());
+	final LongDoubleHashMap intermediateValues = s.computeOptimalStrategy(values);
 
-	Iterator i = successors.iterator();
-	while (i.hasNext())
+	// successors are visited in order of the number of spaces moved,
+	// so all the probability of reaching one is in before it is visited
+
+	findNeighbor(s, s, values, intermediateValues, pReach, result);
+	s.visitNextStates(index ->
 	    {
-		CantStopState intermediate = (CantStopState)(i.next());
+		if (pReach.containsKey(index))
+		    findNeighbor(s, (CantStopState)(s.getState(index)), values, intermediateValues, pReach, result);
+	    });
 
-		if (pReach.containsKey(intermediate))
-		    {
-			Map legalMoves = s.makeLegalMoveMap(intermediate);
+	return result;
+    }
+
+    /**
+     * Records whether to stop at the given intermediate state, which
+     * can be reached in a turn that starts at s, and if not, adds the
+     * probability of reaching it to the states the best move on each
+     * roll leads to.
+     */
+
+    private static void findNeighbor(CantStopState s, CantStopState intermediate, StateValueMap values,
+				     LongDoubleHashMap intermediateValues, LongDoubleHashMap pReach,
+				     Map< CantStopState, Pair< Boolean, Double > > result)
+    {
+	double p = pReach.get(intermediate.getIndex(), 0.0);
+	Map legalMoves = s.makeLegalMoveMap(intermediate);
 			
-			if (s.computeRollValue(intermediate,
-					       legalMoves,
-					       new StateValueMapAdapter(intermediateValues),
-					       values.getValue(s)).getFirst()
-			    >= values.getValue(intermediate))
-			    {
-				result.put(intermediate, new Pair< Boolean, Double >(true, pReach.get(intermediate)));
-			    }
-			else
-			    {
-				result.put(intermediate, new Pair< Boolean, Double >(false, pReach.get(intermediate)));
+	if (s.computeRollValue(intermediate,
+			       legalMoves,
+			       intermediateValues,
+			       values.getValue(s)).getFirst()
+	    >= values.getValue(intermediate))
+	    {
+		result.put(intermediate, new Pair< Boolean, Double >(true, p));
+	    }
+	else
+	    {
+		result.put(intermediate, new Pair< Boolean, Double >(false, p));
 				
-				// for each move, find the best move from intermediate,
-				// and increase the probability of that state
+		// for each move, find the best move from intermediate,
+		// and increase the probability of that state
 				
-				Iterator rollIterator = legalMoves.entrySet().iterator();
-				while (rollIterator.hasNext())
-				    {
-					Map.Entry e = (Map.Entry)(rollIterator.next());
-					DiceRoll roll = (DiceRoll)(e.getKey());
-					List moves = (List)(e.getValue());
+		Iterator rollIterator = legalMoves.entrySet().iterator();
+		while (rollIterator.hasNext())
+		    {
+			Map.Entry e = (Map.Entry)(rollIterator.next());
+			DiceRoll roll = (DiceRoll)(e.getKey());
+			List moves = (List)(e.getValue());
 					
-					if (moves.size() > 0)
-					    {
-						double bestValue = Double.POSITIVE_INFINITY;
-						Multiset bestMove = null;
+			if (moves.size() > 0)
+			    {
+				double bestValue = Double.POSITIVE_INFINITY;
+				long bestNext = -1;
 						
-						Iterator moveIt = moves.iterator();
-						while (moveIt.hasNext())
-						    {
-							Multiset move = (Multiset)(moveIt.next());
-							CantStopState next = intermediate.makeMove(move);
-							double nextValue = ((Double)(intermediateValues.get(next))).doubleValue();
-							if (nextValue < bestValue)
-							    {
-								bestValue = nextValue;
-								bestMove = move;
-							    }
-						    }
-						CantStopState next = intermediate.makeMove(bestMove);
-						if (pReach.containsKey(next))
-						    pReach.put(next, pReach.get(next) + pReach.get(intermediate) * roll.probability());
-						else
-						    pReach.put(next, pReach.get(intermediate) * roll.probability());
+				Iterator moveIt = moves.iterator();
+				while (moveIt.hasNext())
+				    {
+					Multiset move = (Multiset)(moveIt.next());
+					long next = intermediate.getIndexAfterMove(move);
+					double nextValue = intermediateValues.get(next, 0.0);
+					if (nextValue < bestValue)
+					    {
+						bestValue = nextValue;
+						bestNext = next;
 					    }
 				    }
+				pReach.put(bestNext, pReach.get(bestNext, 0.0) + p * roll.probability());
 			    }
 		    }
-	    }					
-
-	return result;
+	    }
     }
 }
@@ -0,0 +1,420 @@
+package com.bloxomo.gametheory.cantstop;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+import com.bloxomo.gametheory.*;
+
+/**
+ * Saves the values of a solitaire Can't Stop game a layer at a time
+ * while it is being solved, so that a run that is stopped can be
+ * resumed from the last layer saved.  The checkpoint is a directory
+ * holding a file for each saved layer and a manifest.  A layer file
+ * holds the values of the layer's states, as big-endian doubles, in the
+ * order <CODE>CantStopLayers.visitLayer</CODE> visits them; only
+ * canonical states are saved if the map is folded.  The manifest holds
+ * a magic number, a version, the length and bytes of the
+ * <CODE>ValueFileHeader</CODE> of the game's value file, the chunk
+ * size the layers were visited with, the last layer saved, and the
+ * number of values and CRC-32 checksum of each layer file, from the
+ * last layer of the game down.
+ *
+ * Each file is written under a temporary name, forced to disk, and
+ * then renamed over the old one, and a layer file is always in place
+ * before the manifest that lists it, so a crash at any point leaves
+ * the checkpoint as it was after some layer.  Layers are written in the
+ * background by one thread, in the order they are saved; the values of
+ * a layer must not change once it is saved.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CantStopCheckpoint implements Closeable
+{
+    /**
+     * The first int of a manifest ("CSCK").
+     */
+
+    public static final int MAGIC = 0x4353434b;
+
+    public static final int VERSION = 1;
+
+    /**
+     * The name of the manifest in the checkpoint directory.
+     */
+
+    public static final String MANIFEST = "manifest";
+
+    private final File dir;
+
+    private final CantStopState dummy;
+
+    private final CantStopLayers layers;
+
+    private final StateValueMap values;
+
+    /**
+     * The map indexed by state index, or null if the map is ranked.
+     */
+
+    private final IndexedStateValueMap indexed;
+
+    private final boolean folded;
+
+    private final ValueFileHeader header;
+
+    /**
+     * The number of values and checksum of each layer saved, indexed
+     * by layer.
+     */
+
+    private final long[] counts;
+
+    private final int[] checksums;
+
+    /**
+     * The last layer saved; layers are solved from the end, so this
+     * is one more than the last layer of the game if none has been.
+     */
+
+    private int lastSaved;
+
+    /**
+     * The last layer handed to <CODE>save</CODE>.
+     */
+
+    private int lastQueued;
+
+    private final ExecutorService writer;
+
+    private volatile IOException failure;
+
+    /**
+     * Opens a checkpoint in the given directory, creating the directory
+     * if it does not exist.  Nothing is read or written until
+     * <CODE>resume</CODE> or <CODE>save</CODE> is called.
+     *
+     * @param dirName the name of the checkpoint directory
+     * @param s a state in the game being solved
+     * @param scheme the index scheme of the map, one of the
+     * <CODE>INDEX_</CODE> constants in <CODE>CantStopState</CODE>
+     * @param vals the map holding the values
+     * @param l the chunks to visit the layers in
+     * @throws IOException if the directory cannot be created
+     */
+
+    public CantStopCheckpoint(String dirName, CantStopState s, int scheme, StateValueMap vals, CantStopLayers l) throws IOException
+    {
+	dir = new File(dirName);
+	if (!dir.isDirectory() && !dir.mkdirs())
+	    throw new IOException("could not create " + dirName);
+
+	dummy = s;
+	layers = l;
+	values = vals;
+	indexed = (scheme == CantStopState.INDEX_FULL && vals instanceof IndexedStateValueMap
+		   ? (IndexedStateValueMap)vals : null);
+	folded = (scheme == CantStopState.INDEX_MIRROR);
+	header = s.makeHeader(scheme, ValueFormat.DOUBLE_FORMAT);
+
+	counts = new long[l.getTotalSpaces() + 1];
+	checksums = new int[l.getTotalSpaces() + 1];
+	lastSaved = l.getTotalSpaces() + 1;
+	lastQueued = lastSaved;
+
+	writer = Executors.newSingleThreadExecutor(r ->
+	    {
+		Thread t = new Thread(r, "CantStopCheckpoint");
+		t.setDaemon(true);
+		return t;
+	    });
+    }
+
+    /**
+     * Loads the layers saved in this checkpoint, if there are any, into
+     * the map.  Each layer file is checked against the manifest; if one
+     * fails, the map is left with some of the values loaded.
+     *
+     * @return the last layer loaded, or one more than the last layer of
+     * the game if the checkpoint is empty
+     * @throws IOException if the checkpoint is for a different game,
+     * rules, index scheme or chunk size, or a layer file is missing,
+     * short, or fails its checksum
+     */
+
+    public int resume() throws IOException
+    {
+	File manifest = new File(dir, MANIFEST);
+	if (!manifest.exists())
+	    return lastSaved;
+
+	int top = layers.getTotalSpaces();
+	int last;
+
+	DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(manifest)));
+	try
+	    {
+		if (in.readInt() != MAGIC)
+		    throw new IOException(manifest + " is not a checkpoint manifest");
+		int version = in.readInt();
+		if (version != VERSION)
+		    throw new IOException("unsupported checkpoint version " + version);
+
+		// the header is padded, so it is stored with its length
+
+		byte[] bytes = new byte[in.readInt()];
+		in.readFully(bytes);
+		DataInputStream headerIn = new DataInputStream(new ByteArrayInputStream(bytes));
+		if (headerIn.readInt() != ValueFileHeader.MAGIC)
+		    throw new IOException(manifest + " has no value file header");
+		ValueFileHeader.readAfterMagic(headerIn).checkMatches(header);
+
+		long chunk = in.readLong();
+		if (chunk != layers.getChunkIndices())
+		    throw new IOException("checkpoint has chunks of " + chunk + " indices; expected " + layers.getChunkIndices());
+
+		last = in.readInt();
+		if (last < 0 || last > top + 1)
+		    throw new IOException("checkpoint has bad last layer " + last);
+
+		for (int layer = top; layer >= last; layer--)
+		    {
+			counts[layer] = in.readLong();
+			checksums[layer] = in.readInt();
+		    }
+	    }
+	finally
+	    {
+		in.close();
+	    }
+
+	for (int layer = top; layer >= last; layer--)
+	    load(layer);
+
+	lastSaved = last;
+	lastQueued = last;
+
+	return last;
+    }
+
+    /**
+     * Writes the given layer to this checkpoint in the background.  The
+     * layers must be saved in order from the last, and the values in a
+     * layer must not change once it is saved.  If writing a layer fails,
+     * no more are written and the failure is thrown by
+     * <CODE>close</CODE>.
+     *
+     * @param layer the layer to save
+     */
+
+    public synchronized void save(final int layer)
+    {
+	if (layer != lastQueued - 1)
+	    throw new IllegalStateException("saving layer " + layer + " after layer " + lastQueued);
+	lastQueued = layer;
+
+	writer.execute(() ->
+	    {
+		if (failure != null)
+		    return;
+
+		try
+		    {
+			write(layer);
+		    }
+		catch (IOException e)
+		    {
+			failure = e;
+		    }
+		catch (UncheckedIOException e)
+		    {
+			failure = e.getCause();
+		    }
+	    });
+    }
+
+    /**
+     * Waits for the layers saved so far to be written.
+     *
+     * @throws IOException if a layer could not be written
+     */
+
+    public void close() throws IOException
+    {
+	writer.shutdown();
+
+	boolean interrupted = false;
+	while (!writer.isTerminated())
+	    {
+		try
+		    {
+			writer.awaitTermination(1, TimeUnit.MINUTES);
+		    }
+		catch (InterruptedException e)
+		    {
+			interrupted = true;
+		    }
+	    }
+	if (interrupted)
+	    Thread.currentThread().interrupt();
+
+	if (failure != null)
+	    throw failure;
+    }
+
+    /**
+     * Writes the file for the given layer and then the manifest that
+     * lists it.
+     *
+     * @param layer the layer to write
+     */
+
+    private void write(int layer) throws IOException
+    {
+	File file = getLayerFile(layer);
+	File tmp = new File(dir, file.getName() + ".tmp");
+
+	final CRC32 crc = new CRC32();
+	final long[] count = new long[1];
+
+	FileOutputStream fos = new FileOutputStream(tmp);
+	try
+	    {
+		final DataOutputStream out = new DataOutputStream(new CheckedOutputStream(new BufferedOutputStream(fos, 1 << 16), crc));
+
+		layers.visitLayer(layer, folded, index ->
+		    {
+			try
+			    {
+				out.writeDouble(getValue(index));
+			    }
+			catch (IOException e)
+			    {
+				throw new UncheckedIOException(e);
+			    }
+			count[0]++;
+		    });
+
+		out.flush();
+		fos.getFD().sync();
+	    }
+	finally
+	    {
+		fos.close();
+	    }
+	Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+	counts[layer] = count[0];
+	checksums[layer] = (int)crc.getValue();
+	lastSaved = layer;
+
+	writeManifest();
+    }
+
+    private void writeManifest() throws IOException
+    {
+	File manifest = new File(dir, MANIFEST);
+	File tmp = new File(dir, MANIFEST + ".tmp");
+
+	FileOutputStream fos = new FileOutputStream(tmp);
+	try
+	    {
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream headerOut = new DataOutputStream(bytes);
+		header.write(headerOut);
+		headerOut.flush();
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(bytes.size());
+		bytes.writeTo(out);
+		out.writeLong(layers.getChunkIndices());
+		out.writeInt(lastSaved);
+		for (int layer = layers.getTotalSpaces(); layer >= lastSaved; layer--)
+		    {
+			out.writeLong(counts[layer]);
+			out.writeInt(checksums[layer]);
+		    }
+
+		out.flush();
+		fos.getFD().sync();
+	    }
+	finally
+	    {
+		fos.close();
+	    }
+	Files.move(tmp.toPath(), manifest.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the file for the given layer into the map.
+     *
+     * @param layer the layer to read
+     */
+
+    private void load(int layer) throws IOException
+    {
+	File file = getLayerFile(layer);
+	if (file.length() != counts[layer] * 8)
+	    throw new IOException(file + " has " + file.length() + " bytes; expected " + counts[layer] * 8);
+
+	final CRC32 crc = new CRC32();
+	final long[] count = new long[1];
+
+	final DataInputStream in = new DataInputStream(new CheckedInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16), crc));
+	try
+	    {
+		layers.visitLayer(layer, folded, index ->
+		    {
+			if (count[0]++ < counts[layer])
+			    {
+				try
+				    {
+					setValue(index, in.readDouble());
+				    }
+				catch (IOException e)
+				    {
+					throw new UncheckedIOException(e);
+				    }
+			    }
+		    });
+	    }
+	catch (UncheckedIOException e)
+	    {
+		throw e.getCause();
+	    }
+	finally
+	    {
+		in.close();
+	    }
+
+	if (count[0] != counts[layer])
+	    throw new IOException("layer " + layer + " has " + count[0] + " states; " + file + " has " + counts[layer]);
+	if ((int)crc.getValue() != checksums[layer])
+	    throw new IOException("checksum mismatch in " + file);
+    }
+
+    private File getLayerFile(int layer)
+    {
+	return new File(dir, "layer-" + layer + ".dat");
+    }
+
+    private double getValue(long index)
+    {
+	if (indexed != null)
+	    return indexed.getValue(index);
+	else
+	    return values.getValue(dummy.getState(index));
+    }
+
+    private void setValue(long index, double val)
+    {
+	if (indexed != null)
+	    indexed.setValue(index, val);
+	else
+	    values.setValue(dummy.getState(index), val);
+    }
+}
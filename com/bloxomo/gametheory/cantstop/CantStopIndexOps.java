@@ -0,0 +1,299 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.sirmapsalot.combinatorics.*;
+
+/**
+ * Operations on solitaire Can't Stop states given by their indices.
+ * The index of a state is a mixed-radix number whose digits are the
+ * marker positions and whose place values are those of
+ * <CODE>CantStopState</CODE>, so everything about a state can be read
+ * from its index and moving a marker adds a multiple of a place value.
+ * None of the operations allocate, so solvers and simulators can work
+ * on indices and make <CODE>CantStopState</CODE> objects only when
+ * they have to hand a state to something else.
+ *
+ * An instance depends only on the rules of the game, so it is
+ * immutable and may be shared by any number of threads.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CantStopIndexOps
+{
+    /**
+     * The lowest and highest columns.
+     */
+
+    private final int lowest;
+
+    private final int highest;
+
+    /**
+     * The number of completed columns that makes a state final.
+     */
+
+    private final int toWin;
+
+    /**
+     * The length of each column, indexed by column.
+     */
+
+    private final int[] length;
+
+    /**
+     * The place value of each column, indexed by column.
+     */
+
+    private final long[] placeValue;
+
+    /**
+     * Creates the operations for games with the given rules.
+     *
+     * @param rules the rules of a game
+     */
+
+    CantStopIndexOps(CantStopRules rules)
+    {
+	lowest = rules.getLowestRoll();
+	highest = rules.getHighestRoll();
+	toWin = rules.getColumnsToWin();
+
+	length = new int[highest + 1];
+	placeValue = new long[highest + 1];
+	for (int c = lowest; c <= highest; c++)
+	    {
+		length[c] = rules.getColumnLength(c);
+		placeValue[c] = rules.placeValue[c];
+	    }
+    }
+
+    /**
+     * Returns the number of indices, which is one more than the largest
+     * index.
+     *
+     * @return the number of indices
+     */
+
+    public long countStates()
+    {
+	return placeValue[highest] * (length[highest] + 1);
+    }
+
+    /**
+     * Returns the place value of the given column.
+     *
+     * @param column a column
+     * @return the amount the index changes when the marker in that
+     * column moves one space
+     */
+
+    public long getPlaceValue(int column)
+    {
+	return placeValue[column];
+    }
+
+    /**
+     * Returns the position of the marker in the given column.
+     *
+     * @param index the index of a state
+     * @param column a column
+     * @return the position of the marker in that column in that state
+     */
+
+    public int getMarkerPosition(long index, int column)
+    {
+	return (int)((index / placeValue[column]) % (length[column] + 1));
+    }
+
+    /**
+     * Reads all the marker positions out of the given index.
+     *
+     * @param index the index of a state
+     * @param positions an array, indexed by column, to hold the position
+     * of the marker in each column
+     */
+
+    public void getMarkerPositions(long index, int[] positions)
+    {
+	for (int c = lowest; c <= highest; c++)
+	    {
+		positions[c] = (int)(index % (length[c] + 1));
+		index /= (length[c] + 1);
+	    }
+    }
+
+    /**
+     * Returns the index of the state with the given marker positions.
+     *
+     * @param positions the position of the marker in each column,
+     * indexed by column
+     * @return the index of that state
+     */
+
+    public long getIndex(int[] positions)
+    {
+	long index = 0;
+
+	for (int c = lowest; c <= highest; c++)
+	    index += positions[c] * placeValue[c];
+
+	return index;
+    }
+
+    /**
+     * Returns the index of the state that results from moving the
+     * marker in the given column the given number of spaces.  The move
+     * is not checked.
+     *
+     * @param index the index of a state
+     * @param column a column
+     * @param spaces the number of spaces to move
+     * @return the index of the resulting state
+     */
+
+    public long advance(long index, int column, int spaces)
+    {
+	return index + spaces * placeValue[column];
+    }
+
+    /**
+     * Returns the index of the state that results from making the given
+     * move.  The move is not checked.
+     *
+     * @param index the index of a state
+     * @param move a move, giving the number of spaces to move in each
+     * column
+     * @return the index of the resulting state
+     */
+
+    public long applyMove(long index, Multiset move)
+    {
+	for (int c = lowest; c <= highest; c++)
+	    index += move.countItem(c) * placeValue[c];
+
+	return index;
+    }
+
+    /**
+     * Returns the index of the state that results from making the move
+     * with the given code.  The move is not checked.
+     *
+     * @param index the index of a state
+     * @param code the code of a move from a <CODE>LegalMoveTable</CODE>
+     * @return the index of the resulting state
+     */
+
+    public long applyMove(long index, int code)
+    {
+	int first = LegalMoveTable.getFirstColumn(code);
+	int second = LegalMoveTable.getSecondColumn(code);
+
+	index += placeValue[first];
+	if (second != 0)
+	    index += placeValue[second];
+
+	return index;
+    }
+
+    /**
+     * Returns the columns completed in the given state.
+     *
+     * @param index the index of a state
+     * @return a bitmask with the bit <CODE>1 << (c - lowest)</CODE> set
+     * for each completed column <CODE>c</CODE>
+     */
+
+    public int getCompletedColumns(long index)
+    {
+	int completed = 0;
+
+	for (int c = lowest; c <= highest; c++)
+	    {
+		if (index % (length[c] + 1) == length[c])
+		    completed |= 1 << (c - lowest);
+		index /= (length[c] + 1);
+	    }
+
+	return completed;
+    }
+
+    /**
+     * Returns the number of columns completed in the given state.
+     *
+     * @param index the index of a state
+     * @return the number of completed columns in that state
+     */
+
+    public int countWonColumns(long index)
+    {
+	return Integer.bitCount(getCompletedColumns(index));
+    }
+
+    /**
+     * Determines if the given state is the end of the game.
+     *
+     * @param index the index of a state
+     * @return true iff enough columns are completed in that state to win
+     */
+
+    public boolean isFinal(long index)
+    {
+	return (countWonColumns(index) >= toWin);
+    }
+
+    /**
+     * Returns the index of the mirror image of the given state.
+     *
+     * @param index the index of a state
+     * @return the index of the state with the markers in columns
+     * <CODE>c</CODE> and <CODE>highest + lowest - c</CODE> swapped
+     */
+
+    public long mirror(long index)
+    {
+	long result = 0;
+
+	for (int c = lowest; c <= highest; c++)
+	    {
+		result += (index % (length[c] + 1)) * placeValue[highest + lowest - c];
+		index /= (length[c] + 1);
+	    }
+
+	return result;
+    }
+
+    /**
+     * Determines if the given state is the canonical member of its pair
+     * of mirror images; that is, if its index is no greater than that of
+     * its mirror.
+     *
+     * @param index the index of a state
+     * @return true iff that index is at most that of its mirror
+     */
+
+    public boolean isCanonical(long index)
+    {
+	return (index <= mirror(index));
+    }
+
+    /**
+     * Returns the total number of spaces the markers have moved in the
+     * given state.
+     *
+     * @param index the index of a state
+     * @return the sum of the marker positions in that state
+     */
+
+    public int countSpaces(long index)
+    {
+	int total = 0;
+
+	for (int c = lowest; c <= highest; c++)
+	    {
+		total += (int)(index % (length[c] + 1));
+		index /= (length[c] + 1);
+	    }
+
+	return total;
+    }
+}
@@ -0,0 +1,379 @@
+package com.bloxomo.gametheory.cantstop;
+
+import java.util.*;
+import java.util.concurrent.*;
+import com.bloxomo.gametheory.*;
+
+/**
+ * Solves a solitaire Can't Stop game layer by layer in a fork-join
+ * pool, working directly on index ranges.  The index space is cut into
+ * chunks by <CODE>CantStopLayers</CODE>.  A task is forked for each
+ * chunk that has states in a layer, and the task walks just those
+ * states.  There is no producer thread and no object is queued per
+ * state; idle workers steal chunks from busy ones.
+ *
+ * Every move advances at least one marker, so a state's successors are
+ * in the layers above it and have higher indices.  The successors'
+ * values are stored by solving the canonical members of their mirror
+ * pairs, and those are no lower either: a successor's mirror is no
+ * lower than the mirror of the canonical state being solved, which is
+ * no lower than that state.  So the states of a layer in one chunk
+ * depend only on the same and later chunks of the layers above.  A
+ * chunk of a layer is forked as soon as that chunk and every later one
+ * of the layer above are done, which by induction means the same of
+ * every layer above; there is no barrier between layers, and the last
+ * chunks of a layer are solved while the first chunks of the layers
+ * above are finishing.
+ *
+ * As with the queue this replaces, only canonical states are solved;
+ * the value is also stored for the mirror image unless the map is
+ * folded.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CantStopLayerSolver
+{
+    /**
+     * The number of indices in a chunk if no size is given.
+     */
+
+    public static final int DEFAULT_CHUNK_INDICES = CantStopLayers.DEFAULT_CHUNK_INDICES;
+
+    private final CantStopState dummy;
+
+    private final CantStopLayers layers;
+
+    private final StateValueMap values;
+
+    private final boolean folded;
+
+    private final FixedPointSolver solver;
+
+    private final int method;
+
+    private CachedStateValueFile prefetchCache;
+
+    private StateRanking prefetchRanking;
+
+    private CantStopCheckpoint checkpoint;
+
+    /**
+     * Creates a solver with chunks of the default size.
+     *
+     * @param s a state in the game to solve
+     * @param vals the map to store the values in
+     * @param fold true if the map stores one value for each state and
+     * its mirror
+     * @param fps the solver to use for each anchor
+     * @param m the method to solve anchors with, as for
+     * <CODE>CantStopState.computeExpectedTurns</CODE>
+     */
+
+    public CantStopLayerSolver(CantStopState s, StateValueMap vals, boolean fold, FixedPointSolver fps, int m)
+    {
+	this(s, vals, fold, fps, m, new CantStopLayers(s));
+    }
+
+    /**
+     * Creates a solver that works on the given chunks.
+     *
+     * @param s a state in the game to solve
+     * @param vals the map to store the values in
+     * @param fold true if the map stores one value for each state and
+     * its mirror
+     * @param fps the solver to use for each anchor
+     * @param m the method to solve anchors with, as for
+     * <CODE>CantStopState.computeExpectedTurns</CODE>
+     * @param l the chunks of the game
+     */
+
+    public CantStopLayerSolver(CantStopState s, StateValueMap vals, boolean fold, FixedPointSolver fps, int m, CantStopLayers l)
+    {
+	dummy = s;
+	layers = l;
+	values = vals;
+	folded = fold;
+	solver = fps;
+	method = m;
+    }
+
+    /**
+     * Makes each chunk load the cache lines it will write before it
+     * starts solving.  With a ranking, the lines are loaded only if
+     * the ranking keeps the order of the indices, as a
+     * <CODE>DenseRanking</CODE> does; otherwise a chunk's ranks are
+     * scattered and there is no range to load.
+     *
+     * @param cache the cached map to prefetch into, or null for none
+     * @param ranking the ranking used to index the cache, or null
+     * if it is indexed by state index
+     */
+
+    public void setPrefetch(CachedStateValueFile cache, StateRanking ranking)
+    {
+	prefetchCache = cache;
+	prefetchRanking = ranking;
+    }
+
+    /**
+     * Makes the solver hand each layer to the given checkpoint as soon
+     * as it is finished.  Layers are finished in order from the last,
+     * and by then no chunk of the layers after it is running.
+     *
+     * @param cp the checkpoint to save layers in, or null for none
+     */
+
+    public void setCheckpoint(CantStopCheckpoint cp)
+    {
+	checkpoint = cp;
+    }
+
+    /**
+     * Solves every layer, from the last to the first, and returns when
+     * all the values are stored.
+     *
+     * @param pool the pool to solve in
+     */
+
+    public void solve(ForkJoinPool pool)
+    {
+	solve(pool, layers.getTotalSpaces());
+    }
+
+    /**
+     * Solves the given layer and every layer before it, and returns when
+     * all their values are stored.  The values in later layers must
+     * already be in the map.
+     *
+     * @param pool the pool to solve in
+     * @param from the last layer to solve
+     */
+
+    public void solve(ForkJoinPool pool, int from)
+    {
+	if (from >= 0)
+	    pool.invoke(new Run(from));
+    }
+
+    /**
+     * Solves the state with the given index and stores its value, and
+     * its mirror's if the map is not folded.
+     *
+     * @param index the index of a canonical state
+     */
+
+    private void solveState(long index)
+    {
+	CantStopState state = (CantStopState)(dummy.getState(index));
+
+	double stateValue = 0.0;
+	if (!state.isFinal())
+	    stateValue = state.computeExpectedTurns(values, solver, method);
+
+	values.setValue(state, stateValue);
+	if (!folded)
+	    values.setValue(state.mirror(), stateValue);
+    }
+
+    /**
+     * The root of the tasks for one solve; completes when the last chunk
+     * does.  It keeps track of which chunks of which layers are done
+     * and forks each chunk when the chunks it depends on are done.
+     */
+
+    private class Run extends CountedCompleter< Void >
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final int from;
+
+	/**
+	 * For each layer that has been started and is not done, the
+	 * chunks that are done, indexed by layer.
+	 */
+
+	private final BitSet[] done;
+
+	/**
+	 * For each layer, the first chunk such that it and every later
+	 * chunk are done; chunks with no states in the layer are done as
+	 * soon as they could start.  The layer after the first one solved
+	 * is already done.
+	 */
+
+	private final int[] frontier;
+
+	private Run(int f)
+	{
+	    from = f;
+	    done = new BitSet[f + 1];
+	    frontier = new int[f + 2];
+	    Arrays.fill(frontier, layers.countChunks());
+	    frontier[f + 1] = 0;
+	}
+
+	public void compute()
+	{
+	    synchronized (frontier)
+		{
+		    start(from, 0, layers.countChunks());
+		}
+	    tryComplete();
+	}
+
+	/**
+	 * Records that the given chunk of the given layer is done, and
+	 * forks the chunks that were waiting only for it.
+	 *
+	 * @param layer a layer
+	 * @param chunk a chunk of that layer that has just been solved
+	 */
+
+	private void finish(int layer, int chunk)
+	{
+	    synchronized (frontier)
+		{
+		    markDone(layer, chunk);
+		}
+	}
+
+	/**
+	 * Starts the chunks of the given layer in the given range, all of
+	 * whose dependencies have just been met.  Must be called with the
+	 * lock on <CODE>frontier</CODE> held.
+	 *
+	 * @param layer a layer
+	 * @param lo the first chunk to start
+	 * @param hi one more than the last chunk to start
+	 */
+
+	private void start(int layer, int lo, int hi)
+	{
+	    if (done[layer] == null)
+		done[layer] = new BitSet(layers.countChunks());
+
+	    for (int c = hi - 1; c >= lo; c--)
+		{
+		    if (layers.hasStates(c, layer))
+			{
+			    addToPendingCount(1);
+			    new Chunk(this, layer, c).fork();
+			}
+		    else
+			markDone(layer, c);
+		}
+	}
+
+	/**
+	 * Marks the given chunk of the given layer done, starting the
+	 * chunks of the layer before that now have what they need, and
+	 * saving the layer if it is all done.  Must be called with the
+	 * lock on <CODE>frontier</CODE> held.
+	 *
+	 * @param layer a layer
+	 * @param chunk a chunk of that layer
+	 */
+
+	private void markDone(int layer, int chunk)
+	{
+	    BitSet finished = done[layer];
+	    finished.set(chunk);
+
+	    int old = frontier[layer];
+	    int f = old;
+	    while (f > 0 && finished.get(f - 1))
+		f--;
+	    if (f == old)
+		return;
+	    frontier[layer] = f;
+
+	    // the checkpoint is written while earlier layers are solved,
+	    // which doesn't change any of this layer's values; it is
+	    // queued before any chunk that could finish the layer before
+	    // is forked, so layers are saved in order
+
+	    if (f == 0)
+		{
+		    done[layer] = null;
+		    if (checkpoint != null)
+			checkpoint.save(layer);
+		}
+
+	    if (layer > 0)
+		start(layer - 1, f, old);
+	}
+    }
+
+    /**
+     * Solves the canonical states in one layer of one chunk.
+     */
+
+    private class Chunk extends CountedCompleter< Void >
+    {
+	private static final long serialVersionUID = 1L;
+
+	private final Run root;
+
+	private final int layer;
+
+	private final int chunk;
+
+	private Chunk(Run r, int l, int c)
+	{
+	    super(r);
+
+	    root = r;
+	    layer = l;
+	    chunk = c;
+	}
+
+	public void compute()
+	{
+	    if (prefetchCache != null)
+		prefetch();
+
+	    layers.visitChunk(chunk, layer, true, CantStopLayerSolver.this::solveState);
+
+	    // chunks forked here are counted before this one completes,
+	    // so the root can't complete before they do
+
+	    root.finish(layer, chunk);
+	    tryComplete();
+	}
+
+	/**
+	 * Loads the cache lines this chunk writes.  Without a ranking
+	 * that is the whole index range of the chunk; with one that keeps
+	 * the order of the indices it is the range from the lowest rank
+	 * of the chunk's states in this layer to the highest.
+	 */
+
+	private void prefetch()
+	{
+	    if (prefetchRanking == null)
+		{
+		    long start = layers.getChunkStart(chunk);
+		    prefetchCache.prefetch(start, start + layers.getChunkIndices());
+		}
+	    else if (prefetchRanking instanceof DenseRanking)
+		{
+		    final DenseRanking ranking = (DenseRanking)prefetchRanking;
+		    final long[] range = {Long.MAX_VALUE, -1};
+
+		    layers.visitChunk(chunk, layer, true, index ->
+			{
+			    long rank = ranking.rank(index);
+			    if (rank >= 0)
+				{
+				    range[0] = Math.min(range[0], rank);
+				    range[1] = Math.max(range[1], rank);
+				}
+			});
+
+		    if (range[1] >= 0)
+			prefetchCache.prefetch(range[0], range[1] + 1);
+		}
+	}
+    }
+}
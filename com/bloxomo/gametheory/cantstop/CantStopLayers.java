@@ -0,0 +1,297 @@
+package com.bloxomo.gametheory.cantstop;
+
+import java.util.function.*;
+
+/**
+ * Divides the index space of a solitaire Can't Stop game into chunks
+ * and walks the states of a layer chunk by chunk.  A layer is the set
+ * of states with the same total number of spaces moved.  The chunks
+ * are cut by the positions of the markers in the most significant
+ * columns, so each chunk is a contiguous range of indices in which
+ * those columns are fixed, and the states of a layer in a chunk are
+ * found by stepping the less significant marker positions through the
+ * combinations with the right total, in order of index, without
+ * looking at the indices in between.  The order in which a layer's
+ * states are visited depends only on the rules and the chunk size.
+ *
+ * An instance depends only on the rules of the game and the chunk
+ * size, so it is immutable and may be shared by any number of threads.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CantStopLayers
+{
+    /**
+     * The number of indices in a chunk if no size is given.
+     */
+
+    public static final int DEFAULT_CHUNK_INDICES = 4096;
+
+    private final CantStopIndexOps ops;
+
+    /**
+     * The lowest and highest columns.
+     */
+
+    private final int lowest;
+
+    private final int highest;
+
+    /**
+     * The least significant column that is fixed within a chunk; the
+     * columns below it vary.  This is one more than the highest column
+     * if the whole index space is one chunk.
+     */
+
+    private final int split;
+
+    /**
+     * The length of each column, indexed by column.
+     */
+
+    private final int[] length;
+
+    /**
+     * The number of indices in each chunk.
+     */
+
+    private final long chunkIndices;
+
+    /**
+     * The total number of spaces moved in the fixed columns of each
+     * chunk, indexed by chunk.
+     */
+
+    private final int[] chunkSpaces;
+
+    /**
+     * The most spaces the markers in the varying columns can be moved.
+     */
+
+    private final int maxVarying;
+
+    /**
+     * The total length of all the columns, which is the last layer.
+     */
+
+    private final int totalSpaces;
+
+    /**
+     * Divides the given game into chunks of the default size.
+     *
+     * @param s a state in the game
+     */
+
+    public CantStopLayers(CantStopState s)
+    {
+	this(s, DEFAULT_CHUNK_INDICES);
+    }
+
+    /**
+     * Divides the given game into chunks as large as they can be
+     * without having more than the given number of indices.
+     *
+     * @param s a state in the game
+     * @param maxChunk the most indices in a chunk
+     */
+
+    public CantStopLayers(CantStopState s, long maxChunk)
+    {
+	if (maxChunk < 1)
+	    throw new IllegalArgumentException("chunk size " + maxChunk + " is not positive");
+
+	ops = s.getIndexOps();
+
+	lowest = s.getLowestRoll();
+	highest = s.getHighestRoll();
+	totalSpaces = s.getTotalSpaces();
+
+	length = new int[highest + 1];
+	for (int c = lowest; c <= highest; c++)
+	    length[c] = s.getColumnLength(c);
+
+	// fix as few columns as possible without making chunks too big
+
+	int c = lowest;
+	while (c <= highest && ops.getPlaceValue(c) * (length[c] + 1) <= maxChunk)
+	    c++;
+	split = c;
+
+	chunkIndices = (split <= highest ? ops.getPlaceValue(split) : ops.countStates());
+
+	int varying = 0;
+	for (c = lowest; c < split; c++)
+	    varying += length[c];
+	maxVarying = varying;
+
+	long chunks = ops.countStates() / chunkIndices;
+	if (chunks > Integer.MAX_VALUE)
+	    throw new IllegalArgumentException("chunk size " + maxChunk + " makes too many chunks");
+
+	chunkSpaces = new int[(int)chunks];
+	for (int i = 0; i < chunkSpaces.length; i++)
+	    chunkSpaces[i] = ops.countSpaces(i * chunkIndices);
+    }
+
+    /**
+     * Returns the number of chunks.
+     *
+     * @return the number of chunks
+     */
+
+    public int countChunks()
+    {
+	return chunkSpaces.length;
+    }
+
+    /**
+     * Returns the number of indices in each chunk.
+     *
+     * @return the number of indices in each chunk
+     */
+
+    public long getChunkIndices()
+    {
+	return chunkIndices;
+    }
+
+    /**
+     * Returns the first index in the given chunk.
+     *
+     * @param chunk a chunk
+     * @return the first index in that chunk
+     */
+
+    public long getChunkStart(int chunk)
+    {
+	return chunk * chunkIndices;
+    }
+
+    /**
+     * Returns the last layer, which holds only the state with every
+     * column completed.
+     *
+     * @return the total length of the columns
+     */
+
+    public int getTotalSpaces()
+    {
+	return totalSpaces;
+    }
+
+    /**
+     * Determines if the given chunk has any states in the given layer.
+     *
+     * @param chunk a chunk
+     * @param layer a layer
+     * @return true iff some state in that chunk is in that layer
+     */
+
+    public boolean hasStates(int chunk, int layer)
+    {
+	int rest = layer - chunkSpaces[chunk];
+
+	return (rest >= 0 && rest <= maxVarying);
+    }
+
+    /**
+     * Passes the index of each state in the given layer to the given
+     * action, chunk by chunk and in order of index within each chunk.
+     *
+     * @param layer a layer
+     * @param canonicalOnly true to skip states that are not canonical
+     * @param action what to do with each index
+     */
+
+    public void visitLayer(int layer, boolean canonicalOnly, LongConsumer action)
+    {
+	for (int i = 0; i < chunkSpaces.length; i++)
+	    if (hasStates(i, layer))
+		visitChunk(i, layer, canonicalOnly, action);
+    }
+
+    /**
+     * Passes the index of each state in the given layer and chunk to
+     * the given action, in order of index.
+     *
+     * @param chunk a chunk
+     * @param layer a layer
+     * @param canonicalOnly true to skip states that are not canonical
+     * @param action what to do with each index
+     */
+
+    public void visitChunk(int chunk, int layer, boolean canonicalOnly, LongConsumer action)
+    {
+	if (!hasStates(chunk, layer))
+	    return;
+
+	long base = getChunkStart(chunk);
+	int[] positions = new int[highest + 1];
+	fill(positions, layer - chunkSpaces[chunk], split);
+
+	while (true)
+	    {
+		long index = base;
+		for (int c = lowest; c < split; c++)
+		    index += positions[c] * ops.getPlaceValue(c);
+
+		if (!canonicalOnly || ops.isCanonical(index))
+		    action.accept(index);
+
+		// the next combination with the same total moves one space
+		// into the lowest column that can take it from some column
+		// below it, and packs what's left below into the lowest
+		// columns
+
+		int below = 0;
+		int c = lowest;
+		while (c < split && (below == 0 || positions[c] == length[c]))
+		    {
+			below += positions[c];
+			c++;
+		    }
+
+		if (c == split)
+		    break;
+
+		positions[c]++;
+		fill(positions, below - 1, c);
+	    }
+    }
+
+    /**
+     * Counts the states in the given layer.
+     *
+     * @param layer a layer
+     * @param canonicalOnly true to count only canonical states
+     * @return the number of states in that layer
+     */
+
+    public long countStates(int layer, boolean canonicalOnly)
+    {
+	long[] count = new long[1];
+
+	visitLayer(layer, canonicalOnly, index -> count[0]++);
+
+	return count[0];
+    }
+
+    /**
+     * Sets the markers in the varying columns below <CODE>top</CODE> to
+     * the combination with the given total that has the lowest index.
+     *
+     * @param positions the marker positions, indexed by column
+     * @param spaces the total to place
+     * @param top the column above the ones to set
+     */
+
+    private void fill(int[] positions, int spaces, int top)
+    {
+	for (int c = lowest; c < top; c++)
+	    {
+		positions[c] = Math.min(length[c], spaces);
+		spaces -= positions[c];
+	    }
+    }
+}
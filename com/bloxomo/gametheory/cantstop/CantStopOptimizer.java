@@ -11,11 +11,91 @@ public class CantStopOptimizer
 	CantStopState s = new CantStopState(Integer.parseInt(args[0]),
 					    Integer.parseInt(args[1]));
 
-	StateValueMap values = s.getMap();
+	// a folded map stores one value for each state and its mirror;
+	// a dense map stores nothing for final states
 
-	for (int layer = s.getTotalSpaces(); layer >= 0; layer--)
+	int scheme = CantStopState.INDEX_FULL;
+	int method = CantStopState.SOLVER_FIXED_POINT;
+	String telemetryFile = null;
+	String checkpointDir = null;
+	boolean resume = false;
+	for (int a = 2; a < args.length; a++)
 	    {
-		Iterator i = s.iterator(layer);
+		if (args[a].equals("--fold"))
+		    scheme = CantStopState.INDEX_MIRROR;
+		else if (args[a].equals("--dense"))
+		    scheme = CantStopState.INDEX_DENSE;
+		else if (args[a].startsWith("--solver="))
+		    method = CantStopState.getSolverMethod(args[a].substring(args[a].indexOf("=") + 1));
+		else if (args[a].startsWith("--telemetry="))
+		    telemetryFile = args[a].substring(args[a].indexOf("=") + 1);
+		else if (args[a].startsWith("--checkpoint="))
+		    checkpointDir = args[a].substring(args[a].indexOf("=") + 1);
+		else if (args[a].equals("--resume"))
+		    resume = true;
+	    }
+
+	if (resume && checkpointDir == null)
+	    {
+		System.err.println("--resume needs --checkpoint=dir");
+		System.exit(1);
+	    }
+
+	boolean fold = (scheme == CantStopState.INDEX_MIRROR);
+
+	StateValueMap values = s.getMap(scheme, ValueFormat.DOUBLE_FORMAT);
+
+	// record each solve in the log AnalyzeIterations reads, and
+	// total them up for the end
+
+	SolverStatistics statistics = new SolverStatistics();
+	SolverTelemetry telemetry = null;
+	if (telemetryFile != null)
+	    {
+		try
+		    {
+			telemetry = new SolverTelemetry(telemetryFile);
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not create " + telemetryFile);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
+	    }
+
+	FixedPointSolver solver = FixedPointSolver.DEFAULT.withMetrics(SolverMetrics.combine(statistics, telemetry));
+
+	// each finished layer is saved while the next one is solved; a
+	// resumed run starts after the last layer saved
+
+	CantStopCheckpoint checkpoint = null;
+	int from = s.getTotalSpaces();
+	if (checkpointDir != null)
+	    {
+		try
+		    {
+			checkpoint = new CantStopCheckpoint(checkpointDir, s, scheme, values, new CantStopLayers(s));
+			if (resume)
+			    {
+				from = checkpoint.resume() - 1;
+				System.out.println("Resuming at layer " + from);
+			    }
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not resume from " + checkpointDir);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
+	    }
+
+	for (int layer = from; layer >= 0; layer--)
+	    {
+		// mirror images are solved together, so only canonical
+		// states need to be visited
+
+		Iterator i = s.iterator(layer, true);
 		while (i.hasNext())
 		    {
 			CantStopState state = (CantStopState)(i.next());
@@ -23,27 +103,56 @@ public class CantStopOptimizer
 			if (state.isFinal())
 			    {
 				values.setValue(state, 0.0);
+				if (!fold)
+				    values.setValue(state.mirror(), 0.0);
 			    }
-			else if (state.hashCode() <= state.mirror().hashCode())
+			else
 			    {
-				double stateValue = state.computeExpectedTurns(values);
+				double stateValue = state.computeExpectedTurns(values, solver, method);
 
-				System.out.println(state + " " + state.hashCode());
-				System.out.println(state.mirror() + " " + state.mirror().hashCode());
 				values.setValue(state, stateValue);
-				values.setValue(state.mirror(), stateValue);
+				if (!fold)
+				    values.setValue(state.mirror(), stateValue);
 			    }
-			System.out.println(state + " = " + values.getValue(state));
+		    }
 
+		if (checkpoint != null)
+		    checkpoint.save(layer);
+	    }
+
+	if (checkpoint != null)
+	    {
+		try
+		    {
+			checkpoint.close();
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not write checkpoint in " + checkpointDir);
+			e.printStackTrace(System.err);
 		    }
+	    }
 
+	if (telemetry != null)
+	    {
+		try
+		    {
+			telemetry.close();
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not write " + telemetryFile);
+			e.printStackTrace(System.err);
+		    }
 	    }
 
+	System.out.println(CantStopState.getSolverName(method) + ": " + statistics);
+
 	try
 	    {
-		DataOutputStream out = new DataOutputStream(new FileOutputStream("cantstop_" + args[0] + "_" + args[1] + ".dat"));
-		values.write(out);
-		out.close();
+		ValueFiles.save("cantstop_" + args[0] + "_" + args[1] + CantStopState.getIndexSuffix(scheme) + ".dat",
+				s.makeHeader(scheme, ValueFormat.DOUBLE_FORMAT),
+				CantStopState.getStorage(values));
 	    }
 	catch (IOException e)
 	    {
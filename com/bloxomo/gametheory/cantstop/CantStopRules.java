@@ -0,0 +1,401 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.bloxomo.gametheory.*;
+import com.sirmapsalot.combinatorics.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The rules of a game of solitaire Can't Stop and the tables derived
+ * from them: the column lengths, the place values of the state index,
+ * the mapping between columns and marker multiset elements, and the
+ * ways to group each roll.  Building these tables, and the roll list
+ * in particular, costs much more than building a state, so there is
+ * one instance for each set of rules, shared by every state played
+ * under those rules.  Instances are immutable and so may be shared by
+ * any number of threads.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class CantStopRules
+{
+    /**
+     * The number of groups of dice to roll.
+     */
+
+    static final int NUM_DICE_GROUPS = 2;
+
+    /**
+     * The rules built so far, keyed by <CODE>makeKey</CODE>.
+     */
+
+    private static final ConcurrentMap< Long, CantStopRules > cache = new ConcurrentHashMap< Long, CantStopRules >();
+
+    /**
+     * The number of sides on the dice.
+     */
+
+    final int numSides;
+
+    /**
+     * The number of dice that are grouped to make column indices.
+     */
+
+    final int numDice;
+
+    /**
+     * The number of columns needed to win.
+     */
+
+    final int columnsToWin;
+
+    /**
+     * Maps column values to multiset elements; see
+     * <CODE>CantStopState</CODE>.
+     */
+
+    final int[] columnToMultisetMap;
+
+    /**
+     * The inverse of <CODE>columnToMultisetMap</CODE>.
+     */
+
+    final int[] multisetToColumnMap;
+
+    /**
+     * The maximum number of spaces in each column.
+     */
+
+    final int[] columnLength;
+
+    /**
+     * The place values used in the integer encoding scheme.
+     */
+
+    final long[] placeValue;
+
+    /**
+     * The bound on each multiset element, in multiset order.
+     */
+
+    final int[] markerBounds;
+
+    /**
+     * An unmodifiable map from rolls to possible (not necessarily
+     * legal) moves.
+     */
+
+    final Map rollList;
+
+    /**
+     * Operations on the indices of states under these rules.
+     */
+
+    final CantStopIndexOps indexOps;
+
+    /**
+     * The legal moves for each roll.
+     */
+
+    final LegalMoveTable moveTable;
+
+    /**
+     * Returns the rules with the given parameters, building them only
+     * the first time they are asked for.
+     *
+     * @param sides the number of sides on the dice
+     * @param minLength the length of the shortest columns
+     * @param dice the number of dice in each group
+     * @param toWin the number of columns needed to win
+     * @return the rules with those parameters
+     */
+
+    public static CantStopRules get(int sides, int minLength, int dice, int toWin)
+    {
+	Long key = makeKey(sides, minLength, dice, toWin);
+	CantStopRules rules = cache.get(key);
+
+	if (rules == null)
+	    {
+		rules = new CantStopRules(sides, minLength, dice, toWin);
+		CantStopRules old = cache.putIfAbsent(key, rules);
+		if (old != null)
+		    rules = old;
+	    }
+
+	return rules;
+    }
+
+    /**
+     * Packs the given parameters into one cache key.
+     */
+
+    private static long makeKey(int sides, int minLength, int dice, int toWin)
+    {
+	if (sides < 1 || sides > 0xFFFF || minLength < 0 || minLength > 0xFFFF
+	    || dice < 1 || dice > 0xFFFF || toWin < 0 || toWin > 0xFFFF)
+	    throw new IllegalArgumentException("bad rules: " + sides + " sides, shortest column " + minLength
+					       + ", " + dice + " dice per group, " + toWin + " columns to win");
+
+	return ((long)sides << 48) | ((long)minLength << 32) | ((long)dice << 16) | toWin;
+    }
+
+    private CantStopRules(int sides, int minLength, int dice, int toWin)
+    {
+	numDice = dice;
+	numSides = sides;
+	columnsToWin = toWin;
+
+	int lowest = getLowestRoll();
+	int highest = getHighestRoll();
+	int midRoll = (lowest + highest) / 2;
+
+	columnLength = new int[highest + 1];
+	columnToMultisetMap = new int[highest + 1];
+	multisetToColumnMap = new int[highest - lowest + 1];
+
+	columnLength[lowest] = minLength;
+	columnLength[highest] = minLength;
+
+	// initialize column lengths
+
+	for (int c = numDice + 1; c <= midRoll; c++)
+	    columnLength[c] = columnLength[c - 1] + 2;
+	for (int c = highest - 1; c >= midRoll + 1; c--)
+	    columnLength[c] = columnLength[c + 1] + 2;
+
+	// initialize column to multiset map
+
+	int firstUnused = 1;
+	int secondHalf = midRoll;
+	columnToMultisetMap[midRoll] = 0;
+	if (numDice % 2 != 0 && (sides + 1) % 2 != 0)
+	    {
+		columnToMultisetMap[midRoll + 1] = 1;
+		firstUnused = 2;
+		secondHalf = midRoll + 1;
+	    }
+
+	for (int i = 1; midRoll - i >= numDice; i++)
+	    {
+		columnToMultisetMap[midRoll - i] = firstUnused + (i - 1) * 2;
+		columnToMultisetMap[secondHalf + i] = firstUnused + (i - 1) * 2 + 1;
+	    }
+
+	// initialize multiset to column map
+
+	for (int c = lowest; c <= highest; c++)
+	    multisetToColumnMap[columnToMultisetMap[c]] = c;
+
+	// figure placeValues
+
+	placeValue = new long[highest + 1];
+	placeValue[lowest] = 1;
+	for (int c = lowest + 1; c <= highest; c++)
+	    placeValue[c] = placeValue[c - 1] * (columnLength[c - 1] + 1);
+
+	// bounds for the marker multisets
+
+	markerBounds = new int[highest - lowest + 1];
+	for (int i = 0; i < markerBounds.length; i++)
+	    markerBounds[i] = columnLength[multisetToColumnMap[i]];
+
+	// make map of rolls to potential moves
+
+	rollList = Collections.unmodifiableMap(makeRollList(sides, dice, false));
+
+	indexOps = new CantStopIndexOps(this);
+
+	moveTable = new LegalMoveTable(this);
+    }
+
+    /**
+     * Returns the number of sides on the dice.
+     *
+     * @return the number of sides on the dice
+     */
+
+    public int countSides()
+    {
+	return numSides;
+    }
+
+    /**
+     * Returns the lowest total roll possible.
+     *
+     * @return the lowest total roll possible
+     */
+
+    public int getLowestRoll()
+    {
+	return numDice;
+    }
+
+    /**
+     * Returns the highest total roll possible.
+     *
+     * @return the highest total roll possible
+     */
+
+    public int getHighestRoll()
+    {
+	return numDice * numSides;
+    }
+
+    /**
+     * Returns the length of the given column.
+     *
+     * @param col a column label
+     * @return the length of that column
+     */
+
+    public int getColumnLength(int col)
+    {
+	return columnLength[col];
+    }
+
+    /**
+     * Returns the number of columns needed to win.
+     *
+     * @return the number of columns needed to win
+     */
+
+    public int getColumnsToWin()
+    {
+	return columnsToWin;
+    }
+
+    /**
+     * Returns the number of dice in each group.
+     *
+     * @return the number of dice in each group
+     */
+
+    public int getDicePerGroup()
+    {
+	return numDice;
+    }
+
+    /**
+     * Returns the operations on the indices of states under these rules.
+     *
+     * @return the index operations for these rules
+     */
+
+    public CantStopIndexOps getIndexOps()
+    {
+	return indexOps;
+    }
+
+    /**
+     * Returns the table of legal moves under these rules.
+     *
+     * @return the legal move table for these rules
+     */
+
+    public LegalMoveTable getMoveTable()
+    {
+	return moveTable;
+    }
+
+    /**
+     * Returns a new map of each possible roll to the different ways of
+     * grouping the dice in that roll.  See
+     * <CODE>CantStopState.getRollList</CODE>.
+     *
+     * @param sides the number of sides on the dice
+     * @param dice the number of dice in each group
+     * @param includeSubsets true to include subsets of the groupings
+     * @return a map of each roll to the ways to group it
+     */
+
+    static Map makeRollList(int sides, int dice, boolean includeSubsets)
+    {
+	Map result = new HashMap();
+
+	DiceRoll roll = new DiceRoll(dice * NUM_DICE_GROUPS, sides);
+
+	result.put(roll, getPossibleGroupings(roll, dice, includeSubsets));
+
+	while (roll.hasNext())
+	    {
+		roll = roll.next();
+
+		result.put(roll, getPossibleGroupings(roll, dice, includeSubsets));
+	    }
+
+	return result;
+    }
+
+    /**
+     * Returns a set of multisets giving the different ways to group
+     * the given dice.
+     *
+     * @param roll a dice roll
+     * @param groupSize a positive divisor of the number of dice
+     * @return a set of groupings of the given dice
+     */
+
+    private static Set getPossibleGroupings(DiceRoll roll, int groupSize)
+    {
+	return getPossibleGroupings(roll, groupSize, false);
+    }
+
+    /**
+     * Returns a set of multisets giving the different ways to group
+     * the given dice.
+     *
+     * @param roll a dice roll
+     * @param groupSize a positive divisor of the number of dice
+     * @return a set of groupings of the given dice
+     */
+
+    private static Set getPossibleGroupings(DiceRoll roll, int groupSize, boolean includeSubsets)
+    {
+	if (roll.size() == groupSize)
+	    {
+		Set result = new TreeSet();
+		Multiset total = new Multiset(roll.size() * roll.countSides());
+		total.addItem(roll.total());
+		result.add(total);
+
+		return result;
+	    }
+	else
+	    {
+		Set totals = new TreeSet();
+
+		// iterate over groupSize groupings of roll
+
+		Iterator i = roll.subrollIterator(groupSize);
+		while (i.hasNext())
+		    {
+			DiceRoll group = (DiceRoll)(i.next());
+
+			// remove group from roll
+
+			DiceRoll diff = roll.difference(group);
+
+			// get groupings of roll
+
+			Set subtotals = getPossibleGroupings(diff, groupSize);
+
+			// combine with group
+
+			Iterator j = subtotals.iterator();
+			while (j.hasNext())
+			    {
+				Multiset s = (Multiset)(j.next());
+
+				totals.add(s.plus(group.total()));
+
+				if (includeSubsets)
+				    totals.add(s.clone());
+			    }
+		    }
+
+		return totals;
+	    }
+    }
+}
@@ -180,7 +180,7 @@ public class CantStopSimulator
 				System.out.println(" rolled " + roll);
 			    }
 			
-			List moves = (List)(s.makeLegalMoveMap(intermediate).get(roll));
+			List moves = s.getLegalMoves(intermediate, roll);
 
 			if (moves.size() > 0)
 			    {
@@ -26,6 +26,7 @@ import com.bloxomo.gametheory.*;
 
 import com.sirmapsalot.combinatorics.*;
 import java.util.*;
+import java.util.function.*;
 
 /**
  * A state in a game of Can't Stop.
@@ -42,10 +43,6 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     private static final int NUM_DICE = 2;
 
-    private final int numDice;
-
-    private final int columnsToWin;
-
     /**
      * The number of groups of dice to roll.  In the standard game,
      * 4 dice are rolled and made into pairs, so there are 2 groups
@@ -68,45 +65,48 @@ public class CantStopState extends GameState implements Cloneable, Comparable
     public static final int MARKERS_PER_TURN = 3;
 
     /**
-     * The number of sides on the dice this game is played with.
-     */
-
-    private final int numSides;
-
-    /**
-     * Maps column values to multiset elements.  This is done in order
-     * to group the largest values at the beginning of the multiset.
-     * Doing so makes the order of the states work out better for
-     * distributed computations: when sending a group of states, the
-     * total number of successor states will be lower.
-     */
-
-    private final int[] columnToMultisetMap;
-
-    /**
-     * The inverse of <CODE>columnToMultisetMap</CODE>
+     * Codes for the ways states can be mapped to positions in value maps
+     * and files: the full mixed-radix index, one position for each pair
+     * of mirror images, or one position for each non-final state.
      */
 
-    private final int[] multisetToColumnMap;
+    public static final int INDEX_FULL = 0;
+    public static final int INDEX_MIRROR = 1;
+    public static final int INDEX_DENSE = 2;
 
     /**
-     * The maximum number of spaces in each column.
+     * Codes for the ways to find the value of an anchor: iterating on
+     * estimates of it with a <CODE>FixedPointSolver</CODE>, carrying
+     * every value in its turn as a function of it and reading off the
+     * fixed point, or iterating on policies for its turn.
      */
 
-    private final int[] columnLength;
+    public static final int SOLVER_FIXED_POINT = 0;
+    public static final int SOLVER_PARAMETRIC = 1;
+    public static final int SOLVER_POLICY = 2;
 
     /**
-     * The place values used in the integer encoding scheme.
+     * The names of the solvers, indexed by code, as given on command
+     * lines.
      */
 
-    private final long[] placeValue;
+    private static final String[] SOLVER_NAMES = {"fixed-point", "parametric", "policy"};
 
     /**
-     * A map from rolls to possible (not necessarily legal) moves for
-     * this state and any state in a game with the same rules.
+     * The rules of the game this state is in, with the tables derived
+     * from them: the column lengths and place values, the mapping of
+     * columns to multiset elements, and the map from rolls to possible
+     * (not necessarily legal) moves.  They are shared by every state
+     * in a game with the same rules.
+     *
+     * Columns are mapped to multiset elements in order to group the
+     * largest values at the beginning of the multiset.  Doing so makes
+     * the order of the states work out better for distributed
+     * computations: when sending a group of states, the total number of
+     * successor states will be lower.
      */
 
-    private final Map rollList;
+    private final CantStopRules rules;
 
     /**
      * A unique integer index for this state. -1 if it hasn't been
@@ -139,9 +139,9 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
 	for (int column = getHighestRoll(); column >= getLowestRoll(); column--)
 	    {
-		if (index >= placeValue[column])
-		    markers.addItems(columnToMultisetMap[column], (int)(index / placeValue[column]));
-		index = index % placeValue[column];
+		if (index >= rules.placeValue[column])
+		    markers.addItems(rules.columnToMultisetMap[column], (int)(index / rules.placeValue[column]));
+		index = index % rules.placeValue[column];
 	    }
     }
 
@@ -179,71 +179,11 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public CantStopState(int sides, int minLength, int dice, int toWin)
     {
-	// System.out.println("Index = " + uniqueIndex);
-
-	numDice = dice;
-	numSides = sides;
-	columnsToWin = toWin;
-
-	int midRoll = (getLowestRoll() + getHighestRoll()) / 2;
-
-	columnLength = new int[getHighestRoll() + 1];
-	columnToMultisetMap = new int[getHighestRoll() + 1];
-	multisetToColumnMap = new int[getHighestRoll() - getLowestRoll() + 1];
-
-	columnLength[getLowestRoll()] = minLength;
-	columnLength[getHighestRoll()] = minLength;
-
-	// initialize column lengths
-
-	for (int c = numDice + 1; c <= midRoll; c++)
-	    columnLength[c] = columnLength[c - 1] + 2;
-	for (int c = getHighestRoll() - 1; c >= midRoll + 1; c--)
-	    columnLength[c] = columnLength[c + 1] + 2;
-
-	// initialize column to multiset map
-
-	int firstUnused = 1;
-	int secondHalf = midRoll;
-	columnToMultisetMap[midRoll] = 0;
-	if (numDice % 2 != 0 && (sides + 1) % 2 != 0)
-	    {
-		columnToMultisetMap[midRoll + 1] = 1;
-		firstUnused = 2;
-		secondHalf = midRoll + 1;
-	    }
-
-	for (int i = 1; midRoll - i >= numDice; i++)
-	    {
-		columnToMultisetMap[midRoll - i] = firstUnused + (i - 1) * 2;
-		columnToMultisetMap[secondHalf + i] = firstUnused + (i - 1) * 2 + 1;
-	    }
-
-	// initialize multiset to column map
-
-	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    multisetToColumnMap[columnToMultisetMap[c]] = c;
-
-	// figure placeValues
-
-	placeValue = new long[getHighestRoll() + 1];
-	placeValue[getLowestRoll()] = 1;
-	for (int c = getLowestRoll() + 1; c <= getHighestRoll(); c++)
-	    placeValue[c] = placeValue[c - 1] * (columnLength[c - 1] + 1);
-
-	// initialize markers
-
-	int[] bounds = new int[getHighestRoll() - getLowestRoll() + 1];
-	for (int i = 0; i < bounds.length; i++)
-	    bounds[i] = columnLength[multisetToColumnMap[i]];
-
-	markers = new BoundedMultiset(bounds);
+	rules = CantStopRules.get(sides, minLength, dice, toWin);
 
-	// make map of rolls to potential moves
+	markers = new BoundedMultiset(rules.markerBounds);
 
-	rollList = getRollList(false);
-
-	uniqueIndex = computeIndex();
+	uniqueIndex = 0;
     }
 
     /**
@@ -304,7 +244,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public DiceRoll rollDice()
     {
-	DiceRoll result = new DiceRoll(numDice * NUM_DICE_GROUPS, numSides);
+	DiceRoll result = new DiceRoll(rules.numDice * NUM_DICE_GROUPS, rules.numSides);
 	result.roll();
 	return result;
     }
@@ -317,7 +257,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public int getHighestRoll()
     {
-	return numDice * numSides;
+	return rules.numDice * rules.numSides;
     }
 
     /**
@@ -328,7 +268,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public int getLowestRoll()
     {
-	return numDice;
+	return rules.numDice;
     }
 
     /**
@@ -374,7 +314,18 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public int getColumnLength(int col)
     {
-	return columnLength[col];
+	return rules.columnLength[col];
+    }
+
+    /**
+     * Returns the number of columns needed to win the game.
+     *
+     * @return the number of columns needed to win
+     */
+
+    public int getColumnsToWin()
+    {
+	return rules.columnsToWin;
     }
 
     /**
@@ -387,7 +338,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public int getTotalDice()
     {
-	return numDice * NUM_DICE_GROUPS;
+	return rules.numDice * NUM_DICE_GROUPS;
     }
 
     /**
@@ -418,7 +369,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 		long index = 0;
 
 		for (int column = getLowestRoll(); column <= getHighestRoll(); column++)
-		    index += placeValue[column] * getMarkerPosition(column);
+		    index += rules.placeValue[column] * getMarkerPosition(column);
 
 		return index;
     }
@@ -429,28 +380,243 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
 	long highestIndex = 0;
 	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    highestIndex += placeValue[c] * columnLength[c];
+	    highestIndex += rules.placeValue[c] * rules.columnLength[c];
 
 	// ...and add one
 
 	return highestIndex + 1;
     }
 
+    /**
+     * Returns a <CODE>StateValueMap</CODE> for the game this state
+     * is in.  The map is a <CODE>StateValueArray</CODE> when that will fit
+     * on the heap and an <CODE>OffHeapStateValueArray</CODE> otherwise.
+     *
+     * @return a map from states to values with all entries initially zero
+     */
+
+    public StateValueMap getMap()
+    {
+	long size = countStates();
+
+	if (StateValueArray.fitsOnHeap(size))
+	    return new StateValueArray((int)size);
+	else
+	    return new OffHeapStateValueArray(size);
+    }
+
+    /**
+     * Returns a <CODE>StateValueMap</CODE> for the game this state is in
+     * that stores values in the given format.  Maps of
+     * <CODE>double</CODE>s are the same as those returned by
+     * <CODE>getMap()</CODE>; other formats are stored off the heap.
+     *
+     * @param fmt the encoding to store values in
+     * @return a map from states to values with all entries initially
+     * represented by zero bytes
+     */
+
+    public StateValueMap getMap(ValueFormat fmt)
+    {
+	if (fmt.equals(ValueFormat.DOUBLE_FORMAT))
+	    return getMap();
+	else
+	    return new OffHeapStateValueArray(countStates(), fmt);
+    }
+
+    /**
+     * Returns the ranking used by the given index scheme.
+     *
+     * @param scheme one of the <CODE>INDEX_</CODE> constants
+     * @return the ranking for that scheme, or null for the full index
+     */
+
+    public StateRanking getRanking(int scheme)
+    {
+	switch (scheme)
+	    {
+	    case INDEX_FULL:
+		return null;
+	    case INDEX_MIRROR:
+		return new MirrorRanking(this);
+	    case INDEX_DENSE:
+		return new DenseRanking(this);
+	    default:
+		throw new IllegalArgumentException("unknown index scheme " + scheme);
+	    }
+    }
+
+    /**
+     * Returns the code for the solver with the given name.
+     *
+     * @param name the name of a solver
+     * @return the <CODE>SOLVER_</CODE> code for that solver
+     * @throws IllegalArgumentException if there is no solver with that name
+     */
+
+    public static int getSolverMethod(String name)
+    {
+	for (int m = 0; m < SOLVER_NAMES.length; m++)
+	    if (SOLVER_NAMES[m].equals(name))
+		return m;
+
+	throw new IllegalArgumentException("unknown solver " + name + "; expected one of " + Arrays.toString(SOLVER_NAMES));
+    }
+
+    /**
+     * Returns the name of the solver with the given code.
+     *
+     * @param method one of the <CODE>SOLVER_</CODE> codes
+     * @return the name of that solver
+     */
+
+    public static String getSolverName(int method)
+    {
+	return SOLVER_NAMES[method];
+    }
+
+    /**
+     * Returns the suffix added to the names of value files that use
+     * the given index scheme.
+     *
+     * @param scheme one of the <CODE>INDEX_</CODE> constants
+     * @return the suffix for that scheme
+     */
+
+    public static String getIndexSuffix(int scheme)
+    {
+	switch (scheme)
+	    {
+	    case INDEX_MIRROR:
+		return "_fold";
+	    case INDEX_DENSE:
+		return "_dense";
+	    default:
+		return "";
+	    }
+    }
+
+    /**
+     * Returns a <CODE>StateValueMap</CODE> for the game this state is in
+     * that uses the given index scheme and stores values in the given
+     * format.
+     *
+     * @param scheme one of the <CODE>INDEX_</CODE> constants
+     * @param fmt the encoding to store values in
+     * @return a map from states to values with all entries initially
+     * represented by zero bytes
+     */
+
+    public StateValueMap getMap(int scheme, ValueFormat fmt)
+    {
+	if (scheme == INDEX_FULL)
+	    return getMap(fmt);
+	else
+	    return getRankedMap(getRanking(scheme), fmt);
+    }
+
+    /**
+     * Returns a map for the game this state is in that stores one value
+     * for each rank of the given ranking.
+     *
+     * @param ranking a ranking of the states in this state's game
+     * @param fmt the encoding to store values in
+     * @return a map from states to values with all entries initially
+     * represented by zero bytes
+     */
+
+    public RankedStateValueMap getRankedMap(StateRanking ranking, ValueFormat fmt)
+    {
+	long size = ranking.countRanks();
+
+	if (fmt.equals(ValueFormat.DOUBLE_FORMAT) && StateValueArray.fitsOnHeap(size))
+	    return new RankedStateValueMap(ranking, new StateValueArray((int)size));
+	else
+	    return new RankedStateValueMap(ranking, new OffHeapStateValueArray(size, fmt));
+    }
+
+    /**
+     * Returns the header for a file of position values for the game this
+     * state is in.  The rules recorded are the number of sides, the
+     * length of the shortest column, the number of dice, and the number
+     * of columns needed to win.
+     *
+     * @param scheme one of the <CODE>INDEX_</CODE> constants
+     * @param fmt the encoding of the values
+     * @return a header for a value file for this game
+     */
+
+    public ValueFileHeader makeHeader(int scheme, ValueFormat fmt)
+    {
+	StateRanking ranking = getRanking(scheme);
+	long count = (ranking == null ? countStates() : ranking.countRanks());
+	int[] params = new int[] {rules.numSides, rules.columnLength[getLowestRoll()], rules.numDice, rules.columnsToWin};
+
+	return new ValueFileHeader(ValueFileHeader.GAME_SOLITAIRE, params, scheme, fmt, count);
+    }
+
+    /**
+     * Returns the map that holds the values in a map returned by
+     * <CODE>getMap(int, ValueFormat)</CODE>, indexed in the order they
+     * are stored in a value file.
+     *
+     * @param values a map returned by <CODE>getMap</CODE>
+     * @return the storage of that map
+     */
+
+    public static IndexedStateValueMap getStorage(StateValueMap values)
+    {
+	if (values instanceof RankedStateValueMap)
+	    return ((RankedStateValueMap)values).getStorage();
+	else
+	    return (IndexedStateValueMap)values;
+    }
+
+    /**
+     * Returns the state in this state's game with the given index.
+     *
+     * @param index an index between 0 and <CODE>countStates() - 1</CODE>
+     * @return the state with that index
+     */
+
     public GameState getState(long index)
     {
+	if (index < 0 || index >= countStates())
+	    throw new IllegalArgumentException("index " + index + " not in [0, " + countStates() + ")");
+
 	CantStopState result = (CantStopState)clone();
 
+	result.markers.removeAll();
+	for (int column = getLowestRoll(); column <= getHighestRoll(); column++)
+	    result.markers.addItems(rules.columnToMultisetMap[column], rules.indexOps.getMarkerPosition(index, column));
+
 	result.uniqueIndex = index;
 
-	for (int column = getHighestRoll(); column >= getLowestRoll(); column--)
-	    {
-		if (index >= placeValue[column])
-		    result.placeMarker(column, (int)(index / placeValue[column]));
-		index = index % placeValue[column];
-	    }
-	throw new IllegalArgumentException();
+	return result;
+    }
+
+    /**
+     * Returns the rules of this state's game.
+     *
+     * @return the rules of this state's game
+     */
+
+    public CantStopRules getRules()
+    {
+	return rules;
+    }
+
+    /**
+     * Returns the operations on indices of states in this state's game.
+     * They let callers work with states as indices without making
+     * <CODE>CantStopState</CODE> objects.
+     *
+     * @return the index operations for this state's game
+     */
 
-	// urn result;
+    public CantStopIndexOps getIndexOps()
+    {
+	return rules.indexOps;
     }
 
     public int hashCode()
@@ -458,6 +624,35 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	return (int)getIndex();
     }
 
+    /**
+     * Determines if this state is the canonical member of its pair of
+     * mirror images.  That is the case when its index is no greater than
+     * that of its mirror.  This is determined without constructing the
+     * mirror by comparing columns from the outside in.
+     *
+     * @return true iff this state's index is at most that of its mirror
+     */
+
+    public boolean isCanonical()
+    {
+	int low = getLowestRoll();
+	int high = getHighestRoll();
+
+	while (low < high)
+	    {
+		int lowPos = getMarkerPosition(low);
+		int highPos = getMarkerPosition(high);
+
+		if (highPos != lowPos)
+		    return (highPos < lowPos);
+
+		low++;
+		high--;
+	    }
+
+	return true;
+    }
+
     /**
      * Returns the position of the marker in the given column.
      *
@@ -467,7 +662,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public int getMarkerPosition(int column)
     {
-	return markers.countItem(columnToMultisetMap[column]);
+	return markers.countItem(rules.columnToMultisetMap[column]);
     }
 
     /**
@@ -479,7 +674,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public boolean isFinal()
     {
-	return (countWonColumns() >= columnsToWin);
+	return (countWonColumns() >= rules.columnsToWin);
     }
 
     public int countWonColumns()
@@ -487,7 +682,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	int atEnd = 0;
 
 	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    if (getMarkerPosition(c) == columnLength[c])
+	    if (getMarkerPosition(c) == rules.columnLength[c])
 		atEnd++;
 
 	return atEnd;
@@ -509,7 +704,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
     {
 	// get the corresponding element in the multiset
 
-	int elt = columnToMultisetMap[column];
+	int elt = rules.columnToMultisetMap[column];
 
 	// get how many there were
 
@@ -518,7 +713,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	// update index
 
 	if (uniqueIndex != -1)
-	    uniqueIndex += (position - oldCount) * placeValue[column];
+	    uniqueIndex += (position - oldCount) * rules.placeValue[column];
 
 	// remove from multiset
 
@@ -551,6 +746,19 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	return result;
     }
 
+    /**
+     * Returns the index of the state that results from making the given
+     * move from this state, without making that state.
+     *
+     * @param move a legal move from this state
+     * @return the index of <CODE>makeMove(move)</CODE>
+     */
+
+    public long getIndexAfterMove(Multiset move)
+    {
+	return rules.indexOps.applyMove(getIndex(), move);
+    }
+
     public int countNextStates()
     {
 	int totalPositions = 1; // 1 to count the anchor itself
@@ -559,7 +767,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
 	LinkedList columnsInPlay = new LinkedList();
 	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    if (getMarkerPosition(c) != columnLength[c])
+	    if (getMarkerPosition(c) != rules.columnLength[c])
 		columnsInPlay.add(new Integer(c));
 
 	// iterate over all 1-, 2-, and 3- subsets of columns in play
@@ -587,7 +795,7 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 			int positionsMovingSubset = 1;
 			for (int index = 0; index < columnsToMove.length; index++)
 			    {
-				positionsMovingSubset *= columnLength[columnsToMove[index]] - getMarkerPosition(columnsToMove[index]);
+				positionsMovingSubset *= rules.columnLength[columnsToMove[index]] - getMarkerPosition(columnsToMove[index]);
 			    }
 
 			// System.out.println(this + " " + subset + " " + positionsMovingSubset);
@@ -612,111 +820,162 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public Collection getNextStates()
     {
-	// compute total number of spaces to go in all columns
+	final List result = new ArrayList(countNextStates() - 1);
 
-	int spacesToGo = 0;
-	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    spacesToGo += (columnLength[c] - getMarkerPosition(c));
+	visitNextStates(index -> result.add(getState(index)));
 
-	// create lists for holding next moves
-	// with certain number of roll
-
-	List[] nextStates = new List[spacesToGo + 1];
-	for (int k = 0; k < nextStates.length; k++)
-	    nextStates[k] = new LinkedList();
+	return result;
+    }
 
-	// get the list of incomplete columns
+    /**
+     * Passes the index of each state reachable in one turn from this
+     * state, not including this state, to the given visitor.  The
+     * states are visited in order of the total number of spaces moved
+     * by the markers, and within that in the order of
+     * <CODE>getNextStates</CODE>: by number of markers moved, then by
+     * the columns moved in, then by how far each marker moves.  No
+     * states are made.
+     *
+     * @param visitor what to do with the index of each successor
+     */
 
-	LinkedList columnsInPlay = new LinkedList();
-	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    if (getMarkerPosition(c) != columnLength[c])
-		columnsInPlay.add(new Integer(c));
+    public void visitNextStates(LongConsumer visitor)
+    {
+	long anchor = getIndex();
 
-	// iterate over all 1-, 2-, and 3- subsets of columns in play
+	// get the incomplete columns and the total number of spaces to
+	// go in them
 
-	for (int markers = 1;
-	     markers <= MARKERS_PER_TURN && markers <= columnsInPlay.size();
-	     markers++)
+	int[] columnsInPlay = new int[countColumns()];
+	int numInPlay = 0;
+	int spacesToGo = 0;
+	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
 	    {
-		Iterator i = new SubsetIterator(columnsInPlay, markers);
-
-		while (i.hasNext())
-		    {
-			Collection subset = (Collection)(i.next());
-
-			// turn collection into an array of primitive ints
+		spacesToGo += rules.columnLength[c] - getMarkerPosition(c);
+		if (getMarkerPosition(c) != rules.columnLength[c])
+		    columnsInPlay[numInPlay++] = c;
+	    }
 
-			int[] columnsToMove = new int[subset.size()];
-			Iterator j = subset.iterator();
-			for (int index = 0; index < columnsToMove.length; index++)
-			    columnsToMove[index] = ((Integer)(j.next())).intValue();
+	int maxMarkers = Math.min(MARKERS_PER_TURN, numInPlay);
+	int[] selected = new int[maxMarkers];
 
-			// prepare array of number of maximum spaces to move in
-			// each column; this will be one less than
-			// the actual max; it is assumed each selected marker
-			// moves at least one space
+	// for the selected columns, the most extra spaces each may move
+	// after the one space each must move, the total of those limits
+	// from each column on, and the extra spaces each moves; these are
+	// reused for every subset
 
-			int[] maxToMove = new int[columnsToMove.length];
-			for (int c = 0; c < maxToMove.length; c++)
-			    maxToMove[c] = columnLength[columnsToMove[c]] - getMarkerPosition(columnsToMove[c]) - 1;
+	int[] maxToMove = new int[maxMarkers];
+	int[] maxFrom = new int[maxMarkers + 1];
+	int[] extra = new int[maxMarkers];
 
-			// get total number of spaces that can be moved
+	for (int moved = 1; moved <= spacesToGo; moved++)
+	    {
+		for (int markers = 1; markers <= maxMarkers && markers <= moved; markers++)
+		    {
+			// iterate over the subsets of the columns in play
+			// in the order SubsetIterator does
 
-			int maxTotalMoved = 0;
-			for (int c = 0; c < maxToMove.length; c++)
-			    maxTotalMoved += maxToMove[c];
+			for (int i = 0; i < markers; i++)
+			    selected[i] = i;
 
-			for (int totalMoved = 0;
-			     totalMoved <= maxTotalMoved;
-			     totalMoved++)
+			while (true)
 			    {
-				BoundedMultiset spacesMoved
-				    = new BoundedMultiset(maxToMove, totalMoved);
-				boolean done = false;
-
-				do
+				long base = anchor;
+				maxFrom[markers] = 0;
+				for (int i = markers - 1; i >= 0; i--)
 				    {
-					// prepare copy of this state...
+					int c = columnsInPlay[selected[i]];
+					maxToMove[i] = rules.columnLength[c] - getMarkerPosition(c) - 1;
+					maxFrom[i] = maxFrom[i + 1] + maxToMove[i];
+					base += rules.placeValue[c];
+				    }
 
-					CantStopState next = (CantStopState)clone();
+				if (moved - markers <= maxFrom[0])
+				    {
+					// the extra spaces go through the bounded
+					// multisets of that size in the order
+					// BoundedMultiset does
 
-					// ...and move its markers in
-					// the columns in
-					// columnsToMove the amounts
-					// given by the spacesMoved
+					fillExtra(extra, maxToMove, 0, markers, moved - markers);
 
-					for (int c = 0; c < columnsToMove.length; c++)
+					do
 					    {
-						next.placeMarker(columnsToMove[c], getMarkerPosition(columnsToMove[c]) + spacesMoved.countItem(c) + 1);
+						long next = base;
+						for (int i = 0; i < markers; i++)
+						    next += extra[i] * rules.placeValue[columnsInPlay[selected[i]]];
 
+						visitor.accept(next);
 					    }
+					while (nextExtra(extra, maxToMove, maxFrom, markers));
+				    }
 
+				int i = markers - 1;
+				while (i >= 0 && selected[i] == numInPlay - (markers - i))
+				    i--;
+				if (i < 0)
+				    break;
 
-					nextStates[totalMoved + columnsToMove.length].add(next);
-
-					if (!spacesMoved.hasNext())
-					    done = true;
-					else
-					    spacesMoved.goNext();
-				    }
-				while (!done);
+				selected[i]++;
+				for (i = i + 1; i < markers; i++)
+				    selected[i] = selected[i - 1] + 1;
 			    }
 		    }
 	    }
+    }
+
+    /**
+     * Spreads the given number of spaces over the given columns of a
+     * distribution, as many as allowed in each column from the first.
+     *
+     * @param extra the spaces in each column
+     * @param max the most spaces allowed in each column
+     * @param from the first column to fill
+     * @param to one more than the last column to fill
+     * @param spaces the number of spaces to spread
+     */
+
+    private static void fillExtra(int[] extra, int[] max, int from, int to, int spaces)
+    {
+	for (int i = from; i < to; i++)
+	    {
+		extra[i] = Math.min(max[i], spaces);
+		spaces -= extra[i];
+	    }
+    }
 
-	// concatenate all 1-space, 2-space, etc next moves into
-	// one list
-	// NOTE: we could do this with a list of lists to save the time
-	// of concatenating all the lists together -- although since
-	// we're going to have to iterate over all the next states
-	// several times anyway, one extra traversal to concatenate
-	// shouldn't make a big difference
+    /**
+     * Changes a distribution of spaces over columns into the next one
+     * with the same total, in the lexicographic order of the sorted
+     * lists of columns <CODE>BoundedMultiset.goNext</CODE> uses: the
+     * last space that can move to a later column does, and the spaces
+     * after it are packed as early as they can go.
+     *
+     * @param extra the spaces in each column
+     * @param max the most spaces allowed in each column
+     * @param maxFrom the total of <CODE>max</CODE> from each column on
+     * @param n the number of columns
+     * @return false if there is no next distribution
+     */
 
-	List result = new LinkedList();
-	for (int k = 0; k < nextStates.length; k++)
-	    result.addAll(nextStates[k]);
+    private static boolean nextExtra(int[] extra, int[] max, int[] maxFrom, int n)
+    {
+	int removed = extra[n - 1];
+	extra[n - 1] = 0;
 
-	return result;
+	for (int i = n - 2; i >= 0; i--)
+	    {
+		if (extra[i] > 0 && maxFrom[i + 1] > removed)
+		    {
+			extra[i]--;
+			fillExtra(extra, max, i + 1, n, removed + 1);
+			return true;
+		    }
+
+		removed += extra[i];
+		extra[i] = 0;
+	    }
+
+	return false;
     }
 
     /**
@@ -749,164 +1008,201 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public Map getRollList(boolean includeSubsets)
     {
-	Map result = new HashMap();
+	return CantStopRules.makeRollList(rules.numSides, rules.numDice, includeSubsets);
+    }
 
-	DiceRoll roll = new DiceRoll(numDice * NUM_DICE_GROUPS, numSides);
+    /**
+     * Determines if moving the given markers is legal, assuming they have been moved
+     * to the new positions indicated.
+     *
+     * @param markers a state reachable in one turn
+     * @param moves a set of columns to move markers in
+     */
 
-	result.put(roll, getPossibleGroupings(roll, numDice, includeSubsets));
+    public boolean isLegalMove(CantStopState markers, Multiset moves)
+    {
+	int movedMarkers = 0;
+	int newlyMovedMarkers = 0;
 
-	while (roll.hasNext())
+	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
 	    {
-		roll = roll.next();
+		if (getMarkerPosition(c) != markers.getMarkerPosition(c))
+		    movedMarkers++;
+		else if (moves.countItem(c) != 0)
+		    newlyMovedMarkers++;
 
-		result.put(roll, getPossibleGroupings(roll, numDice, includeSubsets));
+		if (moves.countItem(c) + markers.getMarkerPosition(c) > rules.columnLength[c])
+		    return false;
 	    }
 
-	return result;
+	return (movedMarkers + newlyMovedMarkers) <= MARKERS_PER_TURN;
     }
 
     /**
-     * Returns a set of multisets giving the different ways to group
-     * the given dice.
+     * The states reachable in one turn from an anchor, with the legal
+     * moves between them in compressed sparse row form: the moves from
+     * state <CODE>s</CODE> on the roll with id <CODE>r</CODE> lead to
+     * the states at positions <CODE>targets[offsets[s * numRolls + r]]</CODE>
+     * through <CODE>targets[offsets[s * numRolls + r + 1] - 1]</CODE>.
+     * States are held by index and sorted by the number of spaces they
+     * are from the anchor, so every move leads to a later position.
      *
-     * @param roll a dice roll
-     * @param groupSize a positive divisor of the number of dice
-     * @return a set of groupings of the given dice
-     */
-
-    private static Set getPossibleGroupings(DiceRoll roll, int groupSize)
-    {
-	return getPossibleGroupings(roll, groupSize, false);
-    }
-
-    /**
-     * Returns a set of multisets giving the different ways to group
-     * the given dice.
+     * Each thread has one of these that is refilled for each anchor it
+     * solves; the arrays only ever grow, so once a thread has solved its
+     * largest anchor it allocates nothing more.
      *
-     * @param roll a dice roll
-     * @param groupSize a positive divisor of the number of dice
-     * @return a set of groupings of the given dice
+     * The states and moves are built again for each anchor rather than
+     * cached by the number of spaces left in each column: under one set
+     * of rules those determine the anchor, and each anchor is solved
+     * once, so no two solves could share them.
      */
 
-    private static Set getPossibleGroupings(DiceRoll roll, int groupSize, boolean includeSubsets)
+    private static class StronglyConnectedComponent implements FixedPointSolver.DifferentiableFunction
     {
-	if (roll.size() == groupSize)
-	    {
-		Set result = new TreeSet();
-		Multiset total = new Multiset(roll.size() * roll.countSides());
-		total.addItem(roll.total());
-		result.add(total);
+	/**
+	 * The anchor of this SCC and the rules it is played under.
+	 */
 
-		return result;
-	    }
-	else
-	    {
-		Set totals = new TreeSet();
+	private CantStopState anchor;
+	private CantStopRules rules;
 
-		// iterate over groupSize groupings of roll
+	/**
+	 * The number of states in this SCC, the number of rolls, and the
+	 * number of columns.
+	 */
 
-		Iterator i = roll.subrollIterator(groupSize);
-		while (i.hasNext())
-		    {
-			DiceRoll group = (DiceRoll)(i.next());
+	private int numStates;
+	private int numRolls;
+	private int numColumns;
 
-			// remove group from roll
+	/**
+	 * The indices of the states in this SCC; the anchor is first.
+	 */
 
-			DiceRoll diff = roll.difference(group);
+	private long[] states = new long[0];
 
-			// get groupings of roll
+	/**
+	 * For each state, the number of markers in use and the code of
+	 * the state of each column (see <CODE>LegalMoveTable</CODE>).
+	 */
 
-			Set subtotals = getPossibleGroupings(diff, groupSize);
+	private int[] used = new int[0];
+	private byte[] columnStates = new byte[0];
 
-			// combine with group
+	/**
+	 * The probability of each roll.
+	 */
 
-			Iterator j = subtotals.iterator();
-			while (j.hasNext())
-			    {
-				Multiset s = (Multiset)(j.next());
+	private double[] rollProbability = new double[0];
 
-				totals.add(s.plus(group.total()));
+	/**
+	 * The legal moves from each state for each roll.
+	 */
 
-				if (includeSubsets)
-				    totals.add(s.clone());
-			    }
-		    }
+	private int[] offsets = new int[1];
+	private int[] targets = new int[0];
 
-		return totals;
-	    }
-    }
+	/**
+	 * For each state in this SCC, the probability of blowing it when
+	 * rolling from that state, its "stop value" (the value of the
+	 * corresponding anchor), and its current estimated value.
+	 */
 
-    /**
-     * Determines if moving the given markers is legal, assuming they have been moved
-     * to the new positions indicated.
-     *
-     * @param markers a state reachable in one turn
-     * @param moves a set of columns to move markers in
-     */
+	private double[] pBlowingIt = new double[0];
+	private double[] stopValues = new double[0];
+	private double[] estimatedValues = new double[0];
 
-    public boolean isLegalMove(CantStopState markers, Multiset moves)
-    {
-	int movedMarkers = 0;
-	int newlyMovedMarkers = 0;
+	/**
+	 * For each state, the rate its estimated value changes with the
+	 * estimate of the anchor's.
+	 */
 
-	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    {
-		if (getMarkerPosition(c) != markers.getMarkerPosition(c))
-		    movedMarkers++;
-		else if (moves.countItem(c) != 0)
-		    newlyMovedMarkers++;
+	private double[] slopes = new double[0];
 
-		if (moves.countItem(c) + markers.getMarkerPosition(c) > columnLength[c])
-		    return false;
-	    }
+	/**
+	 * For policy iteration, the policy: which of the legal moves to
+	 * make from each state on each roll, as an offset from the first
+	 * (these are indexed like <CODE>offsets</CODE>), and whether to
+	 * stop at each state; and the value of each state under the policy
+	 * when the anchor's value is 0, which with <CODE>slopes</CODE>
+	 * gives its value under the policy as a function of the anchor's.
+	 */
 
-	return (movedMarkers + newlyMovedMarkers) <= MARKERS_PER_TURN;
-    }
+	private byte[] policyMove = new byte[0];
+	private boolean[] policyStop = new boolean[0];
+	private double[] intercepts = new double[0];
 
-    private static class StronglyConnectedComponent
-    {
 	/**
-	 * The anchor of this SCC.
+	 * For the parametric solve, each state's value as a function of
+	 * the anchor's: the concave piecewise linear function that is
+	 * <CODE>pieceSlope[k] * x + pieceIntercept[k]</CODE> for
+	 * <CODE>x</CODE> up to <CODE>pieceEnd[k]</CODE>, for <CODE>k</CODE>
+	 * from <CODE>pieceStart[s]</CODE> to
+	 * <CODE>pieceStart[s] + pieceCount[s] - 1</CODE>.
 	 */
 
-	private CantStopState anchor;
+	private int[] pieceStart = new int[0];
+	private int[] pieceCount = new int[0];
+	private double[] pieceSlope = new double[0];
+	private double[] pieceIntercept = new double[0];
+	private double[] pieceEnd = new double[0];
+	private int numPieces;
 
 	/**
-	 * An array containing all the states in this SCC, and a map
-	 * from states to the indices where they are stored in the array.
-	 * The anchor position will be the first entry in this array.
+	 * Scratch space for the parametric solve: lines to take the lower
+	 * envelope of, the point from which each line of an envelope is
+	 * lowest, the best move for one roll, and the running sum over
+	 * rolls with a buffer for the next sum.
 	 */
 
-	private CantStopState[] states;
-	private Map< CantStopState, Integer > statesIndices;
+	private double[] lineSlope = new double[0];
+	private double[] lineIntercept = new double[0];
+	private double[] hullStart = new double[0];
+	private double[] bestSlope = new double[0];
+	private double[] bestIntercept = new double[0];
+	private double[] bestEnd = new double[0];
+	private double[] sumSlope = new double[0];
+	private double[] sumIntercept = new double[0];
+	private double[] sumEnd = new double[0];
+	private double[] nextSlope = new double[0];
+	private double[] nextIntercept = new double[0];
+	private double[] nextEnd = new double[0];
 
 	/**
-	 * A list of rolls and their probabilities.
+	 * Scratch space for listing the states: the columns in play, the
+	 * spaces left and place value of each, and the states found with
+	 * the number of spaces and markers each uses.
 	 */
 
-	private Pair< DiceRoll, Double >[] rolls;
+	private int[] inPlay = new int[0];
+	private int[] spacesLeft = new int[0];
+	private long[] inPlayValue = new long[0];
+	private long[] found = new long[0];
+	private int[] foundSpaces = new int[0];
+	private int[] foundUsed = new int[0];
+	private int numFound;
+	private int[] spaceCounts = new int[0];
 
 	/**
-	 * An array of lists of legal moves for each pair (roll, state)
-	 * where roll is a roll and state is a state in this SCC,
-	 * and an array that, for each state in this SCC, gives the
-	 * probability of blowing it when rolling from that state.
+	 * An open addressing table from state indices to positions in
+	 * <CODE>states</CODE>.
 	 */
 
-	private List< Integer >[][] legalMoves;
-	double[] pBlowingIt;
+	private long[] positionKeys = new long[0];
+	private int[] positionValues = new int[0];
+	private int positionMask;
 
 	/**
-	 * For each state in this SCC, its "stop value" (the value of
-	 * the corresponding anchor), and its current estimated value.
+	 * Refills this SCC with the states reachable from the given anchor.
+	 *
+	 * @param a the anchor
+	 * @param values the values of the states that follow the anchor
 	 */
 
-	double[] stopValues;
-	double[] estimatedValues;
-
-	public StronglyConnectedComponent(CantStopState a, StateValueMap values)
+	public void load(CantStopState a, StateValueMap values)
 	{
 	    anchor = a;
+	    rules = a.rules;
 
 	    makeStateArray();
 
@@ -919,210 +1215,852 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
 	private void makeStateArray()
 	{
-	    Collection< CantStopState > scc = (Collection< CantStopState >)(anchor.getNextStates());
-	    states = new CantStopState[scc.size() + 1];
-	    statesIndices = new HashMap< CantStopState, Integer >();
+	    CantStopIndexOps ops = rules.indexOps;
+	    long start = anchor.getIndex();
+	    int lowest = rules.getLowestRoll();
+	    int highest = rules.getHighestRoll();
 
-	    int i = 0;
+	    // get the columns in play
+
+	    numColumns = highest - lowest + 1;
+	    if (inPlay.length < numColumns)
+		{
+		    inPlay = new int[numColumns];
+		    spacesLeft = new int[numColumns];
+		    inPlayValue = new long[numColumns];
+		}
+
+	    int columnsInPlay = 0;
+	    int spacesToGo = 0;
+	    for (int c = lowest; c <= highest; c++)
+		{
+		    int left = rules.columnLength[c] - ops.getMarkerPosition(start, c);
+		    if (left > 0)
+			{
+			    inPlay[columnsInPlay] = c;
+			    spacesLeft[columnsInPlay] = left;
+			    inPlayValue[columnsInPlay] = ops.getPlaceValue(c);
+			    columnsInPlay++;
+			    spacesToGo += left;
+			}
+		}
+
+	    // list every way to move up to MARKERS_PER_TURN of them
 
-	    // put anchor in first position in the array
+	    numFound = 0;
+	    addState(start, 0, 0);
+	    listStates(columnsInPlay, 0, 0, start, 0);
 
-	    states[i] = anchor;
-	    statesIndices.put(anchor, i);
-	    i++;
+	    // sort by spaces moved, keeping the anchor first
 
-	    // put all other states in the array
+	    if (spaceCounts.length < spacesToGo + 2)
+		spaceCounts = new int[spacesToGo + 2];
+	    Arrays.fill(spaceCounts, 0, spacesToGo + 2, 0);
+	    for (int i = 0; i < numFound; i++)
+		spaceCounts[foundSpaces[i] + 1]++;
+	    for (int k = 1; k <= spacesToGo + 1; k++)
+		spaceCounts[k] += spaceCounts[k - 1];
 
-	    for (CantStopState s : scc)
+	    numStates = numFound;
+	    if (states.length < numStates)
 		{
-		    states[i] = s;
-		    statesIndices.put(s, i);
-		    i++;
+		    int capacity = grow(states.length, numStates);
+		    states = new long[capacity];
+		    used = new int[capacity];
+		}
+
+	    for (int i = 0; i < numFound; i++)
+		{
+		    int pos = spaceCounts[foundSpaces[i]]++;
+		    states[pos] = found[i];
+		    used[pos] = foundUsed[i];
+		}
+
+	    // index the positions
+
+	    int slots = Integer.highestOneBit(Math.max(1, numStates * 2 - 1)) << 1;
+	    if (positionKeys.length < slots)
+		{
+		    positionKeys = new long[slots];
+		    positionValues = new int[slots];
+		}
+	    positionMask = slots - 1;
+	    Arrays.fill(positionKeys, 0, slots, -1L);
+
+	    for (int s = 0; s < numStates; s++)
+		{
+		    int slot = slotOf(states[s]);
+		    while (positionKeys[slot] != -1L)
+			slot = (slot + 1) & positionMask;
+		    positionKeys[slot] = states[s];
+		    positionValues[slot] = s;
 		}
 	}
 
-	private void makeRollArray()
-	{
-	    rolls = new Pair[anchor.rollList.size()];
+	/**
+	 * Adds every state that moves markers in columns
+	 * <CODE>k</CODE> and beyond of the columns in play to the states
+	 * found.
+	 *
+	 * @param columnsInPlay the number of columns in play
+	 * @param k the next column in play to consider
+	 * @param markers the number of markers already placed
+	 * @param index the index of the state reached so far
+	 * @param spaces the number of spaces moved so far
+	 */
 
-	    Iterator i = anchor.rollList.keySet().iterator();
-	    int index = 0;
-	    while (i.hasNext())
+	private void listStates(int columnsInPlay, int k, int markers, long index, int spaces)
+	{
+	    if (k == columnsInPlay)
 		{
-		    DiceRoll r = (DiceRoll)(i.next());
+		    if (markers > 0)
+			addState(index, spaces, markers);
+		    return;
+		}
+
+	    listStates(columnsInPlay, k + 1, markers, index, spaces);
 
-		    rolls[index] = new Pair< DiceRoll, Double >(r, r.probability());
+	    if (markers < MARKERS_PER_TURN)
+		for (int a = 1; a <= spacesLeft[k]; a++)
+		    listStates(columnsInPlay, k + 1, markers + 1, index + a * inPlayValue[k], spaces + a);
+	}
 
-		    index++;
+	private void addState(long index, int spaces, int markers)
+	{
+	    if (numFound == found.length)
+		{
+		    int capacity = grow(found.length, numFound + 1);
+		    found = Arrays.copyOf(found, capacity);
+		    foundSpaces = Arrays.copyOf(foundSpaces, capacity);
+		    foundUsed = Arrays.copyOf(foundUsed, capacity);
 		}
+
+	    found[numFound] = index;
+	    foundSpaces[numFound] = spaces;
+	    foundUsed[numFound] = markers;
+	    numFound++;
+	}
+
+	/**
+	 * Returns the position of the state with the given index.
+	 *
+	 * @param index the index of a state in this SCC
+	 * @return the position of that state in <CODE>states</CODE>
+	 */
+
+	private int getPosition(long index)
+	{
+	    int slot = slotOf(index);
+	    while (positionKeys[slot] != index)
+		slot = (slot + 1) & positionMask;
+
+	    return positionValues[slot];
+	}
+
+	private int slotOf(long index)
+	{
+	    return (int)((index * 0x9E3779B97F4A7C15L) >>> 32) & positionMask;
+	}
+
+	private void makeRollArray()
+	{
+	    // rolls are kept in the order of their ids in the move table
+
+	    LegalMoveTable table = rules.moveTable;
+	    numRolls = table.countRolls();
+
+	    if (rollProbability.length < numRolls)
+		rollProbability = new double[numRolls];
+
+	    for (int r = 0; r < numRolls; r++)
+		rollProbability[r] = table.getRoll(r).probability();
 	}
 
 	private void makeLegalMovesArray()
 	{
-	    legalMoves = new List[rolls.length][states.length];
-	    pBlowingIt = new double[states.length];
+	    LegalMoveTable table = rules.moveTable;
+	    CantStopIndexOps ops = rules.indexOps;
+	    long start = states[0];
 
-	    for (int rIndex = 0; rIndex < rolls.length; rIndex++)
-		for (int sIndex = 0; sIndex < states.length; sIndex++)
-		    {
-			legalMoves[rIndex][sIndex] = new ArrayList< Integer >();
+	    if (columnStates.length < numStates * numColumns)
+		columnStates = new byte[grow(columnStates.length, numStates * numColumns)];
+	    if (offsets.length < numStates * numRolls + 1)
+		offsets = new int[grow(offsets.length, numStates * numRolls + 1)];
+	    if (pBlowingIt.length < numStates)
+		pBlowingIt = new double[grow(pBlowingIt.length, numStates)];
+
+	    int count = 0;
+	    offsets[0] = 0;
+
+	    for (int s = 0; s < numStates; s++)
+		{
+		    int columnOffset = s * numColumns;
+		    table.getColumnStates(start, states[s], columnStates, columnOffset);
+		    pBlowingIt[s] = 0.0;
 
-			Set moves = (Set)(anchor.rollList.get(rolls[rIndex].getFirst()));
+		    for (int r = 0; r < numRolls; r++)
+			{
+			    int[] l = table.getLegalMoves(r, columnStates, columnOffset, used[s]);
 
-			List< Multiset > l = (List< Multiset >)(anchor.getLegalMoves(states[sIndex], moves));
+			    if (l.length == 0)
+				pBlowingIt[s] += rollProbability[r];
 
-			if (l.size() == 0)
-			    pBlowingIt[sIndex] += rolls[rIndex].getSecond();
+			    // convert moves to positions of resulting states
 
-			// convert list of moves (multisets) to
-			// list of indices of resulting states
+			    if (count + l.length > targets.length)
+				targets = Arrays.copyOf(targets, grow(targets.length, count + l.length));
 
-			for (Multiset m : l)
-			    {
-				legalMoves[rIndex][sIndex].add(statesIndices.get(states[sIndex].makeMove(m)));
-			    }
-		    }
+			    for (int code : l)
+				targets[count++] = getPosition(ops.applyMove(states[s], code));
+
+			    offsets[s * numRolls + r + 1] = count;
+			}
+		}
 	}
 
 	private void makeValuesArrays(StateValueMap values)
 	{
-	    stopValues = new double[states.length];
-	    estimatedValues = new double[states.length];
-
-	    for (int sIndex = 0; sIndex < states.length; sIndex++)
+	    if (stopValues.length < numStates)
 		{
-		    stopValues[sIndex] = values.getValue(states[sIndex]);
+		    int capacity = grow(stopValues.length, numStates);
+		    stopValues = new double[capacity];
+		    estimatedValues = new double[capacity];
+		    slopes = new double[capacity];
+		    policyStop = new boolean[capacity];
+		    intercepts = new double[capacity];
 		}
+
+	    // the scratch list of states found holds the ranks
+
+	    anchor.lookUpValues(values, states, numStates, found, stopValues);
 	}
 
 	private void computeEstimates(double anchorEstimate)
 	{
 	    // go over states from farthest from anchor to anchor
 
-	    for (int sIndex = states.length - 1; sIndex >= 0; sIndex--)
+	    for (int s = numStates - 1; s >= 0; s--)
 		{
 		    // if blowing it, return to anchor
 
-		    estimatedValues[sIndex] = pBlowingIt[sIndex] * anchorEstimate;
+		    double estimate = pBlowingIt[s] * anchorEstimate;
+		    double slope = pBlowingIt[s];
 
-		    // go over all rolls
+		    // go over all rolls, making the move that minimizes
+		    // value
 
-		    for (int rIndex = 0; rIndex < rolls.length; rIndex++)
+		    int base = s * numRolls;
+		    for (int r = 0; r < numRolls; r++)
 			{
-			    if (legalMoves[rIndex][sIndex].size() > 0)
+			    int end = offsets[base + r + 1];
+			    int k = offsets[base + r];
+
+			    if (k < end)
 				{
-				    // figure out move that minimizes value
+				    double bestValue = estimatedValues[targets[k]];
+				    double bestSlope = slopes[targets[k]];
+				    for (k++; k < end; k++)
+					if (estimatedValues[targets[k]] < bestValue)
+					    {
+						bestValue = estimatedValues[targets[k]];
+						bestSlope = slopes[targets[k]];
+					    }
 
-				    double bestValue = Double.POSITIVE_INFINITY;
+				    estimate += bestValue * rollProbability[r];
+				    slope += bestSlope * rollProbability[r];
+				}
+			}
+
+		    // consider stopping at the current position (except
+		    // for anchor); the terms added above are never
+		    // negative, so comparing once at the end gives the
+		    // same result as comparing after each roll
+
+		    if (s != 0 && stopValues[s] < estimate)
+			{
+			    estimate = stopValues[s];
+			    slope = 0.0;
+			}
+
+		    estimatedValues[s] = estimate;
+		    slopes[s] = slope;
+		}
+
+	    // add 1 for anchor state to represent the cost of starting a turn
+
+	    estimatedValues[0] += 1.0;
+	}
+
+	/**
+	 * Returns a lower bound on the value of the anchor.  Every turn
+	 * costs one and ends either back at the anchor or at one of the
+	 * other states in this SCC, whose values are already known, so the
+	 * anchor is worth at least one more than the least of those.
+	 *
+	 * @return a lower bound on the value of the anchor
+	 */
+
+	private double getLowerBound()
+	{
+	    double lower = 1.0;
+	    if (numStates > 1)
+		{
+		    double least = stopValues[1];
+		    for (int s = 2; s < numStates; s++)
+			least = Math.min(least, stopValues[s]);
+		    lower = 1.0 + least;
+		}
+
+	    return lower;
+	}
+
+	/**
+	 * Finds the value of the anchor by iterating on estimates of it,
+	 * starting from its lower bound.
+	 *
+	 * @param solver the solver to use
+	 * @return the value of the anchor
+	 */
+
+	private double solve(FixedPointSolver solver)
+	{
+	    double lower = getLowerBound();
+
+	    return solver.solve(this, states[0], lower, lower, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * Finds the value of the anchor exactly.  Every value in this SCC
+	 * is a concave piecewise linear function of the estimate of the
+	 * anchor's value, since it is built from sums of such functions
+	 * with nonnegative weights and minimums of them.  One pass at the
+	 * lower bound gives the tangent there, which lies above the
+	 * function, so its fixed point is an upper bound; a second pass
+	 * carries each state's function over the range between the bounds,
+	 * and the anchor's fixed point is read off its function.
+	 *
+	 * @param solver the solver to report to, and to fall back on if
+	 * the bounds do not hold up in floating point
+	 * @return the value of the anchor
+	 */
+
+	private double solveParametric(FixedPointSolver solver)
+	{
+	    double lower = getLowerBound();
+	    double x = lower;
+	    double y = evaluate(lower);
+	    double slope = getSlope();
+	    int passes = 1;
+
+	    if (y != lower)
+		{
+		    if (y < lower || !(slope < 1.0))
+			return solver.solve(this, states[0], lower, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+
+		    // widen the range a little in case rounding moved the
+		    // upper bound below the fixed point
+
+		    double upper = lower + (y - lower) / (1.0 - slope);
+		    upper += Math.ulp(upper) * 16;
+
+		    computePieces(lower, upper);
+		    passes++;
 
-				    for (Integer next : legalMoves[rIndex][sIndex])
-					{
-					    bestValue = Math.min(bestValue, estimatedValues[next]);
-					}
+		    // the fixed point is on the first piece that ends at
+		    // or below the diagonal
 
-				    estimatedValues[sIndex] += bestValue * rolls[rIndex].getSecond();
+		    double start = lower;
+		    int last = pieceStart[0] + pieceCount[0] - 1;
+		    for (int k = pieceStart[0]; k <= last; k++)
+			{
+			    double m = pieceSlope[k];
+			    double b = pieceIntercept[k];
+			    double end = pieceEnd[k];
+
+			    if (m * end + b <= end || k == last)
+				{
+				    x = Math.max(start, Math.min(end, b / (1.0 - m)));
+				    y = m * x + b;
+				    break;
 				}
 
-			    // consider stopping at the current position
-			    // (except for anchor)
+			    start = end;
+			}
+		}
+
+	    if (solver.getMetrics() != null)
+		solver.getMetrics().recordSolve(states[0], passes, y, y - x, true);
+
+	    return y;
+	}
+
+	/**
+	 * Finds the value of the anchor by policy iteration.  Each round
+	 * is one pass over the SCC that improves the policy given the
+	 * current value of the anchor, switching a choice only when
+	 * another is strictly better so that ties cannot make the policy
+	 * cycle, and at the same time evaluates the new policy exactly: the
+	 * turn's graph is acyclic apart from blowing it, so each state's
+	 * value under a fixed policy is linear in the anchor's, and the
+	 * anchor's value is the fixed point of its line.  The first policy
+	 * is the best one given the anchor's lower bound.  Iteration stops
+	 * when a round leaves the policy unchanged.
+	 *
+	 * @param solver the solver to report to and take the round limit
+	 * from
+	 * @return the value of the anchor
+	 */
+
+	private double solvePolicy(FixedPointSolver solver)
+	{
+	    if (policyMove.length < numStates * numRolls)
+		policyMove = new byte[grow(policyMove.length, numStates * numRolls)];
+
+	    double x = getLowerBound();
+	    boolean first = true;
+	    boolean changed = true;
+	    int rounds = 0;
+
+	    while (changed && rounds < solver.getMaxIterations())
+		{
+		    changed = improvePolicy(x, first);
+		    first = false;
+		    rounds++;
+
+		    x = intercepts[0] / (1.0 - slopes[0]);
+		}
+
+	    if (solver.getMetrics() != null)
+		solver.getMetrics().recordSolve(states[0], rounds, x, 0.0, !changed);
+
+	    return x;
+	}
 
-			    if (sIndex != 0)
-				estimatedValues[sIndex] = Math.min(estimatedValues[sIndex], stopValues[sIndex]);
+	/**
+	 * Improves the policy given the value of the anchor and evaluates
+	 * the result as a function of the anchor's value.
+	 *
+	 * @param anchorEstimate the value of the anchor under the last policy
+	 * @param first true if there is no policy yet
+	 * @return true iff the policy changed
+	 */
+
+	private boolean improvePolicy(double anchorEstimate, boolean first)
+	{
+	    boolean changed = first;
+
+	    // go over states from farthest from anchor to anchor
+
+	    for (int s = numStates - 1; s >= 0; s--)
+		{
+		    // if blowing it, return to anchor
+
+		    double estimate = pBlowingIt[s] * anchorEstimate;
+		    double slope = pBlowingIt[s];
+		    double intercept = 0.0;
+
+		    int base = s * numRolls;
+		    for (int r = 0; r < numRolls; r++)
+			{
+			    int begin = offsets[base + r];
+			    int end = offsets[base + r + 1];
+			    if (begin == end)
+				continue;
+
+			    int current = begin + (first ? 0 : policyMove[base + r]);
+			    int best = current;
+			    for (int k = begin; k < end; k++)
+				if (estimatedValues[targets[k]] < estimatedValues[targets[best]])
+				    best = k;
+
+			    if (best != current)
+				changed = true;
+			    policyMove[base + r] = (byte)(best - begin);
+
+			    estimate += estimatedValues[targets[best]] * rollProbability[r];
+			    slope += slopes[targets[best]] * rollProbability[r];
+			    intercept += intercepts[targets[best]] * rollProbability[r];
+			}
+
+		    // consider stopping at the current position (except
+		    // for anchor)
+
+		    if (s != 0)
+			{
+			    boolean stop = (first || !policyStop[s]
+					    ? stopValues[s] < estimate
+					    : !(estimate < stopValues[s]));
+			    if (!first && stop != policyStop[s])
+				changed = true;
+			    policyStop[s] = stop;
+
+			    if (stop)
+				{
+				    estimate = stopValues[s];
+				    slope = 0.0;
+				    intercept = stopValues[s];
+				}
 			}
+
+		    estimatedValues[s] = estimate;
+		    slopes[s] = slope;
+		    intercepts[s] = intercept;
 		}
 
 	    // add 1 for anchor state to represent the cost of starting a turn
 
 	    estimatedValues[0] += 1.0;
+	    intercepts[0] += 1.0;
+
+	    return changed;
 	}
 
-	private double solve(double initialEstimate)
+	/**
+	 * Computes each state's value as a function of the anchor's over
+	 * the given range.
+	 *
+	 * @param lower the low end of the range
+	 * @param upper the high end of the range
+	 */
+
+	private void computePieces(double lower, double upper)
 	{
-	    final int MAX_ITERATIONS = 30;
-	    int iterations = 0;
+	    if (pieceStart.length < numStates)
+		{
+		    pieceStart = new int[grow(pieceStart.length, numStates)];
+		    pieceCount = new int[pieceStart.length];
+		}
+	    numPieces = 0;
 
-	    List< Pair< Double, Double > > steps = new ArrayList< Pair< Double, Double> >(MAX_ITERATIONS);
+	    // go over states from farthest from anchor to anchor
 
-	    Set< Double > visited = new HashSet< Double >();
+	    for (int s = numStates - 1; s >= 0; s--)
+		{
+		    // if blowing it, return to anchor
 
-	    // we keep going until we reach a fixed point (x, x) or we
-	    // go through the same x twice in a row (x, y) (x, y)
+		    ensureScratch(1);
+		    sumSlope[0] = pBlowingIt[s];
+		    sumIntercept[0] = 0.0;
+		    sumEnd[0] = upper;
+		    int sumCount = 1;
 
-	    while (steps.size() == 0
-		   || (steps.get(steps.size() - 1).getFirst().doubleValue() != steps.get(steps.size() - 1).getSecond().doubleValue()
-		       && (steps.size() < 2 || steps.get(steps.size() - 1).getFirst().doubleValue() != steps.get(steps.size() - 2).getFirst().doubleValue())
-		       && !visited.contains(steps.get(steps.size() - 1).getFirst())))
-		{
-		    if (steps.size() > 0)
-			visited.add(steps.get(steps.size() - 1).getFirst());
+		    // go over all rolls, making the move that minimizes
+		    // value
 
-		    double nextX;
+		    int base = s * numRolls;
+		    for (int r = 0; r < numRolls; r++)
+			{
+			    int begin = offsets[base + r];
+			    int end = offsets[base + r + 1];
+			    if (begin == end)
+				continue;
 
-		    if (steps.size() == 0)
-			nextX = initialEstimate;
-		    else if (steps.size() == 1)
-			nextX = steps.get(steps.size() - 1).getSecond();
+			    if (end - begin == 1)
+				{
+				    // only one move, so no envelope to take
+
+				    int t = targets[begin];
+				    ensureScratch(sumCount + pieceCount[t]);
+				    sumCount = addScaled(sumCount, pieceSlope, pieceIntercept, pieceEnd,
+							 pieceStart[t], pieceCount[t], rollProbability[r]);
+				    continue;
+				}
+
+			    int lines = 0;
+			    for (int k = begin; k < end; k++)
+				lines += pieceCount[targets[k]];
+			    ensureScratch(lines + sumCount);
+
+			    lines = 0;
+			    for (int k = begin; k < end; k++)
+				for (int q = pieceStart[targets[k]]; q < pieceStart[targets[k]] + pieceCount[targets[k]]; q++)
+				    {
+					lineSlope[lines] = pieceSlope[q];
+					lineIntercept[lines] = pieceIntercept[q];
+					lines++;
+				    }
+
+			    int bestCount = envelope(lines, lower, upper);
+			    sumCount = addScaled(sumCount, bestSlope, bestIntercept, bestEnd, 0, bestCount, rollProbability[r]);
+			}
+
+		    if (s != 0)
+			{
+			    // consider stopping at the current position
+
+			    ensureScratch(sumCount + 1);
+			    for (int k = 0; k < sumCount; k++)
+				{
+				    lineSlope[k] = sumSlope[k];
+				    lineIntercept[k] = sumIntercept[k];
+				}
+			    lineSlope[sumCount] = 0.0;
+			    lineIntercept[sumCount] = stopValues[s];
+
+			    int bestCount = envelope(sumCount + 1, lower, upper);
+			    storePieces(s, bestSlope, bestIntercept, bestEnd, bestCount, 0.0);
+			}
 		    else
 			{
-			    double x1 = steps.get(steps.size() - 2).getFirst();
-			    double y1 = steps.get(steps.size() - 2).getSecond();
-			    double x2 = steps.get(steps.size() - 1).getFirst();
-			    double y2 = steps.get(steps.size() - 1).getSecond();
+			    // add 1 for anchor state to represent the cost
+			    // of starting a turn
+
+			    storePieces(s, sumSlope, sumIntercept, sumEnd, sumCount, 1.0);
+			}
+		}
+	}
+
+	/**
+	 * Makes sure every scratch array used by the parametric solve
+	 * holds at least the given number of entries, keeping what is in
+	 * them.
+	 */
+
+	private void ensureScratch(int n)
+	{
+	    if (lineSlope.length >= n)
+		return;
+
+	    int capacity = grow(lineSlope.length, n);
+	    lineSlope = Arrays.copyOf(lineSlope, capacity);
+	    lineIntercept = Arrays.copyOf(lineIntercept, capacity);
+	    hullStart = Arrays.copyOf(hullStart, capacity);
+	    bestSlope = Arrays.copyOf(bestSlope, capacity);
+	    bestIntercept = Arrays.copyOf(bestIntercept, capacity);
+	    bestEnd = Arrays.copyOf(bestEnd, capacity);
+	    sumSlope = Arrays.copyOf(sumSlope, capacity);
+	    sumIntercept = Arrays.copyOf(sumIntercept, capacity);
+	    sumEnd = Arrays.copyOf(sumEnd, capacity);
+	    nextSlope = Arrays.copyOf(nextSlope, capacity);
+	    nextIntercept = Arrays.copyOf(nextIntercept, capacity);
+	    nextEnd = Arrays.copyOf(nextEnd, capacity);
+	}
+
+	/**
+	 * Puts the pieces of the lower envelope of the first
+	 * <CODE>n</CODE> scratch lines over the given range in the best
+	 * move arrays.  The lines are reordered.
+	 *
+	 * @param n the number of lines
+	 * @param lower the low end of the range
+	 * @param upper the high end of the range
+	 * @return the number of pieces
+	 */
+
+	private int envelope(int n, double lower, double upper)
+	{
+	    // sort steepest first, and lowest first among lines with the
+	    // same slope; there are only ever a few lines
+
+	    for (int i = 1; i < n; i++)
+		{
+		    double m = lineSlope[i];
+		    double b = lineIntercept[i];
+		    int j = i - 1;
+		    while (j >= 0 && (lineSlope[j] < m || (lineSlope[j] == m && lineIntercept[j] > b)))
+			{
+			    lineSlope[j + 1] = lineSlope[j];
+			    lineIntercept[j + 1] = lineIntercept[j];
+			    j--;
+			}
+		    lineSlope[j + 1] = m;
+		    lineIntercept[j + 1] = b;
+		}
 
-			    double slope = (y2 - y1) / (x2 - x1);
-			    double intercept = y1 - slope * x1;
+	    // the steepest line is lowest far enough to the left; each
+	    // shallower one takes over where it crosses the last, and
+	    // lines it takes over from before they were ever lowest drop
+	    // out
 
-			    if (y1 != y2 && slope != 1.0)
-				nextX = intercept / (1 - slope);
+	    int h = 0;
+	    for (int i = 0; i < n; i++)
+		{
+		    if (h > 0 && lineSlope[i] == bestSlope[h - 1])
+			continue;
+
+		    double start = Double.NEGATIVE_INFINITY;
+		    while (h > 0)
+			{
+			    start = (lineIntercept[i] - bestIntercept[h - 1]) / (bestSlope[h - 1] - lineSlope[i]);
+			    if (start <= hullStart[h - 1])
+				h--;
 			    else
-				nextX = y1;
+				break;
 			}
+		    if (h == 0)
+			start = Double.NEGATIVE_INFINITY;
+
+		    bestSlope[h] = lineSlope[i];
+		    bestIntercept[h] = lineIntercept[i];
+		    hullStart[h] = start;
+		    h++;
+		}
+
+	    // keep the pieces that overlap the range
+
+	    int count = 0;
+	    for (int k = 0; k < h; k++)
+		{
+		    double end = (k + 1 < h ? Math.min(hullStart[k + 1], upper) : upper);
+		    if (end <= lower && k + 1 < h)
+			continue;
+
+		    bestSlope[count] = bestSlope[k];
+		    bestIntercept[count] = bestIntercept[k];
+		    bestEnd[count] = end;
+		    count++;
+
+		    if (end >= upper)
+			break;
+		}
+
+	    return count;
+	}
+
+	/**
+	 * Adds a multiple of the given pieces to the running sum.
+	 *
+	 * @param sumCount the number of pieces in the sum
+	 * @param slope the slopes of the pieces to add
+	 * @param intercept their intercepts
+	 * @param pieceEnds where they end
+	 * @param first the position of the first piece to add in those arrays
+	 * @param count the number of pieces to add
+	 * @param p the multiple
+	 * @return the number of pieces in the new sum
+	 */
+
+	private int addScaled(int sumCount, double[] slope, double[] intercept, double[] pieceEnds, int first, int count, double p)
+	{
+	    int i = 0;
+	    int j = first;
+	    int last = first + count - 1;
+	    int k = 0;
+
+	    while (true)
+		{
+		    double end = Math.min(sumEnd[i], pieceEnds[j]);
+		    nextSlope[k] = sumSlope[i] + p * slope[j];
+		    nextIntercept[k] = sumIntercept[i] + p * intercept[j];
+		    nextEnd[k] = end;
+		    k++;
+
+		    if (i == sumCount - 1 && j == last)
+			break;
+
+		    if (sumEnd[i] == end && i < sumCount - 1)
+			i++;
+		    if (pieceEnds[j] == end && j < last)
+			j++;
+		}
 
-		    // compute new value from nextX
+	    double[] swap = sumSlope;
+	    sumSlope = nextSlope;
+	    nextSlope = swap;
+	    swap = sumIntercept;
+	    sumIntercept = nextIntercept;
+	    nextIntercept = swap;
+	    swap = sumEnd;
+	    sumEnd = nextEnd;
+	    nextEnd = swap;
+
+	    return k;
+	}
 
-		    computeEstimates(nextX);
+	/**
+	 * Records the given pieces, shifted up by the given amount, as the
+	 * value of a state.
+	 */
 
-		    steps.add(new Pair< Double, Double >(nextX, estimatedValues[0]));
-		    System.err.println("> " + nextX);
-		    iterations++;
+	private void storePieces(int s, double[] slope, double[] intercept, double[] end, int count, double shift)
+	{
+	    if (pieceSlope.length < numPieces + count)
+		{
+		    int capacity = grow(pieceSlope.length, numPieces + count);
+		    pieceSlope = Arrays.copyOf(pieceSlope, capacity);
+		    pieceIntercept = Arrays.copyOf(pieceIntercept, capacity);
+		    pieceEnd = Arrays.copyOf(pieceEnd, capacity);
 		}
 
-	    System.out.println(anchor + ": " + iterations + " iterations");
+	    pieceStart[s] = numPieces;
+	    pieceCount[s] = count;
+	    for (int k = 0; k < count; k++)
+		{
+		    pieceSlope[numPieces] = slope[k];
+		    pieceIntercept[numPieces] = intercept[k] + shift;
+		    pieceEnd[numPieces] = end[k];
+		    numPieces++;
+		}
+	}
+
+	/**
+	 * Returns the value of the anchor given an estimate of it.
+	 *
+	 * @param anchorEstimate an estimate of the value of the anchor
+	 * @return the value of the anchor when blowing it is worth that
+	 */
+
+	public double evaluate(double anchorEstimate)
+	{
+	    computeEstimates(anchorEstimate);
 
 	    return estimatedValues[0];
 	}
 
+	/**
+	 * Returns the rate the value of the anchor changes with the
+	 * estimate last given to <CODE>evaluate</CODE>.
+	 *
+	 * @return the slope of the anchor's value at that estimate
+	 */
+
+	public double getSlope()
+	{
+	    return slopes[0];
+	}
+
+	/**
+	 * Returns a capacity of at least the given size that is at least
+	 * double the current one.
+	 */
+
+	private static int grow(int current, int needed)
+	{
+	    return (int)Math.max(needed, Math.min(2L * current, Integer.MAX_VALUE - 8));
+	}
+
 	public String toString()
 	{
+	    LegalMoveTable table = rules.moveTable;
 	    StringBuffer result = new StringBuffer();
 
 	    result.append("ANCHOR = " + anchor);
 	    result.append("\n\n");
 
 	    result.append("STATES\n");
-	    for (int sIndex = 0; sIndex < states.length; sIndex++)
+	    for (int s = 0; s < numStates; s++)
 		{
-		    result.append(states[sIndex]);
+		    result.append(anchor.getState(states[s]));
 		    result.append("\n");
 		}
 	    result.append("\n");
 
 	    result.append("LEGAL MOVES\n");
-	    for (int sIndex = 0; sIndex < states.length; sIndex++)
+	    for (int s = 0; s < numStates; s++)
 		{
-		    result.append(states[sIndex]);
+		    result.append(anchor.getState(states[s]));
 		    result.append("\n");
 
-		    for (int rIndex = 0; rIndex < rolls.length; rIndex++)
+		    for (int r = 0; r < numRolls; r++)
 			{
 			    result.append("\t");
-			    result.append(rolls[rIndex].getFirst());
+			    result.append(table.getRoll(r));
 			    result.append(":");
 
-			    for (int k = 0; k < legalMoves[rIndex][sIndex].size(); k++)
+			    for (int k = offsets[s * numRolls + r]; k < offsets[s * numRolls + r + 1]; k++)
 				{
 				    result.append(" ");
-				    result.append(states[legalMoves[rIndex][sIndex].get(k)]);
+				    result.append(anchor.getState(states[targets[k]]));
 				}
 			    result.append("\n");
 			}
@@ -1132,6 +2070,14 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	}
     }
 
+    /**
+     * The strongly connected component each thread refills for each
+     * anchor it solves.
+     */
+
+    private static final ThreadLocal< StronglyConnectedComponent > WORKSPACE
+	= ThreadLocal.withInitial(StronglyConnectedComponent::new);
+
     /**
      * Computes the expected number of turns left when starting at this
      * turn and following the optimal strategy.
@@ -1142,14 +2088,135 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public double computeExpectedTurns(StateValueMap values)
     {
-	return (new StronglyConnectedComponent(this, values)).solve(1.0);
+	return computeExpectedTurns(values, FixedPointSolver.DEFAULT);
 
 	/*
 	return ((Double)(computeOptimalStrategy(values).get(this))).doubleValue();
 	*/
     }
 
-    public Map computeOptimalStrategy(StateValueMap values)
+    /**
+     * Computes the expected number of turns left when starting at this
+     * turn and following the optimal strategy, using the given solver.
+     *
+     * @param values the expected values for turns left for
+     * all states that succeed this one
+     * @param solver the solver to find the value of this state with
+     */
+
+    public double computeExpectedTurns(StateValueMap values, FixedPointSolver solver)
+    {
+	return computeExpectedTurns(values, solver, SOLVER_FIXED_POINT);
+    }
+
+    /**
+     * Computes the expected number of turns left when starting at this
+     * turn and following the optimal strategy, using the given method.
+     *
+     * @param values the expected values for turns left for
+     * all states that succeed this one
+     * @param solver the solver to find the value of this state with, or
+     * to report to
+     * @param method one of the <CODE>SOLVER_</CODE> codes
+     */
+
+    public double computeExpectedTurns(StateValueMap values, FixedPointSolver solver, int method)
+    {
+	SolverMetrics metrics = solver.getMetrics();
+	long start = (metrics != null ? System.nanoTime() : 0);
+
+	StronglyConnectedComponent scc = WORKSPACE.get();
+	scc.load(this, values);
+
+	double result;
+	switch (method)
+	    {
+	    case SOLVER_FIXED_POINT:
+		result = scc.solve(solver);
+		break;
+
+	    case SOLVER_PARAMETRIC:
+		result = scc.solveParametric(solver);
+		break;
+
+	    case SOLVER_POLICY:
+		result = scc.solvePolicy(solver);
+		break;
+
+	    default:
+		throw new IllegalArgumentException("unknown solver " + method);
+	    }
+
+	// the time includes loading the SCC, which is most of the work
+	// for small SCCs
+
+	if (metrics != null)
+	    metrics.recordCost(scc.states[0], getSpacesMoved(), scc.numStates, System.nanoTime() - start);
+
+	return result;
+    }
+
+    /**
+     * Looks up the values of the states with the given indices.  The
+     * lookup is by index or by rank when the map allows it, so the
+     * states need not be made.
+     *
+     * @param values the values of states in this state's game
+     * @param indices the indices of the states to look up
+     * @param n the number of states to look up
+     * @param ranks scratch space for at least <CODE>n</CODE> ranks
+     * @param out an array to hold the values, in the order of the
+     * indices
+     */
+
+    private void lookUpValues(StateValueLookup values, long[] indices, int n, long[] ranks, double[] out)
+    {
+	// the bulk lookups take the number of states from the length
+	// of the array of keys, so that one is made to size
+
+	if (values instanceof RankedStateValueMap
+	    && (((RankedStateValueMap)values).getRanking() instanceof MirrorRanking
+		|| ((RankedStateValueMap)values).getRanking() instanceof DenseRanking))
+	    {
+		StateRanking ranking = ((RankedStateValueMap)values).getRanking();
+
+		int ranked = 0;
+		for (int s = 0; s < n; s++)
+		    {
+			ranks[s] = (ranking instanceof MirrorRanking
+				    ? ((MirrorRanking)ranking).rank(indices[s])
+				    : ((DenseRanking)ranking).rank(indices[s]));
+			if (ranks[s] >= 0)
+			    ranked++;
+		    }
+
+		long[] keys = new long[ranked];
+		int k = 0;
+		for (int s = 0; s < n; s++)
+		    if (ranks[s] >= 0)
+			keys[k++] = ranks[s];
+
+		((RankedStateValueMap)values).getStorage().getValues(keys, out);
+
+		// spread the values out from the back, so that none is
+		// overwritten before it is moved; unranked states are final
+
+		k = ranked;
+		for (int s = n - 1; s >= 0; s--)
+		    out[s] = (ranks[s] >= 0 ? out[--k] : getFinalValue());
+	    }
+	else if (values instanceof IndexedStateValueMap)
+	    ((IndexedStateValueMap)values).getValues(Arrays.copyOf(indices, n), out);
+	else
+	    {
+		GameState[] objects = new GameState[n];
+		for (int s = 0; s < n; s++)
+		    objects[s] = getState(indices[s]);
+		values.getValues(objects, out);
+	    }
+    }
+
+    public LongDoubleHashMap computeOptimalStrategy(StateValueLookup values)
     {
 	return computeOptimalStrategy(values, DEFAULT_VERBOSITY);
     }
@@ -1163,79 +2230,116 @@ public class CantStopState extends GameState implements Cloneable, Comparable
     public static final int VERBOSITY_FULL = 2;
     public static final int DEFAULT_VERBOSITY = VERBOSITY_FULL;
 
-    public Map computeOptimalStrategy(StateValueMap values, int verbosity)
+    public LongDoubleHashMap computeOptimalStrategy(StateValueLookup values, int verbosity)
     {
-	final int MAX_ITERATIONS = 30;
-	int iterations = 0;
+	return computeOptimalStrategy(values, verbosity, new LongDoubleHashMap());
+    }
 
-	double initialEstimate = 1.0;
+    /**
+     * Computes the expected number of turns left from each state
+     * reachable in a turn from this one, keyed by state index.
+     *
+     * @param values the values of states at the start of a turn
+     * @param verbosity one of the <CODE>VERBOSITY_</CODE> codes
+     * @param intermediateValues a map to hold the results; anything in
+     * it is lost
+     * @return <CODE>intermediateValues</CODE>
+     */
 
-	List< Pair< Double, Double > > steps = new ArrayList< Pair< Double, Double> >(MAX_ITERATIONS);
+    public LongDoubleHashMap computeOptimalStrategy(StateValueLookup values, int verbosity, LongDoubleHashMap intermediateValues)
+    {
+	return computeOptimalStrategy(values, verbosity, intermediateValues, FixedPointSolver.DEFAULT);
+    }
 
-	Pair< Map< CantStopState, Double >, Map< CantStopState, Pair< Boolean, Double > > > results = null;
-	Set< Double > visited = new HashSet< Double >();
+    /**
+     * Computes the expected number of turns left from each state
+     * reachable in a turn from this one, keyed by state index, using
+     * the given solver.
+     *
+     * @param values the values of states at the start of a turn
+     * @param verbosity one of the <CODE>VERBOSITY_</CODE> codes
+     * @param intermediateValues a map to hold the results; anything in
+     * it is lost
+     * @param solver the solver to find the value of this state with
+     * @return <CODE>intermediateValues</CODE>
+     */
 
-	// we keep going until we reach a fixed point (x, x) or we
-	// go through the same x twice in a row (x, y) (x, y)
+    public LongDoubleHashMap computeOptimalStrategy(final StateValueLookup values, final int verbosity,
+						    final LongDoubleHashMap intermediateValues, FixedPointSolver solver)
+    {
+	// the successors, the legal moves from each, and the values of
+	// stopping at each don't depend on the estimate, so they are found
+	// once, by index, and no states are made for them
 
-	while (steps.size() == 0
-	       || (steps.get(steps.size() - 1).getFirst().doubleValue() != steps.get(steps.size() - 1).getSecond().doubleValue()
-		   && (steps.size() < 2 || steps.get(steps.size() - 1).getFirst().doubleValue() != steps.get(steps.size() - 2).getFirst().doubleValue())
-		   && !visited.contains(steps.get(steps.size() - 1).getFirst())))
-	    {
-		if (steps.size() > 0)
-		    visited.add(steps.get(steps.size() - 1).getFirst());
+	final long start = getIndex();
+	final LegalMoveTable table = rules.moveTable;
+	final int numRolls = table.countRolls();
 
-		double nextX;
+	final long[] next = new long[countNextStates() - 1];
+	final int[] found = new int[1];
+	visitNextStates(index -> next[found[0]++] = index);
 
-		if (steps.size() == 0)
-		    nextX = initialEstimate;
-		else if (steps.size() == 1)
-		    nextX = steps.get(steps.size() - 1).getSecond();
-		else
+	// the moves from the start of the turn come after those from
+	// each successor
+
+	final int[][] moves = new int[(next.length + 1) * numRolls][];
+	final double[] pBlowingIt = new double[next.length];
+	for (int i = 0; i < next.length; i++)
+	    {
+		int used = table.countMarkers(start, next[i]);
+		for (int r = 0; r < numRolls; r++)
 		    {
-			double x1 = steps.get(steps.size() - 2).getFirst();
-			double y1 = steps.get(steps.size() - 2).getSecond();
-			double x2 = steps.get(steps.size() - 1).getFirst();
-			double y2 = steps.get(steps.size() - 1).getSecond();
-
-			double slope = (y2 - y1) / (x2 - x1);
-			double intercept = y1 - slope * x1;
-
-			if (y1 != y2 && slope != 1.0)
-			    nextX = intercept / (1 - slope);
-			else
-			    nextX = y1;
+			moves[i * numRolls + r] = table.getLegalMoves(r, start, next[i], used);
+			if (moves[i * numRolls + r].length == 0)
+			    pBlowingIt[i] += table.getRoll(r).probability();
 		    }
+	    }
+	for (int r = 0; r < numRolls; r++)
+	    moves[next.length * numRolls + r] = table.getLegalMoves(r, start, start, 0);
+
+	final double[] stopValues = new double[next.length];
+	lookUpValues(values, next, next.length, new long[next.length], stopValues);
 
-		results = computeOptimalTurnsLeft(nextX, values);
+	final boolean[] stop = new boolean[next.length];
 
-		steps.add(new Pair< Double, Double >(nextX, results.getFirst().get(this)));
+	class TurnValue implements FixedPointSolver.Function
+	{
+	    private int iterations = 0;
+
+	    public double evaluate(double estimate)
+	    {
+		computeOptimalTurnsLeft(estimate, next, moves, stopValues, stop, intermediateValues);
 
 		iterations++;
 		if (verbosity >= VERBOSITY_VALUES)
-		    System.out.println(nextX);
+		    System.out.println(estimate);
+
+		return intermediateValues.get(start, 0.0);
 	    }
+	}
+
+	// a turn costs at least one
 
-	double value = steps.get(steps.size() - 1).getSecond();
+	TurnValue turn = new TurnValue();
+	double value = solver.solve(turn, start, 1.0, 1.0, Double.POSITIVE_INFINITY);
+	int iterations = turn.iterations;
 
 	if (verbosity >= VERBOSITY_VALUES)
 	    System.out.println(this + ": " + iterations + " iterations");
 
 	// output report on stop vs. roll
 
-	Map< CantStopState, Double > intermediateValues = results.getFirst();
-	Map< CantStopState, Pair< Boolean, Double > > rollOrStop = results.getSecond();
-
 	if (verbosity >= VERBOSITY_FULL)
 	    {
-		for (Map.Entry< CantStopState, Pair< Boolean, Double > > e : rollOrStop.entrySet())
+		for (int i = 0; i < next.length; i++)
 		    {
-			if (!e.getKey().isFinal())
+			if (!rules.indexOps.isFinal(next[i]))
 			    {
-				System.out.print("ROLL_OR_STOP: " + this + ":" + e.getKey());
+				CantStopState intermediate = (CantStopState)(getState(next[i]));
+
+				System.out.print("ROLL_OR_STOP: " + this + ":" + intermediate);
 
-				if (e.getValue().getFirst())
+				if (stop[i])
 				    {
 					System.out.print(":STOP:");
 				    }
@@ -1244,11 +2348,11 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 					System.out.print(":ROLL:");
 				    }
 
-				System.out.println(spaceDifference(e.getKey())
+				System.out.println(spaceDifference(intermediate)
 						   + ":"
-						   + (value - values.getValue(e.getKey()))
+						   + (value - stopValues[i])
 						   + ":"
-						   + e.getValue().getSecond());
+						   + pBlowingIt[i]);
 			    }
 		    }
 	    }
@@ -1256,80 +2360,104 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	return intermediateValues;
     }
 
-    private Pair< Map< CantStopState, Double >, Map< CantStopState, Pair< Boolean, Double > > > computeOptimalTurnsLeft(double estimate, StateValueMap values)
+    /**
+     * Computes the expected number of turns left from each state
+     * reachable in a turn from this one, given an estimate of the
+     * value of this state.
+     *
+     * @param estimate the estimated value of this state
+     * @param next the indices of the successors of this state, in order
+     * of the number of spaces moved
+     * @param moves the codes of the legal moves from each successor on
+     * each roll, by roll within successor, followed by those from this
+     * state
+     * @param stopValues the value of ending the turn at each successor
+     * @param stop an array to hold whether it is better to end the turn
+     * at each successor than to roll again
+     * @param intermediateValues a map to hold the values found, keyed by
+     * index; anything in it is lost
+     */
+
+    private void computeOptimalTurnsLeft(double estimate, long[] next, int[][] moves, double[] stopValues, boolean[] stop, LongDoubleHashMap intermediateValues)
     {
-	List nextStates = (List)getNextStates();
+	int numRolls = rules.moveTable.countRolls();
 
-	// an array of map from rolls to legal moves; one entry for each
-	// substate (next state)
+	intermediateValues.clear();
 
-	Map[] legalMoves = makeLegalMovesMap(nextStates);
+	for (int i = next.length - 1; i >= 0; i--)
+	    {
+		// compute the value of rolling the dice from the
+		// current intermediate state, and then consider ending the
+		// turn there instead
 
-	Map initialMoves = makeLegalMoveMap(this);
+		double stateValue = computeRollValue(next[i], moves, i * numRolls, intermediateValues, estimate);
 
-	/* print states and moves for debugging
-	Iterator i = nextStates.iterator();
-	int k = 0;
-	while (i.hasNext())
-	    {
-		Object o = i.next();
-		System.out.println(o);
-		System.out.println(legalMoves[k]);
-		k++;
-	    }
-	*/
+		stop[i] = (stateValue > stopValues[i]);
+		if (stop[i])
+		    stateValue = stopValues[i];
 
-	Map< CantStopState, Double > intermediateValues = new HashMap< CantStopState, Double >();
-	Map< CantStopState, Pair< Boolean, Double > > rollOrStop = new HashMap< CantStopState, Pair< Boolean, Double > >();
+		// save the value for use by states that can reach this one
 
-	ListIterator intermediateStateIterator = nextStates.listIterator(nextStates.size());
-	int intermediateStateIndex = nextStates.size();
-	while (intermediateStateIterator.hasPrevious())
-	    {
-		CantStopState intermediateState
-		    = (CantStopState)(intermediateStateIterator.previous());
-		intermediateStateIndex--;
+		intermediateValues.put(next[i], stateValue);
+	    }
 
-		// compute the value of rolling the dice from the
-		// current intermediate state
+	// now compute the value of the start state for this turn
+
+	double startValue = 1 + computeRollValue(getIndex(), moves, next.length * numRolls, intermediateValues, estimate);
 
-		Pair< Double, Double > stats = computeRollValue(intermediateState,
-								legalMoves[intermediateStateIndex],
-								new StateValueMapAdapter(intermediateValues),
-								estimate);
+	intermediateValues.put(getIndex(), startValue);
+    }
 
-		double stateValue = stats.getFirst();
+    /**
+     * Computes the expected number of turns left from an intermediate
+     * state, given that the decision has been made to roll the dice
+     * again, the same way as <CODE>computeRollValue</CODE> does for an
+     * intermediate state given as an object.
+     *
+     * @param intermediate the index of an intermediate state
+     * @param moves the codes of legal moves on each roll
+     * @param base the position in <CODE>moves</CODE> of the codes of
+     * the legal moves from the intermediate state on the first roll
+     * @param intermediateValues the values of the states reachable in
+     * one roll from the intermediate state, keyed by index
+     * @param startValue the (possibly estimated) expected value
+     * for the state the given intermediate state started from
+     * @return the expected number of turns required to win, assuming
+     * the decision to roll again has been made
+     */
 
-		// now consider ending the turn at the intermediate state
+    private double computeRollValue(long intermediate, int[][] moves, int base, LongDoubleHashMap intermediateValues, double startValue)
+    {
+	LegalMoveTable table = rules.moveTable;
+	CantStopIndexOps ops = rules.indexOps;
 
+	double stateValue = 0.0;
 
-		double stopValue = values.getValue(intermediateState);
+	for (int r = 0; r < table.countRolls(); r++)
+	    {
+		int[] legal = moves[base + r];
+		double rollValue;
 
-		if (stateValue > stopValue)
+		if (legal.length == 0)
 		    {
-			stateValue = stopValue;
+			// if no moves for roll, go back to start state
 
-			rollOrStop.put(intermediateState, new Pair< Boolean, Double >(true, stats.getSecond()));
+			rollValue = startValue;
 		    }
 		else
 		    {
-			rollOrStop.put(intermediateState, new Pair< Boolean, Double >(false, stats.getSecond()));
-		    }
+			// minimize value over states reachable from this one
+			// given the current roll
 
-		// save the value for use by states that can reach this one
+			rollValue = Double.POSITIVE_INFINITY;
+			for (int code : legal)
+			    rollValue = Math.min(rollValue, intermediateValues.get(ops.applyMove(intermediate, code), 0.0));
+		    }
 
-		intermediateValues.put(intermediateState, new Double(stateValue));
+		stateValue += table.getRoll(r).probability() * rollValue;
 	    }
 
-	// now compute the value of the start state for this turn
-
-	double startValue = 1 + computeRollValue(this,
-						 initialMoves,
-						 new StateValueMapAdapter(intermediateValues),
-						 estimate).getFirst();
-
-	intermediateValues.put(this, new Double(startValue));
-	return new Pair< Map< CantStopState, Double >, Map< CantStopState, Pair< Boolean, Double > > >(intermediateValues, rollOrStop);
+	return stateValue;
     }
 
     /**
@@ -1390,6 +2518,11 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
 	double pBlowingIt = 0.0;
 
+	// a map keyed by index can be searched without making the
+	// state each move leads to
+
+	LongDoubleHashMap indexed = (intermediateValues instanceof LongDoubleHashMap ? (LongDoubleHashMap)intermediateValues : null);
+
 	Iterator rollMapIterator = rollMap.entrySet().iterator();
 	while (rollMapIterator.hasNext())
 	    {
@@ -1419,8 +2552,11 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 			while (moveIterator.hasNext())
 			    {
 				Multiset move = (Multiset)(moveIterator.next());
-				CantStopState moveTo = intermediate.makeMove(move);
-				double moveToValue = intermediateValues.getValue(moveTo);
+				double moveToValue;
+				if (indexed != null)
+				    moveToValue = indexed.get(intermediate.getIndexAfterMove(move), 0.0);
+				else
+				    moveToValue = intermediateValues.getValue(intermediate.makeMove(move));
 				rollValue = Math.min(rollValue, moveToValue);
 			    }
 		    }
@@ -1469,15 +2605,11 @@ public class CantStopState extends GameState implements Cloneable, Comparable
     {
 	Map result = new HashMap();
 
-	Iterator rolls = rollList.entrySet().iterator();
-	while (rolls.hasNext())
-	    {
-		Map.Entry e = (Map.Entry)(rolls.next());
-		DiceRoll roll = (DiceRoll)(e.getKey());
-		Set moves = (Set)(e.getValue());
+	LegalMoveTable table = rules.moveTable;
+	int used = table.countMarkers(this, next);
 
-		result.put(roll, getLegalMoves(next, moves));
-	    }
+	for (int r = 0; r < table.countRolls(); r++)
+	    result.put(table.getRoll(r), table.getMoveList(table.getLegalMoves(r, this, next, used)));
 
 	return result;
     }
@@ -1492,73 +2624,9 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 
     public List getLegalMoves(CantStopState next, DiceRoll roll)
     {
-	// get all moves possible with the given roll
+	LegalMoveTable table = rules.moveTable;
 
-	Set moves = (Set)(rollList.get(roll));
-
-	// determine which are legal
-
-	return getLegalMoves(next, moves);
-    }
-
-    /**
-     * Determines which of a given set of moves is legal in the
-     * current state witht the given progress.
-     *
-     * @param next a state marking progress from this state
-     * @param moves a set of possible moves, including illegal ones
-     * @return a list of legal moves
-     */
-
-    private List getLegalMoves(CantStopState next, Set moves)
-    {
-	// make a new list from moves omitting illegal ones
-
-	List legal = new LinkedList();
-	Iterator moveIterator = moves.iterator();
-	while (moveIterator.hasNext())
-	    {
-		// I want this to only include the full moves; if
-		// a given move is illegal, I will then check the
-		// submoves myself.
-
-		Multiset move = (Multiset)(moveIterator.next());
-		if (isLegalMove(next, move))
-		    legal.add(move);
-		else
-		    {
-			// get all the subsets of the current move;
-			// check if they are legal
-
-			// here I am assuming that the move is
-			// two columns, so we're going to look at the
-			// individual columns by themselves
-
-			Iterator it = move.iterator();
-
-			int firstColumn = ((Integer)(it.next())).intValue();
-			int secondColumn = ((Integer)(it.next())).intValue();
-
-			Multiset firstColumnMove = (Multiset)(move.clone());
-			firstColumnMove.removeAll();
-			firstColumnMove.addItem(firstColumn);
-
-			if (isLegalMove(next, firstColumnMove))
-			    legal.add(firstColumnMove);
-
-			if (secondColumn != firstColumn)
-			    {
-				Multiset secondColumnMove = (Multiset)(move.clone());
-				secondColumnMove.removeAll();
-				secondColumnMove.addItem(secondColumn);
-
-				if (isLegalMove(next, secondColumnMove))
-				    legal.add(secondColumnMove);
-			    }
-		    }
-	    }
-
-	return legal;
+	return table.getMoveList(table.getLegalMoves(table.getRollId(roll), this, next));
     }
 
     /**
@@ -1570,14 +2638,12 @@ public class CantStopState extends GameState implements Cloneable, Comparable
     {
 	Set nextMoves = new TreeSet();
 
-	Iterator rollIterator = rollList.entrySet().iterator();
-	while (rollIterator.hasNext())
+	LegalMoveTable table = rules.moveTable;
+	for (int r = 0; r < table.countRolls(); r++)
 	    {
-		Map.Entry e = (Map.Entry)(rollIterator.next());
-
-		Iterator legalMoveIterator = getLegalMoves(this, (Set)(e.getValue())).iterator();
-		while (legalMoveIterator.hasNext())
-		    nextMoves.add(makeMove((Multiset)(legalMoveIterator.next())));
+		int[] legal = table.getLegalMoves(r, this, this, 0);
+		for (int i = 0; i < legal.length; i++)
+		    nextMoves.add(makeMove(table.getMove(legal[i])));
 	    }
 
 	return new LinkedList(nextMoves);
@@ -1615,30 +2681,66 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	int total = 0;
 
 	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
-	    total += columnLength[c];
+	    total += rules.columnLength[c];
+
+	return total;
+    }
+
+    /**
+     * Returns the total number of spaces moved in this state, which is
+     * the layer <CODE>iterator</CODE> returns it in.
+     *
+     * @return the sum of the marker positions
+     */
+
+    public int getSpacesMoved()
+    {
+	int total = 0;
+
+	for (int c = getLowestRoll(); c <= getHighestRoll(); c++)
+	    total += getMarkerPosition(c);
 
 	return total;
     }
 
     public Iterator iterator(int spacesMoved)
     {
-	return new CantStopIterator(this, spacesMoved);
+	return new CantStopIterator(this, spacesMoved, false);
+    }
+
+    /**
+     * Returns an iterator over the states in the given layer.  If
+     * <CODE>canonicalOnly</CODE> is true then the iterator skips states
+     * that are not canonical, so it returns one state from each pair of
+     * mirror images.
+     *
+     * @param spacesMoved the total number of spaces moved in the states
+     * in the layer
+     * @param canonicalOnly true to return only canonical states
+     * @return an iterator over the states in that layer
+     */
+
+    public Iterator iterator(int spacesMoved, boolean canonicalOnly)
+    {
+	return new CantStopIterator(this, spacesMoved, canonicalOnly);
     }
 
     private static class CantStopIterator implements Iterator
     {
 	private CantStopState nextState;
 
-	private CantStopIterator(CantStopState rep, int spacesMoved)
+	private boolean canonicalOnly;
+
+	private CantStopIterator(CantStopState rep, int spacesMoved, boolean canonical)
 	{
 	    nextState = (CantStopState)(rep.clone());
+	    canonicalOnly = canonical;
 
-	    int[] bounds = new int[rep.getHighestRoll() - rep.getLowestRoll() + 1];
-	    for (int i = 0; i < bounds.length; i++)
-		bounds[i] = rep.columnLength[rep.multisetToColumnMap[i]];
-
-	    nextState.markers = new BoundedMultiset(bounds, spacesMoved);
+	    nextState.markers = new BoundedMultiset(rep.rules.markerBounds, spacesMoved);
 	    nextState.uniqueIndex = -1;
+
+	    if (canonicalOnly && !nextState.isCanonical())
+		advance();
 	}
 
 	public boolean hasNext()
@@ -1650,17 +2752,31 @@ public class CantStopState extends GameState implements Cloneable, Comparable
 	{
 	    CantStopState result = (CantStopState)(nextState.clone());
 
-	    if (nextState.markers.hasNext())
-		{
-		    nextState.markers.goNext();
-		    nextState.uniqueIndex = -1;
-		}
-	    else
-		nextState = null;
+	    advance();
 
 	    return result;
 	}
 
+	/**
+	 * Moves to the next state to return, skipping non-canonical
+	 * states if necessary.
+	 */
+
+	private void advance()
+	{
+	    do
+		{
+		    if (nextState.markers.hasNext())
+			{
+			    nextState.markers.goNext();
+			    nextState.uniqueIndex = -1;
+			}
+		    else
+			nextState = null;
+		}
+	    while (canonicalOnly && nextState != null && !nextState.isCanonical());
+	}
+
 	public void remove()
 	{
 	    throw new UnsupportedOperationException();
@@ -59,20 +59,20 @@ public class CountCantStopEdges
 				states[layer]++;
 				totalStates++;
 
-				Collection next = s.getNextStates();
-
 				// THIS IS NOT REALLY RIGHT YET!
 				// FOR EACH NEXT STATE WE NEED TO KNOW
 				// HOW MANY POSSIBLE SUCCESSOR STATES THERE
 				// ARE AND WHETHER IT CAN PUT US BACK TO THE
 				// ENTRY POINT OF THE SCC
 
-				edges[layer] += next.size();
-				totalEdges += next.size();
+				// the successors are visited by index, so
+				// none are made
+
+				final long[] next = new long[1];
+				s.visitNextStates(index -> next[0]++);
 
-				Iterator n = next.iterator();
-				while (n.hasNext())
-				    n.next();
+				edges[layer] += next[0];
+				totalEdges += next[0];
 			    }
 		    }
 
@@ -0,0 +1,184 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.bloxomo.gametheory.*;
+
+/**
+ * Ranks the non-final solitaire Can't Stop states consecutively.  The
+ * full index space includes every combination of marker positions,
+ * including positions with more completed columns than are needed to
+ * win.  Those are all final states with value zero, so there is no need
+ * to store anything for them; this ranking leaves them out and ranks
+ * them -1.
+ *
+ * The columns are taken from the highest to the lowest, as in the
+ * full index, so the ranking preserves the order of the indices.  If
+ * <CODE>W(i, u)</CODE> is the number of ways to place markers in the
+ * columns after the ith so that, with u columns already completed,
+ * the state is not final, then the rank of a state with marker
+ * position <CODE>d_i</CODE> in column i is the sum of
+ * <CODE>d_i * W(i + 1, u_i)</CODE>, where <CODE>u_i</CODE> is the
+ * number of columns before the ith that are completed.  Both ranking
+ * and unranking take time proportional to the number of columns.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class DenseRanking implements StateRanking
+{
+    /**
+     * A representative state, cloned when unranking.
+     */
+
+    private final CantStopState rep;
+
+    /**
+     * The columns, in order of significance.
+     */
+
+    private final int[] columns;
+
+    /**
+     * The length of each column, in order of significance.
+     */
+
+    private final int[] lengths;
+
+    /**
+     * The number of completed columns that makes a state final.
+     */
+
+    private final int toWin;
+
+    /**
+     * <CODE>completions[i][u]</CODE> is the number of non-final ways to
+     * fill in columns i and above given that u columns before them
+     * are completed.  The last row is for the empty set of columns.
+     */
+
+    private final long[][] completions;
+
+    /**
+     * Reads marker positions out of state indices.
+     */
+
+    private final CantStopIndexOps ops;
+
+    /**
+     * Creates the ranking for the game the given state is in.
+     *
+     * @param s a state in the game to rank
+     */
+
+    public DenseRanking(CantStopState s)
+    {
+	rep = (CantStopState)(s.clone());
+	ops = s.getIndexOps();
+	toWin = s.getColumnsToWin();
+
+	int n = s.countColumns();
+	columns = new int[n];
+	lengths = new int[n];
+	for (int i = 0; i < n; i++)
+	    {
+		columns[i] = s.getHighestRoll() - i;
+		lengths[i] = s.getColumnLength(columns[i]);
+	    }
+
+	// count completions from the least significant column up; one more
+	// than the largest useful u so that u + 1 never goes out of bounds
+
+	completions = new long[n + 1][toWin + 1];
+	for (int u = 0; u < toWin; u++)
+	    completions[n][u] = 1;
+
+	for (int i = n - 1; i >= 0; i--)
+	    for (int u = 0; u < toWin; u++)
+		completions[i][u] = lengths[i] * completions[i + 1][u] + completions[i + 1][u + 1];
+    }
+
+    /**
+     * Returns the rank of the given state.
+     *
+     * @param s a <CODE>CantStopState</CODE> in the game this ranking is for
+     * @return the rank of that state, or -1 if it is final
+     */
+
+    public long rank(GameState s)
+    {
+	return rank(s.getIndex());
+    }
+
+    /**
+     * Returns the rank of the state with the given index.
+     *
+     * @param index the index of a state in the game this ranking is for
+     * @return the rank of that state, or -1 if it is final
+     */
+
+    public long rank(long index)
+    {
+	long result = 0;
+	int completed = 0;
+
+	for (int i = 0; i < columns.length; i++)
+	    {
+		int pos = ops.getMarkerPosition(index, columns[i]);
+
+		result += pos * completions[i + 1][completed];
+
+		if (pos == lengths[i])
+		    {
+			completed++;
+			if (completed >= toWin)
+			    return -1;
+		    }
+	    }
+
+	return result;
+    }
+
+    /**
+     * Returns the state with the given rank.
+     *
+     * @param r a rank between 0 and <CODE>countRanks() - 1</CODE>
+     * @return the state with that rank
+     */
+
+    public CantStopState unrank(long r)
+    {
+	if (r < 0 || r >= countRanks())
+	    throw new IllegalArgumentException("rank " + r + " not in [0, " + countRanks() + ")");
+
+	CantStopState result = (CantStopState)(rep.clone());
+	int completed = 0;
+
+	for (int i = 0; i < columns.length; i++)
+	    {
+		long blockSize = completions[i + 1][completed];
+		long pos = r / blockSize;
+
+		if (pos >= lengths[i])
+		    {
+			pos = lengths[i];
+			completed++;
+		    }
+
+		r -= pos * blockSize;
+		result.placeMarker(columns[i], (int)pos);
+	    }
+
+	return result;
+    }
+
+    /**
+     * Returns the number of different ranks.  This is the number of
+     * non-final states.
+     *
+     * @return the number of different ranks
+     */
+
+    public long countRanks()
+    {
+	return completions[0][0];
+    }
+}
@@ -122,9 +122,8 @@ public class GymCantStop {
   }
 
   public long reset() {
-    g = new MPCantStopGame(players, sides, len, delta, toWin);
-    CantStopState singlePlayerGame = new CantStopState(sides, len, toWin);
-    bot = new RuleOfN(singlePlayerGame, 28);
+    // the game and the bot hold only the rules and the bot's
+    // parameters, so they are kept from one episode to the next
 
     start = new SimpleMPCantStopState(g);
     state = start;
@@ -0,0 +1,562 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.bloxomo.gametheory.*;
+import com.sirmapsalot.combinatorics.*;
+import java.lang.invoke.*;
+import java.util.*;
+
+/**
+ * The legal moves for every roll in every situation in a game of
+ * solitaire Can't Stop.  Whether a way of grouping a roll is legal
+ * depends only on the columns it uses: how many spaces are left in each
+ * (none, one, or more), whether each already holds a neutral marker,
+ * and how many neutral markers are in use.  Each roll therefore has a
+ * table indexed by those few facts, and each entry is the list of legal
+ * moves computed the first time that situation arises.
+ *
+ * Rolls are identified by their position in the roll list of the rules
+ * and moves by <CODE>int</CODE> codes that give the one or two columns
+ * moved in; <CODE>getMove</CODE> turns a code back into the
+ * <CODE>Multiset</CODE> that <CODE>CantStopState.makeMove</CODE>
+ * expects.  The moves for a situation are in the order
+ * <CODE>CantStopState.getLegalMoves</CODE> has always returned them:
+ * each legal grouping of the roll in order, and, in place of an illegal
+ * grouping, whichever of its columns can be moved in alone.
+ *
+ * There is one table for each set of rules.  Entries are filled in
+ * without locking; threads that race to fill the same entry compute
+ * the same moves, and entries are published so that a thread that
+ * sees one sees all of it.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class LegalMoveTable
+{
+    /**
+     * Codes for the state of a column that a move might use.
+     */
+
+    private static final int COLUMN_FULL = 0;
+    private static final int COLUMN_ONE_LEFT = 1;
+    private static final int COLUMN_ONE_LEFT_MARKED = 2;
+    private static final int COLUMN_OPEN = 3;
+    private static final int COLUMN_OPEN_MARKED = 4;
+    private static final int COLUMN_STATES = 5;
+
+    private static final VarHandle ROLL_CELLS = MethodHandles.arrayElementVarHandle(int[][][].class);
+
+    private static final VarHandle CELL = MethodHandles.arrayElementVarHandle(int[][].class);
+
+    private static final int[] NO_MOVES = new int[0];
+
+    private final CantStopRules rules;
+
+    /**
+     * The rolls, in the order of the roll list of the rules, and the
+     * position of each in that order.
+     */
+
+    private final DiceRoll[] rolls;
+
+    private final Map< DiceRoll, Integer > rollIds;
+
+    /**
+     * For each roll, the codes of the ways to group it.
+     */
+
+    private final int[][] groupings;
+
+    /**
+     * For each roll, the columns used by any way to group it.
+     */
+
+    private final int[][] columns;
+
+    /**
+     * The move for each code.
+     */
+
+    private final Multiset[] moves;
+
+    /**
+     * For each roll, the moves for each situation, or null for
+     * situations that have not arisen yet; each roll's array is itself
+     * null until that roll is first asked about.
+     */
+
+    private final int[][][] cells;
+
+    /**
+     * Builds the table for the given rules.  No moves are computed until
+     * they are asked for.
+     *
+     * @param r the rules of a game
+     */
+
+    LegalMoveTable(CantStopRules r)
+    {
+	rules = r;
+
+	int n = r.rollList.size();
+	rolls = new DiceRoll[n];
+	groupings = new int[n][];
+	columns = new int[n][];
+	cells = new int[n][][];
+	moves = new Multiset[encode(r.getHighestRoll(), r.getHighestRoll()) + 1];
+
+	Map< DiceRoll, Integer > ids = new HashMap< DiceRoll, Integer >();
+
+	int id = 0;
+	Iterator i = r.rollList.entrySet().iterator();
+	while (i.hasNext())
+	    {
+		Map.Entry e = (Map.Entry)(i.next());
+		rolls[id] = (DiceRoll)(e.getKey());
+		ids.put(rolls[id], id);
+
+		Set ways = (Set)(e.getValue());
+		groupings[id] = new int[ways.size()];
+		SortedSet< Integer > used = new TreeSet< Integer >();
+
+		int g = 0;
+		Iterator j = ways.iterator();
+		while (j.hasNext())
+		    {
+			Multiset way = (Multiset)(j.next());
+
+			Iterator k = way.iterator();
+			int first = ((Integer)(k.next())).intValue();
+			int second = (k.hasNext() ? ((Integer)(k.next())).intValue() : 0);
+
+			int code = encode(first, second);
+			groupings[id][g++] = code;
+			if (moves[code] == null)
+			    moves[code] = way;
+
+			// moving in either column alone is a possible
+			// substitute for an illegal grouping
+
+			for (int col : new int[] {first, second})
+			    if (col != 0)
+				{
+				    used.add(col);
+				    if (moves[encode(col, 0)] == null)
+					{
+					    Multiset single = (Multiset)(way.clone());
+					    single.removeAll();
+					    single.addItem(col);
+					    moves[encode(col, 0)] = single;
+					}
+				}
+		    }
+
+		columns[id] = new int[used.size()];
+		int c = 0;
+		for (int col : used)
+		    columns[id][c++] = col;
+
+		id++;
+	    }
+
+	rollIds = Collections.unmodifiableMap(ids);
+    }
+
+    /**
+     * Returns the code for a move in the given columns.
+     *
+     * @param first a column
+     * @param second another column, which may be the same, or 0 for a
+     * move in one column
+     * @return the code for that move
+     */
+
+    private static int encode(int first, int second)
+    {
+	return first | (second << 8);
+    }
+
+    /**
+     * Returns the first column moved in by the move with the given code.
+     *
+     * @param code the code of a move
+     * @return the first column that move moves in
+     */
+
+    public static int getFirstColumn(int code)
+    {
+	return code & 0xFF;
+    }
+
+    /**
+     * Returns the second column moved in by the move with the given code.
+     *
+     * @param code the code of a move
+     * @return the second column that move moves in, which is the same
+     * as the first for a move of two spaces in one column, or 0 if the
+     * move is in only one column
+     */
+
+    public static int getSecondColumn(int code)
+    {
+	return code >>> 8;
+    }
+
+    /**
+     * Returns the number of different rolls.
+     *
+     * @return the number of different rolls
+     */
+
+    public int countRolls()
+    {
+	return rolls.length;
+    }
+
+    /**
+     * Returns the roll with the given id.
+     *
+     * @param id a roll id between 0 and <CODE>countRolls() - 1</CODE>
+     * @return the roll with that id
+     */
+
+    public DiceRoll getRoll(int id)
+    {
+	return rolls[id];
+    }
+
+    /**
+     * Returns the id of the given roll.
+     *
+     * @param roll a roll of the dice in this table's game
+     * @return the id of that roll
+     */
+
+    public int getRollId(DiceRoll roll)
+    {
+	Integer id = rollIds.get(roll);
+
+	if (id == null)
+	    throw new IllegalArgumentException("no roll " + roll + " in this game");
+
+	return id.intValue();
+    }
+
+    /**
+     * Returns the move with the given code.  The move is shared and
+     * must not be modified.
+     *
+     * @param code the code of a move
+     * @return that move
+     */
+
+    public Multiset getMove(int code)
+    {
+	return moves[code];
+    }
+
+    /**
+     * Returns a list of the moves with the given codes.
+     *
+     * @param codes the codes of some moves
+     * @return a new list of those moves, in the same order
+     */
+
+    public List getMoveList(int[] codes)
+    {
+	List result = new ArrayList(codes.length);
+
+	for (int i = 0; i < codes.length; i++)
+	    result.add(moves[codes[i]]);
+
+	return result;
+    }
+
+    /**
+     * Returns the number of neutral markers in use in a turn that
+     * started at one state and has reached another.
+     *
+     * @param start the state at the start of the turn
+     * @param next the current state
+     * @return the number of columns in which the two states differ
+     */
+
+    public int countMarkers(CantStopState start, CantStopState next)
+    {
+	int used = 0;
+
+	for (int c = rules.getLowestRoll(); c <= rules.getHighestRoll(); c++)
+	    if (start.getMarkerPosition(c) != next.getMarkerPosition(c))
+		used++;
+
+	return used;
+    }
+
+    /**
+     * Returns the number of neutral markers in use in a turn that
+     * started at one state and has reached another.
+     *
+     * @param start the index of the state at the start of the turn
+     * @param next the index of the current state
+     * @return the number of columns in which the two states differ
+     */
+
+    public int countMarkers(long start, long next)
+    {
+	CantStopIndexOps ops = rules.indexOps;
+	int used = 0;
+
+	for (int c = rules.getLowestRoll(); c <= rules.getHighestRoll(); c++)
+	    if (ops.getMarkerPosition(start, c) != ops.getMarkerPosition(next, c))
+		used++;
+
+	return used;
+    }
+
+    /**
+     * Returns the codes of the legal moves for the given roll.
+     *
+     * @param rollId the id of a roll
+     * @param start the state at the start of the turn
+     * @param next the current state
+     * @return the codes of the legal moves; the array is shared and must
+     * not be modified
+     */
+
+    public int[] getLegalMoves(int rollId, CantStopState start, CantStopState next)
+    {
+	return getLegalMoves(rollId, start, next, countMarkers(start, next));
+    }
+
+    /**
+     * Returns the codes of the legal moves for the given roll when the
+     * number of markers in use is already known.
+     *
+     * @param rollId the id of a roll
+     * @param start the state at the start of the turn
+     * @param next the current state
+     * @param used <CODE>countMarkers(start, next)</CODE>
+     * @return the codes of the legal moves; the array is shared and must
+     * not be modified
+     */
+
+    public int[] getLegalMoves(int rollId, CantStopState start, CantStopState next, int used)
+    {
+	int[] cols = columns[rollId];
+	int situation = Math.min(used, CantStopState.MARKERS_PER_TURN + 1);
+
+	for (int i = 0; i < cols.length; i++)
+	    {
+		int pos = next.getMarkerPosition(cols[i]);
+		situation = situation * COLUMN_STATES + columnState(rules.columnLength[cols[i]] - pos,
+								     pos != start.getMarkerPosition(cols[i]));
+	    }
+
+	return lookup(rollId, situation);
+    }
+
+    /**
+     * Returns the codes of the legal moves for the given roll.
+     *
+     * @param rollId the id of a roll
+     * @param start the index of the state at the start of the turn
+     * @param next the index of the current state
+     * @param used <CODE>countMarkers(start, next)</CODE>
+     * @return the codes of the legal moves; the array is shared and must
+     * not be modified
+     */
+
+    public int[] getLegalMoves(int rollId, long start, long next, int used)
+    {
+	CantStopIndexOps ops = rules.indexOps;
+	int[] cols = columns[rollId];
+	int situation = Math.min(used, CantStopState.MARKERS_PER_TURN + 1);
+
+	for (int i = 0; i < cols.length; i++)
+	    {
+		int pos = ops.getMarkerPosition(next, cols[i]);
+		situation = situation * COLUMN_STATES + columnState(rules.columnLength[cols[i]] - pos,
+								     pos != ops.getMarkerPosition(start, cols[i]));
+	    }
+
+	return lookup(rollId, situation);
+    }
+
+    /**
+     * Records the state of every column in a turn that started at one
+     * state and has reached another, for use with
+     * <CODE>getLegalMoves(int, byte[], int, int)</CODE> when the legal
+     * moves from one state are wanted for many rolls.
+     *
+     * @param start the index of the state at the start of the turn
+     * @param next the index of the current state
+     * @param out an array to hold the code for the state of column
+     * <CODE>c</CODE> at <CODE>offset + c - getLowestRoll()</CODE>
+     * @param offset where in <CODE>out</CODE> to start
+     */
+
+    public void getColumnStates(long start, long next, byte[] out, int offset)
+    {
+	CantStopIndexOps ops = rules.indexOps;
+	int lowest = rules.getLowestRoll();
+
+	for (int c = lowest; c <= rules.getHighestRoll(); c++)
+	    {
+		int pos = ops.getMarkerPosition(next, c);
+		out[offset + c - lowest] = (byte)columnState(rules.columnLength[c] - pos,
+							     pos != ops.getMarkerPosition(start, c));
+	    }
+    }
+
+    /**
+     * Returns the codes of the legal moves for the given roll from a
+     * state whose column states have been recorded by
+     * <CODE>getColumnStates</CODE>.
+     *
+     * @param rollId the id of a roll
+     * @param columnStates the column states from <CODE>getColumnStates</CODE>
+     * @param offset the offset passed to <CODE>getColumnStates</CODE>
+     * @param used the number of markers in use
+     * @return the codes of the legal moves; the array is shared and must
+     * not be modified
+     */
+
+    public int[] getLegalMoves(int rollId, byte[] columnStates, int offset, int used)
+    {
+	int[] cols = columns[rollId];
+	int base = offset - rules.getLowestRoll();
+	int situation = Math.min(used, CantStopState.MARKERS_PER_TURN + 1);
+
+	for (int i = 0; i < cols.length; i++)
+	    situation = situation * COLUMN_STATES + columnStates[base + cols[i]];
+
+	return lookup(rollId, situation);
+    }
+
+    /**
+     * Returns the code for the state of a column.
+     *
+     * @param left the number of spaces left in the column
+     * @param marked true iff the column holds a neutral marker
+     * @return one of the <CODE>COLUMN_</CODE> codes
+     */
+
+    private static int columnState(int left, boolean marked)
+    {
+	if (left <= 0)
+	    return COLUMN_FULL;
+	else if (left == 1)
+	    return (marked ? COLUMN_ONE_LEFT_MARKED : COLUMN_ONE_LEFT);
+	else
+	    return (marked ? COLUMN_OPEN_MARKED : COLUMN_OPEN);
+    }
+
+    /**
+     * Returns the moves for the given roll in the given situation,
+     * computing them if this is the first time they are needed.
+     */
+
+    private int[] lookup(int rollId, int situation)
+    {
+	int[][] rollCells = (int[][])ROLL_CELLS.getAcquire(cells, rollId);
+	if (rollCells == null)
+	    {
+		int size = CantStopState.MARKERS_PER_TURN + 2;
+		for (int i = 0; i < columns[rollId].length; i++)
+		    size *= COLUMN_STATES;
+
+		int[][] fresh = new int[size][];
+		rollCells = (int[][])ROLL_CELLS.compareAndExchangeRelease(cells, rollId, (int[][])null, fresh);
+		if (rollCells == null)
+		    rollCells = fresh;
+	    }
+
+	int[] result = (int[])CELL.getAcquire(rollCells, situation);
+	if (result == null)
+	    {
+		result = compile(rollId, situation);
+		CELL.setRelease(rollCells, situation, result);
+	    }
+
+	return result;
+    }
+
+    /**
+     * Computes the legal moves for the given roll in the given situation.
+     */
+
+    private int[] compile(int rollId, int situation)
+    {
+	// unpack the state of each column the roll can use
+
+	int[] cols = columns[rollId];
+	int[] state = new int[rules.getHighestRoll() + 1];
+	for (int i = cols.length - 1; i >= 0; i--)
+	    {
+		state[cols[i]] = situation % COLUMN_STATES;
+		situation /= COLUMN_STATES;
+	    }
+	int used = situation;
+
+	int[] legal = new int[groupings[rollId].length * 2];
+	int count = 0;
+
+	for (int g = 0; g < groupings[rollId].length; g++)
+	    {
+		int code = groupings[rollId][g];
+		int first = getFirstColumn(code);
+		int second = getSecondColumn(code);
+
+		if (isLegal(state, used, first, second))
+		    legal[count++] = code;
+		else
+		    {
+			if (isLegal(state, used, first, 0))
+			    legal[count++] = encode(first, 0);
+
+			if (second != first && second != 0 && isLegal(state, used, second, 0))
+			    legal[count++] = encode(second, 0);
+		    }
+	    }
+
+	return (count == 0 ? NO_MOVES : Arrays.copyOf(legal, count));
+    }
+
+    /**
+     * Determines if moving in the given columns is legal.
+     *
+     * @param state the code for the state of each column
+     * @param used the number of markers in use
+     * @param first a column
+     * @param second another column, the same column, or 0
+     * @return true iff the move is legal
+     */
+
+    private static boolean isLegal(int[] state, int used, int first, int second)
+    {
+	if (first == second)
+	    {
+		// two spaces in one column
+
+		if (state[first] != COLUMN_OPEN && state[first] != COLUMN_OPEN_MARKED)
+		    return false;
+
+		return (used + (state[first] == COLUMN_OPEN ? 1 : 0) <= CantStopState.MARKERS_PER_TURN);
+	    }
+
+	int newMarkers = 0;
+	for (int col : new int[] {first, second})
+	    {
+		if (col == 0)
+		    continue;
+
+		if (state[col] == COLUMN_FULL)
+		    return false;
+
+		if (state[col] == COLUMN_ONE_LEFT || state[col] == COLUMN_OPEN)
+		    newMarkers++;
+	    }
+
+	return (used + newMarkers <= CantStopState.MARKERS_PER_TURN);
+    }
+}
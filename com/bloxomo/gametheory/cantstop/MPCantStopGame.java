@@ -5,6 +5,8 @@ import com.sirmapsalot.combinatorics.*;
 import java.util.*;
 import Jama.*;
 import java.io.*;
+import java.lang.invoke.*;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * A multiplayer game of Can't Stop.  The <CODE>MPCantStopGame</CODE>
@@ -118,6 +120,12 @@ public class MPCantStopGame
 
     private int[] collusionTarget;
 
+    /**
+     * Access to elements of position value arrays with memory ordering.
+     */
+
+    private static final VarHandle ARRAY_VALUES = MethodHandles.arrayElementVarHandle(double[].class);
+
     /**
      * The indices of each of the numbered columns in this game.
      * <CODE>columnIndex[c]</CODE> is the index of column number
@@ -529,6 +537,159 @@ public class MPCantStopGame
 	return new MPArrayPositionValueMap(indexer.getHighestAnchor() + 1, numPlayers);
     }
 
+    /**
+     * Returns a map suitable for recording position values for this game
+     * from several threads at once.
+     *
+     * @return a lock-free map for recording position values
+     */
+
+    public MPConcurrentPositionValueMap getConcurrentPositionValueMap()
+    {
+	return new MPConcurrentPositionValueMap(indexer.getHighestAnchor() + 1, numPlayers);
+    }
+
+    /**
+     * Returns a map suitable for recording position values for this game
+     * that stores the values in the given format.  Unrecorded values are
+     * marked with -1, so a fixed-point format must represent -1 exactly
+     * (for example, <CODE>ValueFormat.fixed16(-1.0, 1.0)</CODE>).
+     *
+     * @param fmt the encoding to store values in
+     * @return a map suitable for recording position values for this game
+     */
+
+    public MPCompactPositionValueMap getPositionValueMap(ValueFormat fmt)
+    {
+	return new MPCompactPositionValueMap(indexer.getHighestAnchor() + 1, numPlayers, fmt);
+    }
+
+    /**
+     * Records the position values of a solved component for all of the
+     * given equivalent anchors and all turns.  The values for player 0
+     * are recorded last, so with a map that publishes its values, a
+     * thread for which <CODE>hasValue(index, 0)</CODE> is true will
+     * see the values for all players.
+     *
+     * @param positionValues the map to record the values in
+     * @param equivStates a set of equivalent anchors
+     * @param values the position values, indexed by point of view and
+     * then by whose turn it is
+     */
+
+    public void recordValues(MPPositionValueMap positionValues, Set< MPCantStopState > equivStates, double[][] values)
+    {
+	long[] indices = new long[equivStates.size() * numPlayers];
+	int k = 0;
+	for (MPCantStopState equiv : equivStates)
+	    for (int pTurn = 0; pTurn < numPlayers; pTurn++)
+		indices[k++] = equiv.setTurn(pTurn).getIndex();
+
+	double[] vals = new double[indices.length];
+	for (int pointOfView = numPlayers - 1; pointOfView >= 0; pointOfView--)
+	    {
+		for (int i = 0; i < vals.length; i++)
+		    vals[i] = values[pointOfView][i % numPlayers];
+		positionValues.setValues(indices, pointOfView, vals);
+	    }
+    }
+
+    /**
+     * Returns the header for a file of position values for this game.
+     * The rules recorded are the number of players, sides, dice, dice
+     * per group, and markers, the length of the shortest column, the
+     * difference in length between adjacent columns, the number of
+     * columns needed to win, and the target of collusion for each
+     * player (-1 for none).
+     *
+     * @param fmt the encoding of the values
+     * @return a header for a value file for this game
+     */
+
+    public ValueFileHeader makeHeader(ValueFormat fmt)
+    {
+	int[] rules = new int[8 + numPlayers];
+	rules[0] = numPlayers;
+	rules[1] = numSides;
+	rules[2] = numDice;
+	rules[3] = diceGroupSize;
+	rules[4] = numMarkers;
+	rules[5] = shortestColumnLength;
+	rules[6] = columnLengthDifference;
+	rules[7] = columnsToWin;
+	for (int p = 0; p < numPlayers; p++)
+	    rules[8 + p] = collusionTarget[p];
+
+	return new ValueFileHeader(ValueFileHeader.GAME_MULTIPLAYER, rules, 0, fmt, (indexer.getHighestAnchor() + 1) * numPlayers);
+    }
+
+    /**
+     * Returns a map of position values for this game read as needed
+     * from the given compressed file.
+     *
+     * @param file a compressed file of position values
+     * @return a map that reads from that file
+     * @throws IOException if the file is for a different game
+     */
+
+    public MPCompactPositionValueMap getPositionValueMap(CompressedValueFile file) throws IOException
+    {
+	file.getHeader().checkMatches(makeHeader(ValueFormat.DOUBLE_FORMAT));
+
+	return new MPCompactPositionValueMap(indexer.getHighestAnchor() + 1, file);
+    }
+
+    /**
+     * Writes the given position values for this game to the given file
+     * in the format they are stored in.
+     *
+     * @param fname the name of the file to write
+     * @param values a map returned by <CODE>getPositionValueMap</CODE>
+     */
+
+    public void saveValues(String fname, MPPositionValueMap values) throws IOException
+    {
+	IndexedStateValueMap storage = getStorage(values);
+
+	if (storage instanceof SegmentedStateValueMap)
+	    ValueFiles.save(fname, makeHeader(((SegmentedStateValueMap)storage).getFormat()), storage);
+	else
+	    ValueFiles.save(fname, makeHeader(ValueFormat.DOUBLE_FORMAT), storage);
+    }
+
+    /**
+     * Reads position values for this game from the given file into the
+     * given map, converting them to the map's format if necessary.
+     *
+     * @param fname the name of the file to read
+     * @param values a map returned by <CODE>getPositionValueMap</CODE>
+     * @return the header of the file
+     * @throws IOException if the file is for a different game or is
+     * corrupt
+     */
+
+    public ValueFileHeader loadValues(String fname, MPPositionValueMap values) throws IOException
+    {
+	return ValueFiles.load(fname, makeHeader(ValueFormat.DOUBLE_FORMAT), getStorage(values));
+    }
+
+    /**
+     * Returns the storage of the given map.
+     *
+     * @param values a map returned by <CODE>getPositionValueMap</CODE>
+     * @return the values in that map indexed in the order they are written
+     */
+
+    private IndexedStateValueMap getStorage(MPPositionValueMap values)
+    {
+	if (values instanceof MPCompactPositionValueMap)
+	    return ((MPCompactPositionValueMap)values).getStorage();
+	else if (values instanceof MPArrayPositionValueMap)
+	    return ((MPArrayPositionValueMap)values).getStorage();
+	else
+	    throw new IllegalArgumentException("no storage for " + values.getClass().getName());
+    }
+
     /**
      * Returns the number of states in this game.
      *
@@ -597,7 +758,7 @@ public class MPCantStopGame
     
     public class MPArrayPositionValueMap implements MPPositionValueMap
     {
-	private double[][] values;
+	protected double[][] values;
 	
 	/**
 	 * Creates a position value map with a position value of zero
@@ -665,6 +826,20 @@ public class MPCantStopGame
 	    return (values[player][(int)indexer.stateToAnchor(index)] != -1.0);
 	}
 
+	public void getValues(long[] indices, int player, double[] out)
+	{
+	    double[] row = values[player];
+	    for (int i = 0; i < indices.length; i++)
+		out[i] = row[(int)(indexer.stateToAnchor(indices[i]))];
+	}
+
+	public void setValues(long[] indices, int player, double[] vals)
+	{
+	    double[] row = values[player];
+	    for (int i = 0; i < indices.length; i++)
+		row[(int)(indexer.stateToAnchor(indices[i]))] = vals[i];
+	}
+
 	public void write(DataOutputStream out) throws IOException
 	{
 	    for (int p = 0; p < values.length; p++)
@@ -678,6 +853,337 @@ public class MPCantStopGame
 		for (int a = 0; a < values[p].length; a++)
 		    values[p][a] = in.readDouble();
 	}
+
+	/**
+	 * Returns a view of the values in this map indexed in the order
+	 * they are written: all anchors for player 0, then all anchors
+	 * for player 1, and so on.
+	 *
+	 * @return a view of this map's values
+	 */
+
+	public IndexedStateValueMap getStorage()
+	{
+	    return new Storage();
+	}
+
+	/**
+	 * The values of an <CODE>MPArrayPositionValueMap</CODE> as one
+	 * array, indexed in the order they are written.  As in a
+	 * <CODE>StateValueArray</CODE>, a state stands for the position
+	 * given by its index.
+	 */
+
+	private class Storage implements IndexedStateValueMap
+	{
+	    public double getValue(long index)
+	    {
+		return values[(int)(index / values[0].length)][(int)(index % values[0].length)];
+	    }
+
+	    public void setValue(long index, double val)
+	    {
+		values[(int)(index / values[0].length)][(int)(index % values[0].length)] = val;
+	    }
+
+	    public long size()
+	    {
+		return (long)values.length * values[0].length;
+	    }
+
+	    public double getValue(GameState s)
+	    {
+		return getValue(s.getIndex());
+	    }
+
+	    public void setValue(GameState s, double val)
+	    {
+		setValue(s.getIndex(), val);
+	    }
+
+	    public boolean contains(GameState s)
+	    {
+		return (s.getIndex() >= 0 && s.getIndex() < size());
+	    }
+
+	    public void write(DataOutputStream out) throws IOException
+	    {
+		MPArrayPositionValueMap.this.write(out);
+	    }
+
+	    public void read(DataInputStream in) throws IOException
+	    {
+		MPArrayPositionValueMap.this.read(in);
+	    }
+
+	    public void flush()
+	    {
+	    }
+	}
+    }
+
+    /**
+     * A map from game states and players to position values that many
+     * threads may read and write at once without locking.  Values are
+     * written with release stores and read with acquire loads, so a
+     * thread that sees a value recorded by <CODE>recordValues</CODE>
+     * for player 0 (as <CODE>hasValue</CODE> checks) also sees the
+     * values recorded before it for the other players.  Reads and
+     * writes are counted with striped counters if asked for.
+     *
+     * @version 0.1 10/16/2026
+     */
+
+    public class MPConcurrentPositionValueMap extends MPArrayPositionValueMap
+    {
+	private final LongAdder reads = new LongAdder();
+
+	private final LongAdder writes = new LongAdder();
+
+	private boolean counting;
+
+	/**
+	 * Creates a position value map with no values recorded for any
+	 * position or player.  The map must be published to other
+	 * threads safely, for example by passing it to a thread before
+	 * starting it.
+	 *
+	 * @param numAnchors the number of anchors the new map must
+	 * record values for
+	 * @param numPlayers the number of players the new map must
+	 * record values for
+	 */
+
+	public MPConcurrentPositionValueMap(long numAnchors, int numPlayers)
+	{
+	    super(numAnchors, numPlayers);
+	}
+
+	public double getValue(long index, int player)
+	{
+	    if (counting)
+		reads.increment();
+
+	    return (double)ARRAY_VALUES.getAcquire(values[player], (int)(indexer.stateToAnchor(index)));
+	}
+
+	public void setValue(long index, int player, double value)
+	{
+	    if (counting)
+		writes.increment();
+
+	    ARRAY_VALUES.setRelease(values[player], (int)(indexer.stateToAnchor(index)), value);
+	}
+
+	public boolean hasValue(long index, int player)
+	{
+	    return (getValue(index, player) != -1.0);
+	}
+
+	public void getValues(long[] indices, int player, double[] out)
+	{
+	    if (counting)
+		reads.add(indices.length);
+
+	    double[] row = values[player];
+	    for (int i = 0; i < indices.length; i++)
+		out[i] = (double)ARRAY_VALUES.getAcquire(row, (int)(indexer.stateToAnchor(indices[i])));
+	}
+
+	public void setValues(long[] indices, int player, double[] vals)
+	{
+	    if (counting)
+		writes.add(indices.length);
+
+	    double[] row = values[player];
+	    for (int i = 0; i < indices.length; i++)
+		ARRAY_VALUES.setRelease(row, (int)(indexer.stateToAnchor(indices[i])), vals[i]);
+	}
+
+	/**
+	 * Turns counting of reads and writes on or off.  This must be
+	 * done before the map is shared with other threads.
+	 *
+	 * @param count true to count reads and writes
+	 */
+
+	public void setCounting(boolean count)
+	{
+	    counting = count;
+	}
+
+	public boolean isCounting()
+	{
+	    return counting;
+	}
+
+	public long getReads()
+	{
+	    return reads.sum();
+	}
+
+	public long getWrites()
+	{
+	    return writes.sum();
+	}
+
+	public String toString()
+	{
+	    if (counting)
+		return "[reads " + getReads() + " writes " + getWrites() + "]";
+	    else
+		return "[not counted]";
+	}
+    }
+
+    /**
+     * A map from game states and players to position values stored
+     * off the heap in a given <CODE>ValueFormat</CODE>.  Values are laid
+     * out in the same order as in an <CODE>MPArrayPositionValueMap</CODE>
+     * (all anchors for player 0, then all for player 1, and so on), so
+     * a file written by one map of <CODE>double</CODE>s can be read by
+     * the other.  The values may also be held in any indexed map in
+     * that order, such as a <CODE>CompressedValueFile</CODE>.
+     *
+     * @version 0.1 10/16/2026
+     */
+
+    public class MPCompactPositionValueMap implements MPPositionValueMap
+    {
+	private IndexedStateValueMap values;
+
+	private long numAnchors;
+
+	/**
+	 * Creates a position value map with no values recorded for any
+	 * position or player.
+	 *
+	 * @param anchors the number of anchors the new map must
+	 * record values for
+	 * @param players the number of players the new map must
+	 * record values for
+	 * @param fmt the encoding to store values in
+	 */
+
+	public MPCompactPositionValueMap(long anchors, int players, ValueFormat fmt)
+	{
+	    numAnchors = anchors;
+	    values = new OffHeapStateValueArray(anchors * players, fmt);
+
+	    for (long i = 0; i < anchors * players; i++)
+		values.setValue(i, -1.0);
+	}
+
+	/**
+	 * Creates a position value map that uses the values in the given
+	 * map.
+	 *
+	 * @param anchors the number of anchors the new map must
+	 * record values for
+	 * @param storage a map holding the values for all anchors for
+	 * player 0, then all anchors for player 1, and so on
+	 */
+
+	public MPCompactPositionValueMap(long anchors, IndexedStateValueMap storage)
+	{
+	    numAnchors = anchors;
+	    values = storage;
+	}
+
+	public double getValue(long index, int player)
+	{
+	    return values.getValue(player * numAnchors + indexer.stateToAnchor(index));
+	}
+
+	public void setValue(long index, int player, double value)
+	{
+	    values.setValue(player * numAnchors + indexer.stateToAnchor(index), value);
+	}
+
+	public boolean hasValue(long index, int player)
+	{
+	    return (getValue(index, player) != -1.0);
+	}
+
+	public void getValues(long[] indices, int player, double[] out)
+	{
+	    values.getValues(toStorage(indices, player), out);
+	}
+
+	public void setValues(long[] indices, int player, double[] vals)
+	{
+	    values.setValues(toStorage(indices, player), vals);
+	}
+
+	/**
+	 * Returns the positions in the storage of the values of the given
+	 * states for the given player.
+	 *
+	 * @param indices some state indices
+	 * @param player a player
+	 * @return the storage index of each of those states' values
+	 */
+
+	private long[] toStorage(long[] indices, int player)
+	{
+	    long[] result = new long[indices.length];
+	    for (int i = 0; i < indices.length; i++)
+		result[i] = player * numAnchors + indexer.stateToAnchor(indices[i]);
+	    return result;
+	}
+
+	/**
+	 * Writes the values in this map's format, without a header.
+	 *
+	 * @param out the stream to write to
+	 */
+
+	public void write(DataOutputStream out) throws IOException
+	{
+	    values.write(out);
+	}
+
+	/**
+	 * Reads values in this map's format, without a header.
+	 *
+	 * @param in the stream to read from
+	 */
+
+	public void read(DataInputStream in) throws IOException
+	{
+	    values.read(in);
+	}
+
+	/**
+	 * Reads values in the given format, converting them to this
+	 * map's format.
+	 *
+	 * @param in the stream to read from
+	 * @param stored the format of the values in the stream
+	 */
+
+	public void read(DataInputStream in, ValueFormat stored) throws IOException
+	{
+	    if (values instanceof SegmentedStateValueMap)
+		((SegmentedStateValueMap)values).read(in, stored);
+	    else
+		{
+		    for (long i = 0; i < values.size(); i++)
+			values.setValue(i, stored.readValue(in));
+		}
+	}
+
+	/**
+	 * Returns the values in this map indexed in the order they are
+	 * written.
+	 *
+	 * @return the storage of this map
+	 */
+
+	public IndexedStateValueMap getStorage()
+	{
+	    return values;
+	}
     }
 
     private class Component
@@ -784,23 +1290,28 @@ public class MPCantStopGame
 			    endTurnValues[p][0][player] = anchorEstimates[player][nextPlayer(p)];
 			}
 
-		    // look up value of previously computed states
+		    // look up value of previously computed states, all at once
+		    // for each player
 
+		    int[] stoppable = new int[endTurnValues[p].length];
+		    int count = 0;
 		    for (int i = 1; i < endTurnValues[p].length; i++)
 			{
 			    endTurnValues[p][i] = new double[numPlayers];
-			    for (int player = 0; player < numPlayers; player++)
-				{
-				    if (states[p][i].canStop(states[p][0]))
-					{
-					    MPCantStopState turnEnded = states[p][i].endTurn();
-					    //2 System.out.print(turnEnded);
-					    double valueOfEndingTurn = computedValues.getValue(turnEnded.getIndex(), player);
-					    //2 System.out.println(" = " + valueOfEndingTurn);
+			    if (states[p][i].canStop(states[p][0]))
+				stoppable[count++] = i;
+			}
 
-					    endTurnValues[p][i][player] = valueOfEndingTurn;
-					}
-				}
+		    long[] turnEnded = new long[count];
+		    for (int k = 0; k < count; k++)
+			turnEnded[k] = states[p][stoppable[k]].endTurn().getIndex();
+
+		    double[] valueOfEndingTurn = new double[count];
+		    for (int player = 0; player < numPlayers; player++)
+			{
+			    computedValues.getValues(turnEnded, player, valueOfEndingTurn);
+			    for (int k = 0; k < count; k++)
+				endTurnValues[p][stoppable[k]][player] = valueOfEndingTurn[k];
 			}
 		}
 	}
@@ -1046,12 +1557,6 @@ public class MPCantStopGame
 		for (int anchor = 0; anchor < numPlayers; anchor++)
 		    result[player][anchor] = soln.get(varIndex[player][anchor], 0);
 
-	    System.out.print("New estimates:");
-	    for (int player = 0; player < numPlayers; player++)
-		System.out.print(" " +  result[player][0]);
-	    System.out.println();
-
-
 	    return result;
 	}
 
@@ -1688,6 +2193,25 @@ public class MPCantStopGame
 	}
     }
 
+    /**
+     * Receives the moves available from a state, one at a time.
+     */
+
+    public interface MoveVisitor
+    {
+	/**
+	 * Receives one legal move.
+	 *
+	 * @param roll the roll
+	 * @param probability the probability of that roll
+	 * @param move a legal grouping of the dice in that roll
+	 * @param next the index of the state that results from moving
+	 * according to that grouping
+	 */
+
+	public void visit(DiceRoll roll, double probability, Grouping move, long next);
+    }
+
     /**
      * A state at the beginning of a turn in this game.  Note that states
      * between turns can be modelled by a pair (anchor, intermediate)
@@ -1866,6 +2390,34 @@ public class MPCantStopGame
 	    return new MPCantStopState(indexer.getNextState(index, move));
 	}
 
+	/**
+	 * Passes each legal move from this state to the given visitor,
+	 * assuming that this state was reached from the given
+	 * start-of-turn state.  The moves are visited roll by roll, in the
+	 * order of the game's list of rolls; a roll with no legal move is
+	 * not visited at all.  The resulting states are given by index, so
+	 * none are made.
+	 *
+	 * @param start the state at the start of the current turn
+	 * @param visitor what to do with each move
+	 */
+
+	public void visitNextStates(MPCantStopState start, MoveVisitor visitor)
+	{
+	    RollList.RollIterator ri = rolls.new RollIterator();
+
+	    while (ri.hasNext())
+		{
+		    DiceRoll roll = ri.next();
+
+		    for (Grouping move : ri.getGroupings())
+			{
+			    if (isLegalMove(start, move))
+				visitor.visit(roll, ri.getProbability(), move, indexer.getNextState(index, move));
+			}
+		}
+	}
+
 	/**
 	 * Determines the location of the given player's marker in
 	 * the given column.
@@ -1894,11 +2446,12 @@ public class MPCantStopGame
 	{
 	    double[][] x = new double[numPlayers][numPlayers];
 
+	    long[] anchors = new long[numPlayers];
+	    for (int q = 0; q < numPlayers; q++)
+		anchors[q] = setTurn(q).getIndex();
+
 	    for (int p = 0; p < numPlayers; p++)
-		for (int q = 0; q < numPlayers; q++)
-		    {
-			x[p][q] = positionValues.getValue(setTurn(q).getIndex(), p);
-		    }
+		positionValues.getValues(anchors, p, x[p]);
 	    
 	    Component c = new Component(makeComponent(), x, positionValues);
 
@@ -1919,6 +2472,27 @@ public class MPCantStopGame
 	 */
 
 	public double[][] solve(MPPositionValueMap positionValues)
+	{
+	    return solve(positionValues, null);
+	}
+
+	/**
+	 * Solves for the position values of the anchors in the same
+	 * component as this anchor, reporting the solve to the given
+	 * metrics.  The value reported is player 0's probability of
+	 * winning from this anchor, the residual is the distance between
+	 * the last two estimates, and the size is the number of states in
+	 * the component; there are no layers.
+	 *
+	 * @param positionValues a map giving the position values of anchors
+	 * reachable from this one but not in the same component
+	 * @param metrics where to report the solve, or null
+	 * @return an array <CODE>result</CODE> such that
+	 * <CODE>result[p][a]</CODE> is the probability player p wins
+	 * from the anchor where it is a's turn.
+	 */
+
+	public double[][] solve(MPPositionValueMap positionValues, SolverMetrics metrics)
 	{
 	    final int MAX_ITERATIONS = 50;
 	    final double STOPPING_DISTANCE = 1E-14;
@@ -1932,7 +2506,10 @@ public class MPCantStopGame
 			x[p][q] = 1.0 / numPlayers;
 		    }
 	    
-	    Component c = new Component(makeComponent(), x, positionValues);
+	    long start = (metrics != null ? System.nanoTime() : 0);
+
+	    long[][] comp = makeComponent();
+	    Component c = new Component(comp, x, positionValues);
 	    
 	    double[][] newEstimates = null;
 	    double[][] lastEstimates = null;
@@ -1961,7 +2538,15 @@ public class MPCantStopGame
 		}
 	    while (distance > STOPPING_DISTANCE && iterations < MAX_ITERATIONS);
 
-	    System.out.println(iterations + " iterations");
+	    if (metrics != null)
+		{
+		    int size = 0;
+		    for (long[] states : comp)
+			size += states.length;
+
+		    metrics.recordSolve(getIndex(), iterations, newEstimates[0][0], distance, distance <= STOPPING_DISTANCE);
+		    metrics.recordCost(getIndex(), -1, size, System.nanoTime() - start);
+		}
 
 	    return newEstimates;
 	}
@@ -2738,17 +3323,7 @@ public class MPCantStopGame
 			System.out.println(equivStates);
 			*/
 
-			for (MPCantStopState equiv : equivStates)
-			    {
-				for (int pointOfView = 0; pointOfView < players; pointOfView++)
-				    {
-					for (int pTurn = 0; pTurn < players; pTurn++)
-					    {
-						positionValues.setValue(equiv.setTurn(pTurn).getIndex(), pointOfView, values[pointOfView][pTurn]);
-						// positionValues.setValue(equiv.setTurn(pTurn).getIndex(), pointOfView, 0.0);
-					    }
-				    }
-			    }
+			g.recordValues(positionValues, equivStates, values);
 		    }
 		else if (!s.isLegalAnchor())
 		    {
@@ -2786,9 +3361,7 @@ public class MPCantStopGame
 
 	try
 	    {
-		DataOutputStream out = new DataOutputStream(new FileOutputStream("mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat"));
-		positionValues.write(out);
-		out.close();
+		g.saveValues("mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat", positionValues);
 	    }
 	catch (IOException e)
 	    {
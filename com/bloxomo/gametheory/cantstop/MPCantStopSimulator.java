@@ -17,6 +17,28 @@ public class MPCantStopSimulator
 
 	int numGames = 1;
 
+	// options are of the form --name=value and may appear anywhere
+
+	String valueFile = null;
+	ValueFormat precision = null;
+	List< String > collusion = new ArrayList< String >();
+
+	List< String > positional = new ArrayList< String >();
+	for (String arg : args)
+	    {
+		if (arg.startsWith("--values="))
+		    valueFile = arg.substring("--values=".length());
+		else if (arg.equals("--precision=fixed16"))
+		    precision = ValueFormat.fixed16(-1.0, 1.0);
+		else if (arg.startsWith("--precision="))
+		    precision = ValueFormat.parse(arg.substring("--precision=".length()));
+		else if (arg.startsWith("--collusion="))
+		    collusion.add(arg);
+		else
+		    positional.add(arg);
+	    }
+	args = positional.toArray(new String[positional.size()]);
+
 	try
 	    {
 		players = Integer.parseInt(args[0]);
@@ -31,18 +53,43 @@ public class MPCantStopSimulator
 	    }
 	catch (ArrayIndexOutOfBoundsException aioob)
 	    {
-		System.err.println("USAGE: java MPCantStopGame players sides shortest-column [column-diff [columns-to-win [num-games]]]");
+		System.err.println("USAGE: java MPCantStopSimulator players sides shortest-column [column-diff [columns-to-win [num-games]]] [--values=file] [--precision=double|float|fixed16[:min:max]] [--collusion=player,target]");
 		System.exit(1);
 	    }
 
 	MPCantStopGame g = new MPCantStopGame(players, sides, len, delta, toWin);
 
-	MPPositionValueMap values = g.getPositionValueMap();
+	// the value file records the collusion it was computed with
+
+	for (String arg : collusion)
+	    {
+		StringTokenizer tok = new StringTokenizer(arg, "=,");
+		tok.nextToken(); // skip "--collusion=" token
+		g.setCollusionTarget(Integer.parseInt(tok.nextToken()),
+				     Integer.parseInt(tok.nextToken()));
+	    }
+
+	if (valueFile == null)
+	    valueFile = "mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat";
+
+	MPPositionValueMap values = null;
 
 	try
 	    {
-		DataInputStream in = new DataInputStream(new FileInputStream("mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat"));
-		values.read(in);
+		if (CompressedValueFile.isCompressed(valueFile))
+		    values = g.getPositionValueMap(new CompressedValueFile(valueFile));
+		else
+		    {
+			if (precision == null)
+			    precision = ValueFiles.readHeader(valueFile).getFormat();
+
+			if (precision.equals(ValueFormat.DOUBLE_FORMAT))
+			    values = g.getPositionValueMap();
+			else
+			    values = g.getPositionValueMap(precision);
+
+			g.loadValues(valueFile, values);
+		    }
 	    }			 
 	catch (IOException e)
 	    {
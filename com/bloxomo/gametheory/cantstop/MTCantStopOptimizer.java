@@ -1,16 +1,36 @@
 package com.bloxomo.gametheory.cantstop;
 
 import java.util.*;
+import java.util.concurrent.*;
 import java.io.*;
-import com.bloxomo.synchronization.*;
 import com.bloxomo.gametheory.*;
 
 public class MTCantStopOptimizer
 {
+    /**
+     * The number of lines (of 8192 values each) to cache if the values
+     * are kept in a cached file and no size is given.
+     */
+
+    public static final int DEFAULT_CACHE_LINES = 4096;
+
     public static void main(String[] args)
     {
 	CantStopState s = null;
 	int numThreads = 1;
+	String mapFile = null;
+	String cacheFile = null;
+	int cacheLines = DEFAULT_CACHE_LINES;
+	int writeBehind = 0;
+	int scheme = CantStopState.INDEX_FULL;
+	double tolerance = 0.0;
+	double relativeTolerance = 0.0;
+	int maxIterations = FixedPointSolver.DEFAULT_MAX_ITERATIONS;
+	int method = CantStopState.SOLVER_FIXED_POINT;
+	String telemetryFile = null;
+	String checkpointDir = null;
+	boolean resume = false;
+	boolean countAccesses = false;
 
 	// parse command line arguments
 
@@ -19,160 +39,250 @@ public class MTCantStopOptimizer
 		s = new CantStopState(Integer.parseInt(args[0]),
 				      Integer.parseInt(args[1]));
 
-		if (args.length > 2)
+		if (args.length > 2 && !args[2].startsWith("--"))
 		    numThreads = Integer.parseInt(args[2]);
+
+		for (int a = 2; a < args.length; a++)
+		    {
+			if (args[a].startsWith("--map="))
+			    mapFile = args[a].substring(args[a].indexOf("=") + 1);
+			else if (args[a].startsWith("--cache="))
+			    cacheFile = args[a].substring(args[a].indexOf("=") + 1);
+			else if (args[a].startsWith("--cache-lines="))
+			    cacheLines = Integer.parseInt(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].startsWith("--write-behind="))
+			    writeBehind = Integer.parseInt(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].equals("--fold"))
+			    scheme = CantStopState.INDEX_MIRROR;
+			else if (args[a].equals("--dense"))
+			    scheme = CantStopState.INDEX_DENSE;
+			else if (args[a].startsWith("--tolerance="))
+			    tolerance = Double.parseDouble(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].startsWith("--relative-tolerance="))
+			    relativeTolerance = Double.parseDouble(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].startsWith("--max-iterations="))
+			    maxIterations = Integer.parseInt(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].startsWith("--solver="))
+			    method = CantStopState.getSolverMethod(args[a].substring(args[a].indexOf("=") + 1));
+			else if (args[a].startsWith("--telemetry="))
+			    telemetryFile = args[a].substring(args[a].indexOf("=") + 1);
+			else if (args[a].startsWith("--checkpoint="))
+			    checkpointDir = args[a].substring(args[a].indexOf("=") + 1);
+			else if (args[a].equals("--resume"))
+			    resume = true;
+			else if (args[a].equals("--count-accesses"))
+			    countAccesses = true;
+		    }
+
+		if (resume && checkpointDir == null)
+		    throw new IllegalArgumentException("--resume needs --checkpoint");
 	    }
 	catch (ArrayIndexOutOfBoundsException e)
 	    {
-		System.err.println("USAGE: java MTCantStopOptimizer dice-sides min-column-length [threads]");
+		System.err.println("USAGE: java MTCantStopOptimizer dice-sides min-column-length [threads] [--map=file | --cache=file [--cache-lines=n]] [--fold|--dense] [--tolerance=x] [--relative-tolerance=x] [--max-iterations=n] [--solver=fixed-point|parametric|policy] [--telemetry=file] [--checkpoint=dir [--resume]] [--count-accesses]");
 		System.exit(1);
 	    }
-	catch (NumberFormatException e)
+	catch (IllegalArgumentException e)
 	    {
-		System.err.println("USAGE: java MTCantStopOptimizer dice-sides min-column-length [threads]");
+		System.err.println("USAGE: java MTCantStopOptimizer dice-sides min-column-length [threads] [--map=file | --cache=file [--cache-lines=n]] [--fold|--dense] [--tolerance=x] [--relative-tolerance=x] [--max-iterations=n] [--solver=fixed-point|parametric|policy] [--telemetry=file] [--checkpoint=dir [--resume]] [--count-accesses]");
 		System.exit(1);
 	    }
 
-	// initialize empty state value map
-
-	StateValueMap values = new SynchronizedStateValueMap(s.getMap());
-
-	// make a barrier to coordinate consumers and main threads
-
-	Barrier b = new Barrier(numThreads + 1);
-
-	// start threads
-
-	MTCantStopQueue q = new MTCantStopQueue(s, values, b, numThreads);
-	q.start();
+	// initialize empty state value map; a memory-mapped file needs
+	// no lock since each state is written by only one consumer and
+	// read only after the stage that wrote it has ended; the in-memory
+	// map is lock-free and publishes values with release stores; a folded map
+	// stores one value for each state and its mirror and a dense map
+	// stores nothing for final states
 
-	// wait for consumers to finish
+	StateValueMap values = null;
+	IndexedStateValueMap storage = null;
+	StateRanking ranking = s.getRanking(scheme);
+	CachedStateValueFile cache = null;
+	ConcurrentStateValueArray concurrent = null;
+	long size = (ranking != null ? ranking.countRanks() : s.countStates());
 
-	b.cross();
-
-	try
+	if (cacheFile != null)
 	    {
-		Process ps = Runtime.getRuntime().exec("ps -aF");
-		BufferedReader psOutput = new BufferedReader(new InputStreamReader(ps.getInputStream()));
-		String line;
-		while ((line = psOutput.readLine()) != null)
+		try
 		    {
-			if (line.indexOf("MTCantStopOptimizer") != -1)
-			    System.out.println(line);
+			cache = new SegmentedLRUStateValueFile(cacheFile, size, cacheLines);
+			if (writeBehind > 0)
+			    cache.setWriteBehind(writeBehind);
+			storage = cache;
+			if (ranking != null)
+			    values = new RankedStateValueMap(ranking, cache);
+			else
+			    values = cache;
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not create " + cacheFile);
+			e.printStackTrace(System.err);
+			System.exit(1);
 		    }
 	    }
-	catch (IOException e)
+	else if (mapFile != null)
 	    {
-		e.printStackTrace(System.err);
+		try
+		    {
+			storage = new MappedStateValueFile(mapFile, size);
+			if (ranking != null)
+			    values = new RankedStateValueMap(ranking, storage);
+			else
+			    values = storage;
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not map " + mapFile);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
+	    }
+	else
+	    {
+		concurrent = new ConcurrentStateValueArray(size);
+		concurrent.setCounting(countAccesses);
+		storage = concurrent;
+		if (ranking != null)
+		    values = new RankedStateValueMap(ranking, concurrent);
+		else
+		    values = concurrent;
+	    }
+
+	// solver statistics are gathered without locking and reported
+	// at the end; the telemetry log gets a record of each solve
+
+	SolverStatistics statistics = new SolverStatistics(maxIterations);
+	SolverTelemetry telemetry = null;
+	if (telemetryFile != null)
+	    {
+		try
+		    {
+			telemetry = new SolverTelemetry(telemetryFile);
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not create " + telemetryFile);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
 	    }
 
+	FixedPointSolver solver = null;
 	try
 	    {
-		DataOutputStream out = new DataOutputStream(new FileOutputStream("cantstop_" + args[0] + "_" + args[1] + ".dat"));
-		values.write(out);
-		out.close();
+		solver = new FixedPointSolver(tolerance, relativeTolerance, maxIterations, SolverMetrics.combine(statistics, telemetry));
 	    }
-	catch (IOException e)
+	catch (IllegalArgumentException e)
 	    {
-		e.printStackTrace(System.err);
+		System.err.println(e.getMessage());
+		System.exit(1);
 	    }
-    }
 
-    private static class MTCantStopQueue extends StagedQueue
-    {
-	private CantStopState dummy;
-	private StateValueMap positionValues;
-	private static int nextID = 0;
-	private Barrier bar;
+	// each finished layer is saved while the next one is solved; a
+	// resumed run starts after the last layer saved
 
-	private MTCantStopQueue(CantStopState s, StateValueMap values, Barrier b, int n)
-	{
-	    super(n);
+	CantStopLayers chunks = new CantStopLayers(s);
+	CantStopCheckpoint checkpoint = null;
+	int from = s.getTotalSpaces();
+	if (checkpointDir != null)
+	    {
+		try
+		    {
+			checkpoint = new CantStopCheckpoint(checkpointDir, s, scheme, values, chunks);
+			if (resume)
+			    {
+				from = checkpoint.resume() - 1;
+				System.out.println("Resuming at layer " + from);
+			    }
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not resume from " + checkpointDir);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
+	    }
 
-	    dummy = s;
-	    positionValues = values;
-	    bar = b;
-	}
+	// solve each layer's chunks in a work-stealing pool; there is no
+	// producer, and each chunk starts when the chunks it depends on in
+	// the layers above are done
 
-	public Thread createProducer()
-	{
-	    return new Producer(dummy);
-	}
+	long start = System.nanoTime();
 
-	public Thread createConsumer()
-	{
-	    return new Consumer(dummy, positionValues, bar);
-	}
+	CantStopLayerSolver layers = new CantStopLayerSolver(s, values, scheme == CantStopState.INDEX_MIRROR, solver, method, chunks);
+	layers.setPrefetch(cache, ranking);
+	layers.setCheckpoint(checkpoint);
 
-	private class Producer extends Thread
-	{
-	    private CantStopState dummy;
+	ForkJoinPool pool = new ForkJoinPool(numThreads);
+	layers.solve(pool, from);
+	pool.shutdown();
 
-	    private Producer(CantStopState s)
+	if (checkpoint != null)
 	    {
-		dummy = s;
+		try
+		    {
+			checkpoint.close();
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not write checkpoint in " + checkpointDir);
+			e.printStackTrace(System.err);
+		    }
 	    }
 
-	    public void run()
+	double seconds = (System.nanoTime() - start) / 1e9;
+
+	try
 	    {
-		for (int layer = dummy.getTotalSpaces(); layer >= 0; layer--)
+		Process ps = Runtime.getRuntime().exec("ps -aF");
+		BufferedReader psOutput = new BufferedReader(new InputStreamReader(ps.getInputStream()));
+		String line;
+		while ((line = psOutput.readLine()) != null)
 		    {
-			Iterator i = dummy.iterator(layer);
-			while (i.hasNext())
-			    {
-				CantStopState state = (CantStopState)(i.next());
-				enqueue(state);
-			    }
-
-			endStage();
+			if (line.indexOf("MTCantStopOptimizer") != -1)
+			    System.out.println(line);
 		    }
-		finish();
 	    }
-	}
-
-	private class Consumer extends Thread
-	{
-	    private CantStopState dummy;
-	    private StateValueMap positionValues;
-	    private Barrier bar;
-	    private int id;
-
-	    private Consumer(CantStopState s, StateValueMap values, Barrier b)
+	catch (IOException e)
 	    {
-		dummy = s;
-		positionValues = values;
-		bar = b;
-		id = nextID++;
+		e.printStackTrace(System.err);
 	    }
 
-	    public void run()
+	values.flush();
+
+	if (telemetry != null)
 	    {
-		Object o;
-		while ((o = dequeue()) != null)
+		try
+		    {
+			telemetry.close();
+		    }
+		catch (IOException e)
 		    {
-			CantStopState state = (CantStopState)o;
-			CantStopState mirror;
-
-			if (state.isFinal())
-                            {
-                                positionValues.setValue(state, 0.0);
-                            }
-                        else if (state.hashCode() <= (mirror = state.mirror()).hashCode())
-                            {
-                                double stateValue = state.computeExpectedTurns(positionValues);
-				
-                                System.out.println(state + " " + state.hashCode());
-                                System.out.println(mirror + " " + mirror.hashCode());
-                                positionValues.setValue(state, stateValue);
-                                positionValues.setValue(mirror, stateValue);
-				System.out.println("#" + id + ": " + state + " = " + stateValue);
-				System.out.println("#" + id + ": " + mirror + " = " + stateValue);
-                            }
-
-			
+			System.err.println("Could not write " + telemetryFile);
+			e.printStackTrace(System.err);
 		    }
-		bar.cross();
 	    }
-	}
+
+	System.out.println(CantStopState.getSolverName(method) + ": " + statistics);
+	if (cache != null)
+	    System.out.println(cache);
+	if (concurrent != null && concurrent.isCounting())
+	    System.out.println(numThreads + " threads: " + concurrent + " in " + seconds + "s ("
+			       + (long)((concurrent.getReads() + concurrent.getWrites()) / seconds) + " accesses/s)");
+	else if (concurrent != null)
+	    System.out.println(numThreads + " threads: " + concurrent + " in " + seconds + "s");
+
+	try
+	    {
+		ValueFiles.save("cantstop_" + args[0] + "_" + args[1] + CantStopState.getIndexSuffix(scheme) + ".dat",
+				s.makeHeader(scheme, ValueFormat.DOUBLE_FORMAT),
+				storage);
+	    }
+	catch (IOException e)
+	    {
+		e.printStackTrace(System.err);
+	    }
     }
 }
@@ -2,6 +2,7 @@ package com.bloxomo.gametheory.cantstop;
 
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.atomic.LongAdder;
 import com.bloxomo.gametheory.*;
 import com.bloxomo.synchronization.*;
 import com.sirmapsalot.combinatorics.*;
@@ -19,6 +20,8 @@ public class MTMPCantStopOptimizer
 	int toWin = MPCantStopGame.DEFAULT_COLUMNS_TO_WIN;
 
 	int numThreads = 2;
+	String telemetryFile = null;
+	boolean countAccesses = false;
 
 	try
 	    {
@@ -53,22 +56,76 @@ public class MTMPCantStopOptimizer
 					     Integer.parseInt(tok.nextToken()));
 			
 		    }
+		else if (args[a].startsWith("--telemetry="))
+		    {
+			telemetryFile = args[a].substring(args[a].indexOf("=") + 1);
+		    }
+		else if (args[a].equals("--count-accesses"))
+		    {
+			countAccesses = true;
+		    }
 	    }
 
-	MPPositionValueMap positionValues = g.getPositionValueMap();
-	    // = new SynchronizedPositionValueMap(g.getPositionValueMap());
+	// each solve is totaled up for the end and, if asked for,
+	// recorded in a telemetry log
+
+	SolverStatistics statistics = new SolverStatistics(50);
+	SolverTelemetry telemetry = null;
+	if (telemetryFile != null)
+	    {
+		try
+		    {
+			telemetry = new SolverTelemetry(telemetryFile);
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not create " + telemetryFile);
+			e.printStackTrace(System.err);
+			System.exit(1);
+		    }
+	    }
+
+	// consumers read and write the map without locking; values are
+	// published with release stores
+
+	MPCantStopGame.MPConcurrentPositionValueMap positionValues = g.getConcurrentPositionValueMap();
+	positionValues.setCounting(countAccesses);
 
 	Barrier b = new Barrier(numThreads + 1);
 
-	StagedQueue q = new MTMPCantStopQueue(g, positionValues, b, numThreads);
+	long start = System.nanoTime();
+
+	MTMPCantStopQueue q = new MTMPCantStopQueue(g, positionValues, SolverMetrics.combine(statistics, telemetry), b, numThreads);
 	q.start();
 	b.cross();
 
+	double seconds = (System.nanoTime() - start) / 1e9;
+
+	if (telemetry != null)
+	    {
+		try
+		    {
+			telemetry.close();
+		    }
+		catch (IOException e)
+		    {
+			System.err.println("Could not write " + telemetryFile);
+			e.printStackTrace(System.err);
+		    }
+	    }
+
+	System.out.println(statistics);
+	System.out.println("anchors not solved: " + q.illegal + " illegal, " + q.otherTurn + " not player 0's turn, "
+			   + q.wins + " wins, " + q.equivalent + " equivalent to a previously computed state");
+	if (positionValues.isCounting())
+	    System.out.println(numThreads + " threads: " + positionValues + " in " + seconds + "s ("
+			       + (long)((positionValues.getReads() + positionValues.getWrites()) / seconds) + " accesses/s)");
+	else
+	    System.out.println(numThreads + " threads in " + seconds + "s");
+
 	try
 	    {
-		DataOutputStream out = new DataOutputStream(new FileOutputStream("mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat"));
-		positionValues.write(out);
-		out.close();
+		g.saveValues("mp_cant_stop_" + players + "_" + sides + "_" + len + "_" + delta + "_" + toWin + ".dat", positionValues);
 	    }
 	catch (IOException e)
 	    {
@@ -96,16 +153,27 @@ public class MTMPCantStopOptimizer
     {
 	private MPCantStopGame game;
 	private MPPositionValueMap positionValues;
+	private SolverMetrics metrics;
 	private Barrier bar;
-	private static int nextID = 0;
 
-	private MTMPCantStopQueue(MPCantStopGame g, MPPositionValueMap values, Barrier b, int n)
+	/**
+	 * The number of anchors dequeued that did not need solving, by
+	 * reason.
+	 */
+
+	private final LongAdder illegal = new LongAdder();
+	private final LongAdder otherTurn = new LongAdder();
+	private final LongAdder wins = new LongAdder();
+	private final LongAdder equivalent = new LongAdder();
+
+	private MTMPCantStopQueue(MPCantStopGame g, MPPositionValueMap values, SolverMetrics m, Barrier b, int n)
 	{
 	    super(n);
 
 	    game = g;
 	    bar = b;
 	    positionValues = values;
+	    metrics = m;
 	}
 
 	public Thread createProducer()
@@ -145,14 +213,12 @@ public class MTMPCantStopOptimizer
 	    private MPCantStopGame game;
 	    private MPPositionValueMap positionValues;
 	    private Barrier bar;
-	    private int id;
 
 	    private Consumer(MPCantStopGame g, MPPositionValueMap values, Barrier b)
 	    {
 		game = g;
 		positionValues = values;
 		bar = b;
-		id = nextID++;
 	    }
 
 	    public void run()
@@ -171,40 +237,29 @@ public class MTMPCantStopOptimizer
 			    && !positionValues.hasValue(s.getIndex(), 0)
 			    && !positionValues.hasValue(rep.getIndex(), 0))
 			    {
-				System.out.println("#" + id + ": Anchor " + s);
-
 				// solve for position values of anchors in the
 				// same SCC as s
 
-				double[][] values = s.solve(positionValues);
+				double[][] values = s.solve(positionValues, metrics);
 				
 				// now record those estimates in positionValues
 				
 				Set< MPCantStopGame.MPCantStopState > equivStates = s.getEquivalentStates();
 			
-				for (MPCantStopGame.MPCantStopState equiv : equivStates)
-				    {
-					for (int pointOfView = 0; pointOfView < game.countPlayers(); pointOfView++)
-					    {
-						for (int pTurn = 0; pTurn < game.countPlayers(); pTurn++)
-						    {
-							positionValues.setValue(equiv.setTurn(pTurn).getIndex(), pointOfView, values[pointOfView][pTurn]);
-						    }
-					    }
-				    }
+				game.recordValues(positionValues, equivStates, values);
 			    }
 			else if (!s.isLegalAnchor())
 			    {
-				System.out.println("Anchor " + s + " is illegal");
+				illegal.increment();
 			    }
 			else if (s.getTurn() != 0)
 			    {
-				System.out.println("Anchor " + s + " is not player 0's turn");
+				otherTurn.increment();
 			    }
 			else if (s.isFinal())
 			    {
-				System.out.println("Anchor " + s + " is a win for " + s.getWinner());
-				
+				wins.increment();
+
 				int winner = s.getWinner();
 
 				for (int p = 0; p < game.countPlayers(); p++)
@@ -222,12 +277,12 @@ public class MTMPCantStopOptimizer
 			    }
 			else if (positionValues.hasValue(s.getIndex(), 0))
 			    {
-				System.out.println("Anchor " + s + " is equivalent to a previously computed state");
+				equivalent.increment();
 			    }
 			else if (positionValues.hasValue(rep.getIndex(), 0))
 			    {
-				System.out.println("Anchor " + s + " is equivalent to a previously computed state");
-				
+				equivalent.increment();
+
 				for (int pointOfView = 0; pointOfView < game.countPlayers(); pointOfView++)
 				    {
 					for (int pTurn = 0; pTurn < game.countPlayers(); pTurn++)
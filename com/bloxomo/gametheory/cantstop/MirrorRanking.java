@@ -0,0 +1,188 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.bloxomo.gametheory.*;
+
+/**
+ * Ranks solitaire Can't Stop states so that a state and its mirror
+ * image have the same rank, and the ranks are consecutive.  There are
+ * roughly half as many ranks as states, so a map indexed by rank
+ * takes about half the space of one indexed by state.
+ *
+ * A state is canonical if its index is no greater than that of its
+ * mirror.  Because the place values increase from the lowest column
+ * to the highest, that is the case exactly when, in the outermost pair
+ * of columns (c, c') with different marker positions, the marker in the
+ * higher column c' is behind the marker in the lower column c.  The
+ * canonical states are ranked by considering the pairs of columns from
+ * the outside in: first come the states in which the current pair is
+ * level, ordered by that position; then the states in which it is not,
+ * ordered by the positions in that pair and then by the remaining
+ * columns in a plain mixed-radix order.  A non-canonical state is
+ * ranked as its mirror.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class MirrorRanking implements StateRanking
+{
+    /**
+     * The lowest and highest columns.
+     */
+
+    private final int lowest;
+
+    private final int highest;
+
+    /**
+     * The number of pairs of mirrored columns.
+     */
+
+    private final int numPairs;
+
+    /**
+     * The middle column, or -1 if there is an even number of columns.
+     */
+
+    private final int middle;
+
+    /**
+     * The number of positions in each column in each pair (one more
+     * than the length of the columns).
+     */
+
+    private final long[] base;
+
+    /**
+     * The number of assignments of positions to pairs k and above
+     * and to the middle column.
+     */
+
+    private final long[] assignments;
+
+    /**
+     * The number of those assignments that are canonical.
+     */
+
+    private final long[] canonical;
+
+    /**
+     * Reads marker positions out of state indices.
+     */
+
+    private final CantStopIndexOps ops;
+
+    /**
+     * Creates the ranking for the game the given state is in.
+     *
+     * @param rep a state in the game to rank
+     */
+
+    public MirrorRanking(CantStopState rep)
+    {
+	ops = rep.getIndexOps();
+	lowest = rep.getLowestRoll();
+	highest = rep.getHighestRoll();
+	numPairs = rep.countColumns() / 2;
+
+	if (rep.countColumns() % 2 != 0)
+	    middle = lowest + numPairs;
+	else
+	    middle = -1;
+
+	base = new long[numPairs];
+	for (int k = 0; k < numPairs; k++)
+	    base[k] = rep.getColumnLength(lowest + k) + 1;
+
+	assignments = new long[numPairs + 1];
+	canonical = new long[numPairs + 1];
+
+	assignments[numPairs] = (middle == -1 ? 1 : rep.getColumnLength(middle) + 1);
+	canonical[numPairs] = assignments[numPairs];
+
+	for (int k = numPairs - 1; k >= 0; k--)
+	    {
+		assignments[k] = base[k] * base[k] * assignments[k + 1];
+		canonical[k] = (base[k] * canonical[k + 1]
+				+ base[k] * (base[k] - 1) / 2 * assignments[k + 1]);
+	    }
+    }
+
+    /**
+     * Returns the rank of the given state.
+     *
+     * @param s a <CODE>CantStopState</CODE> in the game this ranking is for
+     * @return the rank of that state
+     */
+
+    public long rank(GameState s)
+    {
+	return rank(s.getIndex());
+    }
+
+    /**
+     * Returns the rank of the state with the given index.
+     *
+     * @param index the index of a state in the game this ranking is for
+     * @return the rank of that state
+     */
+
+    public long rank(long index)
+    {
+	// pairs that are level don't distinguish a state from its mirror
+
+	long result = 0;
+	int k = 0;
+	while (k < numPairs
+	       && ops.getMarkerPosition(index, lowest + k) == ops.getMarkerPosition(index, highest - k))
+	    {
+		result += ops.getMarkerPosition(index, lowest + k) * canonical[k + 1];
+		k++;
+	    }
+
+	if (k == numPairs)
+	    return result + (middle == -1 ? 0 : ops.getMarkerPosition(index, middle));
+
+	// the first unlevel pair decides whether to rank the mirror instead
+
+	int low = ops.getMarkerPosition(index, lowest + k);
+	int high = ops.getMarkerPosition(index, highest - k);
+	boolean flip = (high > low);
+	if (flip)
+	    {
+		int temp = low;
+		low = high;
+		high = temp;
+	    }
+
+	result += base[k] * canonical[k + 1];
+	result += ((long)low * (low - 1) / 2 + high) * assignments[k + 1];
+
+	// the remaining columns are unconstrained
+
+	long rest = 0;
+	for (int j = k + 1; j < numPairs; j++)
+	    {
+		int first = ops.getMarkerPosition(index, flip ? highest - j : lowest + j);
+		int second = ops.getMarkerPosition(index, flip ? lowest + j : highest - j);
+
+		rest = (rest * base[j] + first) * base[j] + second;
+	    }
+
+	if (middle != -1)
+	    rest = rest * assignments[numPairs] + ops.getMarkerPosition(index, middle);
+
+	return result + rest;
+    }
+
+    /**
+     * Returns the number of different ranks.  This is the number of
+     * canonical states.
+     *
+     * @return the number of different ranks
+     */
+
+    public long countRanks()
+    {
+	return canonical[0];
+    }
+}
@@ -13,7 +13,7 @@ public class OptimalCantStopStrategy implements CantStopStrategy
      * strategy is playing.
      */
 
-    private StateValueMap values;
+    private StateValueLookup values;
 
     /**
      * A representative state from the game this strategy is playing.
@@ -31,10 +31,11 @@ public class OptimalCantStopStrategy implements CantStopStrategy
     private CantStopState solvedState;
 
     /**
-     * The optimal strategy for a turn that begins at <CODE>solvedState</CODE>.
+     * The optimal strategy for a turn that begins at <CODE>solvedState</CODE>,
+     * keyed by state index.  The map is refilled for each new turn.
      */
 
-    private Map intermediateValues;
+    private LongDoubleHashMap intermediateValues = new LongDoubleHashMap();
 
     /**
      * Creates a strategy that follows the optimal strategy.  The position
@@ -47,14 +48,95 @@ public class OptimalCantStopStrategy implements CantStopStrategy
      */
 
     public OptimalCantStopStrategy(int sides, int shortest) throws IOException
+    {
+	this(sides, shortest, "cantstop_" + sides + "_" + shortest + ".dat", null);
+    }
+
+    /**
+     * Creates a strategy that follows the optimal strategy using position
+     * values read from the given file.  The file may be a file of
+     * <CODE>double</CODE>s written by an optimizer or a reduced-precision
+     * file written by <CODE>ValueFileConverter</CODE>.  The values are
+     * held in memory in the given format, converting them as they are
+     * read if necessary.
+     *
+     * @param sides the number of sides on the dice to play with
+     * @param shortest the length of the shortest column on the board
+     * to play on
+     * @param fname the name of the file containing the position values
+     * @param precision the format to hold the values in, or null to use
+     * the format of the file
+     */
+
+    public OptimalCantStopStrategy(int sides, int shortest, String fname, ValueFormat precision) throws IOException
+    {
+	this(sides, shortest, fname, precision, CantStopState.INDEX_FULL);
+    }
+
+    /**
+     * Creates a strategy that follows the optimal strategy using position
+     * values read from the given file, which may use any of the index
+     * schemes the optimizers write (for example, one value per pair
+     * of mirror-image states as written by the <CODE>--fold</CODE>
+     * option).  The rules and index scheme recorded in the file's
+     * header are checked before any values are read.  A compressed
+     * file is read as values are needed and the precision is ignored.
+     *
+     * @param sides the number of sides on the dice to play with
+     * @param shortest the length of the shortest column on the board
+     * to play on
+     * @param fname the name of the file containing the position values
+     * @param precision the format to hold the values in, or null to use
+     * the format of the file
+     * @param scheme the <CODE>CantStopState.INDEX_</CODE> constant for
+     * the index scheme the file uses
+     */
+
+    public OptimalCantStopStrategy(int sides, int shortest, String fname, ValueFormat precision, int scheme) throws IOException
     {
 	dummy = new CantStopState(sides, shortest);
-	values = dummy.getMap();
 
-	DataInputStream in = new DataInputStream(new FileInputStream("cantstop_" + sides + "_" + shortest + ".dat"));
+	if (CompressedValueFile.isCompressed(fname))
+	    {
+		// compressed values are decompressed as they are used
+
+		CompressedValueFile file = new CompressedValueFile(fname);
+		file.getHeader().checkMatches(dummy.makeHeader(scheme, ValueFormat.DOUBLE_FORMAT));
+
+		StateRanking ranking = dummy.getRanking(scheme);
+		if (ranking != null)
+		    values = new RankedStateValueMap(ranking, file);
+		else
+		    values = file;
+		return;
+	    }
+
+	ValueFileHeader stored = ValueFiles.readHeader(fname);
+
+	if (precision == null)
+	    precision = stored.getFormat();
+
+	StateValueMap map = dummy.getMap(scheme, precision);
+	ValueFiles.load(fname, dummy.makeHeader(scheme, precision), CantStopState.getStorage(map));
+	values = map;
+    }
+
+    /**
+     * Creates a strategy that follows the optimal strategy using the
+     * given position values, which may be found as they are needed (for
+     * example, by a <CODE>TopDownCantStopSolver</CODE>) for a game that
+     * has no value file.
+     *
+     * @param sides the number of sides on the dice to play with
+     * @param shortest the length of the shortest column on the board
+     * to play on
+     * @param vals the position values of the starts of turns
+     */
 
-	values.read(in);
-	in.close();
+    public OptimalCantStopStrategy(int sides, int shortest, StateValueLookup vals)
+    {
+	dummy = new CantStopState(sides, shortest);
+	values = vals;
     }
 
     /**
@@ -71,32 +153,32 @@ public class OptimalCantStopStrategy implements CantStopStrategy
 
     public Multiset pickPairs(CantStopState start, CantStopState progress, DiceRoll roll)
     {
-	List moves = (List)(start.makeLegalMoveMap(progress).get(roll));
+	LegalMoveTable table = start.getRules().getMoveTable();
+	int[] moves = table.getLegalMoves(table.getRollId(roll), start, progress);
 	
-	if (moves.size() > 0)
+	if (moves.length > 0)
 	    {
 		solve(start);
 
 		// check the value of each legal move, keeping track
 		// of the best
 
+		CantStopIndexOps ops = start.getIndexOps();
+		long from = progress.getIndex();
 		double bestValue = Double.POSITIVE_INFINITY;
-		Multiset bestMove = null;
+		int bestMove = -1;
 		
-		Iterator moveIt = moves.iterator();
-		while (moveIt.hasNext())
+		for (int i = 0; i < moves.length; i++)
 		    {
-			Multiset move = (Multiset)(moveIt.next());
-			CantStopState next = progress.makeMove(move);
-			double nextValue = ((Double)(intermediateValues.get(next))).doubleValue();
+			double nextValue = intermediateValues.get(ops.applyMove(from, moves[i]), 0.0);
 			if (nextValue < bestValue)
 			    {
 				bestValue = nextValue;
-				bestMove = move;
+				bestMove = moves[i];
 			    }
 		    }
 		
-		return bestMove;
+		return (bestMove == -1 ? null : table.getMove(bestMove));
 	    }
 	else
 	    {
@@ -115,7 +197,7 @@ public class OptimalCantStopStrategy implements CantStopStrategy
     {
 	if (solvedState == null || !solvedState.equals(s))
 	    {
-		intermediateValues = s.computeOptimalStrategy(values);
+		s.computeOptimalStrategy(values, CantStopState.DEFAULT_VERBOSITY, intermediateValues);
 		solvedState = s;
 	    }
     }
@@ -135,7 +217,7 @@ public class OptimalCantStopStrategy implements CantStopStrategy
     {
 	return (start.computeRollValue(progress,
 				       start.makeLegalMoveMap(progress),
-				       new StateValueMapAdapter(intermediateValues),
+				       intermediateValues,
 				       values.getValue(start)).getFirst()
 		< values.getValue(progress));
     }
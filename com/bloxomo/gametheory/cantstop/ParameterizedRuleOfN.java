@@ -117,7 +117,7 @@ public class ParameterizedRuleOfN implements CantStopStrategy
 
     public Multiset pickPairs(CantStopState start, CantStopState progress, DiceRoll roll)
     {
-	List moves = (List)(start.makeLegalMoveMap(progress).get(roll));
+	List moves = start.getLegalMoves(progress, roll);
 	
 	if (moves.size() > 0)
 	    {
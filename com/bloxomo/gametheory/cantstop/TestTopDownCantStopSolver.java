@@ -0,0 +1,76 @@
+package com.bloxomo.gametheory.cantstop;
+
+import com.bloxomo.gametheory.*;
+
+/**
+ * Checks that a <CODE>TopDownCantStopSolver</CODE> whose memo is too
+ * small to hold every anchor it solves still finishes in reasonable
+ * time and finds the same value for the start of the game as one whose
+ * memo holds them all.  The arguments are optional: the number of
+ * sides and the length of the shortest column (4 and 1 by default),
+ * the size of the small memo as a fraction of the number of anchors
+ * solved (0.9 by default), and the time allowed for the small memo, in
+ * seconds (120 by default).  Exits with status 1 if the check fails.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class TestTopDownCantStopSolver
+{
+    public static void main(String[] args) throws InterruptedException
+    {
+	int sides = (args.length > 0 ? Integer.parseInt(args[0]) : 4);
+	int shortestColumn = (args.length > 1 ? Integer.parseInt(args[1]) : 1);
+	double fraction = (args.length > 2 ? Double.parseDouble(args[2]) : 0.9);
+	long seconds = (args.length > 3 ? Long.parseLong(args[3]) : 120);
+
+	final CantStopState start = new CantStopState(sides, shortestColumn);
+
+	TopDownCantStopSolver full = new TopDownCantStopSolver(start);
+	double expected = full.getValue(start);
+	int anchors = full.size();
+
+	int max = (int)(anchors * fraction);
+	if (max < 1 || max >= anchors)
+	    {
+		System.err.println("memo of " + max + " is not smaller than the " + anchors + " anchors");
+		System.exit(1);
+	    }
+
+	final TopDownCantStopSolver small
+	    = new TopDownCantStopSolver(start, FixedPointSolver.DEFAULT, CantStopState.SOLVER_FIXED_POINT, max);
+	final double[] found = new double[] {Double.NaN};
+
+	Thread worker = new Thread(() -> found[0] = small.getValue(start));
+	worker.setDaemon(true);
+
+	long time = System.currentTimeMillis();
+	worker.start();
+	worker.join(seconds * 1000);
+	time = System.currentTimeMillis() - time;
+
+	if (worker.isAlive())
+	    {
+		System.out.println("FAIL: memo of " + max + " did not finish in " + seconds + "s after "
+				   + small.getSolves() + " solves");
+		System.exit(1);
+	    }
+
+	System.out.println(anchors + " anchors; memo of " + max + ": " + small.getSolves() + " solves, "
+			   + small.getEvictions() + " evictions, " + time + "ms");
+
+	if (small.getEvictions() == 0)
+	    {
+		System.out.println("FAIL: nothing was evicted");
+		System.exit(1);
+	    }
+
+	if (found[0] != expected)
+	    {
+		System.out.println("FAIL: expected " + expected + " but found " + found[0]);
+		System.exit(1);
+	    }
+
+	System.out.println("PASS: " + expected);
+    }
+}
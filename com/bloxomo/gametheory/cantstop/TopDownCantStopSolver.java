@@ -0,0 +1,354 @@
+package com.bloxomo.gametheory.cantstop;
+
+import java.io.*;
+import java.util.*;
+import com.bloxomo.gametheory.*;
+
+/**
+ * Finds the values of solitaire Can't Stop positions on demand, without
+ * a value file.  Asking for the value of a state solves the anchors
+ * reachable from it, depth first, and then the state itself, each with
+ * the same per-anchor strongly connected component solver the
+ * bottom-up optimizers use.  Only the anchors reachable from the states
+ * asked for are ever solved, which for a position late in the game is
+ * a small part of the whole game.
+ *
+ * Values are memoized by the index of the canonical one of each pair
+ * of mirror-image states in a primitive map that holds at most a given
+ * number of entries and drops the least recently used when it is full.
+ * The successors of each anchor are solved from the latest layer back,
+ * and the anchors being solved hold the values of the successors they
+ * have found so far, which are checked before anything is solved
+ * again; so the deepest anchors, which the most anchors share, tend to
+ * be found without solving them again.  The anchors being solved need
+ * their successors' values at once anyway, so that memory is not
+ * counted against the limit; their values are held until each is done
+ * whether or not they are memoized, so the limit does not change any
+ * value.  It does change how much work there is: with room for most of
+ * the anchors reachable, few are solved twice, but the work grows
+ * quickly as the limit falls further below that.
+ *
+ * This solver is not thread-safe.
+ *
+ * @version 0.1 10/16/2026
+ */
+
+public class TopDownCantStopSolver implements StateValueLookup
+{
+    /**
+     * The most values memoized if no limit is given.
+     */
+
+    public static final int DEFAULT_MAX_ENTRIES = 1 << 22;
+
+    private final CantStopState dummy;
+
+    private final CantStopIndexOps ops;
+
+    private final FixedPointSolver solver;
+
+    private final int method;
+
+    /**
+     * The values found so far, keyed by canonical index.
+     */
+
+    private final LongDoubleLRUMap memo;
+
+    /**
+     * The successors and their values for each depth of the search,
+     * kept so they can be refilled without allocating.
+     */
+
+    private final List< Frame > frames = new ArrayList< Frame >();
+
+    private long solves;
+
+    /**
+     * Creates a solver for the game the given state is in that uses
+     * the default fixed-point solver and memoizes up to the default
+     * number of values.
+     *
+     * @param s a state in the game to solve
+     */
+
+    public TopDownCantStopSolver(CantStopState s)
+    {
+	this(s, FixedPointSolver.DEFAULT, CantStopState.SOLVER_FIXED_POINT, DEFAULT_MAX_ENTRIES);
+    }
+
+    /**
+     * Creates a solver for the game the given state is in.
+     *
+     * @param s a state in the game to solve
+     * @param fps the solver to use for each anchor
+     * @param m the method to solve anchors with, as for
+     * <CODE>CantStopState.computeExpectedTurns</CODE>
+     * @param max the most values to memoize
+     */
+
+    public TopDownCantStopSolver(CantStopState s, FixedPointSolver fps, int m, int max)
+    {
+	if (max < 1)
+	    throw new IllegalArgumentException("memo limit " + max + " is not positive");
+
+	dummy = s;
+	ops = s.getIndexOps();
+	solver = fps;
+	method = m;
+	memo = new LongDoubleLRUMap(max);
+    }
+
+    /**
+     * Returns the expected number of turns left from the given state,
+     * solving whatever anchors reachable from it are not memoized.
+     *
+     * @param s a state in the game this solver is for
+     * @return the expected number of turns to finish from that state
+     */
+
+    public double getValue(GameState s)
+    {
+	return getValue(s.getIndex());
+    }
+
+    /**
+     * Returns the expected number of turns left from the state with the
+     * given index, solving whatever anchors reachable from it are not
+     * memoized.
+     *
+     * @param index the index of a state in the game this solver is for
+     * @return the expected number of turns to finish from that state
+     */
+
+    public double getValue(long index)
+    {
+	return solve(index, 0);
+    }
+
+    /**
+     * Returns the number of values memoized.
+     *
+     * @return the number of values memoized
+     */
+
+    public int size()
+    {
+	return memo.size();
+    }
+
+    /**
+     * Returns the number of anchors solved so far, counting those solved
+     * again after their values were dropped.
+     *
+     * @return the number of anchors solved
+     */
+
+    public long getSolves()
+    {
+	return solves;
+    }
+
+    /**
+     * Returns the number of values dropped because the memo was full.
+     *
+     * @return the number of values dropped
+     */
+
+    public long getEvictions()
+    {
+	return memo.getEvictions();
+    }
+
+    /**
+     * Finds the value of the state with the given index.
+     *
+     * @param index the index of a state
+     * @param depth how many anchors are being solved below this one
+     * @return the value of that state
+     */
+
+    private double solve(long index, int depth)
+    {
+	if (ops.isFinal(index))
+	    return 0.0;
+
+	long mirror = ops.mirror(index);
+	long key = Math.min(index, mirror);
+	double value = memo.get(key, Double.NaN);
+	if (!Double.isNaN(value))
+	    return value;
+
+	// the anchors being solved hold the values of their successors
+	// found so far, which may include this state
+
+	for (int d = depth - 1; d >= 0; d--)
+	    {
+		LongDoubleHashMap found = frames.get(d).values;
+		value = found.get(index, Double.NaN);
+		if (Double.isNaN(value))
+		    value = found.get(mirror, Double.NaN);
+		if (!Double.isNaN(value))
+		    return value;
+	    }
+
+	CantStopState state = (CantStopState)(dummy.getState(key));
+
+	// every successor is in a later layer, so this goes no deeper
+	// than the number of layers; the successors are solved before
+	// the anchor's component is loaded into the workspace, from the
+	// latest layer back so that the successors of each are likely to
+	// be among those already found
+
+	Frame frame = getFrame(depth);
+	frame.load(state);
+	for (int i = frame.count - 1; i >= 0; i--)
+	    frame.values.put(frame.next[i], solve(frame.next[i], depth + 1));
+
+	value = state.computeExpectedTurns(frame, solver, method);
+	solves++;
+
+	memo.put(key, value);
+
+	return value;
+    }
+
+    private Frame getFrame(int depth)
+    {
+	while (frames.size() <= depth)
+	    frames.add(new Frame());
+
+	return frames.get(depth);
+    }
+
+    /**
+     * The successors of one anchor being solved and the values found
+     * for them, as a map for <CODE>computeExpectedTurns</CODE> to read.
+     * States that are not successors, including the anchor, read as 0,
+     * as they do in a bottom-up solve.
+     */
+
+    private static class Frame implements IndexedStateValueMap
+    {
+	private long[] next = new long[16];
+
+	private int count;
+
+	private final LongDoubleHashMap values = new LongDoubleHashMap();
+
+	/**
+	 * Replaces the successors with those of the given anchor and
+	 * forgets their values.
+	 *
+	 * @param anchor the anchor to solve
+	 */
+
+	private void load(CantStopState anchor)
+	{
+	    // countNextStates counts the anchor too
+
+	    int n = anchor.countNextStates() - 1;
+	    if (next.length < n)
+		next = new long[Math.max(n, next.length * 2)];
+
+	    count = 0;
+	    anchor.visitNextStates(index -> next[count++] = index);
+
+	    values.clear();
+	}
+
+	public double getValue(long index)
+	{
+	    return values.get(index, 0.0);
+	}
+
+	public void setValue(long index, double val)
+	{
+	    values.put(index, val);
+	}
+
+	public long size()
+	{
+	    return values.size();
+	}
+
+	public double getValue(GameState s)
+	{
+	    return getValue(s.getIndex());
+	}
+
+	public void setValue(GameState s, double val)
+	{
+	    setValue(s.getIndex(), val);
+	}
+
+	public boolean contains(GameState s)
+	{
+	    return values.containsKey(s.getIndex());
+	}
+
+	public void write(DataOutputStream os) throws IOException
+	{
+	    values.write(os);
+	}
+
+	public void read(DataInputStream is) throws IOException
+	{
+	    values.read(is);
+	}
+
+	public void flush()
+	{
+	}
+    }
+
+    /**
+     * Prints the value of a position found top-down, and how much work
+     * it took.  The arguments are the number of sides and length of the
+     * shortest column, followed optionally by the position of the marker
+     * in each column from the lowest; columns not given are at the
+     * bottom.  <CODE>--max-entries=n</CODE> limits the memo.
+     *
+     * @param args the command-line arguments
+     */
+
+    public static void main(String[] args)
+    {
+	if (args.length < 2)
+	    {
+		System.err.println("USAGE: java TopDownCantStopSolver sides shortest-column [--max-entries=n] [position...]");
+		System.exit(1);
+	    }
+
+	int sides = Integer.parseInt(args[0]);
+	int shortestColumn = Integer.parseInt(args[1]);
+	int max = DEFAULT_MAX_ENTRIES;
+
+	CantStopState state = new CantStopState(sides, shortestColumn);
+	int column = state.getLowestRoll();
+
+	for (int a = 2; a < args.length; a++)
+	    {
+		if (args[a].startsWith("--max-entries="))
+		    max = Integer.parseInt(args[a].substring("--max-entries=".length()));
+		else if (column > state.getHighestRoll())
+		    {
+			System.err.println("too many positions");
+			System.exit(1);
+		    }
+		else
+		    state.placeMarker(column++, Integer.parseInt(args[a]));
+	    }
+
+	TopDownCantStopSolver values = new TopDownCantStopSolver(state, FixedPointSolver.DEFAULT, CantStopState.SOLVER_FIXED_POINT, max);
+
+	long start = System.currentTimeMillis();
+	double value = values.getValue(state);
+	long time = System.currentTimeMillis() - start;
+
+	System.out.println(state + " " + value);
+	System.out.println("solved " + values.getSolves() + " anchors in " + time + "ms; "
+			   + values.size() + " memoized, " + values.getEvictions() + " evictions; game has "
+			   + state.countStates() + " states");
+    }
+}